@@ -0,0 +1,640 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+
+/**
+ * Patient repository kept in a single append-only data file.
+ * Every save appends the encoded patient and every delete appends a tombstone; an
+ * in-memory directory maps each patient ID to the file offset of its latest record,
+ * so a lookup costs one positional read. Only the directory and the small name,
+ * date-of-birth and counter indexes are held in memory, never the patients themselves.
+ * Opening the file scans it once to rebuild the directory, truncating a torn tail.
+ * Superseded records and tombstones stay in the file until a compaction copies the live
+ * records into a fresh file and swaps it in. Compaction runs in the background once
+ * dead bytes outnumber live ones, throttled to a fixed copy rate so foreground reads
+ * and writes keep their disk bandwidth; writers are held off only while the records
+ * appended during the copy are carried over.
+ *
+ * Layout: [int magic][int version] then records of
+ * [int payloadLength][int crc32c(type + payload)][byte type][payload]
+ */
+public class FilePatientRepository implements PatientRepository {
+    
+    private static final Logger LOGGER = Logger.getLogger(FilePatientRepository.class.getName());
+    
+    private static final int MAGIC = 0x50524550; // "PREP"
+    private static final int FORMAT_VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 9;
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+    
+    private static final byte RECORD_SAVE = 1;
+    private static final byte RECORD_DELETE = 2;
+    
+    // Compaction starts once dead bytes exceed both this and the live bytes
+    private static final long COMPACTION_MIN_DEAD_BYTES = 1024 * 1024;
+    
+    // Copy rate limit for compaction, checked every COMPACTION_THROTTLE_BYTES
+    private static final long COMPACTION_BYTES_PER_SECOND = 32L * 1024 * 1024;
+    private static final long COMPACTION_THROTTLE_BYTES = 256 * 1024;
+    
+    /**
+     * Where the latest record for a patient lives
+     */
+    private static final class RecordLocation {
+        private final long payloadOffset;
+        private final int payloadLength;
+        private final long sequence;
+        
+        RecordLocation(long payloadOffset, int payloadLength, long sequence) {
+            this.payloadOffset = payloadOffset;
+            this.payloadLength = payloadLength;
+            this.sequence = sequence;
+        }
+    }
+    
+    private final Path dataFile;
+    private final Path compactionFile;
+    private final boolean syncOnWrite;
+    
+    // Replaced by compaction and truncated by clear; readers hold fileLock shared, both of those exclusively
+    private FileChannel channel;
+    private final ReadWriteLock fileLock = new ReentrantReadWriteLock();
+    
+    // Patient ID -> location of its latest save record
+    private final Map<String, RecordLocation> directory;
+    
+    // First-save sequence -> patient ID, so listings keep save order
+    private final ConcurrentNavigableMap<Long, String> saveOrder;
+    private long nextSequence;
+    
+    private final PatientNameIndex nameIndex;
+    private final PatientDateOfBirthIndex dateOfBirthIndex;
+    private final PatientStorageCounters counters;
+    
+    // Offset at which the next record is appended, and bytes of records still referenced
+    private long fileEnd;
+    private long liveBytes;
+    
+    // Bumped by clearAllData, so a compaction that started before a clear is discarded
+    private long clearGeneration;
+    private volatile boolean closed;
+    
+    private final ExecutorService compactor;
+    private final AtomicBoolean compacting = new AtomicBoolean(false);
+    
+    private FilePatientRepository(Path dataFile, FileChannel channel, boolean syncOnWrite) {
+        this.dataFile = dataFile;
+        this.compactionFile = dataFile.resolveSibling(dataFile.getFileName() + ".compact");
+        this.channel = channel;
+        this.syncOnWrite = syncOnWrite;
+        this.directory = new ConcurrentHashMap<>();
+        this.saveOrder = new ConcurrentSkipListMap<>();
+        this.nameIndex = new PatientNameIndex();
+        this.dateOfBirthIndex = new PatientDateOfBirthIndex();
+        this.counters = new PatientStorageCounters();
+        this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "patient-file-compactor");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+    
+    /**
+     * Open (or create) a repository file
+     * @param dataFile Path of the data file
+     * @param syncOnWrite true to fsync after every save and delete
+     * @return The opened repository
+     */
+    public static FilePatientRepository open(Path dataFile, boolean syncOnWrite) throws IOException {
+        FileChannel channel = FileChannel.open(dataFile,
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FilePatientRepository repository = new FilePatientRepository(dataFile, channel, syncOnWrite);
+        try {
+            // A compaction interrupted before its swap leaves only a partial copy behind
+            Files.deleteIfExists(repository.compactionFile);
+            repository.load();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return repository;
+    }
+    
+    /**
+     * Scan the file, rebuilding the directory and indexes from the intact records
+     */
+    private void load() throws IOException {
+        long startNanos = System.nanoTime();
+        long size = channel.size();
+        if (size == 0) {
+            writeHeader();
+            return;
+        }
+        
+        if (size < FILE_HEADER_SIZE) {
+            throw new IOException("Not a supported patient repository file: " + dataFile);
+        }
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        readFully(header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+            throw new IOException("Not a supported patient repository file: " + dataFile);
+        }
+        
+        long offset = FILE_HEADER_SIZE;
+        ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        while (offset + RECORD_HEADER_SIZE <= size) {
+            recordHeader.clear();
+            readFully(recordHeader, offset);
+            recordHeader.flip();
+            int length = recordHeader.getInt();
+            int expectedChecksum = recordHeader.getInt();
+            byte type = recordHeader.get();
+            if (length < 0 || length > MAX_RECORD_SIZE || offset + RECORD_HEADER_SIZE + length > size) {
+                break;
+            }
+            
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload, offset + RECORD_HEADER_SIZE);
+            CRC32C checksum = new CRC32C();
+            checksum.update(type);
+            checksum.update(payload.array());
+            if ((int) checksum.getValue() != expectedChecksum) {
+                break;
+            }
+            
+            payload.flip();
+            if (type == RECORD_SAVE) {
+                index(PatientRecordCodec.decode(payload), offset + RECORD_HEADER_SIZE, length);
+            } else if (type == RECORD_DELETE) {
+                unindex(new String(payload.array(), StandardCharsets.UTF_8));
+            } else {
+                break;
+            }
+            offset += RECORD_HEADER_SIZE + length;
+        }
+        
+        if (offset < size) {
+            LOGGER.warning("Truncating " + (size - offset) + " bytes of torn or corrupt data from " + dataFile);
+            channel.truncate(offset);
+        }
+        fileEnd = offset;
+        LOGGER.info(String.format("Opened %s with %d patients in %d ms",
+            dataFile, directory.size(), (System.nanoTime() - startNanos) / 1_000_000));
+    }
+    
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+        writeFully(header, 0);
+        channel.force(true);
+        fileEnd = FILE_HEADER_SIZE;
+    }
+    
+    @Override
+    public synchronized boolean savePatientData(PatientDataObject patientData) {
+        if (patientData == null || patientData.getPatientId() == null || patientData.getPatientId().trim().isEmpty()) {
+            LOGGER.warning("Cannot save patient data without a patient ID");
+            return false;
+        }
+        
+        try {
+            byte[] payload = PatientRecordCodec.encode(patientData);
+            long payloadOffset = append(RECORD_SAVE, payload);
+            index(patientData, payloadOffset, payload.length);
+            scheduleCompactionIfNeeded();
+            return true;
+        } catch (IOException e) {
+            LOGGER.severe("Error saving patient data: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    @Override
+    public Optional<PatientDataObject> findPatientById(String patientId) {
+        if (patientId == null || patientId.trim().isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(read(patientId));
+    }
+    
+    @Override
+    public List<PatientDataObject> findPatientsByName(String searchTerm) {
+        if (searchTerm == null || searchTerm.trim().isEmpty()) {
+            return new ArrayList<>();
+        }
+        return readAll(nameIndex.findPatientIds(searchTerm.toLowerCase().trim()));
+    }
+    
+    @Override
+    public List<PatientDataObject> findPatientsByDateOfBirth(LocalDate dateOfBirth) {
+        if (dateOfBirth == null) {
+            return new ArrayList<>();
+        }
+        return readAll(dateOfBirthIndex.findPatientIds(dateOfBirth));
+    }
+    
+    @Override
+    public List<PatientDataObject> findPatientsByDateOfBirthRange(LocalDate from, LocalDate to) {
+        if (from == null || to == null) {
+            return new ArrayList<>();
+        }
+        return readAll(dateOfBirthIndex.findPatientIdsBetween(from, to));
+    }
+    
+    @Override
+    public List<PatientDataObject> getAllPatients() {
+        return readAll(saveOrder.values());
+    }
+    
+    @Override
+    public int getCompletedCheckInCount() {
+        return counters.getCompletedCount();
+    }
+    
+    @Override
+    public int getPatientCountForDate(LocalDate date) {
+        return date != null ? counters.getCountForDate(date) : 0;
+    }
+    
+    @Override
+    public synchronized boolean deletePatient(String patientId) {
+        if (patientId == null || !directory.containsKey(patientId)) {
+            return false;
+        }
+        
+        try {
+            // The tombstone is all a delete writes; compaction reclaims the record later
+            append(RECORD_DELETE, patientId.getBytes(StandardCharsets.UTF_8));
+            unindex(patientId);
+            scheduleCompactionIfNeeded();
+            return true;
+        } catch (IOException e) {
+            LOGGER.severe("Error deleting patient: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    @Override
+    public synchronized void clearAllData() {
+        clearGeneration++;
+        // Exclusive, so no reader holds a location into the truncated file while new saves reuse its offsets
+        fileLock.writeLock().lock();
+        try {
+            channel.truncate(0);
+            writeHeader();
+            directory.clear();
+            saveOrder.clear();
+            nameIndex.clear();
+            dateOfBirthIndex.clear();
+            counters.clear();
+            liveBytes = 0;
+        } catch (IOException e) {
+            LOGGER.severe("Error clearing patient data: " + e.getMessage());
+        } finally {
+            fileLock.writeLock().unlock();
+        }
+    }
+    
+    @Override
+    public int getPatientCount() {
+        return directory.size();
+    }
+    
+    /**
+     * @return Size of the data file, including superseded records
+     */
+    public synchronized long getFileSize() {
+        return fileEnd;
+    }
+    
+    /**
+     * @return Bytes of superseded records and tombstones that compaction would reclaim
+     */
+    public synchronized long getDeadBytes() {
+        return fileEnd - FILE_HEADER_SIZE - liveBytes;
+    }
+    
+    /**
+     * Rewrite the file with only its live records, at the throttled copy rate.
+     * Reads and writes continue during the copy.
+     * @return true if the file was rewritten; false if another compaction was running,
+     *         the repository was cleared or closed meanwhile, or the rewrite failed
+     */
+    public boolean compact() {
+        if (!compacting.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            return rewriteLiveRecords();
+        } finally {
+            compacting.set(false);
+        }
+    }
+    
+    @Override
+    public void close() {
+        // Let a running compaction finish or give up before the channel goes away
+        closed = true;
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        synchronized (this) {
+            try {
+                channel.force(true);
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.severe("Error closing " + dataFile + ": " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Start a background compaction once dead bytes outnumber live ones. Callers hold the lock.
+     */
+    private void scheduleCompactionIfNeeded() {
+        long deadBytes = fileEnd - FILE_HEADER_SIZE - liveBytes;
+        if (deadBytes < COMPACTION_MIN_DEAD_BYTES || deadBytes <= liveBytes || closed || compacting.get()) {
+            return;
+        }
+        try {
+            compactor.execute(this::compact);
+        } catch (RejectedExecutionException e) {
+            // Closing; the next open starts from the uncompacted file
+        }
+    }
+    
+    /**
+     * Copy the live records to the compaction file without holding the lock, then carry
+     * over whatever was appended meanwhile and swap the files while holding it
+     */
+    private boolean rewriteLiveRecords() {
+        long startNanos = System.nanoTime();
+        long copyEnd;
+        long generation;
+        long sizeBefore;
+        List<String> liveIds;
+        List<RecordLocation> liveLocations;
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            copyEnd = fileEnd;
+            generation = clearGeneration;
+            sizeBefore = fileEnd;
+            liveIds = new ArrayList<>(directory.size());
+            liveLocations = new ArrayList<>(directory.size());
+            for (String patientId : saveOrder.values()) {
+                RecordLocation location = directory.get(patientId);
+                if (location != null) {
+                    liveIds.add(patientId);
+                    liveLocations.add(location);
+                }
+            }
+        }
+        
+        FileChannel target = null;
+        try {
+            target = FileChannel.open(compactionFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+            while (header.hasRemaining()) {
+                target.write(header);
+            }
+            
+            // Bulk copy, unlocked and throttled; records are copied verbatim, checksums included
+            Map<String, RecordLocation> moved = new HashMap<>(liveIds.size() * 2);
+            long targetEnd = FILE_HEADER_SIZE;
+            long copied = 0;
+            long sinceThrottle = 0;
+            for (int i = 0; i < liveIds.size(); i++) {
+                if (closed) {
+                    return false;
+                }
+                RecordLocation location = liveLocations.get(i);
+                long recordLength = RECORD_HEADER_SIZE + location.payloadLength;
+                copyRange(location.payloadOffset - RECORD_HEADER_SIZE, recordLength, target);
+                moved.put(liveIds.get(i),
+                    new RecordLocation(targetEnd + RECORD_HEADER_SIZE, location.payloadLength, location.sequence));
+                targetEnd += recordLength;
+                copied += recordLength;
+                sinceThrottle += recordLength;
+                if (sinceThrottle >= COMPACTION_THROTTLE_BYTES) {
+                    sinceThrottle = 0;
+                    throttle(copied, startNanos);
+                }
+            }
+            
+            synchronized (this) {
+                if (closed || generation != clearGeneration) {
+                    return false;
+                }
+                
+                // Carry over records appended during the copy; they keep their relative offsets
+                long tailLength = fileEnd - copyEnd;
+                copyRange(copyEnd, tailLength, target);
+                target.force(true);
+                long tailShift = targetEnd - copyEnd;
+                
+                Map<String, RecordLocation> relocated = new HashMap<>(directory.size() * 2);
+                for (Map.Entry<String, RecordLocation> entry : directory.entrySet()) {
+                    RecordLocation location = entry.getValue();
+                    RecordLocation newLocation = location.payloadOffset >= copyEnd
+                        ? new RecordLocation(location.payloadOffset + tailShift, location.payloadLength, location.sequence)
+                        : moved.get(entry.getKey());
+                    if (newLocation == null) {
+                        LOGGER.severe("Compaction of " + dataFile + " lost track of patient " + entry.getKey());
+                        return false;
+                    }
+                    relocated.put(entry.getKey(), newLocation);
+                }
+                
+                fileLock.writeLock().lock();
+                try {
+                    Files.move(compactionFile, dataFile,
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    FileChannel previous = channel;
+                    channel = target;
+                    target = null;
+                    directory.putAll(relocated);
+                    fileEnd = targetEnd + tailLength;
+                    previous.close();
+                } finally {
+                    fileLock.writeLock().unlock();
+                }
+                
+                LOGGER.info(String.format("Compacted %s from %d to %d bytes in %d ms",
+                    dataFile, sizeBefore, fileEnd, (System.nanoTime() - startNanos) / 1_000_000));
+                return true;
+            }
+        } catch (IOException e) {
+            LOGGER.severe("Error compacting " + dataFile + ": " + e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            if (target != null) {
+                try {
+                    target.close();
+                    Files.deleteIfExists(compactionFile);
+                } catch (IOException e) {
+                    LOGGER.warning("Error removing " + compactionFile + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Append a byte range of the data file to the end of the target channel
+     */
+    private void copyRange(long position, long length, FileChannel target) throws IOException {
+        long done = 0;
+        while (done < length) {
+            long transferred = channel.transferTo(position + done, length - done, target);
+            if (transferred <= 0) {
+                throw new IOException("Unexpected end of " + dataFile);
+            }
+            done += transferred;
+        }
+    }
+    
+    /**
+     * Sleep for as long as the copy is ahead of the compaction rate limit
+     */
+    private static void throttle(long bytesCopied, long startNanos) throws InterruptedException {
+        long dueNanos = bytesCopied * 1_000_000_000L / COMPACTION_BYTES_PER_SECOND;
+        long aheadMillis = (dueNanos - (System.nanoTime() - startNanos)) / 1_000_000;
+        if (aheadMillis > 0) {
+            Thread.sleep(aheadMillis);
+        }
+    }
+    
+    /**
+     * Point the directory and indexes at a newly written record. Callers hold the lock.
+     */
+    private void index(PatientDataObject patient, long payloadOffset, int payloadLength) {
+        String patientId = patient.getPatientId();
+        RecordLocation existing = directory.get(patientId);
+        long sequence = existing != null ? existing.sequence : nextSequence++;
+        directory.put(patientId, new RecordLocation(payloadOffset, payloadLength, sequence));
+        if (existing == null) {
+            saveOrder.put(sequence, patientId);
+        } else {
+            liveBytes -= RECORD_HEADER_SIZE + existing.payloadLength;
+        }
+        liveBytes += RECORD_HEADER_SIZE + payloadLength;
+        nameIndex.add(patient);
+        dateOfBirthIndex.add(patient);
+        counters.add(patient);
+    }
+    
+    private void unindex(String patientId) {
+        RecordLocation removed = directory.remove(patientId);
+        if (removed != null) {
+            saveOrder.remove(removed.sequence);
+            liveBytes -= RECORD_HEADER_SIZE + removed.payloadLength;
+        }
+        nameIndex.remove(patientId);
+        dateOfBirthIndex.remove(patientId);
+        counters.remove(patientId);
+    }
+    
+    /**
+     * Append one record at the end of the file
+     * @return Offset of the record's payload
+     */
+    private long append(byte type, byte[] payload) throws IOException {
+        CRC32C checksum = new CRC32C();
+        checksum.update(type);
+        checksum.update(payload);
+        
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+        record.putInt(payload.length).putInt((int) checksum.getValue()).put(type).put(payload).flip();
+        long recordOffset = fileEnd;
+        writeFully(record, recordOffset);
+        if (syncOnWrite) {
+            channel.force(false);
+        }
+        fileEnd = recordOffset + RECORD_HEADER_SIZE + payload.length;
+        return recordOffset + RECORD_HEADER_SIZE;
+    }
+    
+    /**
+     * Read the latest stored version of a patient, or null if there is none
+     */
+    private PatientDataObject read(String patientId) {
+        fileLock.readLock().lock();
+        try {
+            RecordLocation location = directory.get(patientId);
+            if (location == null) {
+                return null;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(location.payloadLength);
+            readFully(payload, location.payloadOffset);
+            payload.flip();
+            return PatientRecordCodec.decode(payload);
+        } catch (IOException e) {
+            LOGGER.severe("Error reading patient " + patientId + ": " + e.getMessage());
+            return null;
+        } finally {
+            fileLock.readLock().unlock();
+        }
+    }
+    
+    private List<PatientDataObject> readAll(Collection<String> patientIds) {
+        List<PatientDataObject> patients = new ArrayList<>(patientIds.size());
+        for (String patientId : patientIds) {
+            PatientDataObject patient = read(patientId);
+            if (patient != null) {
+                patients.add(patient);
+            }
+        }
+        return patients;
+    }
+    
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of " + dataFile);
+            }
+        }
+    }
+    
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}
@@ -0,0 +1,365 @@
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Patient repository backed by an embedded JDBC database, such as H2 in file mode
+ * ("jdbc:h2:~/.patient-management/patients"), running in-process with no server.
+ *
+ * Each patient is stored as its PatientRecordCodec encoding, alongside the columns
+ * that queries filter on. Every query is answered by SQL, not by Java filtering:
+ * - ID lookups use the primary key
+ * - date-of-birth and saved-date lookups use their own indexes
+ * - listings are ordered by an indexed save sequence
+ * - name substring searches go through an indexed trigram table, the same scheme as
+ *   PatientNameIndex, and LIKE then verifies the few candidates it returns
+ * Only standard SQL is used, so any embedded JDBC database with these types works.
+ * All access goes through one connection, so calls are serialized.
+ */
+public class JdbcPatientRepository implements PatientRepository {
+    
+    private static final Logger LOGGER = Logger.getLogger(JdbcPatientRepository.class.getName());
+    
+    // Key columns need a bounded type; names and records are unbounded like the fields they hold
+    private static final int MAX_PATIENT_ID_LENGTH = 128;
+    
+    private static final String[] SCHEMA = {
+        "CREATE TABLE IF NOT EXISTS patients ("
+            + "patient_id VARCHAR(" + MAX_PATIENT_ID_LENGTH + ") PRIMARY KEY, "
+            + "save_sequence BIGINT NOT NULL, "
+            + "first_name_lower CLOB, "
+            + "last_name_lower CLOB, "
+            + "date_of_birth DATE, "
+            + "saved_date DATE, "
+            + "check_in_complete BOOLEAN NOT NULL, "
+            + "record BLOB NOT NULL)",
+        "CREATE INDEX IF NOT EXISTS idx_patients_save_sequence ON patients (save_sequence)",
+        "CREATE INDEX IF NOT EXISTS idx_patients_date_of_birth ON patients (date_of_birth)",
+        "CREATE INDEX IF NOT EXISTS idx_patients_saved_date ON patients (saved_date)",
+        "CREATE TABLE IF NOT EXISTS patient_name_trigrams ("
+            + "trigram VARCHAR(3) NOT NULL, "
+            + "patient_id VARCHAR(" + MAX_PATIENT_ID_LENGTH + ") NOT NULL, "
+            + "PRIMARY KEY (trigram, patient_id))",
+        "CREATE INDEX IF NOT EXISTS idx_patient_name_trigrams_patient ON patient_name_trigrams (patient_id)"
+    };
+    
+    private static final String LIKE_ESCAPE = "!";
+    
+    private final Connection connection;
+    private long nextSequence;
+    
+    private JdbcPatientRepository(Connection connection) {
+        this.connection = connection;
+    }
+    
+    /**
+     * Connect to the database and create the schema if it does not exist yet
+     * @param jdbcUrl JDBC URL of an embedded database
+     * @return The opened repository
+     */
+    public static JdbcPatientRepository open(String jdbcUrl) throws SQLException {
+        Connection connection = DriverManager.getConnection(jdbcUrl);
+        try {
+            JdbcPatientRepository repository = new JdbcPatientRepository(connection);
+            repository.createSchema();
+            LOGGER.info("Opened patient database " + jdbcUrl + " with " + repository.getPatientCount() + " patients");
+            return repository;
+        } catch (SQLException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+    }
+    
+    private void createSchema() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String ddl : SCHEMA) {
+                statement.execute(ddl);
+            }
+            try (ResultSet rows = statement.executeQuery("SELECT MAX(save_sequence) FROM patients")) {
+                nextSequence = rows.next() ? rows.getLong(1) + 1 : 0;
+            }
+        }
+        connection.setAutoCommit(false);
+        connection.commit();
+    }
+    
+    @Override
+    public synchronized boolean savePatientData(PatientDataObject patientData) {
+        if (patientData == null || patientData.getPatientId() == null || patientData.getPatientId().trim().isEmpty()) {
+            LOGGER.warning("Cannot save patient data without a patient ID");
+            return false;
+        }
+        if (patientData.getPatientId().length() > MAX_PATIENT_ID_LENGTH) {
+            LOGGER.warning("Cannot save patient with an ID longer than " + MAX_PATIENT_ID_LENGTH + " characters");
+            return false;
+        }
+        
+        String patientId = patientData.getPatientId();
+        String firstName = lowerCaseOrNull(patientData.getFirstName());
+        String lastName = lowerCaseOrNull(patientData.getLastName());
+        try {
+            // An update keeps its original position in the listing
+            int updated;
+            try (PreparedStatement update = connection.prepareStatement(
+                    "UPDATE patients SET first_name_lower = ?, last_name_lower = ?, date_of_birth = ?, "
+                        + "saved_date = ?, check_in_complete = ?, record = ? WHERE patient_id = ?")) {
+                bindColumns(update, 1, patientData, firstName, lastName);
+                update.setString(7, patientId);
+                updated = update.executeUpdate();
+            }
+            if (updated == 0) {
+                try (PreparedStatement insert = connection.prepareStatement(
+                        "INSERT INTO patients (first_name_lower, last_name_lower, date_of_birth, saved_date, "
+                            + "check_in_complete, record, patient_id, save_sequence) VALUES (?, ?, ?, ?, ?, ?, ?, ?)")) {
+                    bindColumns(insert, 1, patientData, firstName, lastName);
+                    insert.setString(7, patientId);
+                    insert.setLong(8, nextSequence);
+                    insert.executeUpdate();
+                }
+            }
+            
+            deleteTrigrams(patientId);
+            try (PreparedStatement insertGram = connection.prepareStatement(
+                    "INSERT INTO patient_name_trigrams (trigram, patient_id) VALUES (?, ?)")) {
+                for (String gram : PatientNameIndex.gramsOf(firstName, lastName)) {
+                    insertGram.setString(1, gram);
+                    insertGram.setString(2, patientId);
+                    insertGram.addBatch();
+                }
+                insertGram.executeBatch();
+            }
+            
+            connection.commit();
+            if (updated == 0) {
+                nextSequence++;
+            }
+            return true;
+        } catch (SQLException e) {
+            rollback();
+            LOGGER.severe("Error saving patient data: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Bind the six queryable and record columns in the order used by save
+     */
+    private static void bindColumns(PreparedStatement statement, int first, PatientDataObject patient,
+                                    String firstName, String lastName) throws SQLException {
+        statement.setString(first, firstName);
+        statement.setString(first + 1, lastName);
+        statement.setDate(first + 2, patient.getDateOfBirth() != null ? Date.valueOf(patient.getDateOfBirth()) : null);
+        statement.setDate(first + 3, patient.getSavedTimestamp() != null
+            ? Date.valueOf(patient.getSavedTimestamp().toLocalDate()) : null);
+        statement.setBoolean(first + 4, patient.isCheckInComplete());
+        statement.setBytes(first + 5, PatientRecordCodec.encode(patient));
+    }
+    
+    @Override
+    public synchronized Optional<PatientDataObject> findPatientById(String patientId) {
+        if (patientId == null || patientId.trim().isEmpty()) {
+            return Optional.empty();
+        }
+        List<PatientDataObject> patients = query("SELECT record FROM patients WHERE patient_id = ?", patientId);
+        return patients.isEmpty() ? Optional.empty() : Optional.of(patients.get(0));
+    }
+    
+    @Override
+    public synchronized List<PatientDataObject> findPatientsByName(String searchTerm) {
+        if (searchTerm == null || searchTerm.trim().isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        String lowerSearchTerm = searchTerm.toLowerCase().trim();
+        String pattern = "%" + escapeLike(lowerSearchTerm) + "%";
+        String nameFilter = "(first_name_lower LIKE ? ESCAPE '" + LIKE_ESCAPE + "' "
+            + "OR last_name_lower LIKE ? ESCAPE '" + LIKE_ESCAPE + "')";
+        
+        Set<String> grams = PatientNameIndex.gramsOf(lowerSearchTerm);
+        if (grams.isEmpty()) {
+            // Too short to have a trigram
+            return query("SELECT record FROM patients WHERE " + nameFilter + " ORDER BY save_sequence",
+                pattern, pattern);
+        }
+        
+        // Candidates must have every trigram of the term; LIKE then checks they are contiguous
+        StringBuilder sql = new StringBuilder("SELECT record FROM patients WHERE patient_id IN ("
+            + "SELECT patient_id FROM patient_name_trigrams WHERE trigram IN (");
+        List<Object> parameters = new ArrayList<>();
+        for (String gram : grams) {
+            sql.append(parameters.isEmpty() ? "?" : ", ?");
+            parameters.add(gram);
+        }
+        sql.append(") GROUP BY patient_id HAVING COUNT(*) = ?) AND ").append(nameFilter)
+           .append(" ORDER BY save_sequence");
+        parameters.add(grams.size());
+        parameters.add(pattern);
+        parameters.add(pattern);
+        return query(sql.toString(), parameters.toArray());
+    }
+    
+    @Override
+    public synchronized List<PatientDataObject> findPatientsByDateOfBirth(LocalDate dateOfBirth) {
+        if (dateOfBirth == null) {
+            return new ArrayList<>();
+        }
+        return query("SELECT record FROM patients WHERE date_of_birth = ? ORDER BY save_sequence",
+            Date.valueOf(dateOfBirth));
+    }
+    
+    @Override
+    public synchronized List<PatientDataObject> findPatientsByDateOfBirthRange(LocalDate from, LocalDate to) {
+        if (from == null || to == null) {
+            return new ArrayList<>();
+        }
+        return query("SELECT record FROM patients WHERE date_of_birth BETWEEN ? AND ? "
+            + "ORDER BY date_of_birth, save_sequence", Date.valueOf(from), Date.valueOf(to));
+    }
+    
+    @Override
+    public synchronized List<PatientDataObject> getAllPatients() {
+        return query("SELECT record FROM patients ORDER BY save_sequence");
+    }
+    
+    @Override
+    public synchronized int getCompletedCheckInCount() {
+        return count("SELECT COUNT(*) FROM patients WHERE check_in_complete = TRUE");
+    }
+    
+    @Override
+    public synchronized int getPatientCountForDate(LocalDate date) {
+        if (date == null) {
+            return 0;
+        }
+        return count("SELECT COUNT(*) FROM patients WHERE saved_date = ?", Date.valueOf(date));
+    }
+    
+    @Override
+    public synchronized boolean deletePatient(String patientId) {
+        if (patientId == null) {
+            return false;
+        }
+        try {
+            deleteTrigrams(patientId);
+            int deleted;
+            try (PreparedStatement delete = connection.prepareStatement("DELETE FROM patients WHERE patient_id = ?")) {
+                delete.setString(1, patientId);
+                deleted = delete.executeUpdate();
+            }
+            connection.commit();
+            return deleted > 0;
+        } catch (SQLException e) {
+            rollback();
+            LOGGER.severe("Error deleting patient: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    @Override
+    public synchronized void clearAllData() {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DELETE FROM patient_name_trigrams");
+            statement.executeUpdate("DELETE FROM patients");
+            connection.commit();
+        } catch (SQLException e) {
+            rollback();
+            LOGGER.severe("Error clearing patient data: " + e.getMessage());
+        }
+    }
+    
+    @Override
+    public synchronized int getPatientCount() {
+        return count("SELECT COUNT(*) FROM patients");
+    }
+    
+    @Override
+    public synchronized void close() {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            LOGGER.severe("Error closing patient database: " + e.getMessage());
+        }
+    }
+    
+    private void deleteTrigrams(String patientId) throws SQLException {
+        try (PreparedStatement delete = connection.prepareStatement(
+                "DELETE FROM patient_name_trigrams WHERE patient_id = ?")) {
+            delete.setString(1, patientId);
+            delete.executeUpdate();
+        }
+    }
+    
+    /**
+     * Run a query whose single column is an encoded patient record
+     */
+    private List<PatientDataObject> query(String sql, Object... parameters) {
+        List<PatientDataObject> patients = new ArrayList<>();
+        try (PreparedStatement statement = prepare(sql, parameters);
+             ResultSet rows = statement.executeQuery()) {
+            while (rows.next()) {
+                patients.add(PatientRecordCodec.decode(ByteBuffer.wrap(rows.getBytes(1))));
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            rollback();
+            LOGGER.severe("Error querying patients: " + e.getMessage());
+            return new ArrayList<>();
+        }
+        return patients;
+    }
+    
+    private int count(String sql, Object... parameters) {
+        try (PreparedStatement statement = prepare(sql, parameters);
+             ResultSet rows = statement.executeQuery()) {
+            int count = rows.next() ? rows.getInt(1) : 0;
+            connection.commit();
+            return count;
+        } catch (SQLException e) {
+            rollback();
+            LOGGER.severe("Error counting patients: " + e.getMessage());
+            return 0;
+        }
+    }
+    
+    private PreparedStatement prepare(String sql, Object... parameters) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql);
+        try {
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+        } catch (SQLException e) {
+            statement.close();
+            throw e;
+        }
+        return statement;
+    }
+    
+    private void rollback() {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            LOGGER.severe("Error rolling back: " + e.getMessage());
+        }
+    }
+    
+    private static String escapeLike(String term) {
+        return term.replace(LIKE_ESCAPE, LIKE_ESCAPE + LIKE_ESCAPE)
+                   .replace("%", LIKE_ESCAPE + "%")
+                   .replace("_", LIKE_ESCAPE + "_");
+    }
+    
+    private static String lowerCaseOrNull(String name) {
+        return name != null ? name.toLowerCase() : null;
+    }
+}
@@ -1,3 +1,5 @@
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.logging.Logger;
 
 import javafx.application.Application;
@@ -13,6 +15,28 @@ import javafx.stage.Stage;
 
 public class Main extends Application {
     private static final Logger LOGGER = Logger.getLogger(Main.class.getName());
+    
+    // Where saved patients are persisted between runs
+    private static final Path DATA_DIRECTORY = Paths.get(System.getProperty("user.home"), ".patient-management", "data");
+    
+    // Patients shown per page in the saved patients dialog
+    private static final int SAVED_PATIENTS_PAGE_SIZE = 25;
+
+    @Override
+    public void init() {
+        // Recover saved patients before any window can read or write storage. The windows
+        // save through savePatientDataAsync, whose saves the ASYNC writer batches onto one fsync
+        PatientPersistenceSettings settings = new PatientPersistenceSettings(DATA_DIRECTORY);
+        settings.setSyncPolicy(PatientWriteAheadLog.SyncPolicy.ASYNC);
+        if (!PatientDataStorage.getInstance().enablePersistence(settings)) {
+            LOGGER.warning("Continuing without persistence; saved patients will be lost on exit");
+        }
+    }
+
+    @Override
+    public void stop() {
+        PatientDataStorage.getInstance().closePersistence();
+    }
 
     @Override
     public void start(Stage primaryStage) {
@@ -190,27 +214,53 @@ public class Main extends Application {
     private void showSavedPatientsDialog(Stage parentStage) {
         PatientDataStorage storage = PatientDataStorage.getInstance();
         
-        javafx.scene.control.Alert alert = new javafx.scene.control.Alert(javafx.scene.control.Alert.AlertType.INFORMATION);
-        alert.initOwner(parentStage);
-        alert.setTitle("Saved Patients");
-        alert.setHeaderText("Patient Data Storage");
-        
         if (storage.isEmpty()) {
+            javafx.scene.control.Alert alert = createSavedPatientsAlert(parentStage);
             alert.setContentText("No patients have been saved yet.\n\n" +
                 "Use 'Open Patient Form' or 'Start Patient Check-In' to add patients, " +
                 "then click 'Save and Leave Patient' to save them to storage.");
-        } else {
+            alert.showAndWait();
+            return;
+        }
+        
+        // Walk the store one page at a time instead of rendering every patient at once
+        javafx.scene.control.ButtonType nextPageButton =
+            new javafx.scene.control.ButtonType("Next Page", javafx.scene.control.ButtonBar.ButtonData.NEXT_FORWARD);
+        String pageToken = null;
+        int firstPosition = 1;
+        boolean showNextPage;
+        
+        do {
+            PatientPage page = storage.getPatientsPage(SAVED_PATIENTS_PAGE_SIZE, pageToken, PatientPage.SortOrder.SAVE_ORDER);
+            
+            javafx.scene.control.Alert alert = createSavedPatientsAlert(parentStage);
             StringBuilder content = new StringBuilder();
             content.append(storage.getStorageStatistics()).append("\n");
-            content.append(storage.getAllPatientsSummary());
+            content.append(storage.getPatientsPageSummary(page, firstPosition));
             alert.setContentText(content.toString());
-        }
+            if (page.hasNextPage()) {
+                alert.getButtonTypes().add(nextPageButton);
+            }
+            
+            showNextPage = alert.showAndWait().filter(nextPageButton::equals).isPresent();
+            pageToken = page.getNextPageToken();
+            firstPosition += page.size();
+        } while (showNextPage && pageToken != null);
+    }
+    
+    /**
+     * Create the dialog used to list saved patients
+     */
+    private javafx.scene.control.Alert createSavedPatientsAlert(Stage parentStage) {
+        javafx.scene.control.Alert alert = new javafx.scene.control.Alert(javafx.scene.control.Alert.AlertType.INFORMATION);
+        alert.initOwner(parentStage);
+        alert.setTitle("Saved Patients");
+        alert.setHeaderText("Patient Data Storage");
         
         // Make the dialog resizable and larger for better readability
         alert.setResizable(true);
         alert.getDialogPane().setPrefSize(600, 400);
-        
-        alert.showAndWait();
+        return alert;
     }
     
     public static void main(String[] args) {
@@ -0,0 +1,660 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+/**
+ * Patient repository that keeps encoded patients outside the Java heap.
+ * Every save appends the patient, encoded with PatientRecordCodec, to a direct
+ * ByteBuffer segment; patients are decoded into new PatientDataObjects only when they
+ * are read. The heap holds nothing per patient but a few primitive array slots: an
+ * open-addressing hash table from patient ID to save sequence, and the record location
+ * for each sequence, which also gives the save order. The ID itself is compared
+ * against the copy inside the stored record, so no String is kept per patient and the
+ * garbage collector has almost nothing to trace however many patients are stored.
+ * Each record carries a small fixed header with its date of birth, saved day and
+ * check-in flag, so date-of-birth queries and counters never decode a record; name
+ * searches decode only the names. Both are scans rather than index lookups.
+ * Superseded and deleted records are reclaimed by copying the live records out of a
+ * segment once most of it is dead and dropping the segment.
+ * All methods are thread-safe; reads share a lock and writes hold it exclusively.
+ *
+ * Record layout: [int recordLength][int sequence][long savedEpochDay]
+ * [long dateOfBirthEpochDay][byte flags][PatientRecordCodec payload]
+ */
+public class OffHeapPatientRepository implements PatientRepository {
+    
+    private static final Logger LOGGER = Logger.getLogger(OffHeapPatientRepository.class.getName());
+    
+    /** Default size of each direct buffer segment */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    
+    private static final int RECORD_HEADER_SIZE = 25;
+    private static final int SEQUENCE_OFFSET = 4;
+    private static final int SAVED_DAY_OFFSET = 8;
+    private static final int DATE_OF_BIRTH_OFFSET = 16;
+    private static final int FLAGS_OFFSET = 24;
+    
+    private static final long NO_DAY = Long.MIN_VALUE;
+    private static final byte FLAG_CHECK_IN_COMPLETE = 1;
+    
+    // Locations pack (segment + 1) into the high int and the record offset into the low one
+    private static final long NO_LOCATION = 0;
+    private static final int EMPTY_SLOT = -1;
+    private static final int INITIAL_CAPACITY = 1024;
+    
+    // A full segment is compacted once fewer than 1 in this many of its bytes are live
+    private static final int COMPACTION_LIVE_DIVISOR = 4;
+    
+    private final int segmentSize;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    
+    // Direct buffer segments; a null entry is a dropped segment whose index can be reused
+    private ByteBuffer[] segments;
+    private int[] segmentUsed;
+    private int[] segmentLive;
+    private int activeSegment;
+    private long liveBytes;
+    
+    // Open-addressing table: save sequence and spread ID hash per slot
+    private int[] slotSequence;
+    private int[] slotHash;
+    private int patientCount;
+    
+    // Save sequence -> location of the patient's latest record
+    private long[] locationBySequence;
+    private int nextSequence;
+    
+    private int completedCheckIns;
+    private final Map<LocalDate, Integer> patientsPerDay = new HashMap<>();
+    
+    public OffHeapPatientRepository() {
+        this(DEFAULT_SEGMENT_SIZE);
+    }
+    
+    /**
+     * @param segmentSize Size of each direct buffer; also the largest record that can be stored
+     */
+    public OffHeapPatientRepository(int segmentSize) {
+        this.segmentSize = Math.max(RECORD_HEADER_SIZE + 1024, segmentSize);
+        reset();
+    }
+    
+    @Override
+    public boolean savePatientData(PatientDataObject patientData) {
+        if (patientData == null || patientData.getPatientId() == null || patientData.getPatientId().trim().isEmpty()) {
+            LOGGER.warning("Cannot save patient data without a patient ID");
+            return false;
+        }
+        
+        byte[] payload = PatientRecordCodec.encode(patientData);
+        if (RECORD_HEADER_SIZE + payload.length > segmentSize) {
+            LOGGER.warning("Patient " + patientData.getPatientId() + " is too large to store off-heap");
+            return false;
+        }
+        String patientId = patientData.getPatientId();
+        byte[] idBytes = patientId.getBytes(StandardCharsets.UTF_8);
+        int hash = spread(patientId.hashCode());
+        
+        lock.writeLock().lock();
+        try {
+            int slot = findSlot(idBytes, hash);
+            int sequence = slot >= 0 ? slotSequence[slot] : takeSequence();
+            long location = append(sequence, patientData, payload);
+            
+            long previous = locationBySequence[sequence];
+            locationBySequence[sequence] = location;
+            count(location, 1);
+            if (slot < 0) {
+                insertSlot(hash, sequence);
+                patientCount++;
+            } else {
+                compactIfMostlyDead(release(previous));
+            }
+            return true;
+        } catch (OutOfMemoryError e) {
+            // Direct memory is limited by -XX:MaxDirectMemorySize, not by the heap
+            LOGGER.severe("Off-heap patient storage is full: " + e.getMessage());
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Override
+    public Optional<PatientDataObject> findPatientById(String patientId) {
+        if (patientId == null || patientId.trim().isEmpty()) {
+            return Optional.empty();
+        }
+        byte[] idBytes = patientId.getBytes(StandardCharsets.UTF_8);
+        int hash = spread(patientId.hashCode());
+        
+        lock.readLock().lock();
+        try {
+            int slot = findSlot(idBytes, hash);
+            if (slot < 0) {
+                return Optional.empty();
+            }
+            return Optional.ofNullable(decode(locationBySequence[slotSequence[slot]]));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    @Override
+    public List<PatientDataObject> findPatientsByName(String searchTerm) {
+        List<PatientDataObject> matches = new ArrayList<>();
+        if (searchTerm == null || searchTerm.trim().isEmpty()) {
+            return matches;
+        }
+        String term = searchTerm.toLowerCase().trim();
+        
+        lock.readLock().lock();
+        try {
+            for (int sequence = 0; sequence < nextSequence; sequence++) {
+                long location = locationBySequence[sequence];
+                if (location == NO_LOCATION) {
+                    continue;
+                }
+                String[] names = PatientRecordCodec.decodeNames(payload(location));
+                if (nameContains(names[0], term) || nameContains(names[1], term)) {
+                    addDecoded(matches, location);
+                }
+            }
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    @Override
+    public List<PatientDataObject> findPatientsByDateOfBirth(LocalDate dateOfBirth) {
+        if (dateOfBirth == null) {
+            return new ArrayList<>();
+        }
+        return findByDateOfBirthDays(dateOfBirth.toEpochDay(), dateOfBirth.toEpochDay());
+    }
+    
+    @Override
+    public List<PatientDataObject> findPatientsByDateOfBirthRange(LocalDate from, LocalDate to) {
+        if (from == null || to == null) {
+            return new ArrayList<>();
+        }
+        List<PatientDataObject> matches = findByDateOfBirthDays(from.toEpochDay(), to.toEpochDay());
+        // Stable, so patients born on the same day stay in save order
+        matches.sort(Comparator.comparing(PatientDataObject::getDateOfBirth));
+        return matches;
+    }
+    
+    @Override
+    public List<PatientDataObject> getAllPatients() {
+        lock.readLock().lock();
+        try {
+            List<PatientDataObject> patients = new ArrayList<>(patientCount);
+            for (int sequence = 0; sequence < nextSequence; sequence++) {
+                long location = locationBySequence[sequence];
+                if (location != NO_LOCATION) {
+                    addDecoded(patients, location);
+                }
+            }
+            return patients;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    @Override
+    public int getCompletedCheckInCount() {
+        lock.readLock().lock();
+        try {
+            return completedCheckIns;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    @Override
+    public int getPatientCountForDate(LocalDate date) {
+        if (date == null) {
+            return 0;
+        }
+        lock.readLock().lock();
+        try {
+            return patientsPerDay.getOrDefault(date, 0);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    @Override
+    public boolean deletePatient(String patientId) {
+        if (patientId == null) {
+            return false;
+        }
+        byte[] idBytes = patientId.getBytes(StandardCharsets.UTF_8);
+        int hash = spread(patientId.hashCode());
+        
+        lock.writeLock().lock();
+        try {
+            int slot = findSlot(idBytes, hash);
+            if (slot < 0) {
+                return false;
+            }
+            int sequence = slotSequence[slot];
+            long location = locationBySequence[sequence];
+            locationBySequence[sequence] = NO_LOCATION;
+            removeSlot(slot);
+            patientCount--;
+            compactIfMostlyDead(release(location));
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Override
+    public void clearAllData() {
+        lock.writeLock().lock();
+        try {
+            reset();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Override
+    public int getPatientCount() {
+        lock.readLock().lock();
+        try {
+            return patientCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * @return Bytes of direct memory held by the segments
+     */
+    public long getOffHeapBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (ByteBuffer segment : segments) {
+                if (segment != null) {
+                    bytes += segment.capacity();
+                }
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * @return Bytes of records still referenced, headers included
+     */
+    public long getLiveBytes() {
+        lock.readLock().lock();
+        try {
+            return liveBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * @return Heap bytes used by the ID table and location index
+     */
+    public long getIndexBytes() {
+        lock.readLock().lock();
+        try {
+            return 4L * (slotSequence.length + slotHash.length) + 8L * locationBySequence.length;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Drop every segment. Direct memory is returned once the buffers are collected.
+     */
+    @Override
+    public void close() {
+        clearAllData();
+    }
+    
+    /**
+     * Start over with no segments and empty indexes. Callers hold the write lock.
+     */
+    private void reset() {
+        segments = new ByteBuffer[4];
+        segmentUsed = new int[4];
+        segmentLive = new int[4];
+        activeSegment = -1;
+        liveBytes = 0;
+        slotSequence = new int[INITIAL_CAPACITY];
+        Arrays.fill(slotSequence, EMPTY_SLOT);
+        slotHash = new int[INITIAL_CAPACITY];
+        patientCount = 0;
+        locationBySequence = new long[INITIAL_CAPACITY];
+        nextSequence = 0;
+        completedCheckIns = 0;
+        patientsPerDay.clear();
+    }
+    
+    private List<PatientDataObject> findByDateOfBirthDays(long fromDay, long toDay) {
+        List<PatientDataObject> matches = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int sequence = 0; sequence < nextSequence; sequence++) {
+                long location = locationBySequence[sequence];
+                if (location == NO_LOCATION) {
+                    continue;
+                }
+                long day = segmentOf(location).getLong(offsetOf(location) + DATE_OF_BIRTH_OFFSET);
+                if (day != NO_DAY && day >= fromDay && day <= toDay) {
+                    addDecoded(matches, location);
+                }
+            }
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    private static boolean nameContains(String name, String term) {
+        return name != null && name.toLowerCase().contains(term);
+    }
+    
+    private void addDecoded(List<PatientDataObject> patients, long location) {
+        PatientDataObject patient = decode(location);
+        if (patient != null) {
+            patients.add(patient);
+        }
+    }
+    
+    /**
+     * Decode the record at a location, or null if it is unreadable. Callers hold the lock.
+     */
+    private PatientDataObject decode(long location) {
+        try {
+            return PatientRecordCodec.decode(payload(location));
+        } catch (RuntimeException e) {
+            LOGGER.severe("Error decoding off-heap patient record: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * @return A view of the segment positioned at the record's payload and limited to it
+     */
+    private ByteBuffer payload(long location) {
+        ByteBuffer segment = segmentOf(location);
+        int offset = offsetOf(location);
+        ByteBuffer view = segment.duplicate();
+        view.limit(offset + segment.getInt(offset)).position(offset + RECORD_HEADER_SIZE);
+        return view;
+    }
+    
+    /**
+     * Write a record at the end of the active segment, starting a new segment if it does not fit
+     * @return Location of the record
+     */
+    private long append(int sequence, PatientDataObject patient, byte[] payload) {
+        int length = RECORD_HEADER_SIZE + payload.length;
+        int segmentIndex = segmentWithRoom(length);
+        ByteBuffer segment = segments[segmentIndex];
+        int offset = segmentUsed[segmentIndex];
+        
+        segment.putInt(offset, length);
+        segment.putInt(offset + SEQUENCE_OFFSET, sequence);
+        segment.putLong(offset + SAVED_DAY_OFFSET, patient.getSavedTimestamp() != null
+            ? patient.getSavedTimestamp().toLocalDate().toEpochDay() : NO_DAY);
+        segment.putLong(offset + DATE_OF_BIRTH_OFFSET, patient.getDateOfBirth() != null
+            ? patient.getDateOfBirth().toEpochDay() : NO_DAY);
+        segment.put(offset + FLAGS_OFFSET, patient.isCheckInComplete() ? FLAG_CHECK_IN_COMPLETE : 0);
+        segment.put(offset + RECORD_HEADER_SIZE, payload);
+        
+        segmentUsed[segmentIndex] += length;
+        segmentLive[segmentIndex] += length;
+        liveBytes += length;
+        return location(segmentIndex, offset);
+    }
+    
+    /**
+     * @return Index of the active segment, after replacing it if fewer than length bytes remain
+     */
+    private int segmentWithRoom(int length) {
+        if (activeSegment >= 0 && segmentSize - segmentUsed[activeSegment] >= length) {
+            return activeSegment;
+        }
+        int index = 0;
+        while (index < segments.length && segments[index] != null) {
+            index++;
+        }
+        if (index == segments.length) {
+            segments = Arrays.copyOf(segments, index * 2);
+            segmentUsed = Arrays.copyOf(segmentUsed, index * 2);
+            segmentLive = Arrays.copyOf(segmentLive, index * 2);
+        }
+        segments[index] = ByteBuffer.allocateDirect(segmentSize);
+        segmentUsed[index] = 0;
+        segmentLive[index] = 0;
+        activeSegment = index;
+        return index;
+    }
+    
+    /**
+     * Stop counting a superseded or deleted record as live
+     * @return Index of the segment that held it
+     */
+    private int release(long location) {
+        int segmentIndex = segmentIndexOf(location);
+        int length = segments[segmentIndex].getInt(offsetOf(location));
+        segmentLive[segmentIndex] -= length;
+        liveBytes -= length;
+        count(location, -1);
+        return segmentIndex;
+    }
+    
+    /**
+     * Add or remove a record's contribution to the counters, read from its header
+     */
+    private void count(long location, int delta) {
+        ByteBuffer segment = segmentOf(location);
+        int offset = offsetOf(location);
+        if ((segment.get(offset + FLAGS_OFFSET) & FLAG_CHECK_IN_COMPLETE) != 0) {
+            completedCheckIns += delta;
+        }
+        long savedDay = segment.getLong(offset + SAVED_DAY_OFFSET);
+        if (savedDay != NO_DAY) {
+            patientsPerDay.merge(LocalDate.ofEpochDay(savedDay), delta,
+                (count, change) -> count + change > 0 ? count + change : null);
+        }
+    }
+    
+    /**
+     * Copy the live records out of a segment other than the active one and drop it,
+     * once most of its bytes are dead. Callers hold the write lock.
+     */
+    private void compactIfMostlyDead(int segmentIndex) {
+        if (segmentIndex == activeSegment
+                || (long) segmentLive[segmentIndex] * COMPACTION_LIVE_DIVISOR >= segmentUsed[segmentIndex]) {
+            return;
+        }
+        
+        ByteBuffer source = segments[segmentIndex];
+        int end = segmentUsed[segmentIndex];
+        int offset = 0;
+        while (offset < end && segmentLive[segmentIndex] > 0) {
+            int length = source.getInt(offset);
+            int sequence = source.getInt(offset + SEQUENCE_OFFSET);
+            if (sequence < nextSequence && locationBySequence[sequence] == location(segmentIndex, offset)) {
+                int targetIndex = segmentWithRoom(length);
+                int targetOffset = segmentUsed[targetIndex];
+                segments[targetIndex].put(targetOffset, source, offset, length);
+                segmentUsed[targetIndex] += length;
+                segmentLive[targetIndex] += length;
+                segmentLive[segmentIndex] -= length;
+                locationBySequence[sequence] = location(targetIndex, targetOffset);
+            }
+            offset += length;
+        }
+        segments[segmentIndex] = null;
+        segmentUsed[segmentIndex] = 0;
+        segmentLive[segmentIndex] = 0;
+    }
+    
+    /**
+     * Hand out the next save sequence, first closing the gaps left by deleted patients
+     * if they make up most of the location index. Callers hold the write lock.
+     */
+    private int takeSequence() {
+        if (nextSequence == locationBySequence.length) {
+            if (patientCount < locationBySequence.length / 2) {
+                renumberSequences();
+            } else {
+                locationBySequence = Arrays.copyOf(locationBySequence, locationBySequence.length * 2);
+            }
+        }
+        return nextSequence++;
+    }
+    
+    /**
+     * Number the live records 0..n-1 in save order, rewriting each record's header
+     * and the ID table to match
+     */
+    private void renumberSequences() {
+        int[] renumbered = new int[nextSequence];
+        long[] locations = new long[locationBySequence.length];
+        int next = 0;
+        for (int sequence = 0; sequence < nextSequence; sequence++) {
+            long location = locationBySequence[sequence];
+            if (location != NO_LOCATION) {
+                segmentOf(location).putInt(offsetOf(location) + SEQUENCE_OFFSET, next);
+                renumbered[sequence] = next;
+                locations[next++] = location;
+            }
+        }
+        for (int slot = 0; slot < slotSequence.length; slot++) {
+            if (slotSequence[slot] != EMPTY_SLOT) {
+                slotSequence[slot] = renumbered[slotSequence[slot]];
+            }
+        }
+        locationBySequence = locations;
+        nextSequence = next;
+    }
+    
+    /**
+     * Find the table slot holding a patient ID
+     * @return The slot, or -1 if the ID is not stored
+     */
+    private int findSlot(byte[] idBytes, int hash) {
+        int mask = slotSequence.length - 1;
+        for (int slot = hash & mask; slotSequence[slot] != EMPTY_SLOT; slot = (slot + 1) & mask) {
+            if (slotHash[slot] == hash && idMatches(locationBySequence[slotSequence[slot]], idBytes)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Compare an ID with the one encoded at the start of a stored record, without decoding it
+     */
+    private boolean idMatches(long location, byte[] idBytes) {
+        ByteBuffer segment = segmentOf(location);
+        int position = offsetOf(location) + RECORD_HEADER_SIZE;
+        if (segment.getInt(position) != idBytes.length) {
+            return false;
+        }
+        position += 4;
+        for (int i = 0; i < idBytes.length; i++) {
+            if (segment.get(position + i) != idBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private void insertSlot(int hash, int sequence) {
+        if ((patientCount + 1) * 2 > slotSequence.length) {
+            growTable();
+        }
+        int mask = slotSequence.length - 1;
+        int slot = hash & mask;
+        while (slotSequence[slot] != EMPTY_SLOT) {
+            slot = (slot + 1) & mask;
+        }
+        slotSequence[slot] = sequence;
+        slotHash[slot] = hash;
+    }
+    
+    private void growTable() {
+        int[] oldSequences = slotSequence;
+        int[] oldHashes = slotHash;
+        slotSequence = new int[oldSequences.length * 2];
+        Arrays.fill(slotSequence, EMPTY_SLOT);
+        slotHash = new int[oldHashes.length * 2];
+        int mask = slotSequence.length - 1;
+        for (int i = 0; i < oldSequences.length; i++) {
+            if (oldSequences[i] == EMPTY_SLOT) {
+                continue;
+            }
+            int slot = oldHashes[i] & mask;
+            while (slotSequence[slot] != EMPTY_SLOT) {
+                slot = (slot + 1) & mask;
+            }
+            slotSequence[slot] = oldSequences[i];
+            slotHash[slot] = oldHashes[i];
+        }
+    }
+    
+    /**
+     * Empty a slot, shifting later entries of the same probe run back so lookups
+     * never stop at the hole
+     */
+    private void removeSlot(int slot) {
+        int mask = slotSequence.length - 1;
+        int gap = slot;
+        for (int next = (gap + 1) & mask; slotSequence[next] != EMPTY_SLOT; next = (next + 1) & mask) {
+            int home = slotHash[next] & mask;
+            boolean reachable = gap < next ? home > gap && home <= next : home > gap || home <= next;
+            if (!reachable) {
+                slotSequence[gap] = slotSequence[next];
+                slotHash[gap] = slotHash[next];
+                gap = next;
+            }
+        }
+        slotSequence[gap] = EMPTY_SLOT;
+        slotHash[gap] = 0;
+    }
+    
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+    
+    private static long location(int segmentIndex, int offset) {
+        return ((long) (segmentIndex + 1) << 32) | offset;
+    }
+    
+    private static int segmentIndexOf(long location) {
+        return (int) (location >>> 32) - 1;
+    }
+    
+    private static int offsetOf(long location) {
+        return (int) location;
+    }
+    
+    private ByteBuffer segmentOf(long location) {
+        return segments[segmentIndexOf(location)];
+    }
+}
@@ -0,0 +1,201 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Bulk import of patients from NDJSON files (one JSON object per line).
+ * The file is read in chunks of lines. Each chunk is parsed in parallel across all
+ * cores while the previous chunk is saved, and each chunk is saved to storage as one
+ * batch: one log write and one pass over the indexes. At most two chunks are held in
+ * memory at a time, so files of any size can be imported.
+ * Malformed lines are skipped and reported; they never stop the import.
+ */
+public final class PatientBulkImporter {
+    
+    private static final Logger LOGGER = Logger.getLogger(PatientBulkImporter.class.getName());
+    
+    private static final int LINES_PER_BATCH = 10_000;
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+    private static final int MAX_REPORTED_ERRORS = 1000;
+    
+    /**
+     * A chunk of raw lines, numbered from firstLineNumber
+     */
+    private static final class LineChunk {
+        private final long firstLineNumber;
+        private final List<String> lines;
+        
+        LineChunk(long firstLineNumber, List<String> lines) {
+            this.firstLineNumber = firstLineNumber;
+            this.lines = lines;
+        }
+    }
+    
+    /**
+     * Parse outcome for a chunk: the valid patients and the errors, both in line order
+     */
+    private static final class ParsedChunk {
+        private final long firstLineNumber;
+        private final List<PatientDataObject> patients = new ArrayList<>();
+        private final List<PatientImportReport.LineError> errors = new ArrayList<>();
+        
+        ParsedChunk(long firstLineNumber) {
+            this.firstLineNumber = firstLineNumber;
+        }
+    }
+    
+    private final PatientDataStorage storage;
+    private final Consumer<PatientImportReport> progressListener;
+    private final List<PatientImportReport.LineError> errors = new ArrayList<>();
+    private long linesRead;
+    private long importedCount;
+    private long failedCount;
+    
+    /**
+     * @param storage Storage to save imported patients into
+     * @param progressListener Receives a report after every batch; may be null
+     */
+    public PatientBulkImporter(PatientDataStorage storage, Consumer<PatientImportReport> progressListener) {
+        this.storage = storage;
+        this.progressListener = progressListener;
+    }
+    
+    /**
+     * Import every line of an NDJSON file. Blank lines are ignored.
+     * An importer instance runs one import at a time.
+     * @param file The file to import
+     * @return Final report with counts and the malformed lines
+     */
+    public synchronized PatientImportReport importNdjson(Path file) throws IOException {
+        long startNanos = System.nanoTime();
+        errors.clear();
+        linesRead = 0;
+        importedCount = 0;
+        failedCount = 0;
+        
+        ForkJoinPool parsers = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             BufferedReader reader = new BufferedReader(
+                 Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), -1), READ_BUFFER_SIZE)) {
+            long totalBytes = channel.size();
+            CompletableFuture<ParsedChunk> pending = null;
+            
+            LineChunk chunk;
+            while ((chunk = readChunk(reader)) != null) {
+                LineChunk toParse = chunk;
+                CompletableFuture<ParsedChunk> parsing = CompletableFuture.supplyAsync(() -> parse(toParse), parsers);
+                if (pending != null) {
+                    saveChunk(pending.join());
+                    reportProgress(channel.position(), totalBytes, startNanos);
+                }
+                pending = parsing;
+            }
+            if (pending != null) {
+                saveChunk(pending.join());
+            }
+            
+            PatientImportReport report = buildReport(totalBytes, totalBytes, startNanos, true);
+            if (progressListener != null) {
+                progressListener.accept(report);
+            }
+            LOGGER.info("Imported " + file + ": " + report);
+            return report;
+        } finally {
+            parsers.shutdown();
+        }
+    }
+    
+    /**
+     * @return The next chunk of lines, or null at end of file
+     */
+    private LineChunk readChunk(BufferedReader reader) throws IOException {
+        long firstLineNumber = linesRead + 1;
+        List<String> lines = new ArrayList<>(LINES_PER_BATCH);
+        String line;
+        while (lines.size() < LINES_PER_BATCH && (line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        linesRead += lines.size();
+        return lines.isEmpty() ? null : new LineChunk(firstLineNumber, lines);
+    }
+    
+    /**
+     * Parse a chunk's lines in parallel; runs inside the parser pool
+     */
+    private static ParsedChunk parse(LineChunk chunk) {
+        List<Object> results = IntStream.range(0, chunk.lines.size()).parallel()
+            .mapToObj(i -> parseLine(chunk.lines.get(i), chunk.firstLineNumber + i))
+            .collect(Collectors.toList());
+        
+        ParsedChunk parsed = new ParsedChunk(chunk.firstLineNumber);
+        for (Object result : results) {
+            if (result instanceof PatientDataObject) {
+                parsed.patients.add((PatientDataObject) result);
+            } else if (result != null) {
+                parsed.errors.add((PatientImportReport.LineError) result);
+            }
+        }
+        return parsed;
+    }
+    
+    /**
+     * @return The parsed patient, a LineError, or null for a blank line
+     */
+    private static Object parseLine(String line, long lineNumber) {
+        if (line.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return PatientJsonReader.parse(line);
+        } catch (RuntimeException e) {
+            return new PatientImportReport.LineError(lineNumber, e.getMessage());
+        }
+    }
+    
+    private void saveChunk(ParsedChunk parsed) {
+        failedCount += parsed.errors.size();
+        for (PatientImportReport.LineError error : parsed.errors) {
+            recordError(error);
+        }
+        if (parsed.patients.isEmpty()) {
+            return;
+        }
+        
+        int saved = storage.savePatients(parsed.patients);
+        importedCount += saved;
+        if (saved < parsed.patients.size()) {
+            failedCount += parsed.patients.size() - saved;
+            recordError(new PatientImportReport.LineError(parsed.firstLineNumber,
+                "Batch starting here could not be saved; " + (parsed.patients.size() - saved) + " patients lost"));
+        }
+    }
+    
+    private void recordError(PatientImportReport.LineError error) {
+        if (errors.size() < MAX_REPORTED_ERRORS) {
+            errors.add(error);
+        }
+    }
+    
+    private void reportProgress(long bytesRead, long totalBytes, long startNanos) {
+        if (progressListener != null) {
+            progressListener.accept(buildReport(bytesRead, totalBytes, startNanos, false));
+        }
+    }
+    
+    private PatientImportReport buildReport(long bytesRead, long totalBytes, long startNanos, boolean complete) {
+        return new PatientImportReport(linesRead, importedCount, failedCount, bytesRead, totalBytes,
+            System.nanoTime() - startNanos, complete, errors);
+    }
+}
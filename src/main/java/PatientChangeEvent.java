@@ -0,0 +1,48 @@
+/**
+ * A change to the stored patients, as delivered to PatientChangeListener subscribers.
+ */
+public class PatientChangeEvent {
+    
+    /**
+     * Kind of change
+     */
+    public enum Type {
+        /** A patient ID was saved for the first time */
+        SAVED,
+        /** An already stored patient was saved again */
+        UPDATED,
+        /** A patient was deleted */
+        DELETED,
+        /** Every patient was deleted */
+        CLEARED,
+        /** The subscriber's queue overflowed and changes were discarded; reload everything */
+        RESYNC
+    }
+    
+    private final Type type;
+    private final String patientId;
+    private final PatientDataObject patient;
+    
+    public PatientChangeEvent(Type type, String patientId, PatientDataObject patient) {
+        this.type = type;
+        this.patientId = patientId;
+        this.patient = patient;
+    }
+    
+    public Type getType() { return type; }
+    
+    /**
+     * @return ID of the changed patient; null for CLEARED and RESYNC
+     */
+    public String getPatientId() { return patientId; }
+    
+    /**
+     * @return The patient as saved, for SAVED and UPDATED; null otherwise
+     */
+    public PatientDataObject getPatient() { return patient; }
+    
+    @Override
+    public String toString() {
+        return patientId != null ? type + " " + patientId : type.toString();
+    }
+}
@@ -0,0 +1,17 @@
+import java.util.List;
+
+/**
+ * Receives batches of changes to the stored patients.
+ * Register with PatientDataStorage.subscribe; calls arrive on the executor given there.
+ */
+@FunctionalInterface
+public interface PatientChangeListener {
+    
+    /**
+     * Handle the changes made since the previous call. Changes to the same patient are
+     * coalesced into one event carrying its latest state, and a CLEARED or RESYNC event,
+     * when present, comes first and supersedes every earlier change.
+     * @param events The changes, in the order each patient was first changed
+     */
+    void onPatientChanges(List<PatientChangeEvent> events);
+}
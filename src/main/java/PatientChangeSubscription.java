@@ -0,0 +1,223 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * One subscriber's registration for patient change events.
+ * Writers only add to this subscriber's bounded queue of pending changes, which
+ * coalesces repeated changes to the same patient, and schedule a delivery on the
+ * subscriber's executor if none is pending; they never wait for the listener. Changes
+ * made while a delivery is waiting to run are folded into it, so a busy executor
+ * receives fewer, larger batches. When the queue is full, the overflow policy decides
+ * what is given up.
+ */
+public class PatientChangeSubscription {
+    
+    private static final Logger LOGGER = Logger.getLogger(PatientChangeSubscription.class.getName());
+    
+    /**
+     * What to do with a change for a new patient when the queue is full
+     */
+    public enum OverflowPolicy {
+        /** Discard the oldest pending change to make room */
+        DROP_OLDEST,
+        /** Discard the new change */
+        DROP_NEWEST,
+        /** Discard every pending change and deliver a single RESYNC event instead */
+        RESYNC
+    }
+    
+    private final PatientChangeListener listener;
+    private final Executor executor;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final Consumer<PatientChangeSubscription> onCancel;
+    
+    // Pending changes by patient ID, and a CLEARED or RESYNC event that precedes them
+    private final LinkedHashMap<String, PatientChangeEvent> pending = new LinkedHashMap<>();
+    private PatientChangeEvent.Type pendingReset;
+    private boolean deliveryScheduled;
+    private volatile boolean cancelled;
+    
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    
+    /**
+     * @param listener Receives the changes
+     * @param executor Runs deliveries, e.g. Platform::runLater for the JavaFX thread
+     * @param capacity Most patients with pending changes before the overflow policy applies
+     * @param overflowPolicy What to give up when the queue is full
+     * @param onCancel Given this subscription once, when it is cancelled
+     */
+    public PatientChangeSubscription(PatientChangeListener listener, Executor executor, int capacity,
+                                     OverflowPolicy overflowPolicy, Consumer<PatientChangeSubscription> onCancel) {
+        this.listener = listener;
+        this.executor = executor;
+        this.capacity = Math.max(1, capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.onCancel = onCancel;
+    }
+    
+    /**
+     * Queue changes for delivery, scheduling a delivery if none is pending
+     * @param events The changes, in the order they were made
+     */
+    public void offer(List<PatientChangeEvent> events) {
+        if (cancelled) {
+            return;
+        }
+        boolean schedule;
+        synchronized (this) {
+            for (PatientChangeEvent event : events) {
+                queue(event);
+            }
+            schedule = !deliveryScheduled;
+            deliveryScheduled = true;
+        }
+        if (schedule) {
+            try {
+                executor.execute(this::deliver);
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    deliveryScheduled = false;
+                }
+                LOGGER.warning("Patient change delivery rejected by executor: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Stop receiving changes. Pending changes are discarded.
+     */
+    public void cancel() {
+        if (cancelled) {
+            return;
+        }
+        cancelled = true;
+        synchronized (this) {
+            pending.clear();
+            pendingReset = null;
+        }
+        onCancel.accept(this);
+    }
+    
+    public boolean isCancelled() {
+        return cancelled;
+    }
+    
+    /**
+     * @return Number of patients with changes waiting to be delivered
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+    
+    /**
+     * @return Number of events handed to the listener so far
+     */
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+    
+    /**
+     * @return Number of changes given up because the queue was full
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+    
+    /**
+     * Fold one change into the pending queue. Callers hold this subscription's lock.
+     */
+    private void queue(PatientChangeEvent event) {
+        PatientChangeEvent.Type type = event.getType();
+        if (type == PatientChangeEvent.Type.CLEARED || type == PatientChangeEvent.Type.RESYNC) {
+            pending.clear();
+            pendingReset = type;
+            return;
+        }
+        
+        String patientId = event.getPatientId();
+        PatientChangeEvent earlier = pending.get(patientId);
+        if (earlier == null) {
+            if (pending.size() >= capacity && !overflow()) {
+                droppedCount.incrementAndGet();
+                return;
+            }
+            pending.put(patientId, event);
+            return;
+        }
+        
+        PatientChangeEvent.Type earlierType = earlier.getType();
+        if (type == PatientChangeEvent.Type.DELETED) {
+            if (earlierType == PatientChangeEvent.Type.SAVED) {
+                // Saved and deleted again before anyone saw it
+                pending.remove(patientId);
+            } else {
+                pending.put(patientId, event);
+            }
+        } else {
+            // A patient the subscriber already knows about stays an update
+            PatientChangeEvent.Type merged = earlierType == PatientChangeEvent.Type.SAVED
+                ? PatientChangeEvent.Type.SAVED : PatientChangeEvent.Type.UPDATED;
+            pending.put(patientId, new PatientChangeEvent(merged, patientId, event.getPatient()));
+        }
+    }
+    
+    /**
+     * Apply the overflow policy to a full queue. Callers hold this subscription's lock.
+     * @return true if the new change should still be queued
+     */
+    private boolean overflow() {
+        switch (overflowPolicy) {
+            case DROP_OLDEST:
+                String eldest = pending.keySet().iterator().next();
+                pending.remove(eldest);
+                droppedCount.incrementAndGet();
+                return true;
+            case RESYNC:
+                droppedCount.addAndGet(pending.size());
+                pending.clear();
+                pendingReset = PatientChangeEvent.Type.RESYNC;
+                return false;
+            default:
+                return false;
+        }
+    }
+    
+    /**
+     * Hand everything pending to the listener. Runs on the subscriber's executor.
+     */
+    private void deliver() {
+        List<PatientChangeEvent> batch;
+        synchronized (this) {
+            deliveryScheduled = false;
+            if (pendingReset == null && pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pending.size() + 1);
+            if (pendingReset != null) {
+                batch.add(new PatientChangeEvent(pendingReset, null, null));
+            }
+            batch.addAll(pending.values());
+            pending.clear();
+            pendingReset = null;
+        }
+        if (cancelled) {
+            return;
+        }
+        
+        deliveredCount.addAndGet(batch.size());
+        try {
+            listener.onPatientChanges(Collections.unmodifiableList(batch));
+        } catch (RuntimeException e) {
+            LOGGER.warning("Patient change listener failed: " + e.getMessage());
+        }
+    }
+}
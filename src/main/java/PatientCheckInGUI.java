@@ -2,6 +2,7 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.logging.Logger;
 
+import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -829,19 +830,26 @@ public class PatientCheckInGUI {
             // Collect additional form data that might not be in the workflow
             populatePatientDataFromGUI(patientData);
             
-            // Save to storage
+            // Save to storage on its save thread; the outcome comes back once the save is on disk
             PatientDataStorage storage = PatientDataStorage.getInstance();
-            boolean saved = storage.savePatientData(patientData);
-            
-            if (saved) {
-                // Show success message with summary
-                showSaveSuccessDialog(patientData, storage);
-                
-                // Close the window
-                stage.close();
-            } else {
-                showAlert("Save Error", "Failed to save patient data. Please try again.");
-            }
+            storage.savePatientDataAsync(patientData).whenComplete((result, error) -> Platform.runLater(() -> {
+                if (error == null && result.isSaved()) {
+                    // Show success message with summary
+                    showSaveSuccessDialog(patientData, storage);
+                    
+                    // Close the window
+                    stage.close();
+                } else if (error == null && result.getStatus() == PatientSaveResult.Status.NOT_DURABLE) {
+                    showAlert("Save Warning", "Patient data was saved but could not be written to disk. "
+                        + "It will be lost when the application closes.");
+                    stage.close();
+                } else {
+                    if (error != null) {
+                        LOGGER.warning("Error saving patient data: " + error.getMessage());
+                    }
+                    showAlert("Save Error", "Failed to save patient data. Please try again.");
+                }
+            }));
             
         } catch (Exception e) {
             LOGGER.warning("Error saving patient data: " + e.getMessage());
@@ -991,8 +999,8 @@ public class PatientCheckInGUI {
         
         message.append("STORAGE SUMMARY:\n");
         message.append("Total Patients Saved: ").append(storage.getPatientCount()).append("\n");
-        message.append("Patients from Today: ").append(storage.getPatientsFromToday().size()).append("\n");
-        message.append("Completed Check-ins: ").append(storage.getCompletedCheckIns().size()).append("\n\n");
+        message.append("Patients from Today: ").append(storage.getPatientCountFromToday()).append("\n");
+        message.append("Completed Check-ins: ").append(storage.getCompletedCheckInCount()).append("\n\n");
         
         message.append("The patient can resume check-in later using Patient ID: ");
         message.append(patientData.getPatientId());
@@ -0,0 +1,510 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressed binary snapshot of the full PatientDataStorage contents, written instead of
+ * a PatientSnapshotFile when PatientPersistenceSettings asks for compression.
+ * Patient records repeat the same providers, doctors, appointment types and note
+ * templates, so each snapshot first trains a dictionary of the byte strings most records
+ * share. Records are then packed into blocks of about 16 KB, and each block is Deflated
+ * on its own with that dictionary preset: even the first record of a block compresses
+ * against the common strings, yet any block can be inflated without the others.
+ * An index at the end of the file locates every block, and each block starts with the
+ * offsets of its records, so a single record is read by inflating one block.
+ *
+ * Layout: [int magic][int version][long logPosition][int recordCount][int blockCount]
+ * [int dictionaryLength][long indexOffset][int crc32c of index][dictionary][blocks]
+ * [index: blockCount x ([long offset][int compressedLength][int uncompressedLength]
+ * [int firstRecord][int crc32c of uncompressed block])].
+ * An uncompressed block is [int recordCount][int recordOffset x recordCount][records].
+ */
+public final class PatientCompressedSnapshotFile implements Closeable {
+    
+    private static final Logger LOGGER = Logger.getLogger(PatientCompressedSnapshotFile.class.getName());
+    
+    /** First four bytes of a compressed snapshot, to tell it from a PatientSnapshotFile */
+    public static final int MAGIC = 0x50534E5A; // "PSNZ"
+    
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 40;
+    private static final int INDEX_ENTRY_SIZE = 24;
+    private static final int BLOCK_SIZE = 16 * 1024;
+    
+    // Deflate cannot look back further than 32 KB, so a longer dictionary is wasted
+    private static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+    private static final int DICTIONARY_SAMPLES = 1000;
+    private static final int SEGMENT_LENGTH = 48;
+    private static final int SUBSTRING_LENGTH = 8;
+    
+    private final Path file;
+    private final FileChannel channel;
+    private final long logPosition;
+    private final int recordCount;
+    private final byte[] dictionary;
+    private final long[] blockOffsets;
+    private final int[] compressedLengths;
+    private final int[] uncompressedLengths;
+    private final int[] firstRecords;
+    private final int[] blockChecksums;
+    private final Inflater inflater;
+    
+    // Most recently inflated block, so neighbouring records are read without inflating again
+    private int cachedBlock = -1;
+    private ByteBuffer cachedBlockData;
+    
+    private PatientCompressedSnapshotFile(Path file, FileChannel channel, long logPosition, int recordCount,
+                                          byte[] dictionary, int blockCount) {
+        this.file = file;
+        this.channel = channel;
+        this.logPosition = logPosition;
+        this.recordCount = recordCount;
+        this.dictionary = dictionary;
+        this.blockOffsets = new long[blockCount];
+        this.compressedLengths = new int[blockCount];
+        this.uncompressedLengths = new int[blockCount];
+        this.firstRecords = new int[blockCount];
+        this.blockChecksums = new int[blockCount];
+        this.inflater = new Inflater();
+    }
+    
+    /**
+     * Write a compressed snapshot, replacing any existing one only once it is complete on disk
+     * @param file Snapshot path
+     * @param patients Patients to include
+     * @param logPosition Write-ahead log position the snapshot covers
+     */
+    public static void write(Path file, Collection<PatientDataObject> patients, long logPosition) throws IOException {
+        long startNanos = System.nanoTime();
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        
+        // Train on records spread across the whole store rather than just its oldest
+        List<byte[]> samples = new ArrayList<>();
+        int sampleEvery = Math.max(1, patients.size() / DICTIONARY_SAMPLES);
+        int position = 0;
+        for (PatientDataObject patient : patients) {
+            if (position++ % sampleEvery == 0 && samples.size() < DICTIONARY_SAMPLES) {
+                samples.add(PatientRecordCodec.encode(patient));
+            }
+        }
+        byte[] dictionary = trainDictionary(samples, MAX_DICTIONARY_SIZE);
+        
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        long uncompressedBytes = 0;
+        long compressedBytes;
+        int blockCount = 0;
+        int written = 0;
+        try (FileChannel channel = FileChannel.open(tempFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(HEADER_SIZE);
+            writeFully(channel, ByteBuffer.wrap(dictionary));
+            
+            ByteArrayOutputStream index = new ByteArrayOutputStream();
+            DataOutputStream indexOut = new DataOutputStream(index);
+            ByteArrayOutputStream records = new ByteArrayOutputStream(BLOCK_SIZE + 4096);
+            DataOutputStream recordOut = new DataOutputStream(records);
+            List<Integer> recordOffsets = new ArrayList<>();
+            int firstRecord = 0;
+            
+            for (PatientDataObject patient : patients) {
+                recordOffsets.add(records.size());
+                PatientRecordCodec.encode(patient, recordOut);
+                written++;
+                if (records.size() >= BLOCK_SIZE) {
+                    uncompressedBytes += writeBlock(channel, deflater, dictionary, recordOffsets, records,
+                        firstRecord, indexOut);
+                    blockCount++;
+                    firstRecord = written;
+                    recordOffsets.clear();
+                    records.reset();
+                }
+            }
+            if (!recordOffsets.isEmpty()) {
+                uncompressedBytes += writeBlock(channel, deflater, dictionary, recordOffsets, records,
+                    firstRecord, indexOut);
+                blockCount++;
+            }
+            
+            long indexOffset = channel.position();
+            byte[] indexBytes = index.toByteArray();
+            writeFully(channel, ByteBuffer.wrap(indexBytes));
+            CRC32C indexChecksum = new CRC32C();
+            indexChecksum.update(indexBytes);
+            
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(logPosition).putInt(written).putInt(blockCount)
+                .putInt(dictionary.length).putLong(indexOffset).putInt((int) indexChecksum.getValue()).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+            compressedBytes = indexOffset - HEADER_SIZE - dictionary.length;
+        } finally {
+            deflater.end();
+        }
+        
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        PatientSnapshotFile.forceDirectory(file.toAbsolutePath().getParent());
+        LOGGER.info(String.format("Wrote compressed snapshot of %d patients to %s in %d ms "
+                + "(%d blocks, %d -> %d bytes, %.1fx, %d byte dictionary)",
+            written, file, (System.nanoTime() - startNanos) / 1_000_000, blockCount, uncompressedBytes,
+            compressedBytes, compressedBytes > 0 ? (double) uncompressedBytes / compressedBytes : 0,
+            dictionary.length));
+    }
+    
+    /**
+     * Load a compressed snapshot, handing each patient to the consumer in stored order.
+     * If this throws, records already passed to the consumer must be discarded.
+     * @param file Snapshot path
+     * @param consumer Receives each decoded patient
+     * @return Write-ahead log position covered by the snapshot
+     */
+    public static long load(Path file, Consumer<PatientDataObject> consumer) throws IOException {
+        long startNanos = System.nanoTime();
+        try (PatientCompressedSnapshotFile snapshot = open(file)) {
+            for (int block = 0; block < snapshot.getBlockCount(); block++) {
+                ByteBuffer data = snapshot.inflateBlock(block);
+                int count = data.getInt(0);
+                for (int i = 0; i < count; i++) {
+                    consumer.accept(PatientRecordCodec.decode(recordSlice(data, i, count)));
+                }
+            }
+            LOGGER.info(String.format("Loaded compressed snapshot of %d patients from %s in %d ms",
+                snapshot.recordCount, file, (System.nanoTime() - startNanos) / 1_000_000));
+            return snapshot.logPosition;
+        }
+    }
+    
+    /**
+     * Open a compressed snapshot for random access by record number. The snapshot
+     * reuses one Inflater and caches the last block it read, so it must be read from
+     * one thread at a time; open it once per thread to read in parallel.
+     * @param file Snapshot path
+     * @return The open snapshot; close it when done
+     */
+    public static PatientCompressedSnapshotFile open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            ByteBuffer header = readFully(channel, 0, HEADER_SIZE, size, file);
+            if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+                throw new IOException("Not a supported compressed patient snapshot: " + file);
+            }
+            long logPosition = header.getLong();
+            int recordCount = header.getInt();
+            int blockCount = header.getInt();
+            int dictionaryLength = header.getInt();
+            long indexOffset = header.getLong();
+            int indexChecksum = header.getInt();
+            if (recordCount < 0 || blockCount < 0 || dictionaryLength < 0 || dictionaryLength > MAX_DICTIONARY_SIZE
+                    || indexOffset < HEADER_SIZE + dictionaryLength) {
+                throw new IOException("Corrupt compressed snapshot header: " + file);
+            }
+            
+            byte[] dictionary = new byte[dictionaryLength];
+            readFully(channel, HEADER_SIZE, dictionaryLength, size, file).get(dictionary);
+            
+            ByteBuffer index = readFully(channel, indexOffset, (long) blockCount * INDEX_ENTRY_SIZE, size, file);
+            CRC32C checksum = new CRC32C();
+            checksum.update(index.duplicate());
+            if ((int) checksum.getValue() != indexChecksum) {
+                throw new IOException("Compressed snapshot index checksum mismatch: " + file);
+            }
+            
+            PatientCompressedSnapshotFile snapshot = new PatientCompressedSnapshotFile(file, channel, logPosition,
+                recordCount, dictionary, blockCount);
+            for (int block = 0; block < blockCount; block++) {
+                snapshot.blockOffsets[block] = index.getLong();
+                snapshot.compressedLengths[block] = index.getInt();
+                snapshot.uncompressedLengths[block] = index.getInt();
+                snapshot.firstRecords[block] = index.getInt();
+                snapshot.blockChecksums[block] = index.getInt();
+            }
+            return snapshot;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * @return Write-ahead log position covered by the snapshot
+     */
+    public long getLogPosition() { return logPosition; }
+    
+    public int getRecordCount() { return recordCount; }
+    
+    public int getBlockCount() { return blockOffsets.length; }
+    
+    public int getDictionaryLength() { return dictionary.length; }
+    
+    /**
+     * Read one patient, inflating only the block that holds it.
+     * Not thread-safe: this replaces the cached block and resets the shared Inflater.
+     * @param recordNumber Position of the patient in the snapshot, from 0
+     * @return The decoded patient
+     */
+    public PatientDataObject read(int recordNumber) throws IOException {
+        if (recordNumber < 0 || recordNumber >= recordCount) {
+            throw new IndexOutOfBoundsException("Record " + recordNumber + " of " + recordCount);
+        }
+        
+        // Last block whose first record is at or before the one wanted
+        int low = 0;
+        int high = firstRecords.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (firstRecords[middle] <= recordNumber) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        
+        if (cachedBlock != low) {
+            cachedBlockData = inflateBlock(low);
+            cachedBlock = low;
+        }
+        int count = cachedBlockData.getInt(0);
+        return PatientRecordCodec.decode(recordSlice(cachedBlockData, recordNumber - firstRecords[low], count));
+    }
+    
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        channel.close();
+    }
+    
+    /**
+     * Build a preset dictionary from byte strings that recur across many sample records.
+     * Every 8-byte substring is counted by the number of samples containing it. The
+     * samples are then split into as many stretches as the dictionary has segments, and
+     * from each stretch the segment whose substrings are most widely shared is kept; the
+     * substrings it covers stop counting, so later segments add new content rather than
+     * repeating a popular string. The best segments are placed last, where Deflate
+     * reaches them with the shortest distances.
+     * @param samples Encoded sample records
+     * @param maxSize Largest dictionary to build, in bytes
+     * @return The dictionary; empty if the samples share nothing worth keeping
+     */
+    public static byte[] trainDictionary(List<byte[]> samples, int maxSize) {
+        int minSamples = Math.max(2, samples.size() / 100);
+        int substringsPerSegment = SEGMENT_LENGTH - SUBSTRING_LENGTH + 1;
+        
+        // Substring -> number of samples containing it
+        Map<Long, Integer> sampleCounts = new HashMap<>();
+        long totalSubstrings = 0;
+        for (byte[] sample : samples) {
+            Set<Long> seen = new HashSet<>();
+            for (int i = 0; i + SUBSTRING_LENGTH <= sample.length; i++) {
+                if (seen.add(substringAt(sample, i))) {
+                    sampleCounts.merge(substringAt(sample, i), 1, Integer::sum);
+                }
+            }
+            totalSubstrings += Math.max(0, sample.length - SUBSTRING_LENGTH + 1);
+        }
+        
+        int segments = Math.max(1, maxSize / SEGMENT_LENGTH);
+        long stretchLength = Math.max(substringsPerSegment, totalSubstrings / segments);
+        List<byte[]> chosen = new ArrayList<>();
+        List<Long> scores = new ArrayList<>();
+        
+        int sampleIndex = 0;
+        int offset = 0;
+        while (sampleIndex < samples.size() && chosen.size() < segments) {
+            // Best segment starting within the next stretch of sample positions
+            long bestScore = 0;
+            int bestSample = -1;
+            int bestOffset = 0;
+            long score = 0;
+            boolean scored = false;
+            for (long walked = 0; walked < stretchLength && sampleIndex < samples.size(); walked++) {
+                byte[] sample = samples.get(sampleIndex);
+                if (offset + SEGMENT_LENGTH > sample.length) {
+                    sampleIndex++;
+                    offset = 0;
+                    scored = false;
+                    continue;
+                }
+                if (!scored) {
+                    score = 0;
+                    for (int i = offset; i < offset + substringsPerSegment; i++) {
+                        score += sampleCounts.getOrDefault(substringAt(sample, i), 0);
+                    }
+                    scored = true;
+                } else {
+                    // Slide the segment one byte along
+                    score += sampleCounts.getOrDefault(substringAt(sample, offset + substringsPerSegment - 1), 0)
+                        - sampleCounts.getOrDefault(substringAt(sample, offset - 1), 0);
+                }
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestSample = sampleIndex;
+                    bestOffset = offset;
+                }
+                offset++;
+            }
+            
+            // Skip stretches whose best segment is mostly unique to a few records
+            if (bestSample < 0 || bestScore < (long) minSamples * substringsPerSegment) {
+                continue;
+            }
+            byte[] sample = samples.get(bestSample);
+            for (int i = bestOffset; i < bestOffset + substringsPerSegment; i++) {
+                sampleCounts.put(substringAt(sample, i), 0);
+            }
+            chosen.add(Arrays.copyOfRange(sample, bestOffset, bestOffset + SEGMENT_LENGTH));
+            scores.add(bestScore);
+        }
+        
+        Integer[] order = new Integer[chosen.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(scores.get(a), scores.get(b)));
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(chosen.size() * SEGMENT_LENGTH);
+        for (int index : order) {
+            dictionary.write(chosen.get(index), 0, SEGMENT_LENGTH);
+        }
+        return dictionary.toByteArray();
+    }
+    
+    /**
+     * Compress one block of records and append its index entry
+     * @return Uncompressed size of the block
+     */
+    private static int writeBlock(FileChannel channel, Deflater deflater, byte[] dictionary, List<Integer> recordOffsets,
+                                  ByteArrayOutputStream records, int firstRecord, DataOutputStream indexOut)
+            throws IOException {
+        int headerLength = 4 + 4 * recordOffsets.size();
+        ByteBuffer block = ByteBuffer.allocate(headerLength + records.size());
+        block.putInt(recordOffsets.size());
+        for (int offset : recordOffsets) {
+            block.putInt(offset);
+        }
+        block.put(records.toByteArray());
+        byte[] uncompressed = block.array();
+        
+        deflater.reset();
+        if (dictionary.length > 0) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(uncompressed);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(uncompressed.length / 4 + 64);
+        byte[] chunk = new byte[16 * 1024];
+        while (!deflater.finished()) {
+            int length = deflater.deflate(chunk);
+            compressed.write(chunk, 0, length);
+        }
+        
+        CRC32C checksum = new CRC32C();
+        checksum.update(uncompressed);
+        indexOut.writeLong(channel.position());
+        indexOut.writeInt(compressed.size());
+        indexOut.writeInt(uncompressed.length);
+        indexOut.writeInt(firstRecord);
+        indexOut.writeInt((int) checksum.getValue());
+        writeFully(channel, ByteBuffer.wrap(compressed.toByteArray()));
+        return uncompressed.length;
+    }
+    
+    /**
+     * Read and inflate a block, verifying its checksum
+     */
+    private ByteBuffer inflateBlock(int block) throws IOException {
+        ByteBuffer compressed = readFully(channel, blockOffsets[block], compressedLengths[block], channel.size(), file);
+        byte[] uncompressed = new byte[uncompressedLengths[block]];
+        
+        inflater.reset();
+        inflater.setInput(compressed);
+        try {
+            int length = 0;
+            while (length < uncompressed.length && !inflater.finished()) {
+                int inflated = inflater.inflate(uncompressed, length, uncompressed.length - length);
+                if (inflated == 0 && inflater.needsDictionary()) {
+                    inflater.setDictionary(dictionary);
+                } else if (inflated == 0 && (inflater.needsInput() || inflater.finished())) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != uncompressed.length) {
+                throw new IOException("Compressed snapshot block " + block + " is truncated: " + file);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed snapshot block " + block + " in " + file + ": " + e.getMessage(), e);
+        }
+        
+        CRC32C checksum = new CRC32C();
+        checksum.update(uncompressed);
+        if ((int) checksum.getValue() != blockChecksums[block]) {
+            throw new IOException("Compressed snapshot block " + block + " checksum mismatch: " + file);
+        }
+        return ByteBuffer.wrap(uncompressed);
+    }
+    
+    /**
+     * @return The 8 bytes at an offset, packed into a long
+     */
+    private static long substringAt(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + SUBSTRING_LENGTH; i++) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+    
+    /**
+     * @return The bytes of one record within an inflated block
+     */
+    private static ByteBuffer recordSlice(ByteBuffer block, int index, int count) {
+        int dataStart = 4 + 4 * count;
+        int start = dataStart + block.getInt(4 + 4 * index);
+        int end = index + 1 < count ? dataStart + block.getInt(8 + 4 * index) : block.limit();
+        return block.slice(start, end - start);
+    }
+    
+    private static ByteBuffer readFully(FileChannel channel, long position, long length, long fileSize, Path file)
+            throws IOException {
+        if (length > Integer.MAX_VALUE || position + length > fileSize) {
+            throw new IOException("Compressed snapshot is truncated: " + file);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Compressed snapshot is truncated: " + file);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+    
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
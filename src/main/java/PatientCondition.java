@@ -0,0 +1,229 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * One predicate of a PatientQuery.
+ * Conditions built by the named factories (ID, name, date of birth, saved day, check-in
+ * steps) are understood by the query planner, which can answer them from an index.
+ * Conditions built with matching(), or() and negate() are only evaluated against the
+ * candidates some other condition produced, or against every patient if none can.
+ * Conditions are immutable.
+ */
+public final class PatientCondition {
+    
+    /**
+     * What a condition tests; the planner looks at this to choose an index
+     */
+    enum Kind {
+        ID_EQUALS,
+        NAME_CONTAINS,
+        DATE_OF_BIRTH_BETWEEN,
+        SAVED_BETWEEN,
+        STEP_STATUS,
+        ALL_OF,
+        OTHER
+    }
+    
+    private final Kind kind;
+    private final String description;
+    private final String text;
+    private final LocalDate from;
+    private final LocalDate to;
+    private final String step;
+    private final boolean done;
+    private final List<PatientCondition> parts;
+    private final Predicate<PatientDataObject> predicate;
+    
+    private PatientCondition(Kind kind, String description, String text, LocalDate from, LocalDate to,
+                             String step, boolean done, List<PatientCondition> parts,
+                             Predicate<PatientDataObject> predicate) {
+        this.kind = kind;
+        this.description = description;
+        this.text = text;
+        this.from = from;
+        this.to = to;
+        this.step = step;
+        this.done = done;
+        this.parts = parts;
+        this.predicate = predicate;
+    }
+    
+    /**
+     * @param patientId The patient ID
+     * @return Condition matching the patient with exactly this ID
+     */
+    public static PatientCondition idEquals(String patientId) {
+        Objects.requireNonNull(patientId, "patientId");
+        return new PatientCondition(Kind.ID_EQUALS, "id = '" + patientId + "'", patientId, null, null, null, false,
+            null, patient -> patientId.equals(patient.getPatientId()));
+    }
+    
+    /**
+     * @param searchTerm Text to look for, ignoring case
+     * @return Condition matching patients whose first or last name contains the text
+     */
+    public static PatientCondition nameContains(String searchTerm) {
+        String term = Objects.requireNonNull(searchTerm, "searchTerm").toLowerCase().trim();
+        return new PatientCondition(Kind.NAME_CONTAINS, "name contains '" + term + "'", term, null, null, null, false,
+            null, patient -> containsIgnoringCase(patient.getFirstName(), term)
+                || containsIgnoringCase(patient.getLastName(), term));
+    }
+    
+    /**
+     * @param dateOfBirth The date of birth
+     * @return Condition matching patients born on that date
+     */
+    public static PatientCondition dateOfBirthOn(LocalDate dateOfBirth) {
+        return dateOfBirthBetween(dateOfBirth, dateOfBirth);
+    }
+    
+    /**
+     * @param from The earliest date of birth to include
+     * @param to The latest date of birth to include
+     * @return Condition matching patients born within the range
+     */
+    public static PatientCondition dateOfBirthBetween(LocalDate from, LocalDate to) {
+        Objects.requireNonNull(from, "from");
+        Objects.requireNonNull(to, "to");
+        return new PatientCondition(Kind.DATE_OF_BIRTH_BETWEEN, "date of birth in [" + from + ", " + to + "]",
+            null, from, to, null, false, null, patient -> within(patient.getDateOfBirth(), from, to));
+    }
+    
+    /**
+     * @param day The day
+     * @return Condition matching patients whose saved timestamp falls on that day
+     */
+    public static PatientCondition savedOn(LocalDate day) {
+        return savedBetween(day, day);
+    }
+    
+    /**
+     * @param from The first saved day to include
+     * @param to The last saved day to include
+     * @return Condition matching patients whose saved timestamp falls within the range
+     */
+    public static PatientCondition savedBetween(LocalDate from, LocalDate to) {
+        Objects.requireNonNull(from, "from");
+        Objects.requireNonNull(to, "to");
+        return new PatientCondition(Kind.SAVED_BETWEEN, "saved in [" + from + ", " + to + "]", null, from, to,
+            null, false, null, patient -> patient.getSavedTimestamp() != null
+                && within(patient.getSavedTimestamp().toLocalDate(), from, to));
+    }
+    
+    /**
+     * @param complete true for completed check-ins, false for incomplete ones
+     * @return Condition on the overall check-in flag
+     */
+    public static PatientCondition checkInComplete(boolean complete) {
+        return stepDone(PatientStepIndex.CHECK_IN_COMPLETE, complete);
+    }
+    
+    /**
+     * @param step Step name, as accepted by PatientDataStorage.findPatientsByStepStatus
+     * @param done true for "done", false for "not done"
+     * @return Condition on one check-in step
+     */
+    public static PatientCondition stepDone(String step, boolean done) {
+        Objects.requireNonNull(step, "step");
+        return new PatientCondition(Kind.STEP_STATUS, step + (done ? " done" : " not done"), null, null, null,
+            step, done, null, patient -> PatientStepIndex.isStepDone(patient, step) == done);
+    }
+    
+    /**
+     * @param description How the condition reads in a query plan
+     * @param predicate Test applied to each candidate patient
+     * @return Condition the planner cannot answer from an index
+     */
+    public static PatientCondition matching(String description, Predicate<PatientDataObject> predicate) {
+        Objects.requireNonNull(predicate, "predicate");
+        return new PatientCondition(Kind.OTHER, description, null, null, null, null, false, null, predicate);
+    }
+    
+    /**
+     * @param other Another condition
+     * @return Condition matching patients that match both; the planner still sees each part
+     */
+    public PatientCondition and(PatientCondition other) {
+        List<PatientCondition> combined = new ArrayList<>(flatten());
+        combined.addAll(other.flatten());
+        return new PatientCondition(Kind.ALL_OF, null, null, null, null, null, false,
+            Collections.unmodifiableList(combined), null);
+    }
+    
+    /**
+     * @param other Another condition
+     * @return Condition matching patients that match either
+     */
+    public PatientCondition or(PatientCondition other) {
+        return matching("(" + this + " OR " + other + ")", patient -> test(patient) || other.test(patient));
+    }
+    
+    /**
+     * @return Condition matching patients that do not match this one
+     */
+    public PatientCondition negate() {
+        return matching("NOT (" + this + ")", patient -> !test(patient));
+    }
+    
+    /**
+     * @param patient The patient to test
+     * @return true if the patient matches
+     */
+    public boolean test(PatientDataObject patient) {
+        if (kind == Kind.ALL_OF) {
+            for (PatientCondition part : parts) {
+                if (!part.test(patient)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return predicate.test(patient);
+    }
+    
+    /**
+     * @return This condition split into the conditions it requires together
+     */
+    List<PatientCondition> flatten() {
+        return kind == Kind.ALL_OF ? parts : Collections.singletonList(this);
+    }
+    
+    Kind getKind() { return kind; }
+    
+    /**
+     * @return Patient ID for ID_EQUALS, or the lowercased search term for NAME_CONTAINS
+     */
+    String getText() { return text; }
+    
+    LocalDate getFrom() { return from; }
+    
+    LocalDate getTo() { return to; }
+    
+    String getStep() { return step; }
+    
+    boolean isDone() { return done; }
+    
+    @Override
+    public String toString() {
+        if (kind == Kind.ALL_OF) {
+            List<String> descriptions = new ArrayList<>();
+            for (PatientCondition part : parts) {
+                descriptions.add(part.toString());
+            }
+            return String.join(" AND ", descriptions);
+        }
+        return description != null ? description : "custom condition";
+    }
+    
+    private static boolean containsIgnoringCase(String name, String lowerTerm) {
+        return name != null && name.toLowerCase().contains(lowerTerm);
+    }
+    
+    private static boolean within(LocalDate date, LocalDate from, LocalDate to) {
+        return date != null && !date.isBefore(from) && !date.isAfter(to);
+    }
+}
@@ -1,6 +1,5 @@
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -307,85 +306,8 @@ public class PatientDataObject {
      * Convert to a JSON-like string representation
      */
     public String toJsonString() {
-        StringBuilder json = new StringBuilder();
-        DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-        DateTimeFormatter dateTimeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-        
-        json.append("{\n");
-        json.append("  \"patientId\": \"").append(patientId).append("\",\n");
-        json.append("  \"savedTimestamp\": \"").append(savedTimestamp.format(dateTimeFormatter)).append("\",\n");
-        json.append("  \"personalInfo\": {\n");
-        json.append("    \"firstName\": \"").append(firstName != null ? firstName : "").append("\",\n");
-        json.append("    \"lastName\": \"").append(lastName != null ? lastName : "").append("\",\n");
-        json.append("    \"dateOfBirth\": \"").append(dateOfBirth != null ? dateOfBirth.format(dateFormatter) : "").append("\",\n");
-        json.append("    \"gender\": \"").append(gender != null ? gender : "").append("\",\n");
-        json.append("    \"age\": ").append(age).append("\n");
-        json.append("  },\n");
-        
-        json.append("  \"contactInfo\": {\n");
-        json.append("    \"phoneNumber\": \"").append(phoneNumber != null ? phoneNumber : "").append("\",\n");
-        json.append("    \"email\": \"").append(email != null ? email : "").append("\",\n");
-        json.append("    \"address\": \"").append(address != null ? address : "").append("\",\n");
-        json.append("    \"emergencyContact\": \"").append(emergencyContact != null ? emergencyContact : "").append("\",\n");
-        json.append("    \"emergencyPhone\": \"").append(emergencyPhone != null ? emergencyPhone : "").append("\"\n");
-        json.append("  },\n");
-        
-        json.append("  \"insuranceInfo\": {\n");
-        json.append("    \"provider\": \"").append(insuranceProvider != null ? insuranceProvider : "").append("\",\n");
-        json.append("    \"policyNumber\": \"").append(insurancePolicyNumber != null ? insurancePolicyNumber : "").append("\",\n");
-        json.append("    \"groupNumber\": \"").append(insuranceGroupNumber != null ? insuranceGroupNumber : "").append("\",\n");
-        json.append("    \"verified\": ").append(insuranceVerified).append("\n");
-        json.append("  },\n");
-        
-        json.append("  \"appointmentInfo\": {\n");
-        json.append("    \"dateTime\": \"").append(appointmentDateTime != null ? appointmentDateTime.format(dateTimeFormatter) : "").append("\",\n");
-        json.append("    \"doctorName\": \"").append(doctorName != null ? doctorName : "").append("\",\n");
-        json.append("    \"appointmentType\": \"").append(appointmentType != null ? appointmentType : "").append("\",\n");
-        json.append("    \"confirmed\": ").append(appointmentConfirmed).append("\n");
-        json.append("  },\n");
-        
-        json.append("  \"medicalInfo\": {\n");
-        json.append("    \"medications\": ").append(medications.toString()).append(",\n");
-        json.append("    \"diagnoses\": ").append(diagnoses.toString()).append(",\n");
-        json.append("    \"allergies\": ").append(allergies.toString()).append(",\n");
-        json.append("    \"patientPicture\": \"").append(patientPicturePath != null ? patientPicturePath : "").append("\"\n");
-        json.append("  },\n");
-        
-        json.append("  \"paymentInfo\": {\n");
-        json.append("    \"copayAmount\": ").append(copayAmount).append(",\n");
-        json.append("    \"paymentMethod\": \"").append(paymentMethod != null ? paymentMethod : "").append("\",\n");
-        json.append("    \"referenceNumber\": \"").append(paymentReferenceNumber != null ? paymentReferenceNumber : "").append("\",\n");
-        json.append("    \"processed\": ").append(paymentProcessed).append("\n");
-        json.append("  },\n");
-        
-        json.append("  \"healthScreening\": {\n");
-        json.append("    \"temperature\": ").append(temperature).append(",\n");
-        json.append("    \"symptoms\": \"").append(currentSymptoms != null ? currentSymptoms : "").append("\",\n");
-        json.append("    \"recentTravel\": ").append(recentTravel).append(",\n");
-        json.append("    \"covidExposure\": ").append(covidExposure).append(",\n");
-        json.append("    \"passed\": ").append(healthScreeningPassed).append("\n");
-        json.append("  },\n");
-        
-        json.append("  \"checkInInfo\": {\n");
-        json.append("    \"startTime\": \"").append(checkInStartTime != null ? checkInStartTime.format(dateTimeFormatter) : "").append("\",\n");
-        json.append("    \"completeTime\": \"").append(checkInCompleteTime != null ? checkInCompleteTime.format(dateTimeFormatter) : "").append("\",\n");
-        json.append("    \"waitingArea\": \"").append(waitingAreaAssignment != null ? waitingAreaAssignment : "").append("\",\n");
-        json.append("    \"specialInstructions\": \"").append(specialInstructions != null ? specialInstructions : "").append("\",\n");
-        json.append("    \"complete\": ").append(checkInComplete).append(",\n");
-        json.append("    \"completionPercentage\": ").append(getCompletionPercentage()).append("\n");
-        json.append("  },\n");
-        
-        json.append("  \"sessionNotes\": ").append(sessionNotes.toString()).append(",\n");
-        json.append("  \"stepCompletion\": {\n");
-        stepCompletionStatus.forEach((step, completed) -> 
-            json.append("    \"").append(step).append("\": ").append(completed).append(",\n"));
-        if (!stepCompletionStatus.isEmpty()) {
-            json.setLength(json.length() - 2); // Remove last comma
-            json.append("\n");
-        }
-        json.append("  }\n");
-        json.append("}");
-        
+        StringBuilder json = new StringBuilder(2048);
+        PatientJsonWriter.append(this, json, true);
         return json.toString();
     }
     
@@ -1,150 +1,1546 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
+import java.time.MonthDay;
 import java.time.format.DateTimeFormatter;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Storage manager for patient data objects.
- * This class manages an in-memory array of PatientDataObject instances
- * and provides methods for saving, retrieving, and managing patient data.
- * In the future, this can be easily extended to integrate with a database.
+ * This class manages an in-memory collection of PatientDataObject instances,
+ * indexed by patient ID, and provides methods for saving, retrieving, and
+ * managing patient data.
+ * When persistence is enabled every change is first appended to a write-ahead log
+ * in the data directory. A snapshot of the whole store is written periodically, and
+ * startup loads the latest snapshot and replays only the log written after it.
+ * The storage is safe to use from several threads: reads never block and iterate
+ * weakly consistent views, writes to different patients take different lock stripes,
+ * and only snapshot capture and clearing the store briefly exclude writers.
+ * Other backends implement the same PatientRepository interface; see
+ * FilePatientRepository, JdbcPatientRepository and OffHeapPatientRepository.
  */
-public class PatientDataStorage {
+public class PatientDataStorage implements PatientRepository {
     
     private static final Logger LOGGER = Logger.getLogger(PatientDataStorage.class.getName());
     
     // Singleton instance
     private static PatientDataStorage instance;
     
-    // In-memory storage (will be replaced with database integration later)
-    private List<PatientDataObject> savedPatients;
+    // Number of write locks; writers to different patients rarely share a stripe
+    private static final int LOCK_STRIPES = 64;
+    
+    // Sorts below every printable character, so "lee" orders before "leeds"
+    private static final char NAME_KEY_SEPARATOR = '\u0000';
+    
+    private static final char PAGE_TOKEN_SEPARATOR = ':';
+    
+    private static final int DEFAULT_CHANGE_QUEUE_CAPACITY = 10_000;
+    
+    /** Version of a patient ID that is not stored; pass it to the versioned save to insert only */
+    public static final long NO_VERSION = 0;
+    
+    // Expected version that matches whatever is stored, for unconditional saves
+    private static final long ANY_VERSION = -1;
+    
+    // Minimum gap between background index compactions, so a burst of deletes costs one pass
+    private static final long INDEX_COMPACTION_INTERVAL_MILLIS = 1_000;
+    
+    /**
+     * A saved patient together with its position in save order and name order. The
+     * patient is the store's own copy, never the caller's object. Lookups by ID and
+     * conflict results hand out further copies; listings and queries hand out this
+     * object itself, which callers must treat as read-only, since editing it would
+     * change the version under open snapshots and leave the indexes describing the old
+     * fields. While read snapshots are open, each version links to the one it replaced,
+     * and a deleted patient is represented by a tombstone version with no patient.
+     */
+    private static final class StoredPatient {
+        private final PatientDataObject patient;
+        private final long sequence;
+        private final String nameSortKey;
+        private final long version;
+        
+        // Older version still visible to an open snapshot; cut once no snapshot needs it
+        private volatile StoredPatient previous;
+        
+        StoredPatient(PatientDataObject patient, long sequence, String nameSortKey, long version,
+                      StoredPatient previous) {
+            this.patient = patient;
+            this.sequence = sequence;
+            this.nameSortKey = nameSortKey;
+            this.version = version;
+            this.previous = previous;
+        }
+    }
+    
+    /**
+     * Consistent point-in-time view of the stored patients, for long-running readers
+     * such as reports and exports. Writers carry on while it is open; the versions it
+     * needs are kept until it is closed. Close it promptly, ideally with try-with-resources.
+     */
+    public final class ReadSnapshot implements AutoCloseable {
+        private final long commitStamp;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+        
+        private ReadSnapshot(long commitStamp) {
+            this.commitStamp = commitStamp;
+        }
+        
+        /**
+         * @return Commit stamp of the last change visible in this snapshot
+         */
+        public long getCommitStamp() {
+            return commitStamp;
+        }
+        
+        /**
+         * @return Every patient stored when the snapshot was opened, in save order; the
+         *         stored objects themselves, so read-only
+         */
+        public List<PatientDataObject> getAllPatients() {
+            return streamStoredAt(commitStamp).map(stored -> stored.patient)
+                    .collect(Collectors.toCollection(ArrayList::new));
+        }
+        
+        /**
+         * @param patientId The patient ID to look up
+         * @return A copy of the patient as stored when the snapshot was opened
+         */
+        public Optional<PatientDataObject> findPatientById(String patientId) {
+            if (patientId == null) {
+                return Optional.empty();
+            }
+            StoredPatient found = visibleAt(savedPatients.get(patientId), commitStamp);
+            if (found == null) {
+                // Deleted since, and possibly saved again under a new version chain
+                for (StoredPatient tombstone : retiredById.getOrDefault(patientId, List.of())) {
+                    found = visibleAt(tombstone, commitStamp);
+                    if (found != null) {
+                        break;
+                    }
+                }
+            }
+            return found != null ? Optional.of(copyOf(found.patient)) : Optional.empty();
+        }
+        
+        /**
+         * @return Number of patients stored when the snapshot was opened
+         */
+        public int getPatientCount() {
+            return (int) streamStoredAt(commitStamp).count();
+        }
+        
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                releaseSnapshot(commitStamp);
+            }
+        }
+    }
+    
+    // In-memory storage keyed by patient ID (will be replaced with database integration later)
+    private final Map<String, StoredPatient> savedPatients;
+    
+    // Save sequence -> patient ID, so listings keep the order patients were first saved in
+    private final ConcurrentNavigableMap<Long, String> saveOrder;
+    private final AtomicLong saveSequence;
+    
+    // Commit clock, advanced by every save, delete and clear; a stored version carries the
+    // stamp of the change that wrote it, which also keys the render cache
+    private final AtomicLong commitClock;
+    
+    // Open read snapshots: commit stamp -> number open at that stamp. Also the lock that
+    // orders snapshot registration against taking and finishing commit stamps.
+    private final ConcurrentNavigableMap<Long, Integer> openSnapshots = new ConcurrentSkipListMap<>();
+    
+    // Commit stamps taken but not yet fully applied, and snapshots waiting for them (guarded by openSnapshots)
+    private final NavigableSet<Long> pendingCommits = new TreeSet<>();
+    private int snapshotsWaiting;
+    
+    // Tombstones for patients deleted while snapshots were open, by their save sequence and
+    // by patient ID; their save-order slots are kept until no snapshot can still list them
+    private final Map<Long, StoredPatient> retiredVersions = new ConcurrentHashMap<>();
+    private final Map<String, List<StoredPatient>> retiredById = new ConcurrentHashMap<>();
+    
+    // Patients whose version chains hold versions kept for snapshots; also serializes pruning
+    private final Queue<String> versionChainsToPrune = new ConcurrentLinkedQueue<>();
+    
+    // Name sort key -> patient ID, so pages can be listed alphabetically without sorting the store
+    private final ConcurrentNavigableMap<String, String> nameOrder;
+    
+    // Per-patient write locks, chosen by patient ID hash
+    private final ReentrantLock[] writeLocks;
+    
+    // Shared by ordinary writes, exclusive for snapshot capture and clearing the store
+    private final ReadWriteLock checkpointLock;
+    
+    // Secondary index for name substring searches, kept in step with savedPatients
+    private PatientNameIndex nameIndex;
+    
+    // Soundex and one-edit buckets over name words for misspelling-tolerant lookups
+    private PatientPhoneticIndex phoneticIndex;
+    
+    // Blocking keys for spotting a returning patient saved again under a new ID
+    private PatientDuplicateDetector duplicateDetector;
+    
+    // Patient ID -> likely duplicates found when it was last saved individually
+    private final Map<String, List<PatientDuplicateMatch>> suspectedDuplicates = new ConcurrentHashMap<>();
+    
+    // Sorted date-of-birth index for exact, range and birthday lookups
+    private PatientDateOfBirthIndex dateOfBirthIndex;
+    
+    // Live completion and per-day counters so statistics never scan the store
+    private PatientStorageCounters counters;
+    
+    // Saved-day partitions so today's and date-range listings only touch the days asked for
+    private PatientDayPartitions dayPartitions;
+    
+    // Bitmaps of check-in step completion for completed/incomplete and compound step queries
+    private PatientStepIndex stepIndex;
+    
+    // Columnar copy of numeric and yes/no fields for aggregate analytics
+    private PatientMetricsColumns metricsColumns;
+    
+    // Rendered JSON and summary text per record version, so unchanged records are not re-rendered
+    private final PatientRenderCache renderCache = new PatientRenderCache();
+    
+    // Change event subscribers; writers only queue events for them, never wait on them
+    private final List<PatientChangeSubscription> changeSubscriptions = new CopyOnWriteArrayList<>();
+    
+    // Durable change log; null while persistence is disabled
+    private volatile PatientWriteAheadLog writeAheadLog;
+    
+    // Persistence configuration and background snapshot state; unused while persistence is disabled
+    private volatile PatientPersistenceSettings persistenceSettings;
+    private volatile ExecutorService snapshotWriter;
+    private final AtomicBoolean snapshotInProgress = new AtomicBoolean(false);
+    private final AtomicInteger changesSinceSnapshot = new AtomicInteger();
+    
+    // Runs savePatientDataAsync saves in call order, off the caller's thread
+    private final ExecutorService saveRunner;
+    
+    // Reclaims rows freed by deletes in the bitmap and columnar indexes, off the delete path
+    private final ExecutorService indexCompactor;
+    private final AtomicBoolean indexCompactionScheduled = new AtomicBoolean(false);
+    private volatile long lastIndexCompactionMillis;
     
     /**
-     * Private constructor for singleton pattern
+     * The application shares getInstance(); package-private so tests and benchmarks
+     * can create independent stores
      */
-    private PatientDataStorage() {
-        this.savedPatients = new ArrayList<>();
+    PatientDataStorage() {
+        this.savedPatients = new ConcurrentHashMap<>();
+        this.saveOrder = new ConcurrentSkipListMap<>();
+        this.saveSequence = new AtomicLong();
+        this.commitClock = new AtomicLong();
+        this.nameOrder = new ConcurrentSkipListMap<>();
+        this.writeLocks = new ReentrantLock[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            writeLocks[i] = new ReentrantLock();
+        }
+        this.checkpointLock = new ReentrantReadWriteLock();
+        this.nameIndex = new PatientNameIndex();
+        this.phoneticIndex = new PatientPhoneticIndex();
+        this.duplicateDetector = new PatientDuplicateDetector();
+        this.dateOfBirthIndex = new PatientDateOfBirthIndex();
+        this.counters = new PatientStorageCounters();
+        this.dayPartitions = new PatientDayPartitions();
+        this.stepIndex = new PatientStepIndex();
+        this.metricsColumns = new PatientMetricsColumns();
+        this.saveRunner = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "patient-save");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.indexCompactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "patient-index-compactor");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
         LOGGER.info("PatientDataStorage initialized");
     }
     
     /**
-     * Get singleton instance
+     * Get singleton instance
+     */
+    public static synchronized PatientDataStorage getInstance() {
+        if (instance == null) {
+            instance = new PatientDataStorage();
+        }
+        return instance;
+    }
+    
+    /**
+     * Save a patient data object to storage, replacing any stored patient with the same ID
+     * @param patientData The patient data to save
+     * @return true if saved successfully, false otherwise
+     */
+    @Override
+    public boolean savePatientData(PatientDataObject patientData) {
+        return save(patientData, ANY_VERSION, null).isSaved();
+    }
+    
+    /**
+     * Save a patient without running the save on the calling thread. Saves are applied
+     * one at a time, in call order, on the store's save thread, which then hands the log
+     * record to the log; with the ASYNC sync policy the writer thread batches the fsyncs
+     * of many saves. The caller's object is copied first, so it may be edited again at once.
+     * @param patientData The patient data to save
+     * @return Completes with the save's result once its log record is durable, or at once
+     *         if persistence is off or the save was not made. NOT_DURABLE if the save was
+     *         applied but its log write or fsync failed, so it is visible now and lost on restart
+     */
+    public CompletableFuture<PatientSaveResult> savePatientDataAsync(PatientDataObject patientData) {
+        PatientDataObject toSave = patientData != null ? copyOf(patientData) : null;
+        return CompletableFuture.supplyAsync(() -> {
+            AtomicReference<CompletableFuture<Void>> durable = new AtomicReference<>();
+            PatientSaveResult result = save(toSave, ANY_VERSION, durable);
+            if (durable.get() == null) {
+                return CompletableFuture.completedFuture(result);
+            }
+            return durable.get().handle((ignored, error) -> {
+                if (error == null) {
+                    return result;
+                }
+                LOGGER.severe("Save of patient " + toSave.getPatientId() + " is not durable: " + error.getMessage());
+                return result.notDurable();
+            });
+        }, saveRunner).thenCompose(Function.identity());
+    }
+    
+    /**
+     * Save a patient only if the stored version is still the one the caller read, so
+     * concurrent editors cannot silently overwrite each other. On a conflict nothing is
+     * written and the result carries the current version and patient to merge with.
+     * @param patientData The patient data to save
+     * @param expectedVersion Version from getPatientVersion, read before the patient
+     *                        itself; NO_VERSION to save only if the ID is not stored yet
+     * @return SAVED with the new version, CONFLICT, or FAILED
+     */
+    public PatientSaveResult savePatientData(PatientDataObject patientData, long expectedVersion) {
+        if (expectedVersion < NO_VERSION) {
+            LOGGER.warning("Invalid expected version: " + expectedVersion);
+            return PatientSaveResult.failed();
+        }
+        return save(patientData, expectedVersion, null);
+    }
+    
+    /**
+     * Read-modify-write a patient with optimistic retries: the update is applied to a
+     * private copy of the stored patient and saved against the version it was read at,
+     * and re-applied to the newer patient if another writer got in first.
+     * @param patientId The patient to update
+     * @param update Given a copy of the stored patient (null if none is stored), returns the
+     *               patient to save, or null to give up
+     * @param maxAttempts Most saves to attempt before reporting the last conflict
+     * @return The last attempt's result; FAILED if the update gave up
+     */
+    public PatientSaveResult updatePatientData(String patientId, UnaryOperator<PatientDataObject> update,
+                                               int maxAttempts) {
+        if (patientId == null || update == null) {
+            return PatientSaveResult.failed();
+        }
+        
+        PatientSaveResult result = PatientSaveResult.failed();
+        for (int attempt = 0; attempt < maxAttempts; attempt++) {
+            StoredPatient stored = savedPatients.get(patientId);
+            long expectedVersion = stored != null ? stored.version : NO_VERSION;
+            PatientDataObject copy = stored != null ? copyOf(stored.patient) : null;
+            
+            PatientDataObject updated = update.apply(copy);
+            if (updated == null) {
+                return PatientSaveResult.failed();
+            }
+            if (!patientId.equals(updated.getPatientId())) {
+                LOGGER.warning("Update changed the patient ID of " + patientId + "; not saved");
+                return PatientSaveResult.failed();
+            }
+            
+            result = save(updated, expectedVersion, null);
+            if (!result.isConflict()) {
+                return result;
+            }
+        }
+        LOGGER.warning("Gave up updating patient " + patientId + " after " + maxAttempts + " conflicting attempts");
+        return result;
+    }
+    
+    /**
+     * @param patientId The patient ID to look up
+     * @return Version of the stored patient, which changes on every save; NO_VERSION if none is stored
+     */
+    public long getPatientVersion(String patientId) {
+        StoredPatient stored = patientId != null ? savedPatients.get(patientId) : null;
+        return stored != null ? stored.version : NO_VERSION;
+    }
+    
+    /**
+     * Save a patient, optionally only if its stored version matches
+     * @param expectedVersion Required stored version, or ANY_VERSION to save unconditionally
+     * @param durable If not null, receives the future for the save's log record when one is written
+     */
+    private PatientSaveResult save(PatientDataObject patientData, long expectedVersion,
+                                   AtomicReference<CompletableFuture<Void>> durable) {
+        if (patientData == null) {
+            LOGGER.warning("Cannot save null patient data");
+            return PatientSaveResult.failed();
+        }
+        
+        String patientId = patientData.getPatientId();
+        if (patientId == null || patientId.trim().isEmpty()) {
+            LOGGER.warning("Cannot save patient data without a patient ID");
+            return PatientSaveResult.failed();
+        }
+        
+        // Stored versions must not change under snapshot readers when the caller edits its object
+        PatientDataObject storedCopy = copyOf(patientData);
+        PatientDataObject previous;
+        long version;
+        ReentrantLock writeLock = writeLockFor(patientId);
+        checkpointLock.readLock().lock();
+        writeLock.lock();
+        try {
+            // The version can only change under this patient's write lock, so the check holds until the save
+            StoredPatient current = savedPatients.get(patientId);
+            long currentVersion = current != null ? current.version : NO_VERSION;
+            if (expectedVersion != ANY_VERSION && expectedVersion != currentVersion) {
+                LOGGER.info("Rejected stale save of patient " + patientId + ": expected version "
+                    + expectedVersion + ", stored version " + currentVersion);
+                // A copy, since the caller is expected to merge its changes into it
+                return new PatientSaveResult(PatientSaveResult.Status.CONFLICT, currentVersion,
+                    current != null ? copyOf(current.patient) : null);
+            }
+            
+            // Log before applying so an acknowledged save survives a crash
+            PatientWriteAheadLog log = writeAheadLog;
+            if (log != null) {
+                CompletableFuture<Void> logged = log.appendSave(storedCopy);
+                if (durable != null) {
+                    durable.set(logged);
+                }
+            }
+            
+            previous = applySave(storedCopy);
+            version = savedPatients.get(patientId).version;
+            publishChange(previous != null ? PatientChangeEvent.Type.UPDATED : PatientChangeEvent.Type.SAVED,
+                patientId, storedCopy);
+        
+        } catch (Exception e) {
+            LOGGER.severe("Error saving patient data: " + e.getMessage());
+            return PatientSaveResult.failed();
+        } finally {
+            writeLock.unlock();
+            checkpointLock.readLock().unlock();
+        }
+        
+        noteLoggedChanges(1);
+        pruneVersionsIfIdle();
+        
+        if (previous != null) {
+            LOGGER.info("Updated existing patient: " + patientId);
+        } else {
+            LOGGER.info("Saved new patient: " + patientId);
+        }
+        
+        List<PatientDuplicateMatch> duplicates = recordSuspectedDuplicates(patientData);
+        
+        LOGGER.info("Total patients in storage: " + savedPatients.size());
+        return new PatientSaveResult(PatientSaveResult.Status.SAVED, version, patientData, duplicates);
+    }
+    
+    /**
+     * Check a just-saved patient for duplicates and remember the outcome. Runs after
+     * the save's locks are released; the checks only read.
+     */
+    private List<PatientDuplicateMatch> recordSuspectedDuplicates(PatientDataObject patient) {
+        List<PatientDuplicateMatch> duplicates = duplicateDetector.findMatches(patient, this::getStoredPatient);
+        if (duplicates.isEmpty()) {
+            suspectedDuplicates.remove(patient.getPatientId());
+        } else if (savedPatients.containsKey(patient.getPatientId())) {
+            suspectedDuplicates.put(patient.getPatientId(), duplicates);
+            LOGGER.warning("Patient " + patient.getPatientId() + " may be a duplicate of "
+                + duplicates.get(0).getDuplicatePatientId() + " (score "
+                + String.format("%.2f", duplicates.get(0).getScore()) + ")");
+        }
+        return duplicates;
+    }
+    
+    /**
+     * Find stored patients that are probably the same person as the given one, e.g. to
+     * warn at the front desk before a returning patient is saved under a new ID.
+     * Only patients sharing a last name and date of birth, phone number or insurance
+     * policy number are compared.
+     * @param patient The patient to check; need not be saved
+     * @return Likely duplicates, best first
+     */
+    public List<PatientDuplicateMatch> findPotentialDuplicates(PatientDataObject patient) {
+        if (patient == null) {
+            return new ArrayList<>();
+        }
+        return duplicateDetector.findMatches(patient, this::getStoredPatient);
+    }
+    
+    /**
+     * @param patientId A patient ID
+     * @return Likely duplicates found when the patient was last saved individually, for
+     *         those still stored; batch saves are not checked, see findAllDuplicates
+     */
+    public List<PatientDuplicateMatch> getSuspectedDuplicates(String patientId) {
+        List<PatientDuplicateMatch> duplicates = new ArrayList<>();
+        List<PatientDuplicateMatch> recorded = patientId != null ? suspectedDuplicates.get(patientId) : null;
+        if (recorded != null) {
+            for (PatientDuplicateMatch match : recorded) {
+                if (savedPatients.containsKey(match.getDuplicatePatientId())) {
+                    duplicates.add(match);
+                }
+            }
+        }
+        return duplicates;
+    }
+    
+    /**
+     * Check every stored patient against the others, in parallel on the common
+     * fork-join pool. Writers are not held off; patients saved meanwhile may or may
+     * not be checked.
+     * @return Each likely duplicate pair once, with the smaller ID first, best first
+     */
+    public List<PatientDuplicateMatch> findAllDuplicates() {
+        return savedPatients.values().parallelStream()
+            .flatMap(stored -> duplicateDetector.findMatches(stored.patient, this::getStoredPatient).stream())
+            .filter(match -> match.getPatientId().compareTo(match.getDuplicatePatientId()) < 0)
+            .sorted((a, b) -> Double.compare(b.getScore(), a.getScore()))
+            .collect(Collectors.toList());
+    }
+    
+    /**
+     * Save many patients as one batch: the batch is logged with a single write and
+     * applied while writers are briefly held off, instead of locking per patient.
+     * Patients without an ID are skipped.
+     * @param patients The patients to save
+     * @return Number of patients saved; 0 if the batch could not be logged
+     */
+    public int savePatients(Collection<PatientDataObject> patients) {
+        if (patients == null || patients.isEmpty()) {
+            return 0;
+        }
+        
+        List<PatientDataObject> batch = new ArrayList<>(patients.size());
+        for (PatientDataObject patient : patients) {
+            if (patient != null && patient.getPatientId() != null && !patient.getPatientId().trim().isEmpty()) {
+                batch.add(copyOf(patient));
+            }
+        }
+        if (batch.size() < patients.size()) {
+            LOGGER.warning("Skipping " + (patients.size() - batch.size()) + " patients without a patient ID");
+        }
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        
+        checkpointLock.writeLock().lock();
+        try {
+            PatientWriteAheadLog log = writeAheadLog;
+            if (log != null) {
+                log.appendSaves(batch);
+            }
+            List<PatientChangeEvent> events = changeSubscriptions.isEmpty() ? null : new ArrayList<>(batch.size());
+            for (PatientDataObject patient : batch) {
+                PatientDataObject previous = applySave(patient);
+                if (events != null) {
+                    events.add(new PatientChangeEvent(
+                        previous != null ? PatientChangeEvent.Type.UPDATED : PatientChangeEvent.Type.SAVED,
+                        patient.getPatientId(), patient));
+                }
+            }
+            if (events != null) {
+                publishChanges(events);
+            }
+        } catch (Exception e) {
+            LOGGER.severe("Error saving patient batch: " + e.getMessage());
+            return 0;
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+        
+        noteLoggedChanges(batch.size());
+        pruneVersionsIfIdle();
+        
+        LOGGER.info("Saved batch of " + batch.size() + " patients; total patients in storage: " + savedPatients.size());
+        return batch.size();
+    }
+    
+    /**
+     * Import patients from an NDJSON file, such as one written by exportAllPatientsAsJson.
+     * Lines are parsed in parallel and saved in batches; malformed lines are skipped and reported.
+     * @param file The file to import
+     * @param progressListener Receives a progress report after every batch; may be null
+     * @return Final report with counts and the malformed lines
+     */
+    public PatientImportReport importPatientsFromNdjson(Path file, Consumer<PatientImportReport> progressListener)
+            throws IOException {
+        return new PatientBulkImporter(this, progressListener).importNdjson(file);
+    }
+    
+    /**
+     * Subscribe to patient changes with a queue of 10,000 pending patients that falls back
+     * to a RESYNC event when it overflows
+     * @param listener Receives batches of changes
+     * @param executor Runs deliveries, e.g. Platform::runLater to update views on the JavaFX thread
+     * @return The subscription; cancel it to stop receiving changes
+     */
+    public PatientChangeSubscription subscribe(PatientChangeListener listener, Executor executor) {
+        return subscribe(listener, executor, DEFAULT_CHANGE_QUEUE_CAPACITY, PatientChangeSubscription.OverflowPolicy.RESYNC);
+    }
+    
+    /**
+     * Subscribe to patient changes. Changes are published as they are applied, in order
+     * per patient; changes replayed when persistence is enabled are not published.
+     * @param listener Receives batches of changes
+     * @param executor Runs deliveries
+     * @param capacity Most patients with undelivered changes before the overflow policy applies
+     * @param overflowPolicy What to give up when the queue is full
+     * @return The subscription; cancel it to stop receiving changes
+     */
+    public PatientChangeSubscription subscribe(PatientChangeListener listener, Executor executor, int capacity,
+                                               PatientChangeSubscription.OverflowPolicy overflowPolicy) {
+        PatientChangeSubscription subscription = new PatientChangeSubscription(listener, executor, capacity,
+            overflowPolicy, changeSubscriptions::remove);
+        changeSubscriptions.add(subscription);
+        LOGGER.info("Added patient change subscriber (" + changeSubscriptions.size() + " total)");
+        return subscription;
+    }
+    
+    /**
+     * Queue one change for every subscriber. Callers hold the lock that ordered the change.
+     */
+    private void publishChange(PatientChangeEvent.Type type, String patientId, PatientDataObject patient) {
+        if (!changeSubscriptions.isEmpty()) {
+            publishChanges(Collections.singletonList(new PatientChangeEvent(type, patientId, patient)));
+        }
+    }
+    
+    private void publishChanges(List<PatientChangeEvent> events) {
+        for (PatientChangeSubscription subscription : changeSubscriptions) {
+            subscription.offer(events);
+        }
+    }
+    
+    /**
+     * Queue a background pass reclaiming freed index rows, once deletes have freed more
+     * rows than remain live. Deletes themselves only clear their rows.
+     */
+    private void scheduleIndexCompaction() {
+        if (!stepIndex.needsCompaction() && !metricsColumns.needsCompaction()) {
+            return;
+        }
+        if (indexCompactionScheduled.compareAndSet(false, true)) {
+            indexCompactor.execute(this::compactIndexes);
+        }
+    }
+    
+    /**
+     * Compact the step bitmaps and metric columns one at a time, so writers wait on at
+     * most one of them, and no sooner than the compaction interval after the last pass
+     */
+    private void compactIndexes() {
+        try {
+            long waitMillis = lastIndexCompactionMillis + INDEX_COMPACTION_INTERVAL_MILLIS - System.currentTimeMillis();
+            if (waitMillis > 0) {
+                Thread.sleep(waitMillis);
+            }
+            
+            long startNanos = System.nanoTime();
+            boolean compactedSteps = stepIndex.compact();
+            Thread.yield();
+            boolean compactedMetrics = metricsColumns.compact();
+            if (compactedSteps || compactedMetrics) {
+                LOGGER.info(String.format("Compacted patient indexes in %d ms",
+                    (System.nanoTime() - startNanos) / 1_000_000));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            LOGGER.severe("Error compacting patient indexes: " + e.getMessage());
+        } finally {
+            lastIndexCompactionMillis = System.currentTimeMillis();
+            indexCompactionScheduled.set(false);
+        }
+    }
+    
+    /**
+     * Lock stripe guarding writes to the given patient ID
+     */
+    private ReentrantLock writeLockFor(String patientId) {
+        int hash = patientId.hashCode();
+        return writeLocks[(hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1)];
+    }
+    
+    /**
+     * Apply a save to the in-memory store and its indexes.
+     * Callers hold the patient's write lock, or are replaying on a single thread.
+     * @return The patient previously stored under the same ID, or null
+     */
+    private PatientDataObject applySave(PatientDataObject patientData) {
+        String patientId = patientData.getPatientId();
+        StoredPatient existing = savedPatients.get(patientId);
+        
+        // An update keeps its original position in the listing
+        long sequence = existing != null ? existing.sequence : saveSequence.incrementAndGet();
+        String nameSortKey = nameSortKey(patientData);
+        long version = beginCommit();
+        StoredPatient stored = new StoredPatient(patientData, sequence, nameSortKey, version, existing);
+        savedPatients.put(patientId, stored);
+        if (existing == null) {
+            saveOrder.put(sequence, patientId);
+        }
+        if (!endCommit(version)) {
+            stored.previous = null;
+        } else if (existing != null) {
+            // A snapshot open now may predate this save and still read the replaced version
+            versionChainsToPrune.add(patientId);
+        }
+        renderCache.invalidate(patientId);
+        if (existing != null && !existing.nameSortKey.equals(nameSortKey)) {
+            nameOrder.remove(existing.nameSortKey);
+        }
+        nameOrder.put(nameSortKey, patientId);
+        
+        nameIndex.add(patientData);
+        phoneticIndex.add(patientData);
+        duplicateDetector.add(patientData);
+        dateOfBirthIndex.add(patientData);
+        counters.add(patientData);
+        dayPartitions.add(patientData, sequence);
+        stepIndex.add(patientData);
+        metricsColumns.add(patientData);
+        return existing != null ? existing.patient : null;
+    }
+    
+    /**
+     * Apply a delete to the in-memory store and its indexes.
+     * Callers hold the patient's write lock, or are replaying on a single thread.
+     * @return true if a patient was removed
+     */
+    private boolean applyDelete(String patientId) {
+        StoredPatient removed = savedPatients.get(patientId);
+        if (removed != null) {
+            long version = beginCommit();
+            // File the tombstone before the removal so a concurrent snapshot reader finds one or the other
+            StoredPatient tombstone = tombstoneOf(removed, version);
+            retire(patientId, tombstone);
+            savedPatients.remove(patientId);
+            if (!endCommit(version)) {
+                // No snapshot open now can still list the patient
+                discardRetired(tombstone);
+            }
+            nameOrder.remove(removed.nameSortKey);
+        }
+        nameIndex.remove(patientId);
+        phoneticIndex.remove(patientId);
+        duplicateDetector.remove(patientId);
+        suspectedDuplicates.remove(patientId);
+        dateOfBirthIndex.remove(patientId);
+        counters.remove(patientId);
+        dayPartitions.remove(patientId);
+        stepIndex.remove(patientId);
+        metricsColumns.remove(patientId);
+        renderCache.invalidate(patientId);
+        return removed != null;
+    }
+    
+    /**
+     * Empty the in-memory store and its indexes.
+     * Callers hold the checkpoint lock exclusively, or are replaying on a single thread.
+     */
+    private void applyClear() {
+        long version = beginCommit();
+        for (Map.Entry<String, StoredPatient> stored : savedPatients.entrySet()) {
+            retire(stored.getKey(), tombstoneOf(stored.getValue(), version));
+        }
+        savedPatients.clear();
+        if (!endCommit(version)) {
+            // No other writer runs during a clear, so nothing new is filed between these
+            saveOrder.clear();
+            retiredVersions.clear();
+            retiredById.clear();
+            versionChainsToPrune.clear();
+        }
+        nameOrder.clear();
+        nameIndex.clear();
+        phoneticIndex.clear();
+        duplicateDetector.clear();
+        suspectedDuplicates.clear();
+        dateOfBirthIndex.clear();
+        counters.clear();
+        dayPartitions.clear();
+        stepIndex.clear();
+        metricsColumns.clear();
+        renderCache.clear();
+    }
+    
+    /**
+     * Key ordering patients by last name, then first name. The patient ID is appended
+     * so patients with the same name still get distinct keys.
+     */
+    private static String nameSortKey(PatientDataObject patient) {
+        String lastName = patient.getLastName() != null ? patient.getLastName().trim().toLowerCase() : "";
+        String firstName = patient.getFirstName() != null ? patient.getFirstName().trim().toLowerCase() : "";
+        return lastName + NAME_KEY_SEPARATOR + firstName + NAME_KEY_SEPARATOR + patient.getPatientId();
+    }
+    
+    /**
+     * Find a patient by ID
+     * @param patientId The patient ID to search for
+     * @return Optional containing a copy of the patient if found, empty otherwise; the
+     *         copy may be edited and saved back
+     */
+    @Override
+    public Optional<PatientDataObject> findPatientById(String patientId) {
+        if (patientId == null || patientId.trim().isEmpty()) {
+            return Optional.empty();
+        }
+        
+        PatientDataObject stored = getStoredPatient(patientId);
+        return stored != null ? Optional.of(copyOf(stored)) : Optional.empty();
+    }
+    
+    /**
+     * Find patients by name (first or last name contains search term)
+     * @param searchTerm The search term
+     * @return List of matching patients, in save order
+     */
+    @Override
+    public List<PatientDataObject> findPatientsByName(String searchTerm) {
+        if (searchTerm == null || searchTerm.trim().isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        String lowerSearchTerm = searchTerm.toLowerCase().trim();
+        
+        return resolveInSaveOrder(nameIndex.findPatientIds(lowerSearchTerm));
+    }
+    
+    /**
+     * Find patients whose name resembles a possibly misspelled one, e.g. "Jon Smyth"
+     * for "John Smith". Every word of the query must match a word of the patient's first
+     * or last name that sounds alike (Soundex) or is within the edit distance of it.
+     * Candidates come from the phonetic index's buckets, so no patient is scanned.
+     * @param name The name as typed; word order does not matter
+     * @param maxDistance Most letter edits accepted per word, from 0 to 2
+     * @param maxResults Most matches to return
+     * @return Matches, closest first
+     */
+    public List<PatientNameMatch> findPatientsBySimilarName(String name, int maxDistance, int maxResults) {
+        List<PatientNameMatch> matches = new ArrayList<>();
+        if (name == null || name.trim().isEmpty() || maxResults <= 0) {
+            return matches;
+        }
+        
+        for (PatientPhoneticIndex.Candidate candidate : phoneticIndex.findSimilarPatients(name, maxDistance)) {
+            PatientDataObject patient = getStoredPatient(candidate.getPatientId());
+            if (patient != null) {
+                matches.add(new PatientNameMatch(patient, candidate.getDistance(), candidate.getPhoneticMatches()));
+                if (matches.size() == maxResults) {
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+    
+    /**
+     * Find patients by date of birth
+     * @param dateOfBirth The date of birth to search for
+     * @return List of matching patients
+     */
+    @Override
+    public List<PatientDataObject> findPatientsByDateOfBirth(LocalDate dateOfBirth) {
+        if (dateOfBirth == null) {
+            return new ArrayList<>();
+        }
+        
+        return resolvePatients(dateOfBirthIndex.findPatientIds(dateOfBirth));
+    }
+    
+    /**
+     * Find patients born within a date range (both ends inclusive)
+     * @param from The earliest date of birth to include
+     * @param to The latest date of birth to include
+     * @return List of matching patients, ordered by date of birth
+     */
+    @Override
+    public List<PatientDataObject> findPatientsByDateOfBirthRange(LocalDate from, LocalDate to) {
+        if (from == null || to == null) {
+            return new ArrayList<>();
+        }
+        
+        return resolvePatients(dateOfBirthIndex.findPatientIdsBetween(from, to));
+    }
+    
+    /**
+     * Find patients whose birthday falls on the given month and day
+     * @param birthday The month and day to search for
+     * @return List of matching patients
+     */
+    public List<PatientDataObject> findPatientsByBirthday(MonthDay birthday) {
+        if (birthday == null) {
+            return new ArrayList<>();
+        }
+        
+        return resolvePatients(dateOfBirthIndex.findPatientIdsByBirthday(birthday));
+    }
+    
+    /**
+     * Find patients whose birthday is today
+     * @return List of patients born on today's month and day
+     */
+    public List<PatientDataObject> findPatientsWithBirthdayToday() {
+        return findPatientsByBirthday(MonthDay.now());
+    }
+    
+    /**
+     * Run a query. The planner estimates how many candidates each index that applies
+     * to one of its conditions would produce, reads candidates from the smallest, and
+     * checks every condition on those candidates only.
+     * @param query The query
+     * @return Matching patients, sorted and limited as the query asks
+     */
+    public List<PatientDataObject> query(PatientQuery query) {
+        List<PatientDataObject> results = new ArrayList<>();
+        runQuery(query, results);
+        return results;
+    }
+    
+    /**
+     * Run a query and describe how it ran: the access path chosen, the alternatives
+     * compared, and the rows examined, matched and returned
+     * @param query The query
+     * @return The executed plan
+     */
+    public PatientQueryPlan explain(PatientQuery query) {
+        return runQuery(query, new ArrayList<>());
+    }
+    
+    /**
+     * A source of query candidates, with the number it is expected to produce
+     */
+    private static final class AccessPath {
+        private final String description;
+        private final int estimatedRows;
+        // Candidate IDs; null for a scan of every patient in save order
+        private final Supplier<List<String>> candidateIds;
+        
+        AccessPath(String description, int estimatedRows, Supplier<List<String>> candidateIds) {
+            this.description = description;
+            this.estimatedRows = estimatedRows;
+            this.candidateIds = candidateIds;
+        }
+        
+        @Override
+        public String toString() {
+            return description + " ~" + estimatedRows;
+        }
+    }
+    
+    /**
+     * Plan and run a query, adding the matches to results
+     */
+    private PatientQueryPlan runQuery(PatientQuery query, List<PatientDataObject> results) {
+        long start = System.nanoTime();
+        List<AccessPath> paths = planAccessPaths(query.getConditions());
+        AccessPath chosen = paths.get(0);
+        for (AccessPath path : paths) {
+            if (path.estimatedRows < chosen.estimatedRows) {
+                chosen = path;
+            }
+        }
+        
+        Stream<PatientDataObject> candidates = chosen.candidateIds == null
+            ? streamInSaveOrder()
+            : chosen.candidateIds.get().stream().map(this::getStoredPatient).filter(Objects::nonNull);
+        Comparator<PatientDataObject> comparator = query.comparator();
+        int limit = query.getLimit();
+        int examined = 0;
+        
+        // Unsorted queries can stop at the limit; sorted ones need every match first
+        Iterator<PatientDataObject> iterator = candidates.iterator();
+        while (iterator.hasNext() && (comparator != null || results.size() < limit)) {
+            PatientDataObject patient = iterator.next();
+            examined++;
+            if (query.matches(patient)) {
+                results.add(patient);
+            }
+        }
+        int matched = results.size();
+        if (comparator != null) {
+            results.sort(comparator);
+        }
+        if (results.size() > limit) {
+            results.subList(limit, results.size()).clear();
+        }
+        
+        List<String> considered = new ArrayList<>();
+        for (AccessPath path : paths) {
+            considered.add(path.toString());
+        }
+        List<String> filters = new ArrayList<>();
+        for (PatientCondition condition : query.getConditions()) {
+            filters.add(condition.toString());
+        }
+        return new PatientQueryPlan(query.toString(), chosen.description, chosen.estimatedRows, considered,
+            filters, examined, matched, results.size(), System.nanoTime() - start);
+    }
+    
+    /**
+     * List the full scan and every index access that some condition allows. Step
+     * conditions share one access, since the bitmap index intersects them itself.
+     */
+    private List<AccessPath> planAccessPaths(List<PatientCondition> conditions) {
+        List<AccessPath> paths = new ArrayList<>();
+        paths.add(new AccessPath("full scan", getPatientCount(), null));
+        Map<String, Boolean> steps = new LinkedHashMap<>();
+        
+        for (PatientCondition condition : conditions) {
+            LocalDate from = condition.getFrom();
+            LocalDate to = condition.getTo();
+            switch (condition.getKind()) {
+                case ID_EQUALS:
+                    String patientId = condition.getText();
+                    paths.add(new AccessPath("patient ID lookup", savedPatients.containsKey(patientId) ? 1 : 0,
+                        () -> Collections.singletonList(patientId)));
+                    break;
+                case NAME_CONTAINS:
+                    String term = condition.getText();
+                    if (!term.isEmpty()) {
+                        paths.add(new AccessPath("name gram index", nameIndex.estimateMatches(term),
+                            () -> nameIndex.findPatientIds(term)));
+                    }
+                    break;
+                case DATE_OF_BIRTH_BETWEEN:
+                    paths.add(new AccessPath("date-of-birth index", dateOfBirthIndex.countBetween(from, to),
+                        () -> dateOfBirthIndex.findPatientIdsBetween(from, to)));
+                    break;
+                case SAVED_BETWEEN:
+                    paths.add(new AccessPath("saved-day partitions", dayPartitions.countBetween(from, to),
+                        () -> dayPartitions.findPatientIdsBetween(from, to)));
+                    break;
+                case STEP_STATUS:
+                    steps.putIfAbsent(condition.getStep(), condition.isDone());
+                    break;
+                default:
+                    break;
+            }
+        }
+        
+        if (!steps.isEmpty()) {
+            paths.add(new AccessPath("step bitmap index", stepIndex.count(steps),
+                () -> stepIndex.findPatientIds(steps)));
+        }
+        return paths;
+    }
+    
+    /**
+     * Map patient IDs returned by an index to the stored patient objects
+     */
+    private List<PatientDataObject> resolvePatients(Collection<String> patientIds) {
+        List<PatientDataObject> patients = new ArrayList<>(patientIds.size());
+        for (String patientId : patientIds) {
+            PatientDataObject patient = getStoredPatient(patientId);
+            if (patient != null) {
+                patients.add(patient);
+            }
+        }
+        return patients;
+    }
+    
+    /**
+     * Look up the stored patients for IDs that come back from an index in no particular
+     * order, and put them in save order, so the same query lists them the same way
+     */
+    private List<PatientDataObject> resolveInSaveOrder(Collection<String> patientIds) {
+        List<StoredPatient> found = new ArrayList<>(patientIds.size());
+        for (String patientId : patientIds) {
+            StoredPatient stored = savedPatients.get(patientId);
+            if (stored != null && stored.patient != null) {
+                found.add(stored);
+            }
+        }
+        found.sort(Comparator.comparingLong(stored -> stored.sequence));
+        List<PatientDataObject> patients = new ArrayList<>(found.size());
+        for (StoredPatient stored : found) {
+            patients.add(stored.patient);
+        }
+        return patients;
+    }
+    
+    /**
+     * @return The stored patient for the ID, or null if there is none
+     */
+    private PatientDataObject getStoredPatient(String patientId) {
+        StoredPatient stored = savedPatients.get(patientId);
+        return stored != null ? stored.patient : null;
+    }
+    
+    /**
+     * Stream the stored patients in save order. The view is weakly consistent:
+     * it never fails under concurrent writes but may or may not reflect them.
+     */
+    private Stream<PatientDataObject> streamInSaveOrder() {
+        return streamStoredInSaveOrder().map(stored -> stored.patient);
+    }
+    
+    /**
+     * Stream the stored entries, with their versions, in save order
+     */
+    private Stream<StoredPatient> streamStoredInSaveOrder() {
+        return saveOrder.entrySet().stream()
+                .map(slot -> currentInSlot(slot.getKey(), slot.getValue()))
+                .filter(Objects::nonNull);
+    }
+    
+    /**
+     * @return The current version filed under a save-order slot, or null if the slot is only
+     *         kept for snapshots, i.e. the patient was deleted or deleted and saved again
+     */
+    private StoredPatient currentInSlot(long sequence, String patientId) {
+        StoredPatient stored = savedPatients.get(patientId);
+        return stored != null && stored.sequence == sequence ? stored : null;
+    }
+    
+    /**
+     * @return The live version stored under the ID if it is still filed under this
+     *         name key, or null for a key left behind by a rename or delete
+     */
+    private StoredPatient currentUnderName(String nameSortKey, String patientId) {
+        StoredPatient stored = savedPatients.get(patientId);
+        return stored != null && stored.nameSortKey.equals(nameSortKey) ? stored : null;
+    }
+    
+    /**
+     * Stream the versions visible at a commit stamp, in save order
+     */
+    private Stream<StoredPatient> streamStoredAt(long commitStamp) {
+        return saveOrder.entrySet().stream()
+                .map(slot -> {
+                    StoredPatient head = currentInSlot(slot.getKey(), slot.getValue());
+                    return visibleAt(head != null ? head : retiredVersions.get(slot.getKey()), commitStamp);
+                })
+                .filter(Objects::nonNull);
+    }
+    
+    /**
+     * Walk a version chain back to the version visible at a commit stamp
+     * @return That version, or null if the patient did not exist or was deleted at the stamp
+     */
+    private static StoredPatient visibleAt(StoredPatient newest, long commitStamp) {
+        StoredPatient version = newest;
+        while (version != null && version.version > commitStamp) {
+            version = version.previous;
+        }
+        return version != null && version.patient != null ? version : null;
+    }
+    
+    private static StoredPatient tombstoneOf(StoredPatient deleted, long version) {
+        return new StoredPatient(null, deleted.sequence, deleted.nameSortKey, version, deleted);
+    }
+    
+    /**
+     * File a deleted patient's tombstone so snapshots can still list it and find it by ID
+     */
+    private void retire(String patientId, StoredPatient tombstone) {
+        retiredVersions.put(tombstone.sequence, tombstone);
+        retiredById.merge(patientId, List.of(tombstone), (filed, added) -> {
+            List<StoredPatient> tombstones = new ArrayList<>(filed);
+            tombstones.addAll(added);
+            return List.copyOf(tombstones);
+        });
+    }
+    
+    /**
+     * Drop a tombstone and the save-order slot it kept, once no snapshot can list it
+     */
+    private void discardRetired(StoredPatient tombstone) {
+        if (!retiredVersions.remove(tombstone.sequence, tombstone)) {
+            return;
+        }
+        String patientId = saveOrder.remove(tombstone.sequence);
+        if (patientId != null) {
+            retiredById.computeIfPresent(patientId, (id, filed) -> {
+                List<StoredPatient> tombstones = new ArrayList<>(filed);
+                tombstones.remove(tombstone);
+                return tombstones.isEmpty() ? null : List.copyOf(tombstones);
+            });
+        }
+    }
+    
+    /**
+     * Private copy of a patient through the record codec
+     */
+    private static PatientDataObject copyOf(PatientDataObject patient) {
+        return PatientRecordCodec.decode(ByteBuffer.wrap(PatientRecordCodec.encode(patient)));
+    }
+    
+    /**
+     * Open a consistent point-in-time view of the stored patients. Writers are not held
+     * off: the snapshot takes the current commit stamp and only waits for commits already
+     * stamped at or below it to finish applying, so it covers exactly those changes.
+     * @return The snapshot; close it when done
+     */
+    public ReadSnapshot openSnapshot() {
+        boolean interrupted = false;
+        try {
+            synchronized (openSnapshots) {
+                long commitStamp = commitClock.get();
+                // Registered first, so every commit finishing from here on keeps what this snapshot reads
+                openSnapshots.merge(commitStamp, 1, Integer::sum);
+                snapshotsWaiting++;
+                try {
+                    while (!pendingCommits.isEmpty() && pendingCommits.first() <= commitStamp) {
+                        try {
+                            openSnapshots.wait();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                } finally {
+                    snapshotsWaiting--;
+                }
+                return new ReadSnapshot(commitStamp);
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    /**
+     * @return Number of read snapshots currently open
+     */
+    public int getOpenSnapshotCount() {
+        int open = 0;
+        for (int count : openSnapshots.values()) {
+            open += count;
+        }
+        return open;
+    }
+    
+    private void releaseSnapshot(long commitStamp) {
+        synchronized (openSnapshots) {
+            openSnapshots.computeIfPresent(commitStamp, (stamp, count) -> count > 1 ? count - 1 : null);
+        }
+        pruneVersions();
+    }
+    
+    /**
+     * Take the next commit stamp for a save, delete or clear that is about to be applied.
+     * Taken and recorded as pending in one step, so a snapshot never takes a stamp
+     * covering a change it cannot yet see.
+     */
+    private long beginCommit() {
+        synchronized (openSnapshots) {
+            long stamp = commitClock.incrementAndGet();
+            pendingCommits.add(stamp);
+            return stamp;
+        }
+    }
+    
+    /**
+     * Mark a commit as applied
+     * @return true if a snapshot is open, so the versions the commit replaced must be kept
+     */
+    private boolean endCommit(long stamp) {
+        synchronized (openSnapshots) {
+            pendingCommits.remove(stamp);
+            if (snapshotsWaiting > 0) {
+                openSnapshots.notifyAll();
+            }
+            return !openSnapshots.isEmpty();
+        }
+    }
+    
+    /**
+     * Prune leftovers of snapshots closed while a writer was still keeping versions for them
+     */
+    private void pruneVersionsIfIdle() {
+        if (openSnapshots.isEmpty() && (!versionChainsToPrune.isEmpty() || !retiredVersions.isEmpty())) {
+            pruneVersions();
+        }
+    }
+    
+    /**
+     * Drop every version and tombstone no open snapshot can see: a version replaced at or
+     * before the oldest open snapshot's stamp is invisible to all of them. The clock is
+     * read before the registry, so a snapshot opening meanwhile has a stamp at least as
+     * new as the one chosen and never needs what is pruned. Writers are not held off.
+     */
+    private void pruneVersions() {
+        synchronized (versionChainsToPrune) {
+            long oldest = commitClock.get();
+            Map.Entry<Long, Integer> oldestSnapshot = openSnapshots.firstEntry();
+            if (oldestSnapshot != null) {
+                oldest = Math.min(oldest, oldestSnapshot.getKey());
+            }
+            
+            List<String> chains = new ArrayList<>();
+            for (String patientId; (patientId = versionChainsToPrune.poll()) != null; ) {
+                chains.add(patientId);
+            }
+            for (String patientId : chains) {
+                if (cutVersionChain(savedPatients.get(patientId), oldest)) {
+                    versionChainsToPrune.add(patientId);
+                }
+            }
+            
+            for (StoredPatient tombstone : retiredVersions.values()) {
+                if (tombstone.version <= oldest) {
+                    discardRetired(tombstone);
+                } else {
+                    cutVersionChain(tombstone, oldest);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Unlink the versions of one chain that were replaced at or before the given stamp
+     * @return true if the chain still holds older versions after the cut
+     */
+    private static boolean cutVersionChain(StoredPatient newest, long oldestSnapshot) {
+        boolean retained = false;
+        for (StoredPatient version = newest; version != null && version.previous != null; version = version.previous) {
+            if (version.version <= oldestSnapshot) {
+                version.previous = null;
+                break;
+            }
+            retained = true;
+        }
+        return retained;
+    }
+    
+    /**
+     * Get all saved patients
+     * @return List of all saved patients; the stored objects themselves, so read-only.
+     *         Use findPatientById for a copy to edit.
+     */
+    @Override
+    public List<PatientDataObject> getAllPatients() {
+        return streamInSaveOrder().collect(Collectors.toCollection(ArrayList::new));
+    }
+    
+    /**
+     * Get one page of saved patients. Only the requested page is read, so listing a
+     * large store page by page never copies it. Pages are weakly consistent: patients
+     * saved or deleted while paging may or may not appear. In save order none is
+     * repeated, since an update keeps its slot. In name order a patient renamed while
+     * paging moves to its new key, so it is left out if that key falls before the
+     * token and listed again if it falls after.
+     * @param pageSize Maximum number of patients on the page
+     * @param pageToken Token from the previous page, or null for the first page
+     * @param sortOrder Order to list patients in; must match the order the token came from
+     * @return The page, or an empty last page if the arguments are invalid
+     */
+    public PatientPage getPatientsPage(int pageSize, String pageToken, PatientPage.SortOrder sortOrder) {
+        if (pageSize <= 0 || sortOrder == null) {
+            LOGGER.warning("Invalid page request: size " + pageSize + ", order " + sortOrder);
+            return PatientPage.empty(sortOrder);
+        }
+        
+        String lastKey = null;
+        if (pageToken != null) {
+            lastKey = decodePageToken(pageToken, sortOrder);
+            if (lastKey == null) {
+                LOGGER.warning("Ignoring page request with invalid token: " + pageToken);
+                return PatientPage.empty(sortOrder);
+            }
+        }
+        
+        switch (sortOrder) {
+            case SAVE_ORDER:
+            case SAVE_ORDER_DESCENDING: {
+                NavigableMap<Long, String> order = sortOrder == PatientPage.SortOrder.SAVE_ORDER
+                    ? saveOrder : saveOrder.descendingMap();
+                Long after;
+                try {
+                    after = lastKey != null ? Long.valueOf(lastKey) : null;
+                } catch (NumberFormatException e) {
+                    LOGGER.warning("Ignoring page request with invalid token: " + pageToken);
+                    return PatientPage.empty(sortOrder);
+                }
+                return readPage(order, after, pageSize, sortOrder, (sequence, patientId) -> {
+                    StoredPatient stored = currentInSlot(sequence, patientId);
+                    return stored != null ? stored.patient : null;
+                });
+            }
+            default: {
+                NavigableMap<String, String> order = sortOrder == PatientPage.SortOrder.NAME
+                    ? nameOrder : nameOrder.descendingMap();
+                return readPage(order, lastKey, pageSize, sortOrder, (key, patientId) -> {
+                    StoredPatient stored = currentUnderName(key, patientId);
+                    return stored != null ? stored.patient : null;
+                });
+            }
+        }
+    }
+    
+    /**
+     * Collect up to pageSize patients following {@code after} in the given order
+     */
+    private <K> PatientPage readPage(NavigableMap<K, String> order, K after, int pageSize,
+                                     PatientPage.SortOrder sortOrder,
+                                     BiFunction<K, String, PatientDataObject> resolver) {
+        NavigableMap<K, String> remaining = after != null ? order.tailMap(after, false) : order;
+        List<PatientDataObject> patients = new ArrayList<>(Math.min(pageSize, 1024));
+        K lastKey = null;
+        boolean more = false;
+        
+        for (Map.Entry<K, String> entry : remaining.entrySet()) {
+            PatientDataObject patient = resolver.apply(entry.getKey(), entry.getValue());
+            if (patient == null) {
+                continue;
+            }
+            if (patients.size() == pageSize) {
+                more = true;
+                break;
+            }
+            patients.add(patient);
+            lastKey = entry.getKey();
+        }
+        
+        String nextPageToken = more ? encodePageToken(sortOrder, lastKey.toString()) : null;
+        return new PatientPage(patients, nextPageToken, sortOrder, savedPatients.size());
+    }
+    
+    /**
+     * Opaque continuation token: the sort order and the last key returned, URL-safe Base64 encoded
      */
-    public static synchronized PatientDataStorage getInstance() {
-        if (instance == null) {
-            instance = new PatientDataStorage();
-        }
-        return instance;
+    private static String encodePageToken(PatientPage.SortOrder sortOrder, String lastKey) {
+        String token = sortOrder.name() + PAGE_TOKEN_SEPARATOR + lastKey;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.UTF_8));
     }
     
     /**
-     * Save a patient data object to storage
-     * @param patientData The patient data to save
-     * @return true if saved successfully, false otherwise
+     * @return The last key encoded in the token, or null if the token is malformed or
+     *         was issued for a different sort order
      */
-    public boolean savePatientData(PatientDataObject patientData) {
-        if (patientData == null) {
-            LOGGER.warning("Cannot save null patient data");
-            return false;
-        }
-        
+    private static String decodePageToken(String pageToken, PatientPage.SortOrder sortOrder) {
+        String token;
         try {
-            // Check if patient already exists (update scenario)
-            Optional<PatientDataObject> existingPatient = findPatientById(patientData.getPatientId());
-            
-            if (existingPatient.isPresent()) {
-                // Update existing patient
-                int index = savedPatients.indexOf(existingPatient.get());
-                savedPatients.set(index, patientData);
-                LOGGER.info("Updated existing patient: " + patientData.getPatientId());
-            } else {
-                // Add new patient
-                savedPatients.add(patientData);
-                LOGGER.info("Saved new patient: " + patientData.getPatientId());
-            }
-            
-            LOGGER.info("Total patients in storage: " + savedPatients.size());
-            return true;
-            
-        } catch (Exception e) {
-            LOGGER.severe("Error saving patient data: " + e.getMessage());
-            return false;
+            token = new String(Base64.getUrlDecoder().decode(pageToken), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
         }
+        String prefix = sortOrder.name() + PAGE_TOKEN_SEPARATOR;
+        return token.startsWith(prefix) ? token.substring(prefix.length()) : null;
     }
     
     /**
-     * Find a patient by ID
-     * @param patientId The patient ID to search for
-     * @return Optional containing the patient if found, empty otherwise
+     * Get patients saved today
+     * @return List of patients saved today
      */
-    public Optional<PatientDataObject> findPatientById(String patientId) {
-        if (patientId == null || patientId.trim().isEmpty()) {
-            return Optional.empty();
-        }
-        
-        return savedPatients.stream()
-                .filter(patient -> patientId.equals(patient.getPatientId()))
-                .findFirst();
+    public List<PatientDataObject> getPatientsFromToday() {
+        return getPatientsSavedOn(LocalDate.now());
     }
     
     /**
-     * Find patients by name (first or last name contains search term)
-     * @param searchTerm The search term
-     * @return List of matching patients
+     * Get patients saved on a given day, read from that day's partition only
+     * @param date The day to list
+     * @return List of patients saved that day, in save order
      */
-    public List<PatientDataObject> findPatientsByName(String searchTerm) {
-        if (searchTerm == null || searchTerm.trim().isEmpty()) {
+    public List<PatientDataObject> getPatientsSavedOn(LocalDate date) {
+        if (date == null) {
             return new ArrayList<>();
         }
         
-        String lowerSearchTerm = searchTerm.toLowerCase().trim();
-        
-        return savedPatients.stream()
-                .filter(patient -> {
-                    String firstName = patient.getFirstName();
-                    String lastName = patient.getLastName();
-                    return (firstName != null && firstName.toLowerCase().contains(lowerSearchTerm)) ||
-                           (lastName != null && lastName.toLowerCase().contains(lowerSearchTerm));
-                })
-                .collect(Collectors.toList());
+        return resolvePatients(dayPartitions.findPatientIds(date));
     }
     
     /**
-     * Find patients by date of birth
-     * @param dateOfBirth The date of birth to search for
-     * @return List of matching patients
+     * Get patients saved within a range of days (both ends inclusive), reading only
+     * the partitions for those days
+     * @param from The first day to include
+     * @param to The last day to include
+     * @return List of matching patients, by saved day and then in save order
      */
-    public List<PatientDataObject> findPatientsByDateOfBirth(LocalDate dateOfBirth) {
-        if (dateOfBirth == null) {
+    public List<PatientDataObject> getPatientsSavedBetween(LocalDate from, LocalDate to) {
+        if (from == null || to == null) {
             return new ArrayList<>();
         }
         
-        return savedPatients.stream()
-                .filter(patient -> dateOfBirth.equals(patient.getDateOfBirth()))
-                .collect(Collectors.toList());
+        return resolvePatients(dayPartitions.findPatientIdsBetween(from, to));
     }
     
     /**
-     * Get all saved patients
-     * @return List of all saved patients
+     * Compact the partitions of every day before today. Past partitions thaw again
+     * automatically if a patient saved on that day is updated or deleted.
+     * This also happens on its own at startup and after each background snapshot.
      */
-    public List<PatientDataObject> getAllPatients() {
-        return new ArrayList<>(savedPatients);
+    public void freezePastDays() {
+        checkpointLock.writeLock().lock();
+        try {
+            freezePastDaysLocked();
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
     }
     
     /**
-     * Get patients saved today
-     * @return List of patients saved today
+     * Callers hold the checkpoint lock exclusively
      */
-    public List<PatientDataObject> getPatientsFromToday() {
-        LocalDate today = LocalDate.now();
-        
-        return savedPatients.stream()
-                .filter(patient -> patient.getSavedTimestamp().toLocalDate().equals(today))
-                .collect(Collectors.toList());
+    private void freezePastDaysLocked() {
+        int frozen = dayPartitions.freezeBefore(LocalDate.now());
+        if (frozen > 0) {
+            LOGGER.info("Froze " + frozen + " past day partitions (" + dayPartitions.getPartitionCount() + " in total)");
+        }
     }
     
     /**
@@ -152,9 +1548,7 @@ public class PatientDataStorage {
      * @return List of patients with completed check-ins
      */
     public List<PatientDataObject> getCompletedCheckIns() {
-        return savedPatients.stream()
-                .filter(PatientDataObject::isCheckInComplete)
-                .collect(Collectors.toList());
+        return findPatientsByStepStatus(Collections.singletonMap(PatientStepIndex.CHECK_IN_COMPLETE, true));
     }
     
     /**
@@ -162,9 +1556,124 @@ public class PatientDataStorage {
      * @return List of patients with incomplete check-ins
      */
     public List<PatientDataObject> getIncompleteCheckIns() {
-        return savedPatients.stream()
-                .filter(patient -> !patient.isCheckInComplete())
-                .collect(Collectors.toList());
+        return findPatientsByStepStatus(Collections.singletonMap(PatientStepIndex.CHECK_IN_COMPLETE, false));
+    }
+    
+    /**
+     * Find patients by check-in step status, e.g. insurance done and payment not done.
+     * Answered from per-step bitmaps, so no patient records are scanned.
+     * @param stepConditions Step name ("identification", "insurance", "appointment", "contact",
+     *                       "payment", "healthScreening", "completion", or
+     *                       PatientStepIndex.CHECK_IN_COMPLETE) -> true for done, false for not done
+     * @return List of patients matching every condition
+     */
+    public List<PatientDataObject> findPatientsByStepStatus(Map<String, Boolean> stepConditions) {
+        if (stepConditions == null) {
+            return new ArrayList<>();
+        }
+        
+        return resolvePatients(stepIndex.findPatientIds(stepConditions));
+    }
+    
+    /**
+     * Count patients by check-in step status without building a list
+     * @param stepConditions Step name -> true for done, false for not done
+     * @return Number of patients matching every condition
+     */
+    public int countPatientsByStepStatus(Map<String, Boolean> stepConditions) {
+        if (stepConditions == null) {
+            return 0;
+        }
+        
+        return stepIndex.count(stepConditions);
+    }
+    
+    /**
+     * Sum a numeric field over every saved patient, from the columnar analytics store
+     * @param metric The field to sum
+     * @return The total
+     */
+    public double sumMetric(PatientMetricsColumns.Metric metric) {
+        return metricsColumns.sum(metric);
+    }
+    
+    /**
+     * Average a numeric field over every saved patient; patients without a recorded
+     * temperature are left out of the temperature average
+     * @param metric The field to average
+     * @return The mean, or 0 when no patients are saved
+     */
+    public double averageMetric(PatientMetricsColumns.Metric metric) {
+        return metricsColumns.average(metric);
+    }
+    
+    /**
+     * Count saved patients with a yes/no field set, e.g. recent travel or COVID exposure
+     * @param flag The field to count
+     * @return Number of patients for whom it is true
+     */
+    public int countPatientsWithFlag(PatientMetricsColumns.Flag flag) {
+        return metricsColumns.count(flag);
+    }
+    
+    /**
+     * Histogram of a numeric field over equal-width buckets; out-of-range values count
+     * in the first or last bucket
+     * @param metric The field to bucket
+     * @param min Lower edge of the first bucket
+     * @param max Upper edge of the last bucket
+     * @param buckets Number of buckets
+     * @return Patient count per bucket
+     */
+    public long[] getMetricHistogram(PatientMetricsColumns.Metric metric, double min, double max, int buckets) {
+        return metricsColumns.histogram(metric, min, max, buckets);
+    }
+    
+    /**
+     * Aggregate a numeric field per payment method, e.g. copay totals by method
+     * @param metric The field to aggregate
+     * @return Payment method -> count, sum and average
+     */
+    public Map<String, PatientMetricsColumns.GroupStats> getMetricByPaymentMethod(PatientMetricsColumns.Metric metric) {
+        return metricsColumns.groupByPaymentMethod(metric);
+    }
+    
+    /**
+     * Get the number of completed check-ins without building a list
+     * @return Number of patients with completed check-ins
+     */
+    @Override
+    public int getCompletedCheckInCount() {
+        return counters.getCompletedCount();
+    }
+    
+    /**
+     * Get the number of incomplete check-ins without building a list
+     * @return Number of patients with incomplete check-ins
+     */
+    public int getIncompleteCheckInCount() {
+        return counters.getIncompleteCount();
+    }
+    
+    /**
+     * Get the number of patients saved on a given day without building a list
+     * @param date The day to count
+     * @return Number of patients saved on that day
+     */
+    @Override
+    public int getPatientCountForDate(LocalDate date) {
+        if (date == null) {
+            return 0;
+        }
+        return counters.getCountForDate(date);
+    }
+    
+    /**
+     * Get the number of patients saved today without building a list
+     * @return Number of patients saved today
+     */
+    public int getPatientCountFromToday() {
+        return getPatientCountForDate(LocalDate.now());
     }
     
     /**
@@ -172,40 +1681,337 @@ public class PatientDataStorage {
      * @param patientId The patient ID to delete
      * @return true if deleted successfully, false otherwise
      */
+    @Override
     public boolean deletePatient(String patientId) {
         if (patientId == null || patientId.trim().isEmpty()) {
             return false;
         }
         
-        boolean removed = savedPatients.removeIf(patient -> patientId.equals(patient.getPatientId()));
+        ReentrantLock writeLock = writeLockFor(patientId);
+        checkpointLock.readLock().lock();
+        writeLock.lock();
+        try {
+            if (!savedPatients.containsKey(patientId)) {
+                LOGGER.warning("Patient not found for deletion: " + patientId);
+                return false;
+            }
+            
+            PatientWriteAheadLog log = writeAheadLog;
+            if (log != null) {
+                log.appendDelete(patientId);
+            }
+            
+            applyDelete(patientId);
+            publishChange(PatientChangeEvent.Type.DELETED, patientId, null);
         
-        if (removed) {
-            LOGGER.info("Deleted patient: " + patientId);
-        } else {
-            LOGGER.warning("Patient not found for deletion: " + patientId);
+        } catch (IOException e) {
+            LOGGER.severe("Error logging patient deletion: " + e.getMessage());
+            return false;
+        } finally {
+            writeLock.unlock();
+            checkpointLock.readLock().unlock();
         }
         
-        return removed;
+        noteLoggedChanges(1);
+        pruneVersionsIfIdle();
+        scheduleIndexCompaction();
+        LOGGER.info("Deleted patient: " + patientId);
+        return true;
     }
     
     /**
      * Clear all patient data (use with caution!)
      */
+    @Override
     public void clearAllData() {
-        int count = savedPatients.size();
-        savedPatients.clear();
+        int count;
+        
+        checkpointLock.writeLock().lock();
+        try {
+            count = savedPatients.size();
+            
+            PatientWriteAheadLog log = writeAheadLog;
+            if (log != null) {
+                log.appendClear();
+            }
+            
+            applyClear();
+            publishChange(PatientChangeEvent.Type.CLEARED, null, null);
+        
+        } catch (IOException e) {
+            LOGGER.severe("Error logging clear of patient data, nothing was cleared: " + e.getMessage());
+            return;
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+        
+        noteLoggedChanges(1);
         LOGGER.warning("Cleared all patient data (" + count + " patients)");
     }
     
+    /**
+     * Enable durable persistence, replaying any existing log to rebuild the store.
+     * Call once at startup, before patients are saved.
+     * @param settings Data directory and sync policy
+     * @return true if persistence is now enabled, false otherwise
+     */
+    public synchronized boolean enablePersistence(PatientPersistenceSettings settings) {
+        if (settings == null) {
+            LOGGER.warning("Cannot enable persistence without settings");
+            return false;
+        }
+        if (writeAheadLog != null) {
+            LOGGER.warning("Persistence is already enabled at " + writeAheadLog.getLogFile());
+            return false;
+        }
+        
+        // Held until the snapshot is re-anchored, so no save is appended before a reset log has its snapshot
+        checkpointLock.writeLock().lock();
+        try {
+            Files.createDirectories(settings.getDataDirectory());
+            long snapshotPosition = loadSnapshot(settings);
+            writeAheadLog = PatientWriteAheadLog.open(settings.getLogFile(), settings.getSyncPolicy(),
+                settings.getGroupCommitMillis(), snapshotPosition, new PatientWriteAheadLog.ReplayHandler() {
+                    @Override
+                    public void onSave(PatientDataObject patient) {
+                        applySave(patient);
+                    }
+                    
+                    @Override
+                    public void onDelete(String patientId) {
+                        applyDelete(patientId);
+                    }
+                    
+                    @Override
+                    public void onClear() {
+                        applyClear();
+                    }
+                });
+            persistenceSettings = settings;
+            changesSinceSnapshot.set(0);
+            snapshotWriter = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "patient-snapshot-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            
+            if (writeAheadLog.wasReset()) {
+                // The log ended before the snapshot's position and continues in a new segment;
+                // re-anchor the snapshot to it so the segment that fell short is dropped
+                writeSnapshotNow();
+            }
+            
+            freezePastDaysLocked();
+            LOGGER.info("Persistence enabled at " + settings.getDataDirectory()
+                + " (" + savedPatients.size() + " patients recovered)");
+            return true;
+        } catch (IOException e) {
+            LOGGER.severe("Error enabling persistence: " + e.getMessage());
+            abandonPersistence();
+            return false;
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Undo a failed enablePersistence: close the log without writing to it and drop
+     * whatever was recovered, so the store does not run on half a history
+     */
+    private void abandonPersistence() {
+        if (snapshotWriter != null) {
+            snapshotWriter.shutdownNow();
+            snapshotWriter = null;
+        }
+        if (writeAheadLog != null) {
+            try {
+                writeAheadLog.close();
+            } catch (IOException e) {
+                LOGGER.warning("Error closing log after failed recovery: " + e.getMessage());
+            }
+            writeAheadLog = null;
+        }
+        persistenceSettings = null;
+        applyClear();
+    }
+    
+    /**
+     * Flush and close the persistence log, if enabled. Call on application shutdown.
+     */
+    public synchronized void closePersistence() {
+        if (writeAheadLog == null) {
+            return;
+        }
+        
+        try {
+            // Let queued asynchronous saves reach the log before it closes
+            saveRunner.submit(() -> { }).get(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.warning("Interrupted waiting for queued saves");
+        } catch (ExecutionException | TimeoutException e) {
+            LOGGER.warning("Queued saves did not finish before close: " + e.getMessage());
+        }
+        
+        try {
+            // Let any background snapshot finish before writing the final one
+            snapshotWriter.shutdown();
+            snapshotWriter.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.warning("Interrupted waiting for snapshot writer");
+        }
+        
+        checkpointLock.writeLock().lock();
+        try {
+            // Leave a fresh snapshot so the next start replays nothing
+            writeSnapshotNow();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.severe("Error writing final snapshot: " + e.getMessage());
+        }
+        
+        try {
+            writeAheadLog.close();
+            LOGGER.info("Persistence closed");
+        } catch (IOException e) {
+            LOGGER.severe("Error closing persistence log: " + e.getMessage());
+        } finally {
+            writeAheadLog = null;
+            persistenceSettings = null;
+            snapshotWriter = null;
+            checkpointLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * @return Queue depth, batch sizes and commit latencies of the log writer, or empty
+     *         if persistence is off; counts stay at zero unless the sync policy is ASYNC
+     */
+    public Optional<PatientWriterStatistics> getWriterStatistics() {
+        PatientWriteAheadLog log = writeAheadLog;
+        return log != null ? Optional.of(log.getWriterStatistics()) : Optional.empty();
+    }
+    
+    /**
+     * Load the latest snapshot into the empty store
+     * @return Log position covered by the snapshot, or 0 to replay the whole log
+     */
+    private long loadSnapshot(PatientPersistenceSettings settings) {
+        if (!Files.exists(settings.getSnapshotFile())) {
+            return 0;
+        }
+        
+        try {
+            return PatientSnapshotFile.load(settings.getSnapshotFile(), this::applySave);
+        } catch (IOException | RuntimeException e) {
+            // Fall back to a full log replay rather than trusting a partial snapshot
+            LOGGER.warning("Ignoring unreadable snapshot, replaying full log: " + e.getMessage());
+            applyClear();
+            return 0;
+        }
+    }
+    
+    /**
+     * Count a logged change and hand a snapshot to the background writer when one is due
+     */
+    private void noteLoggedChanges(int changes) {
+        PatientPersistenceSettings settings = persistenceSettings;
+        if (settings == null || changesSinceSnapshot.addAndGet(changes) < settings.getSnapshotEveryChanges()) {
+            return;
+        }
+        if (!snapshotInProgress.compareAndSet(false, true)) {
+            return;
+        }
+        changesSinceSnapshot.set(0);
+        
+        ReadSnapshot contents = null;
+        checkpointLock.writeLock().lock();
+        try {
+            PatientWriteAheadLog log = writeAheadLog;
+            if (log == null) {
+                snapshotInProgress.set(false);
+                return;
+            }
+            
+            // Pin the contents and the log position together while writers are held off; no
+            // commit is pending, so opening the read snapshot never waits. The new segment
+            // starts exactly where the snapshot ends, so once the snapshot is durable every
+            // earlier segment can go. The patients themselves are read on the snapshot writer.
+            long logPosition = log.startNewSegment();
+            contents = openSnapshot();
+            Path snapshotFile = settings.getSnapshotFile();
+            boolean compressed = settings.isCompressSnapshots();
+            ReadSnapshot pinned = contents;
+            
+            snapshotWriter.execute(() -> {
+                try (pinned) {
+                    PatientSnapshotFile.write(snapshotFile, storedPatientsAt(pinned.getCommitStamp()),
+                        logPosition, compressed);
+                    log.deleteSegmentsBefore(logPosition);
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.severe("Error writing snapshot: " + e.getMessage());
+                } finally {
+                    snapshotInProgress.set(false);
+                }
+                freezePastDays();
+            });
+            contents = null;
+        } catch (IOException | RuntimeException e) {
+            snapshotInProgress.set(false);
+            LOGGER.severe("Error preparing snapshot: " + e.getMessage());
+        } finally {
+            checkpointLock.writeLock().unlock();
+            if (contents != null) {
+                contents.close();
+            }
+        }
+    }
+    
+    /**
+     * The patients visible at a commit stamp, as a collection that walks the version
+     * chains on every pass instead of copying them into a list. Valid while a snapshot at
+     * the stamp is open, or while writers are held off and the stamp is the latest.
+     */
+    private Collection<PatientDataObject> storedPatientsAt(long commitStamp) {
+        return new AbstractCollection<PatientDataObject>() {
+            private int size = -1;
+            
+            @Override
+            public Iterator<PatientDataObject> iterator() {
+                return streamStoredAt(commitStamp).map(stored -> stored.patient).iterator();
+            }
+            
+            @Override
+            public int size() {
+                if (size < 0) {
+                    size = (int) streamStoredAt(commitStamp).count();
+                }
+                return size;
+            }
+        };
+    }
+    
+    /**
+     * Write a snapshot of the current contents on the calling thread.
+     * Callers hold the checkpoint lock exclusively, or have not yet published the log.
+     */
+    private void writeSnapshotNow() throws IOException {
+        long logPosition = writeAheadLog.startNewSegment();
+        PatientSnapshotFile.write(persistenceSettings.getSnapshotFile(), storedPatientsAt(commitClock.get()),
+            logPosition, persistenceSettings.isCompressSnapshots());
+        writeAheadLog.deleteSegmentsBefore(logPosition);
+        changesSinceSnapshot.set(0);
+    }
+    
     /**
      * Get storage statistics
      * @return Storage statistics as a formatted string
      */
     public String getStorageStatistics() {
         int totalPatients = savedPatients.size();
-        int completedCheckIns = getCompletedCheckIns().size();
-        int incompleteCheckIns = getIncompleteCheckIns().size();
-        int todaysPatients = getPatientsFromToday().size();
+        int completedCheckIns = getCompletedCheckInCount();
+        int incompleteCheckIns = getIncompleteCheckInCount();
+        int todaysPatients = getPatientCountFromToday();
         
         StringBuilder stats = new StringBuilder();
         stats.append("=== PATIENT DATA STORAGE STATISTICS ===\n");
@@ -223,52 +2029,164 @@ public class PatientDataStorage {
     }
     
     /**
-     * Export all patient data as JSON strings
+     * Export all patient data as JSON strings, as of a single point in time.
+     * Holds every rendered patient in memory; prefer the streaming overloads for large stores.
      * @return List of JSON strings representing all patients
      */
     public List<String> exportAllPatientsAsJson() {
-        return savedPatients.stream()
-                .map(PatientDataObject::toJsonString)
-                .collect(Collectors.toList());
+        try (ReadSnapshot snapshot = openSnapshot()) {
+            return streamStoredAt(snapshot.getCommitStamp())
+                    .map(stored -> render(stored, PatientRenderCache.Kind.JSON_PRETTY))
+                    .collect(Collectors.toList());
+        }
+    }
+    
+    /**
+     * Stream all patients as JSON to a channel, in save order, using constant memory.
+     * The export reads a snapshot, so it shows the store as of the moment it started
+     * while saves carry on. The channel is not closed.
+     * @param channel Destination channel
+     * @param format NDJSON or a single JSON array
+     * @return Counts and throughput for the export
+     */
+    public PatientExportStatistics exportAllPatientsAsJson(WritableByteChannel channel,
+                                                           PatientJsonExporter.Format format) throws IOException {
+        try (ReadSnapshot snapshot = openSnapshot()) {
+            Iterator<String> records = streamStoredAt(snapshot.getCommitStamp())
+                    .map(stored -> render(stored, PatientRenderCache.Kind.JSON_COMPACT))
+                    .iterator();
+            return PatientJsonExporter.exportRendered(records, channel, format);
+        }
+    }
+    
+    /**
+     * Stream all patients as JSON to an output stream. The stream is flushed but not closed.
+     * @param out Destination stream
+     * @param format NDJSON or a single JSON array
+     * @return Counts and throughput for the export
+     */
+    public PatientExportStatistics exportAllPatientsAsJson(OutputStream out,
+                                                           PatientJsonExporter.Format format) throws IOException {
+        PatientExportStatistics statistics = exportAllPatientsAsJson(Channels.newChannel(out), format);
+        out.flush();
+        return statistics;
     }
     
     /**
-     * Get a summary of all patients
+     * Get a summary of all patients, as of a single point in time
      * @return Formatted string with patient summaries
      */
     public String getAllPatientsSummary() {
-        if (savedPatients.isEmpty()) {
+        List<StoredPatient> patients;
+        try (ReadSnapshot snapshot = openSnapshot()) {
+            patients = streamStoredAt(snapshot.getCommitStamp()).collect(Collectors.toList());
+        }
+        if (patients.isEmpty()) {
             return "No patients saved in storage.";
         }
         
         StringBuilder summary = new StringBuilder();
         summary.append("=== ALL PATIENTS SUMMARY ===\n");
-        summary.append("Total Patients: ").append(savedPatients.size()).append("\n\n");
+        summary.append("Total Patients: ").append(patients.size()).append("\n\n");
         
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("MM/dd/yyyy HH:mm");
+        int position = 0;
+        for (StoredPatient stored : patients) {
+            position++;
+            summary.append(position).append(". ").append(render(stored, PatientRenderCache.Kind.SUMMARY));
+        }
         
-        for (int i = 0; i < savedPatients.size(); i++) {
-            PatientDataObject patient = savedPatients.get(i);
-            summary.append(String.format("%d. %s (ID: %s)\n", 
-                i + 1, patient.getFullName().trim(), patient.getPatientId()));
-            summary.append("   Saved: ").append(patient.getSavedTimestamp().format(formatter));
-            summary.append(" | Completion: ").append(patient.getCompletionPercentage()).append("%");
-            summary.append(" | Status: ").append(patient.isCheckInComplete() ? "Complete" : "Incomplete");
-            summary.append("\n");
+        return summary.toString();
+    }
+    
+    /**
+     * Get a summary of one page of patients
+     * @param page The page to summarize
+     * @param firstPosition List position of the first patient on the page, starting at 1
+     * @return Summary string for the page
+     */
+    public String getPatientsPageSummary(PatientPage page, int firstPosition) {
+        if (page == null || page.isEmpty()) {
+            return "No patients saved in storage.";
+        }
+        
+        int lastPosition = firstPosition + page.size() - 1;
+        StringBuilder summary = new StringBuilder();
+        summary.append("=== PATIENTS ").append(firstPosition).append("-").append(lastPosition)
+               .append(" OF ").append(page.getTotalPatients()).append(" ===\n\n");
+        
+        appendPatientSummaries(summary, page.getPatients(), firstPosition);
+        
+        return summary.toString();
+    }
+    
+    /**
+     * Append one summary entry per patient, numbered from firstPosition
+     */
+    private void appendPatientSummaries(StringBuilder summary, List<PatientDataObject> patients, int firstPosition) {
+        int position = firstPosition - 1;
+        for (PatientDataObject patient : patients) {
+            position++;
+            summary.append(position).append(". ");
             
-            if (patient.getAppointmentDateTime() != null) {
-                summary.append("   Appointment: ").append(patient.getAppointmentDateTime().format(formatter));
-                if (patient.getDoctorName() != null) {
-                    summary.append(" with Dr. ").append(patient.getDoctorName());
-                }
-                summary.append("\n");
+            // Only the stored copy of a record is cached; anything else is rendered fresh
+            StoredPatient stored = savedPatients.get(patient.getPatientId());
+            if (stored != null && stored.patient == patient) {
+                summary.append(render(stored, PatientRenderCache.Kind.SUMMARY));
+            } else {
+                summary.append(renderSummary(patient));
             }
-            summary.append("\n");
         }
+    }
+    
+    /**
+     * Get a stored record's rendering from the render cache, rendering it on a miss
+     */
+    private String render(StoredPatient stored, PatientRenderCache.Kind kind) {
+        return renderCache.get(kind, stored.patient.getPatientId(), stored.version, () -> {
+            switch (kind) {
+                case JSON_COMPACT:
+                    StringBuilder json = new StringBuilder(1024);
+                    PatientJsonWriter.append(stored.patient, json, false);
+                    return json.toString();
+                case JSON_PRETTY:
+                    return stored.patient.toJsonString();
+                default:
+                    return renderSummary(stored.patient);
+            }
+        });
+    }
+    
+    /**
+     * Render one patient's summary entry, without its position number
+     */
+    private static String renderSummary(PatientDataObject patient) {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("MM/dd/yyyy HH:mm");
+        StringBuilder summary = new StringBuilder(256);
         
+        summary.append(String.format("%s (ID: %s)\n", patient.getFullName().trim(), patient.getPatientId()));
+        summary.append("   Saved: ").append(patient.getSavedTimestamp().format(formatter));
+        summary.append(" | Completion: ").append(patient.getCompletionPercentage()).append("%");
+        summary.append(" | Status: ").append(patient.isCheckInComplete() ? "Complete" : "Incomplete");
+        summary.append("\n");
+        
+        if (patient.getAppointmentDateTime() != null) {
+            summary.append("   Appointment: ").append(patient.getAppointmentDateTime().format(formatter));
+            if (patient.getDoctorName() != null) {
+                summary.append(" with Dr. ").append(patient.getDoctorName());
+            }
+            summary.append("\n");
+        }
+        summary.append("\n");
         return summary.toString();
     }
     
+    /**
+     * @return Size of the render cache and its hit, miss and eviction counts
+     */
+    public PatientRenderCacheStatistics getRenderCacheStatistics() {
+        return renderCache.getStatistics();
+    }
+    
     /**
      * Create a PatientDataObject from GUI form data
      * @param checkInGUI The check-in GUI with form data
@@ -295,6 +2213,7 @@ public class PatientDataStorage {
      * Get the number of patients in storage
      * @return Number of saved patients
      */
+    @Override
     public int getPatientCount() {
         return savedPatients.size();
     }
@@ -0,0 +1,138 @@
+import java.time.LocalDate;
+import java.time.MonthDay;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Sorted index of patients by date of birth.
+ * Dates are kept in a NavigableMap so exact and range lookups cost O(log n + k),
+ * and a second map keyed by month and day answers birthday queries directly.
+ * The index reflects dates of birth as of the last save. Lookups never block;
+ * writers for the same patient ID must be serialized by the caller. Emptied date
+ * buckets are kept rather than removed so concurrent writers never race on them.
+ */
+public class PatientDateOfBirthIndex {
+    
+    // Date of birth -> IDs of patients born on that date
+    private final NavigableMap<LocalDate, Set<String>> byDate;
+    
+    // Month and day of birth -> IDs of patients with that birthday
+    private final Map<MonthDay, Set<String>> byBirthday;
+    
+    // Patient ID -> date of birth as indexed, used for removal
+    private final Map<String, LocalDate> indexedDates;
+    
+    public PatientDateOfBirthIndex() {
+        this.byDate = new ConcurrentSkipListMap<>();
+        this.byBirthday = new ConcurrentHashMap<>();
+        this.indexedDates = new ConcurrentHashMap<>();
+    }
+    
+    /**
+     * Add or re-index a patient, replacing any date previously indexed for the same ID
+     * @param patient The patient to index
+     */
+    public void add(PatientDataObject patient) {
+        String patientId = patient.getPatientId();
+        remove(patientId);
+        
+        LocalDate dateOfBirth = patient.getDateOfBirth();
+        if (dateOfBirth == null) {
+            return;
+        }
+        
+        indexedDates.put(patientId, dateOfBirth);
+        byDate.computeIfAbsent(dateOfBirth, key -> ConcurrentHashMap.newKeySet()).add(patientId);
+        byBirthday.computeIfAbsent(MonthDay.from(dateOfBirth), key -> ConcurrentHashMap.newKeySet()).add(patientId);
+    }
+    
+    /**
+     * Remove a patient from the index
+     * @param patientId The patient ID to remove
+     */
+    public void remove(String patientId) {
+        LocalDate dateOfBirth = indexedDates.remove(patientId);
+        if (dateOfBirth == null) {
+            return;
+        }
+        
+        removeFrom(byDate, dateOfBirth, patientId);
+        removeFrom(byBirthday, MonthDay.from(dateOfBirth), patientId);
+    }
+    
+    /**
+     * Remove every patient from the index
+     */
+    public void clear() {
+        byDate.clear();
+        byBirthday.clear();
+        indexedDates.clear();
+    }
+    
+    /**
+     * Find patients born on an exact date
+     * @param dateOfBirth The date of birth
+     * @return IDs of matching patients
+     */
+    public List<String> findPatientIds(LocalDate dateOfBirth) {
+        Set<String> ids = byDate.get(dateOfBirth);
+        return ids != null ? new ArrayList<>(ids) : Collections.emptyList();
+    }
+    
+    /**
+     * Find patients born within a date range
+     * @param from First date of birth to include
+     * @param to Last date of birth to include
+     * @return IDs of matching patients, ordered by date of birth
+     */
+    public List<String> findPatientIdsBetween(LocalDate from, LocalDate to) {
+        List<String> ids = new ArrayList<>();
+        if (from.isAfter(to)) {
+            return ids;
+        }
+        for (Set<String> sameDate : byDate.subMap(from, true, to, true).values()) {
+            ids.addAll(sameDate);
+        }
+        return ids;
+    }
+    
+    /**
+     * Count patients born within a date range without listing them
+     * @param from First date of birth to include
+     * @param to Last date of birth to include
+     * @return Number of matching patients
+     */
+    public int countBetween(LocalDate from, LocalDate to) {
+        if (from.isAfter(to)) {
+            return 0;
+        }
+        int count = 0;
+        for (Set<String> sameDate : byDate.subMap(from, true, to, true).values()) {
+            count += sameDate.size();
+        }
+        return count;
+    }
+    
+    /**
+     * Find patients whose birthday falls on the given month and day, in any year
+     * @param birthday The month and day
+     * @return IDs of matching patients
+     */
+    public List<String> findPatientIdsByBirthday(MonthDay birthday) {
+        Set<String> ids = byBirthday.get(birthday);
+        return ids != null ? new ArrayList<>(ids) : Collections.emptyList();
+    }
+    
+    private static <K> void removeFrom(Map<K, Set<String>> index, K key, String patientId) {
+        Set<String> ids = index.get(key);
+        if (ids != null) {
+            ids.remove(patientId);
+        }
+    }
+}
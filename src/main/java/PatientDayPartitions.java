@@ -0,0 +1,268 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Partitions of the stored patients by the day of their saved timestamp.
+ * Each day's partition lists its patient IDs in save order, so "today" and date-range
+ * queries touch only the partitions for the days asked about instead of every record.
+ * Past days rarely change, so their partitions can be frozen: compacted from a
+ * concurrent skip list into two sorted arrays, which take a fraction of the memory and
+ * are read without any locking. A write that lands in a frozen day thaws it again.
+ * Reads never block; writers for the same patient ID must be serialized by the caller,
+ * and freezing must not run concurrently with writers.
+ */
+public class PatientDayPartitions {
+    
+    /**
+     * Contents of one partition: either live and mutable, or frozen and immutable
+     */
+    private interface PartitionContent {
+        void appendIds(List<String> ids);
+        int size();
+    }
+    
+    private static final class LiveContent implements PartitionContent {
+        // Save sequence -> patient ID
+        private final ConcurrentNavigableMap<Long, String> entries = new ConcurrentSkipListMap<>();
+        
+        @Override
+        public void appendIds(List<String> ids) {
+            ids.addAll(entries.values());
+        }
+        
+        @Override
+        public int size() {
+            return entries.size();
+        }
+    }
+    
+    private static final class FrozenContent implements PartitionContent {
+        // Ascending save sequences and the patient IDs at the same positions
+        private final long[] sequences;
+        private final String[] ids;
+        
+        FrozenContent(long[] sequences, String[] ids) {
+            this.sequences = sequences;
+            this.ids = ids;
+        }
+        
+        @Override
+        public void appendIds(List<String> target) {
+            target.addAll(Arrays.asList(ids));
+        }
+        
+        @Override
+        public int size() {
+            return ids.length;
+        }
+    }
+    
+    /**
+     * One day's patients
+     */
+    private static final class DayPartition {
+        private volatile PartitionContent content = new LiveContent();
+        
+        /**
+         * @return Live content, thawing a frozen partition first
+         */
+        LiveContent live() {
+            PartitionContent current = content;
+            if (current instanceof LiveContent) {
+                return (LiveContent) current;
+            }
+            synchronized (this) {
+                if (content instanceof FrozenContent) {
+                    FrozenContent frozen = (FrozenContent) content;
+                    LiveContent thawed = new LiveContent();
+                    for (int i = 0; i < frozen.ids.length; i++) {
+                        thawed.entries.put(frozen.sequences[i], frozen.ids[i]);
+                    }
+                    content = thawed;
+                }
+                return (LiveContent) content;
+            }
+        }
+        
+        /**
+         * Compact live content into arrays
+         * @return true if the partition was live
+         */
+        synchronized boolean freeze() {
+            PartitionContent current = content;
+            if (!(current instanceof LiveContent)) {
+                return false;
+            }
+            Map<Long, String> entries = ((LiveContent) current).entries;
+            long[] sequences = new long[entries.size()];
+            String[] ids = new String[entries.size()];
+            int i = 0;
+            for (Map.Entry<Long, String> entry : entries.entrySet()) {
+                sequences[i] = entry.getKey();
+                ids[i] = entry.getValue();
+                i++;
+            }
+            content = new FrozenContent(sequences, ids);
+            return true;
+        }
+    }
+    
+    /**
+     * Which partition, and under which sequence, a patient was filed
+     */
+    private static final class Placement {
+        private final LocalDate day;
+        private final long sequence;
+        
+        Placement(LocalDate day, long sequence) {
+            this.day = day;
+            this.sequence = sequence;
+        }
+    }
+    
+    private final ConcurrentNavigableMap<LocalDate, DayPartition> partitions;
+    private final Map<String, Placement> placements;
+    
+    public PatientDayPartitions() {
+        this.partitions = new ConcurrentSkipListMap<>();
+        this.placements = new ConcurrentHashMap<>();
+    }
+    
+    /**
+     * File a patient under its saved day, replacing any earlier placement for the same ID
+     * @param patient The saved patient
+     * @param sequence The patient's save sequence, which orders it within its day
+     */
+    public void add(PatientDataObject patient, long sequence) {
+        String patientId = patient.getPatientId();
+        if (patient.getSavedTimestamp() == null) {
+            remove(patientId);
+            return;
+        }
+        
+        LocalDate day = patient.getSavedTimestamp().toLocalDate();
+        Placement previous = placements.get(patientId);
+        if (previous != null && previous.day.equals(day) && previous.sequence == sequence) {
+            return;
+        }
+        remove(patientId);
+        
+        partitions.computeIfAbsent(day, key -> new DayPartition()).live().entries.put(sequence, patientId);
+        placements.put(patientId, new Placement(day, sequence));
+    }
+    
+    /**
+     * Remove a patient from its partition
+     * @param patientId The patient ID to remove
+     */
+    public void remove(String patientId) {
+        Placement placement = placements.remove(patientId);
+        if (placement == null) {
+            return;
+        }
+        DayPartition partition = partitions.get(placement.day);
+        if (partition != null) {
+            partition.live().entries.remove(placement.sequence);
+        }
+    }
+    
+    /**
+     * Remove every partition
+     */
+    public void clear() {
+        partitions.clear();
+        placements.clear();
+    }
+    
+    /**
+     * @param day The day to list
+     * @return IDs of patients saved on that day, in save order
+     */
+    public List<String> findPatientIds(LocalDate day) {
+        List<String> ids = new ArrayList<>();
+        DayPartition partition = partitions.get(day);
+        if (partition != null) {
+            partition.content.appendIds(ids);
+        }
+        return ids;
+    }
+    
+    /**
+     * @param from The first day to include
+     * @param to The last day to include
+     * @return IDs of patients saved within the range, by day and then in save order
+     */
+    public List<String> findPatientIdsBetween(LocalDate from, LocalDate to) {
+        List<String> ids = new ArrayList<>();
+        if (from.isAfter(to)) {
+            return ids;
+        }
+        for (DayPartition partition : partitions.subMap(from, true, to, true).values()) {
+            partition.content.appendIds(ids);
+        }
+        return ids;
+    }
+    
+    /**
+     * @param from The first day to include
+     * @param to The last day to include
+     * @return Number of patients saved within the range, without listing them
+     */
+    public int countBetween(LocalDate from, LocalDate to) {
+        if (from.isAfter(to)) {
+            return 0;
+        }
+        int count = 0;
+        for (DayPartition partition : partitions.subMap(from, true, to, true).values()) {
+            count += partition.content.size();
+        }
+        return count;
+    }
+    
+    /**
+     * Freeze every partition for a day before the given one, and drop empty partitions.
+     * Must not run concurrently with add or remove.
+     * @param day Partitions for earlier days are frozen
+     * @return Number of partitions newly frozen
+     */
+    public int freezeBefore(LocalDate day) {
+        int frozen = 0;
+        Collection<Map.Entry<LocalDate, DayPartition>> past = partitions.headMap(day, false).entrySet();
+        for (Map.Entry<LocalDate, DayPartition> entry : past) {
+            DayPartition partition = entry.getValue();
+            if (partition.content.size() == 0) {
+                partitions.remove(entry.getKey(), partition);
+            } else if (partition.freeze()) {
+                frozen++;
+            }
+        }
+        return frozen;
+    }
+    
+    /**
+     * @return Number of day partitions
+     */
+    public int getPartitionCount() {
+        return partitions.size();
+    }
+    
+    /**
+     * @return Number of partitions currently frozen
+     */
+    public int getFrozenPartitionCount() {
+        int frozen = 0;
+        for (DayPartition partition : partitions.values()) {
+            if (partition.content instanceof FrozenContent) {
+                frozen++;
+            }
+        }
+        return frozen;
+    }
+}
@@ -0,0 +1,322 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Finds stored patients that are probably the same person as a given one, such as a
+ * returning patient checked in again under a freshly generated ID.
+ * Patients are filed under cheap blocking keys: normalized last name with date of
+ * birth, phone number digits, and insurance policy number. Only patients sharing a key
+ * with the one being checked are compared, so a check costs a few hash lookups rather
+ * than a scan. Each candidate is then scored by how many of the fields present in both
+ * records agree, weighted by how strongly each field identifies a person. A block
+ * holding too many patients (a clinic's shared phone number, say) says little about
+ * identity and is skipped.
+ * Lookups never block; writers for the same patient ID must be serialized by the caller.
+ */
+public class PatientDuplicateDetector {
+    
+    /** Score from which two records are reported as duplicates */
+    public static final double DEFAULT_THRESHOLD = 0.75;
+    
+    // Blocks larger than this are too common to suggest a duplicate
+    private static final int MAX_BLOCK_SIZE = 64;
+    
+    private static final int MIN_PHONE_DIGITS = 7;
+    private static final int PHONE_DIGITS_COMPARED = 10;
+    private static final int MIN_POLICY_LENGTH = 4;
+    
+    // How strongly agreement on each field suggests the same person
+    private static final double LAST_NAME_WEIGHT = 0.20;
+    private static final double FIRST_NAME_WEIGHT = 0.25;
+    private static final double DATE_OF_BIRTH_WEIGHT = 0.30;
+    private static final double PHONE_WEIGHT = 0.20;
+    private static final double POLICY_WEIGHT = 0.25;
+    private static final double EMAIL_WEIGHT = 0.15;
+    
+    // Records sharing fewer weighted fields than this are never reported
+    private static final double MIN_COMPARED_WEIGHT = 0.5;
+    
+    private final double threshold;
+    
+    // Blocking key -> the one patient ID filed under it, or a concurrent set once a
+    // second is filed. Most keys stay singletons, and a bare ID costs nothing beyond
+    // the map entry where a set would cost several hundred bytes.
+    private final Map<String, Object> blocks;
+    
+    // Patient ID -> blocking keys as filed, used for removal
+    private final Map<String, List<String>> blockKeysOf;
+    
+    public PatientDuplicateDetector() {
+        this(DEFAULT_THRESHOLD);
+    }
+    
+    /**
+     * @param threshold Score from which two records are reported as duplicates, from 0 to 1
+     */
+    public PatientDuplicateDetector(double threshold) {
+        this.threshold = threshold;
+        this.blocks = new ConcurrentHashMap<>();
+        this.blockKeysOf = new ConcurrentHashMap<>();
+    }
+    
+    /**
+     * File a patient under its blocking keys, replacing any keys filed for the same ID
+     * @param patient The patient to file
+     */
+    public void add(PatientDataObject patient) {
+        String patientId = patient.getPatientId();
+        remove(patientId);
+        
+        List<String> keys = blockKeys(patient);
+        blockKeysOf.put(patientId, keys);
+        for (String key : keys) {
+            blocks.compute(key, (k, filed) -> withId(filed, patientId));
+        }
+    }
+    
+    /**
+     * Stop considering a patient
+     * @param patientId The patient ID to remove
+     */
+    public void remove(String patientId) {
+        List<String> keys = blockKeysOf.remove(patientId);
+        if (keys == null) {
+            return;
+        }
+        for (String key : keys) {
+            blocks.computeIfPresent(key, (k, filed) -> withoutId(filed, patientId));
+        }
+    }
+    
+    /**
+     * @return The block after filing the ID: the bare ID if the block was empty,
+     *         otherwise a set holding the earlier IDs and this one
+     */
+    @SuppressWarnings("unchecked")
+    private static Object withId(Object filed, String patientId) {
+        if (filed == null || filed.equals(patientId)) {
+            return patientId;
+        }
+        Set<String> ids;
+        if (filed instanceof String) {
+            ids = ConcurrentHashMap.newKeySet();
+            ids.add((String) filed);
+        } else {
+            ids = (Set<String>) filed;
+        }
+        ids.add(patientId);
+        return ids;
+    }
+    
+    /**
+     * @return The block after removing the ID: null once empty, the bare ID once only
+     *         one is left
+     */
+    @SuppressWarnings("unchecked")
+    private static Object withoutId(Object filed, String patientId) {
+        if (filed instanceof String) {
+            return filed.equals(patientId) ? null : filed;
+        }
+        Set<String> ids = (Set<String>) filed;
+        ids.remove(patientId);
+        if (ids.size() > 1) {
+            return ids;
+        }
+        Iterator<String> remaining = ids.iterator();
+        return remaining.hasNext() ? remaining.next() : null;
+    }
+    
+    /**
+     * Forget every patient
+     */
+    public void clear() {
+        blocks.clear();
+        blockKeysOf.clear();
+    }
+    
+    /**
+     * Find filed patients that are probably the same person as the given one
+     * @param patient The patient to check; need not be filed itself
+     * @param lookup Resolves a filed patient ID to the stored patient, or null if it is gone
+     * @return Matches scoring at least the threshold, best first; never the patient's own ID
+     */
+    public List<PatientDuplicateMatch> findMatches(PatientDataObject patient, Function<String, PatientDataObject> lookup) {
+        Set<String> candidates = new LinkedHashSet<>();
+        for (String key : blockKeys(patient)) {
+            Object filed = blocks.get(key);
+            if (filed instanceof String) {
+                candidates.add((String) filed);
+            } else if (filed != null) {
+                @SuppressWarnings("unchecked")
+                Set<String> ids = (Set<String>) filed;
+                if (ids.size() <= MAX_BLOCK_SIZE) {
+                    candidates.addAll(ids);
+                }
+            }
+        }
+        candidates.remove(patient.getPatientId());
+        
+        List<PatientDuplicateMatch> matches = new ArrayList<>();
+        for (String candidateId : candidates) {
+            PatientDataObject candidate = lookup.apply(candidateId);
+            if (candidate == null) {
+                continue;
+            }
+            PatientDuplicateMatch match = compare(patient, candidate);
+            if (match.getScore() >= threshold) {
+                matches.add(match);
+            }
+        }
+        matches.sort((a, b) -> Double.compare(b.getScore(), a.getScore()));
+        return matches;
+    }
+    
+    /**
+     * Score how likely two records describe the same person
+     * @param patient The patient being checked
+     * @param other The stored patient to compare with
+     * @return The comparison; a score of 0 if the records share too few fields to judge
+     */
+    public static PatientDuplicateMatch compare(PatientDataObject patient, PatientDataObject other) {
+        double compared = 0;
+        double agreed = 0;
+        List<String> matchedFields = new ArrayList<>();
+        
+        String lastName = normalizedName(patient.getLastName());
+        String otherLastName = normalizedName(other.getLastName());
+        if (!lastName.isEmpty() && !otherLastName.isEmpty()) {
+            compared += LAST_NAME_WEIGHT;
+            agreed += LAST_NAME_WEIGHT * nameAgreement(lastName, otherLastName, "lastName", matchedFields);
+        }
+        String firstName = normalizedName(patient.getFirstName());
+        String otherFirstName = normalizedName(other.getFirstName());
+        if (!firstName.isEmpty() && !otherFirstName.isEmpty()) {
+            compared += FIRST_NAME_WEIGHT;
+            agreed += FIRST_NAME_WEIGHT * nameAgreement(firstName, otherFirstName, "firstName", matchedFields);
+        }
+        if (patient.getDateOfBirth() != null && other.getDateOfBirth() != null) {
+            compared += DATE_OF_BIRTH_WEIGHT;
+            if (patient.getDateOfBirth().equals(other.getDateOfBirth())) {
+                agreed += DATE_OF_BIRTH_WEIGHT;
+                matchedFields.add("dateOfBirth");
+            }
+        }
+        
+        double[] totals = { compared, agreed };
+        compareExactly(normalizedPhone(patient.getPhoneNumber()), normalizedPhone(other.getPhoneNumber()),
+            PHONE_WEIGHT, "phoneNumber", totals, matchedFields);
+        compareExactly(normalizedPolicy(patient.getInsurancePolicyNumber()),
+            normalizedPolicy(other.getInsurancePolicyNumber()), POLICY_WEIGHT, "insurancePolicyNumber",
+            totals, matchedFields);
+        compareExactly(normalizedEmail(patient.getEmail()), normalizedEmail(other.getEmail()),
+            EMAIL_WEIGHT, "email", totals, matchedFields);
+        
+        double score = totals[0] >= MIN_COMPARED_WEIGHT ? totals[1] / totals[0] : 0;
+        return new PatientDuplicateMatch(patient.getPatientId(), other.getPatientId(), score, matchedFields);
+    }
+    
+    /**
+     * @return Blocking keys for a patient: last name with date of birth, phone, policy number
+     */
+    private static List<String> blockKeys(PatientDataObject patient) {
+        List<String> keys = new ArrayList<>(3);
+        String lastName = normalizedName(patient.getLastName());
+        if (!lastName.isEmpty() && patient.getDateOfBirth() != null) {
+            keys.add("N:" + lastName + "|" + patient.getDateOfBirth().toEpochDay());
+        }
+        String phone = normalizedPhone(patient.getPhoneNumber());
+        if (!phone.isEmpty()) {
+            keys.add("P:" + phone);
+        }
+        String policy = normalizedPolicy(patient.getInsurancePolicyNumber());
+        if (!policy.isEmpty()) {
+            keys.add("I:" + policy);
+        }
+        return keys;
+    }
+    
+    /**
+     * 1 for the same name, 0.5 for a likely misspelling or shortened form, 0 otherwise
+     */
+    private static double nameAgreement(String name, String otherName, String field, List<String> matchedFields) {
+        if (name.equals(otherName)) {
+            matchedFields.add(field);
+            return 1;
+        }
+        if (PatientPhoneticIndex.editDistance(name, otherName, 1) <= 1
+                || PatientPhoneticIndex.soundex(name).equals(PatientPhoneticIndex.soundex(otherName))
+                || name.startsWith(otherName) || otherName.startsWith(name)) {
+            matchedFields.add(field + " (similar)");
+            return 0.5;
+        }
+        return 0;
+    }
+    
+    /**
+     * Add a field's weight to totals[0] if both values are present, and to totals[1] if they are equal
+     */
+    private static void compareExactly(String value, String otherValue, double weight, String field,
+                                       double[] totals, List<String> matchedFields) {
+        if (value.isEmpty() || otherValue.isEmpty()) {
+            return;
+        }
+        totals[0] += weight;
+        if (value.equals(otherValue)) {
+            totals[1] += weight;
+            matchedFields.add(field);
+        }
+    }
+    
+    /**
+     * Lowercase letters of a name only, so "O'Brien" and "obrien" agree
+     */
+    private static String normalizedName(String name) {
+        return String.join("", PatientPhoneticIndex.wordsOf(name));
+    }
+    
+    /**
+     * The last ten digits of a phone number, or empty if it has too few to be one
+     */
+    private static String normalizedPhone(String phone) {
+        if (phone == null) {
+            return "";
+        }
+        StringBuilder digits = new StringBuilder();
+        for (int i = 0; i < phone.length(); i++) {
+            if (Character.isDigit(phone.charAt(i))) {
+                digits.append(phone.charAt(i));
+            }
+        }
+        if (digits.length() < MIN_PHONE_DIGITS) {
+            return "";
+        }
+        return digits.substring(Math.max(0, digits.length() - PHONE_DIGITS_COMPARED));
+    }
+    
+    /**
+     * Uppercase letters and digits of a policy number, or empty if it is too short to identify anyone
+     */
+    private static String normalizedPolicy(String policy) {
+        if (policy == null) {
+            return "";
+        }
+        StringBuilder normalized = new StringBuilder();
+        for (int i = 0; i < policy.length(); i++) {
+            char c = policy.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                normalized.append(Character.toUpperCase(c));
+            }
+        }
+        return normalized.length() >= MIN_POLICY_LENGTH ? normalized.toString() : "";
+    }
+    
+    private static String normalizedEmail(String email) {
+        return email != null ? email.trim().toLowerCase() : "";
+    }
+}
@@ -0,0 +1,47 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Two stored patients that are probably the same person, as found by
+ * PatientDuplicateDetector.
+ */
+public class PatientDuplicateMatch {
+    
+    private final String patientId;
+    private final String duplicatePatientId;
+    private final double score;
+    private final List<String> matchedFields;
+    
+    public PatientDuplicateMatch(String patientId, String duplicatePatientId, double score, List<String> matchedFields) {
+        this.patientId = patientId;
+        this.duplicatePatientId = duplicatePatientId;
+        this.score = score;
+        this.matchedFields = new ArrayList<>(matchedFields);
+    }
+    
+    /**
+     * @return ID of the patient that was checked
+     */
+    public String getPatientId() { return patientId; }
+    
+    /**
+     * @return ID of the stored patient it resembles
+     */
+    public String getDuplicatePatientId() { return duplicatePatientId; }
+    
+    /**
+     * @return Agreement between the two records, from 0 (nothing in common) to 1 (every compared field agrees)
+     */
+    public double getScore() { return score; }
+    
+    /**
+     * @return Fields that agreed, e.g. "dateOfBirth", "phoneNumber"
+     */
+    public List<String> getMatchedFields() { return Collections.unmodifiableList(matchedFields); }
+    
+    @Override
+    public String toString() {
+        return String.format("%s ~ %s (%.2f: %s)", patientId, duplicatePatientId, score, String.join(", ", matchedFields));
+    }
+}
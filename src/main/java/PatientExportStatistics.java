@@ -0,0 +1,40 @@
+/**
+ * Outcome of a streaming patient export: how much was written and how fast.
+ */
+public class PatientExportStatistics {
+    
+    private final long recordCount;
+    private final long byteCount;
+    private final long elapsedNanos;
+    
+    public PatientExportStatistics(long recordCount, long byteCount, long elapsedNanos) {
+        this.recordCount = recordCount;
+        this.byteCount = byteCount;
+        this.elapsedNanos = elapsedNanos;
+    }
+    
+    public long getRecordCount() { return recordCount; }
+    
+    public long getByteCount() { return byteCount; }
+    
+    public long getElapsedNanos() { return elapsedNanos; }
+    
+    public double getRecordsPerSecond() {
+        return perSecond(recordCount);
+    }
+    
+    public double getBytesPerSecond() {
+        return perSecond(byteCount);
+    }
+    
+    private double perSecond(long amount) {
+        return elapsedNanos > 0 ? amount * 1_000_000_000.0 / elapsedNanos : 0;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%d patients, %d bytes in %d ms (%.0f records/s, %.1f MB/s)",
+            recordCount, byteCount, elapsedNanos / 1_000_000,
+            getRecordsPerSecond(), getBytesPerSecond() / (1024 * 1024));
+    }
+}
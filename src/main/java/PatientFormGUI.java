@@ -1,6 +1,7 @@
 import java.io.File;
 import java.util.logging.Logger;
 
+import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -908,19 +909,26 @@ public class PatientFormGUI {
             // Create a patient data object from current patient
             PatientDataObject patientData = createPatientDataFromForm();
             
-            // Save to storage
+            // Save to storage on its save thread; the outcome comes back once the save is on disk
             PatientDataStorage storage = PatientDataStorage.getInstance();
-            boolean saved = storage.savePatientData(patientData);
-            
-            if (saved) {
-                // Show success message with summary
-                showSaveSuccessDialog(patientData, storage);
-                
-                // Close the window
-                stage.close();
-            } else {
-                showAlert("Save Error", "Failed to save patient data to storage. Please try again.");
-            }
+            storage.savePatientDataAsync(patientData).whenComplete((result, error) -> Platform.runLater(() -> {
+                if (error == null && result.isSaved()) {
+                    // Show success message with summary
+                    showSaveSuccessDialog(patientData, storage);
+                    
+                    // Close the window
+                    stage.close();
+                } else if (error == null && result.getStatus() == PatientSaveResult.Status.NOT_DURABLE) {
+                    showAlert("Save Warning", "Patient data was saved but could not be written to disk. "
+                        + "It will be lost when the application closes.");
+                    stage.close();
+                } else {
+                    if (error != null) {
+                        LOGGER.warning("Error saving patient data: " + error.getMessage());
+                    }
+                    showAlert("Save Error", "Failed to save patient data to storage. Please try again.");
+                }
+            }));
             
         } catch (Exception e) {
             LOGGER.warning(() -> "Error saving patient data: " + e.getMessage());
@@ -984,8 +992,8 @@ public class PatientFormGUI {
         
         message.append("STORAGE SUMMARY:\n");
         message.append("Total Patients Saved: ").append(storage.getPatientCount()).append("\n");
-        message.append("Patients from Today: ").append(storage.getPatientsFromToday().size()).append("\n");
-        message.append("Completed Check-ins: ").append(storage.getCompletedCheckIns().size()).append("\n\n");
+        message.append("Patients from Today: ").append(storage.getPatientCountFromToday()).append("\n");
+        message.append("Completed Check-ins: ").append(storage.getCompletedCheckInCount()).append("\n\n");
         
         message.append("The patient can be accessed later using Patient ID: ");
         message.append(patientData.getPatientId());
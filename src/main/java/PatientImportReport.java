@@ -0,0 +1,97 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Progress and outcome of a bulk patient import.
+ * A report is an immutable snapshot: the importer hands a fresh one to the progress
+ * listener after every batch and returns the final one when the import ends.
+ */
+public class PatientImportReport {
+    
+    /**
+     * A line that could not be imported
+     */
+    public static class LineError {
+        private final long lineNumber;
+        private final String message;
+        
+        public LineError(long lineNumber, String message) {
+            this.lineNumber = lineNumber;
+            this.message = message;
+        }
+        
+        public long getLineNumber() { return lineNumber; }
+        
+        public String getMessage() { return message; }
+        
+        @Override
+        public String toString() {
+            return "Line " + lineNumber + ": " + message;
+        }
+    }
+    
+    private final long linesRead;
+    private final long importedCount;
+    private final long failedCount;
+    private final long bytesRead;
+    private final long totalBytes;
+    private final long elapsedNanos;
+    private final boolean complete;
+    private final List<LineError> errors;
+    
+    public PatientImportReport(long linesRead, long importedCount, long failedCount, long bytesRead,
+                               long totalBytes, long elapsedNanos, boolean complete, List<LineError> errors) {
+        this.linesRead = linesRead;
+        this.importedCount = importedCount;
+        this.failedCount = failedCount;
+        this.bytesRead = bytesRead;
+        this.totalBytes = totalBytes;
+        this.elapsedNanos = elapsedNanos;
+        this.complete = complete;
+        this.errors = new ArrayList<>(errors);
+    }
+    
+    public long getLinesRead() { return linesRead; }
+    
+    public long getImportedCount() { return importedCount; }
+    
+    public long getFailedCount() { return failedCount; }
+    
+    public long getBytesRead() { return bytesRead; }
+    
+    public long getTotalBytes() { return totalBytes; }
+    
+    public long getElapsedNanos() { return elapsedNanos; }
+    
+    /**
+     * @return true once the whole file has been processed
+     */
+    public boolean isComplete() { return complete; }
+    
+    /**
+     * @return The first malformed lines, up to the importer's reporting limit;
+     *         getFailedCount() gives the full number
+     */
+    public List<LineError> getErrors() { return new ArrayList<>(errors); }
+    
+    /**
+     * @return Fraction of the file processed so far, between 0 and 1
+     */
+    public double getProgress() {
+        if (complete || totalBytes <= 0) {
+            return complete ? 1.0 : 0.0;
+        }
+        return Math.min(1.0, (double) bytesRead / totalBytes);
+    }
+    
+    public double getRecordsPerSecond() {
+        return elapsedNanos > 0 ? importedCount * 1_000_000_000.0 / elapsedNanos : 0;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%.0f%% - %d lines, %d imported, %d failed in %d ms (%.0f records/s)",
+            getProgress() * 100, linesRead, importedCount, failedCount,
+            elapsedNanos / 1_000_000, getRecordsPerSecond());
+    }
+}
@@ -0,0 +1,126 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.logging.Logger;
+
+/**
+ * Streams patients as JSON to a channel.
+ * Each patient's rendered record is framed in one reused text buffer and encoded into
+ * one reused byte buffer that is drained to the channel whenever it fills, so memory
+ * stays constant however many patients are exported.
+ */
+public final class PatientJsonExporter {
+    
+    private static final Logger LOGGER = Logger.getLogger(PatientJsonExporter.class.getName());
+    
+    private static final int BUFFER_SIZE = 256 * 1024;
+    
+    /**
+     * Output layout
+     */
+    public enum Format {
+        /** One single-line JSON object per line */
+        NDJSON,
+        /** A single JSON array of objects */
+        JSON_ARRAY
+    }
+    
+    private PatientJsonExporter() {
+    }
+    
+    /**
+     * Write records that are already rendered as single-line JSON objects, such as
+     * cached renderings. The channel is not closed.
+     * @param records Rendered records, in output order
+     * @param channel Destination channel
+     * @param format Output layout
+     * @return Counts and throughput for the export
+     */
+    public static PatientExportStatistics exportRendered(Iterator<String> records,
+                                                         WritableByteChannel channel, Format format) throws IOException {
+        long startNanos = System.nanoTime();
+        StringBuilder text = new StringBuilder(4096);
+        char[] chars = new char[4096];
+        ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        long recordCount = 0;
+        long byteCount = 0;
+        
+        if (format == Format.JSON_ARRAY) {
+            text.append('[');
+        }
+        while (records.hasNext()) {
+            if (format == Format.JSON_ARRAY && recordCount > 0) {
+                text.append(',');
+            }
+            text.append(records.next());
+            if (format == Format.NDJSON) {
+                text.append('\n');
+            }
+            recordCount++;
+            
+            if (text.length() > chars.length) {
+                chars = new char[Math.max(text.length(), chars.length * 2)];
+            }
+            int length = text.length();
+            text.getChars(0, length, chars, 0);
+            text.setLength(0);
+            byteCount += encode(CharBuffer.wrap(chars, 0, length), encoder, bytes, channel, false);
+        }
+        if (format == Format.JSON_ARRAY) {
+            text.append("]\n");
+        }
+        
+        byteCount += encode(CharBuffer.wrap(text), encoder, bytes, channel, true);
+        byteCount += drain(bytes, channel);
+        
+        PatientExportStatistics statistics =
+            new PatientExportStatistics(recordCount, byteCount, System.nanoTime() - startNanos);
+        LOGGER.info("Exported " + statistics);
+        return statistics;
+    }
+    
+    /**
+     * Encode characters into the byte buffer, draining it to the channel each time it fills
+     * @return Number of bytes written to the channel
+     */
+    private static long encode(CharBuffer chars, CharsetEncoder encoder, ByteBuffer bytes,
+                               WritableByteChannel channel, boolean endOfInput) throws IOException {
+        long written = 0;
+        while (true) {
+            CoderResult result = encoder.encode(chars, bytes, endOfInput);
+            if (result.isOverflow()) {
+                written += drain(bytes, channel);
+            } else if (result.isError()) {
+                result.throwException();
+            } else {
+                break;
+            }
+        }
+        if (endOfInput) {
+            while (encoder.flush(bytes).isOverflow()) {
+                written += drain(bytes, channel);
+            }
+        }
+        return written;
+    }
+    
+    /**
+     * Write everything buffered so far to the channel
+     * @return Number of bytes written
+     */
+    private static int drain(ByteBuffer bytes, WritableByteChannel channel) throws IOException {
+        bytes.flip();
+        int written = bytes.remaining();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+        return written;
+    }
+}
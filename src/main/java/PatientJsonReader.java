@@ -0,0 +1,417 @@
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses patients from the JSON written by PatientJsonWriter.
+ * A small self-contained parser is used rather than a library so that import has no
+ * dependencies; it accepts any well-formed JSON object with the exported field layout.
+ * Empty strings are read back as null, since the writer exports null fields as "".
+ * Objects and arrays may nest at most MAX_NESTING_DEPTH deep, so a hostile line cannot
+ * overflow the recursive parser's stack.
+ * Parsing is stateless, so any number of threads may parse at once.
+ */
+public final class PatientJsonReader {
+    
+    // The exported layout nests two levels; anything far deeper is not a patient
+    static final int MAX_NESTING_DEPTH = 64;
+    
+    private PatientJsonReader() {
+    }
+    
+    /**
+     * Parse one patient object
+     * @param json A single JSON object
+     * @return The parsed patient
+     * @throws IllegalArgumentException if the text is not valid JSON or has no patient ID
+     */
+    public static PatientDataObject parse(String json) {
+        Parser parser = new Parser(json);
+        Object value = parser.readValue();
+        parser.skipWhitespace();
+        if (parser.position < json.length()) {
+            throw parser.error("Unexpected content after object");
+        }
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException("Expected a JSON object");
+        }
+        return toPatient(asObject(value));
+    }
+    
+    private static PatientDataObject toPatient(Map<String, Object> json) {
+        PatientDataObject patient = new PatientDataObject();
+        
+        String patientId = string(json, "patientId");
+        if (patientId == null || patientId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Missing patientId");
+        }
+        patient.setPatientId(patientId);
+        LocalDateTime savedTimestamp = dateTime(json, "savedTimestamp");
+        if (savedTimestamp != null) {
+            patient.setSavedTimestamp(savedTimestamp);
+        }
+        
+        Map<String, Object> personal = object(json, "personalInfo");
+        patient.setFirstName(string(personal, "firstName"));
+        patient.setLastName(string(personal, "lastName"));
+        patient.setDateOfBirth(date(personal, "dateOfBirth"));
+        patient.setGender(string(personal, "gender"));
+        patient.setAge((int) number(personal, "age"));
+        
+        Map<String, Object> contact = object(json, "contactInfo");
+        patient.setPhoneNumber(string(contact, "phoneNumber"));
+        patient.setEmail(string(contact, "email"));
+        patient.setAddress(string(contact, "address"));
+        patient.setEmergencyContact(string(contact, "emergencyContact"));
+        patient.setEmergencyPhone(string(contact, "emergencyPhone"));
+        
+        Map<String, Object> insurance = object(json, "insuranceInfo");
+        patient.setInsuranceProvider(string(insurance, "provider"));
+        patient.setInsurancePolicyNumber(string(insurance, "policyNumber"));
+        patient.setInsuranceGroupNumber(string(insurance, "groupNumber"));
+        patient.setInsuranceVerified(bool(insurance, "verified"));
+        
+        Map<String, Object> appointment = object(json, "appointmentInfo");
+        patient.setAppointmentDateTime(dateTime(appointment, "dateTime"));
+        patient.setDoctorName(string(appointment, "doctorName"));
+        patient.setAppointmentType(string(appointment, "appointmentType"));
+        patient.setAppointmentConfirmed(bool(appointment, "confirmed"));
+        
+        Map<String, Object> medical = object(json, "medicalInfo");
+        patient.setMedications(stringList(medical, "medications"));
+        patient.setDiagnoses(stringList(medical, "diagnoses"));
+        patient.setAllergies(stringList(medical, "allergies"));
+        patient.setPatientPicturePath(string(medical, "patientPicture"));
+        
+        Map<String, Object> payment = object(json, "paymentInfo");
+        patient.setCopayAmount(number(payment, "copayAmount"));
+        patient.setPaymentMethod(string(payment, "paymentMethod"));
+        patient.setPaymentReferenceNumber(string(payment, "referenceNumber"));
+        patient.setPaymentProcessed(bool(payment, "processed"));
+        
+        Map<String, Object> screening = object(json, "healthScreening");
+        patient.setTemperature(number(screening, "temperature"));
+        patient.setCurrentSymptoms(string(screening, "symptoms"));
+        patient.setRecentTravel(bool(screening, "recentTravel"));
+        patient.setCovidExposure(bool(screening, "covidExposure"));
+        patient.setHealthScreeningPassed(bool(screening, "passed"));
+        
+        Map<String, Object> checkIn = object(json, "checkInInfo");
+        patient.setCheckInStartTime(dateTime(checkIn, "startTime"));
+        patient.setCheckInCompleteTime(dateTime(checkIn, "completeTime"));
+        patient.setWaitingAreaAssignment(string(checkIn, "waitingArea"));
+        patient.setSpecialInstructions(string(checkIn, "specialInstructions"));
+        patient.setCheckInComplete(bool(checkIn, "complete"));
+        
+        patient.setSessionNotes(stringList(json, "sessionNotes"));
+        Map<String, Object> stepJson = object(json, "stepCompletion");
+        if (!stepJson.isEmpty()) {
+            Map<String, Boolean> steps = new HashMap<>();
+            for (String step : stepJson.keySet()) {
+                steps.put(step, bool(stepJson, step));
+            }
+            patient.setStepCompletionStatus(steps);
+        }
+        
+        return patient;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asObject(Object value) {
+        return (Map<String, Object>) value;
+    }
+    
+    private static Map<String, Object> object(Map<String, Object> json, String name) {
+        Object value = json.get(name);
+        if (value == null) {
+            return new HashMap<>();
+        }
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException("Expected an object for " + name);
+        }
+        return asObject(value);
+    }
+    
+    private static String string(Map<String, Object> json, String name) {
+        Object value = json.get(name);
+        if (value == null) {
+            return null;
+        }
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException("Expected a string for " + name);
+        }
+        String text = (String) value;
+        return text.isEmpty() ? null : text;
+    }
+    
+    private static double number(Map<String, Object> json, String name) {
+        Object value = json.get(name);
+        if (value == null) {
+            return 0;
+        }
+        if (!(value instanceof Double)) {
+            throw new IllegalArgumentException("Expected a number for " + name);
+        }
+        return (Double) value;
+    }
+    
+    private static boolean bool(Map<String, Object> json, String name) {
+        Object value = json.get(name);
+        if (value == null) {
+            return false;
+        }
+        if (!(value instanceof Boolean)) {
+            throw new IllegalArgumentException("Expected true or false for " + name);
+        }
+        return (Boolean) value;
+    }
+    
+    private static List<String> stringList(Map<String, Object> json, String name) {
+        Object value = json.get(name);
+        List<String> values = new ArrayList<>();
+        if (value == null) {
+            return values;
+        }
+        if (!(value instanceof List)) {
+            throw new IllegalArgumentException("Expected an array for " + name);
+        }
+        for (Object element : (List<?>) value) {
+            if (!(element instanceof String)) {
+                throw new IllegalArgumentException("Expected only strings in " + name);
+            }
+            values.add((String) element);
+        }
+        return values;
+    }
+    
+    private static LocalDate date(Map<String, Object> json, String name) {
+        String text = string(json, name);
+        if (text == null) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(text);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date for " + name + ": " + text);
+        }
+    }
+    
+    /**
+     * Read a "yyyy-MM-dd HH:mm:ss" timestamp as written by PatientJsonWriter
+     */
+    private static LocalDateTime dateTime(Map<String, Object> json, String name) {
+        String text = string(json, name);
+        if (text == null) {
+            return null;
+        }
+        try {
+            return LocalDateTime.parse(text.replace(' ', 'T'));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid timestamp for " + name + ": " + text);
+        }
+    }
+    
+    /**
+     * Recursive-descent JSON parser producing maps, lists, strings, doubles, booleans and null
+     */
+    private static final class Parser {
+        private final String text;
+        private int position;
+        private int depth;
+        
+        Parser(String text) {
+            this.text = text;
+        }
+        
+        Object readValue() {
+            skipWhitespace();
+            if (position >= text.length()) {
+                throw error("Unexpected end of input");
+            }
+            char c = text.charAt(position);
+            switch (c) {
+                case '{':
+                    enterNested();
+                    Map<String, Object> object = readObject();
+                    depth--;
+                    return object;
+                case '[':
+                    enterNested();
+                    List<Object> array = readArray();
+                    depth--;
+                    return array;
+                case '"': return readString();
+                case 't': expectWord("true"); return Boolean.TRUE;
+                case 'f': expectWord("false"); return Boolean.FALSE;
+                case 'n': expectWord("null"); return null;
+                default:
+                    if (c == '-' || (c >= '0' && c <= '9')) {
+                        return readNumber();
+                    }
+                    throw error("Unexpected character '" + c + "'");
+            }
+        }
+        
+        private void enterNested() {
+            if (++depth > MAX_NESTING_DEPTH) {
+                throw error("Nested deeper than " + MAX_NESTING_DEPTH + " levels");
+            }
+        }
+        
+        private Map<String, Object> readObject() {
+            Map<String, Object> object = new HashMap<>();
+            position++;
+            skipWhitespace();
+            if (peek() == '}') {
+                position++;
+                return object;
+            }
+            while (true) {
+                skipWhitespace();
+                if (peek() != '"') {
+                    throw error("Expected a field name");
+                }
+                String name = readString();
+                skipWhitespace();
+                expect(':');
+                object.put(name, readValue());
+                skipWhitespace();
+                char c = next();
+                if (c == '}') {
+                    return object;
+                }
+                if (c != ',') {
+                    throw error("Expected ',' or '}'");
+                }
+            }
+        }
+        
+        private List<Object> readArray() {
+            List<Object> array = new ArrayList<>();
+            position++;
+            skipWhitespace();
+            if (peek() == ']') {
+                position++;
+                return array;
+            }
+            while (true) {
+                array.add(readValue());
+                skipWhitespace();
+                char c = next();
+                if (c == ']') {
+                    return array;
+                }
+                if (c != ',') {
+                    throw error("Expected ',' or ']'");
+                }
+            }
+        }
+        
+        private String readString() {
+            position++;
+            int start = position;
+            // Fast path: no escapes, return a substring
+            while (position < text.length()) {
+                char c = text.charAt(position);
+                if (c == '"') {
+                    return text.substring(start, position++);
+                }
+                if (c == '\\' || c < 0x20) {
+                    break;
+                }
+                position++;
+            }
+            
+            StringBuilder value = new StringBuilder(text.substring(start, position));
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c < 0x20) {
+                    throw error("Unescaped control character in string");
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                char escaped = next();
+                switch (escaped) {
+                    case '"': value.append('"'); break;
+                    case '\\': value.append('\\'); break;
+                    case '/': value.append('/'); break;
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'u':
+                        if (position + 4 > text.length()) {
+                            throw error("Truncated unicode escape");
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("Invalid unicode escape");
+                        }
+                        position += 4;
+                        break;
+                    default:
+                        throw error("Invalid escape '\\" + escaped + "'");
+                }
+            }
+        }
+        
+        private Double readNumber() {
+            int start = position;
+            while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0) {
+                position++;
+            }
+            try {
+                return Double.valueOf(text.substring(start, position));
+            } catch (NumberFormatException e) {
+                throw error("Invalid number");
+            }
+        }
+        
+        private void expectWord(String word) {
+            if (!text.startsWith(word, position)) {
+                throw error("Expected " + word);
+            }
+            position += word.length();
+        }
+        
+        private void expect(char expected) {
+            if (next() != expected) {
+                throw error("Expected '" + expected + "'");
+            }
+        }
+        
+        private char peek() {
+            if (position >= text.length()) {
+                throw error("Unexpected end of input");
+            }
+            return text.charAt(position);
+        }
+        
+        private char next() {
+            char c = peek();
+            position++;
+            return c;
+        }
+        
+        void skipWhitespace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+        
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at column " + (position + 1));
+        }
+    }
+}
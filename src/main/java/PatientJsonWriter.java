@@ -0,0 +1,242 @@
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renders PatientDataObject as JSON into a caller-supplied StringBuilder.
+ * Both the pretty-printed form used by PatientDataObject.toJsonString and the
+ * single-line form used for NDJSON export come from here, so the two never drift.
+ * Strings are escaped and lists are written as JSON arrays, so the output always parses.
+ */
+public final class PatientJsonWriter {
+    
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    
+    private PatientJsonWriter() {
+    }
+    
+    /**
+     * Append a patient as a JSON object
+     * @param patient The patient to render
+     * @param out Destination; the object is appended after any existing content
+     * @param pretty true for indented multi-line output, false for a single line
+     */
+    public static void append(PatientDataObject patient, StringBuilder out, boolean pretty) {
+        JsonOutput json = new JsonOutput(out, pretty);
+        
+        json.beginObject();
+        json.name("patientId").string(patient.getPatientId());
+        json.name("savedTimestamp").dateTime(patient.getSavedTimestamp());
+        
+        json.name("personalInfo").beginObject();
+        json.name("firstName").string(patient.getFirstName());
+        json.name("lastName").string(patient.getLastName());
+        json.name("dateOfBirth").date(patient.getDateOfBirth());
+        json.name("gender").string(patient.getGender());
+        json.name("age").number(patient.getAge());
+        json.endObject();
+        
+        json.name("contactInfo").beginObject();
+        json.name("phoneNumber").string(patient.getPhoneNumber());
+        json.name("email").string(patient.getEmail());
+        json.name("address").string(patient.getAddress());
+        json.name("emergencyContact").string(patient.getEmergencyContact());
+        json.name("emergencyPhone").string(patient.getEmergencyPhone());
+        json.endObject();
+        
+        json.name("insuranceInfo").beginObject();
+        json.name("provider").string(patient.getInsuranceProvider());
+        json.name("policyNumber").string(patient.getInsurancePolicyNumber());
+        json.name("groupNumber").string(patient.getInsuranceGroupNumber());
+        json.name("verified").bool(patient.isInsuranceVerified());
+        json.endObject();
+        
+        json.name("appointmentInfo").beginObject();
+        json.name("dateTime").dateTime(patient.getAppointmentDateTime());
+        json.name("doctorName").string(patient.getDoctorName());
+        json.name("appointmentType").string(patient.getAppointmentType());
+        json.name("confirmed").bool(patient.isAppointmentConfirmed());
+        json.endObject();
+        
+        json.name("medicalInfo").beginObject();
+        json.name("medications").stringArray(patient.getMedications());
+        json.name("diagnoses").stringArray(patient.getDiagnoses());
+        json.name("allergies").stringArray(patient.getAllergies());
+        json.name("patientPicture").string(patient.getPatientPicturePath());
+        json.endObject();
+        
+        json.name("paymentInfo").beginObject();
+        json.name("copayAmount").number(patient.getCopayAmount());
+        json.name("paymentMethod").string(patient.getPaymentMethod());
+        json.name("referenceNumber").string(patient.getPaymentReferenceNumber());
+        json.name("processed").bool(patient.isPaymentProcessed());
+        json.endObject();
+        
+        json.name("healthScreening").beginObject();
+        json.name("temperature").number(patient.getTemperature());
+        json.name("symptoms").string(patient.getCurrentSymptoms());
+        json.name("recentTravel").bool(patient.isRecentTravel());
+        json.name("covidExposure").bool(patient.isCovidExposure());
+        json.name("passed").bool(patient.isHealthScreeningPassed());
+        json.endObject();
+        
+        json.name("checkInInfo").beginObject();
+        json.name("startTime").dateTime(patient.getCheckInStartTime());
+        json.name("completeTime").dateTime(patient.getCheckInCompleteTime());
+        json.name("waitingArea").string(patient.getWaitingAreaAssignment());
+        json.name("specialInstructions").string(patient.getSpecialInstructions());
+        json.name("complete").bool(patient.isCheckInComplete());
+        json.name("completionPercentage").number(patient.getCompletionPercentage());
+        json.endObject();
+        
+        json.name("sessionNotes").stringArray(patient.getSessionNotes());
+        json.name("stepCompletion").beginObject();
+        for (Map.Entry<String, Boolean> step : patient.getStepCompletionStatus().entrySet()) {
+            json.name(step.getKey()).bool(Boolean.TRUE.equals(step.getValue()));
+        }
+        json.endObject();
+        json.endObject();
+    }
+    
+    /**
+     * Append a JSON string literal, escaping quotes, backslashes and control characters.
+     * Null is written as an empty string, matching the historical export format.
+     */
+    public static void appendString(StringBuilder out, String value) {
+        out.append('"');
+        if (value != null) {
+            int length = value.length();
+            int runStart = 0;
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    continue;
+                }
+                out.append(value, runStart, i);
+                runStart = i + 1;
+                switch (c) {
+                    case '"': out.append("\\\""); break;
+                    case '\\': out.append("\\\\"); break;
+                    case '\n': out.append("\\n"); break;
+                    case '\r': out.append("\\r"); break;
+                    case '\t': out.append("\\t"); break;
+                    default:
+                        out.append("\\u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xF]);
+                }
+            }
+            out.append(value, runStart, length);
+        }
+        out.append('"');
+    }
+    
+    /**
+     * Minimal structural writer tracking nesting depth and comma placement
+     */
+    private static final class JsonOutput {
+        private final StringBuilder out;
+        private final boolean pretty;
+        private int depth;
+        private boolean firstInObject;
+        
+        JsonOutput(StringBuilder out, boolean pretty) {
+            this.out = out;
+            this.pretty = pretty;
+        }
+        
+        void beginObject() {
+            out.append('{');
+            depth++;
+            firstInObject = true;
+        }
+        
+        void endObject() {
+            depth--;
+            if (pretty && !firstInObject) {
+                newLine();
+            }
+            out.append('}');
+            firstInObject = false;
+        }
+        
+        JsonOutput name(String name) {
+            if (!firstInObject) {
+                out.append(',');
+            }
+            if (pretty) {
+                newLine();
+            }
+            appendString(out, name);
+            out.append(pretty ? ": " : ":");
+            firstInObject = false;
+            return this;
+        }
+        
+        void string(String value) {
+            appendString(out, value);
+        }
+        
+        void stringArray(List<String> values) {
+            out.append('[');
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) {
+                    out.append(pretty ? ", " : ",");
+                }
+                appendString(out, values.get(i));
+            }
+            out.append(']');
+        }
+        
+        void number(int value) {
+            out.append(value);
+        }
+        
+        void number(double value) {
+            // NaN and infinities have no JSON representation
+            if (Double.isFinite(value)) {
+                out.append(value);
+            } else {
+                out.append("null");
+            }
+        }
+        
+        void bool(boolean value) {
+            out.append(value);
+        }
+        
+        void date(LocalDate date) {
+            out.append('"');
+            if (date != null) {
+                out.append(date);
+            }
+            out.append('"');
+        }
+        
+        /**
+         * Write as "yyyy-MM-dd HH:mm:ss", formatted by hand to keep export off DateTimeFormatter
+         */
+        void dateTime(LocalDateTime dateTime) {
+            out.append('"');
+            if (dateTime != null) {
+                out.append(dateTime.toLocalDate()).append(' ');
+                appendTwoDigits(dateTime.getHour());
+                out.append(':');
+                appendTwoDigits(dateTime.getMinute());
+                out.append(':');
+                appendTwoDigits(dateTime.getSecond());
+            }
+            out.append('"');
+        }
+        
+        private void appendTwoDigits(int value) {
+            out.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+        }
+        
+        private void newLine() {
+            out.append('\n');
+            for (int i = 0; i < depth; i++) {
+                out.append("  ");
+            }
+        }
+    }
+}
@@ -0,0 +1,589 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Columnar shadow copy of the numeric and yes/no fields of stored patients, for analytics.
+ * Each indexed patient occupies one row; temperature and copay live in double[] columns,
+ * age in an int[] column, the yes/no fields in bit-packed long[] columns, and the payment
+ * method as a dictionary code in an int[] column. Aggregations are tight loops over those
+ * arrays rather than walks over PatientDataObject graphs.
+ * A temperature of 0 means none was taken, so it is held as NaN and left out of the
+ * temperature sum, average, histogram and group counts rather than averaged in as 0.
+ * Rows freed by deletes are zeroed (NaN for temperature) so sums can run over every row
+ * without a liveness check; they are reclaimed later by {@link #compact()}, which
+ * PatientDataStorage runs in the background once they outnumber live rows.
+ *
+ * Writers share the structure lock and write only their own row; flag bits, which
+ * share words with other rows, are set with atomic per-word OR / AND-NOT, and a lock
+ * stripe per patient ID orders updates of one patient. Growth, compaction and clear
+ * take the structure lock exclusively, so an aggregation never reads a column being
+ * replaced. Aggregations do not lock rows, though: an update stores its cells one
+ * column at a time, and a sum or count over a single column sees each cell's old or
+ * new value, while groupByPaymentMethod, which reads two columns, may pair a row's old
+ * payment method with its new metric. Only PatientDataStorage should call the mutating
+ * methods.
+ */
+public class PatientMetricsColumns {
+    
+    /**
+     * Numeric patient fields held in columns
+     */
+    public enum Metric {
+        TEMPERATURE,
+        COPAY_AMOUNT,
+        AGE
+    }
+    
+    /**
+     * Yes/no patient fields held in bit-packed columns
+     */
+    public enum Flag {
+        RECENT_TRAVEL,
+        COVID_EXPOSURE,
+        HEALTH_SCREENING_PASSED,
+        INSURANCE_VERIFIED,
+        PAYMENT_PROCESSED
+    }
+    
+    /**
+     * Aggregate of one metric over one group of rows
+     */
+    public static class GroupStats {
+        private final long count;
+        private final double sum;
+        
+        public GroupStats(long count, double sum) {
+            this.count = count;
+            this.sum = sum;
+        }
+        
+        /**
+         * @return Patients in the group with a value; for temperature, those with one recorded
+         */
+        public long getCount() { return count; }
+        
+        public double getSum() { return sum; }
+        
+        public double getAverage() {
+            return count > 0 ? sum / count : 0;
+        }
+    }
+    
+    private static final int INITIAL_ROWS = 1024;
+    private static final int MIN_ROWS_BEFORE_COMPACTION = 1024;
+    private static final int NO_PAYMENT_METHOD = -1;
+    private static final int PATIENT_STRIPES = 64;
+    
+    // Atomic read-modify-write on single words of a bit-packed column
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+    
+    // Shared by saves, deletes and aggregations; exclusive to grow, compact and clear
+    private final ReadWriteLock structureLock = new ReentrantReadWriteLock();
+    
+    private final Object[] patientStripes = new Object[PATIENT_STRIPES];
+    
+    // Patient ID -> row, and row -> patient ID (null for freed rows)
+    private final Map<String, Integer> rowOf = new ConcurrentHashMap<>();
+    private volatile String[] patientAt = new String[INITIAL_ROWS];
+    private final AtomicInteger rowCount = new AtomicInteger();
+    
+    private volatile double[] temperature = newTemperatureColumn(INITIAL_ROWS);
+    private volatile double[] copayAmount = new double[INITIAL_ROWS];
+    private volatile int[] age = new int[INITIAL_ROWS];
+    private volatile int[] paymentMethodCode = newCodeColumn(INITIAL_ROWS);
+    
+    // Bit-packed columns: bit (row & 63) of word (row >>> 6); live marks rows holding a patient
+    private volatile long[] live = new long[INITIAL_ROWS / 64];
+    private volatile long[][] flags = new long[Flag.values().length][INITIAL_ROWS / 64];
+    
+    // Payment method dictionary: code -> method, and method -> code; only grows until clear
+    private final List<String> paymentMethods = new CopyOnWriteArrayList<>();
+    private final Map<String, Integer> paymentMethodCodes = new ConcurrentHashMap<>();
+    
+    public PatientMetricsColumns() {
+        for (int i = 0; i < PATIENT_STRIPES; i++) {
+            patientStripes[i] = new Object();
+        }
+    }
+    
+    /**
+     * Copy a patient's metrics into its row, replacing any earlier values for the same ID
+     * @param patient The patient to record
+     */
+    public void add(PatientDataObject patient) {
+        String patientId = patient.getPatientId();
+        synchronized (stripeFor(patientId)) {
+            while (true) {
+                structureLock.readLock().lock();
+                try {
+                    Integer existing = rowOf.get(patientId);
+                    int row = existing != null ? existing : allocateRow(patientId);
+                    if (row >= 0) {
+                        writeRow(patient, row);
+                        return;
+                    }
+                } finally {
+                    structureLock.readLock().unlock();
+                }
+                // Every row is taken; grow, then allocate again
+                structureLock.writeLock().lock();
+                try {
+                    grow(rowCount.get() + 1);
+                } finally {
+                    structureLock.writeLock().unlock();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Remove a patient's row
+     * @param patientId The patient ID to remove
+     */
+    public void remove(String patientId) {
+        synchronized (stripeFor(patientId)) {
+            structureLock.readLock().lock();
+            try {
+                Integer row = rowOf.remove(patientId);
+                if (row == null) {
+                    return;
+                }
+                clearRow(row);
+            } finally {
+                structureLock.readLock().unlock();
+            }
+        }
+    }
+    
+    /**
+     * Remove every row
+     */
+    public void clear() {
+        structureLock.writeLock().lock();
+        try {
+            rowOf.clear();
+            patientAt = new String[INITIAL_ROWS];
+            temperature = newTemperatureColumn(INITIAL_ROWS);
+            copayAmount = new double[INITIAL_ROWS];
+            age = new int[INITIAL_ROWS];
+            paymentMethodCode = newCodeColumn(INITIAL_ROWS);
+            live = new long[INITIAL_ROWS / 64];
+            flags = new long[Flag.values().length][INITIAL_ROWS / 64];
+            rowCount.set(0);
+            paymentMethods.clear();
+            paymentMethodCodes.clear();
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * @return true once freed rows outnumber live rows, so compact() would reclaim space
+     */
+    public boolean needsCompaction() {
+        return hasMostlyFreedRows();
+    }
+    
+    /**
+     * Move live rows down over freed ones if freed rows outnumber them
+     * @return true if rows were reclaimed
+     */
+    public boolean compact() {
+        structureLock.writeLock().lock();
+        try {
+            if (!hasMostlyFreedRows()) {
+                return false;
+            }
+            compactRows();
+            return true;
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * @return Number of patients in the store
+     */
+    public int getRowCount() {
+        return rowOf.size();
+    }
+    
+    /**
+     * Sum a metric over every patient
+     * @param metric The metric to sum
+     * @return The total; for temperature, over patients with one recorded
+     */
+    public double sum(Metric metric) {
+        structureLock.readLock().lock();
+        try {
+            int rows = rowCount.get();
+            if (metric == Metric.AGE) {
+                long total = 0;
+                int[] column = age;
+                for (int row = 0; row < rows; row++) {
+                    total += column[row];
+                }
+                return total;
+            }
+            if (metric == Metric.TEMPERATURE) {
+                return sumRecorded(temperature, rows)[0];
+            }
+            
+            double total = 0;
+            double[] column = copayAmount;
+            for (int row = 0; row < rows; row++) {
+                total += column[row];
+            }
+            return total;
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Average a metric over every patient
+     * @param metric The metric to average
+     * @return The mean, or 0 when there are no patients; for temperature, the mean over
+     *         patients with one recorded, or 0 when none has
+     */
+    public double average(Metric metric) {
+        structureLock.readLock().lock();
+        try {
+            if (metric == Metric.TEMPERATURE) {
+                double[] sumAndCount = sumRecorded(temperature, rowCount.get());
+                return sumAndCount[1] > 0 ? sumAndCount[0] / sumAndCount[1] : 0;
+            }
+            int liveRows = rowOf.size();
+            return liveRows > 0 ? sum(metric) / liveRows : 0;
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Count patients with a flag set
+     * @param flag The flag to count
+     * @return Number of patients for whom it is true
+     */
+    public int count(Flag flag) {
+        structureLock.readLock().lock();
+        try {
+            long[] words = flags[flag.ordinal()];
+            int total = 0;
+            int wordCount = wordsFor(rowCount.get());
+            for (int i = 0; i < wordCount; i++) {
+                total += Long.bitCount(words[i]);
+            }
+            return total;
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Histogram of a metric over equal-width buckets spanning [min, max).
+     * Values below min count in the first bucket and values at or above max in the last;
+     * patients without a recorded temperature are left out of a temperature histogram.
+     * @param metric The metric to bucket
+     * @param min Lower edge of the first bucket
+     * @param max Upper edge of the last bucket
+     * @param buckets Number of buckets
+     * @return Patient count per bucket
+     */
+    public long[] histogram(Metric metric, double min, double max, int buckets) {
+        long[] counts = new long[Math.max(1, buckets)];
+        if (!(max > min)) {
+            return counts;
+        }
+        double scale = counts.length / (max - min);
+        int last = counts.length - 1;
+        
+        structureLock.readLock().lock();
+        try {
+            double[] doubles = metric != Metric.AGE ? doubleColumn(metric) : null;
+            int[] ages = age;
+            long[] liveWords = live;
+            int wordCount = wordsFor(rowCount.get());
+            for (int word = 0; word < wordCount; word++) {
+                long bits = liveWords[word];
+                while (bits != 0) {
+                    int row = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    double value = doubles != null ? doubles[row] : ages[row];
+                    if (Double.isNaN(value)) {
+                        continue;
+                    }
+                    int bucket = (int) ((value - min) * scale);
+                    counts[bucket < 0 ? 0 : Math.min(bucket, last)]++;
+                }
+            }
+            return counts;
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Aggregate a metric per payment method
+     * @param metric The metric to aggregate
+     * @return Payment method -> count and sum, for every method in use; patients without a
+     *         payment method, or without a recorded temperature for TEMPERATURE, are left out
+     */
+    public Map<String, GroupStats> groupByPaymentMethod(Metric metric) {
+        structureLock.readLock().lock();
+        try {
+            // Codes only grow, so sizing from the dictionary after the rows covers every code they hold
+            int rows = rowCount.get();
+            int[] codes = paymentMethodCode;
+            List<String> methods = List.copyOf(paymentMethods);
+            int groups = methods.size();
+            long[] counts = new long[groups];
+            double[] sums = new double[groups];
+            
+            if (metric == Metric.AGE) {
+                int[] column = age;
+                for (int row = 0; row < rows; row++) {
+                    int code = codes[row];
+                    if (code >= 0 && code < groups) {
+                        counts[code]++;
+                        sums[code] += column[row];
+                    }
+                }
+            } else {
+                double[] column = doubleColumn(metric);
+                for (int row = 0; row < rows; row++) {
+                    int code = codes[row];
+                    double value = column[row];
+                    if (code >= 0 && code < groups && !Double.isNaN(value)) {
+                        counts[code]++;
+                        sums[code] += value;
+                    }
+                }
+            }
+            
+            Map<String, GroupStats> result = new LinkedHashMap<>();
+            for (int code = 0; code < groups; code++) {
+                if (counts[code] > 0) {
+                    result.put(methods.get(code), new GroupStats(counts[code], sums[code]));
+                }
+            }
+            return result;
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * @return {sum, count} of the values in the first rows that are not NaN
+     */
+    private static double[] sumRecorded(double[] column, int rows) {
+        double total = 0;
+        long recorded = 0;
+        for (int row = 0; row < rows; row++) {
+            double value = column[row];
+            if (!Double.isNaN(value)) {
+                total += value;
+                recorded++;
+            }
+        }
+        return new double[] {total, recorded};
+    }
+    
+    private Object stripeFor(String patientId) {
+        int hash = patientId.hashCode();
+        return patientStripes[(hash ^ (hash >>> 16)) & (PATIENT_STRIPES - 1)];
+    }
+    
+    private boolean hasMostlyFreedRows() {
+        int rows = rowCount.get();
+        int liveRows = rowOf.size();
+        return rows >= MIN_ROWS_BEFORE_COMPACTION && rows - liveRows > liveRows;
+    }
+    
+    private double[] doubleColumn(Metric metric) {
+        return metric == Metric.TEMPERATURE ? temperature : copayAmount;
+    }
+    
+    private int codeFor(String paymentMethod) {
+        if (paymentMethod == null) {
+            return NO_PAYMENT_METHOD;
+        }
+        Integer code = paymentMethodCodes.get(paymentMethod);
+        if (code != null) {
+            return code;
+        }
+        synchronized (paymentMethods) {
+            return paymentMethodCodes.computeIfAbsent(paymentMethod, method -> {
+                paymentMethods.add(method);
+                return paymentMethods.size() - 1;
+            });
+        }
+    }
+    
+    /**
+     * Callers hold the patient's stripe and the structure lock
+     */
+    private void writeRow(PatientDataObject patient, int row) {
+        double recordedTemperature = patient.getTemperature();
+        temperature[row] = recordedTemperature != 0 ? recordedTemperature : Double.NaN;
+        copayAmount[row] = patient.getCopayAmount();
+        age[row] = patient.getAge();
+        paymentMethodCode[row] = codeFor(patient.getPaymentMethod());
+        
+        long[][] flagWords = flags;
+        setBit(flagWords[Flag.RECENT_TRAVEL.ordinal()], row, patient.isRecentTravel());
+        setBit(flagWords[Flag.COVID_EXPOSURE.ordinal()], row, patient.isCovidExposure());
+        setBit(flagWords[Flag.HEALTH_SCREENING_PASSED.ordinal()], row, patient.isHealthScreeningPassed());
+        setBit(flagWords[Flag.INSURANCE_VERIFIED.ordinal()], row, patient.isInsuranceVerified());
+        setBit(flagWords[Flag.PAYMENT_PROCESSED.ordinal()], row, patient.isPaymentProcessed());
+        setBit(live, row, true);
+    }
+    
+    /**
+     * Give a new patient the next row. Callers hold the patient's stripe and the
+     * structure lock, so the row cannot be moved before its cells are written.
+     * @return The row, or -1 if every row up to the current capacity is taken
+     */
+    private int allocateRow(String patientId) {
+        String[] patients = patientAt;
+        int row;
+        do {
+            row = rowCount.get();
+            if (row >= patients.length) {
+                return -1;
+            }
+        } while (!rowCount.compareAndSet(row, row + 1));
+        patients[row] = patientId;
+        rowOf.put(patientId, row);
+        return row;
+    }
+    
+    /**
+     * Callers hold the structure lock, and the patient's stripe unless it is held exclusively
+     */
+    private void clearRow(int row) {
+        setBit(live, row, false);
+        patientAt[row] = null;
+        temperature[row] = Double.NaN;
+        copayAmount[row] = 0;
+        age[row] = 0;
+        paymentMethodCode[row] = NO_PAYMENT_METHOD;
+        for (long[] words : flags) {
+            setBit(words, row, false);
+        }
+    }
+    
+    /**
+     * Double capacity until it covers the given row count. Callers hold the structure lock exclusively.
+     */
+    private void grow(int rows) {
+        int capacity = patientAt.length;
+        while (capacity < rows) {
+            capacity *= 2;
+        }
+        if (capacity != patientAt.length) {
+            resize(capacity, rowCount.get());
+        }
+    }
+    
+    /**
+     * Reallocate every column with the given capacity, keeping the first {@code keep} rows.
+     * Callers hold the structure lock exclusively.
+     */
+    private void resize(int capacity, int keep) {
+        patientAt = Arrays.copyOf(patientAt, capacity);
+        double[] temperatures = newTemperatureColumn(capacity);
+        System.arraycopy(temperature, 0, temperatures, 0, Math.min(keep, temperature.length));
+        temperature = temperatures;
+        copayAmount = Arrays.copyOf(copayAmount, capacity);
+        age = Arrays.copyOf(age, capacity);
+        int[] codes = newCodeColumn(capacity);
+        System.arraycopy(paymentMethodCode, 0, codes, 0, Math.min(keep, paymentMethodCode.length));
+        paymentMethodCode = codes;
+        
+        int words = wordsFor(capacity);
+        int keepWords = wordsFor(keep);
+        live = Arrays.copyOf(live, words);
+        Arrays.fill(live, keepWords, words, 0L);
+        long[][] resizedFlags = new long[flags.length][];
+        for (int i = 0; i < flags.length; i++) {
+            resizedFlags[i] = Arrays.copyOf(flags[i], words);
+            Arrays.fill(resizedFlags[i], keepWords, words, 0L);
+        }
+        flags = resizedFlags;
+    }
+    
+    /**
+     * Move live rows down over freed ones, keeping their order. Callers hold the structure lock exclusively.
+     */
+    private void compactRows() {
+        int rows = rowCount.get();
+        int next = 0;
+        for (int row = 0; row < rows; row++) {
+            String patientId = patientAt[row];
+            if (patientId == null) {
+                continue;
+            }
+            if (row != next) {
+                patientAt[next] = patientId;
+                temperature[next] = temperature[row];
+                copayAmount[next] = copayAmount[row];
+                age[next] = age[row];
+                paymentMethodCode[next] = paymentMethodCode[row];
+                setBit(live, next, true);
+                for (long[] words : flags) {
+                    setBit(words, next, getBit(words, row));
+                }
+                clearRow(row);
+                rowOf.put(patientId, next);
+            }
+            next++;
+        }
+        rowCount.set(next);
+        
+        int capacity = INITIAL_ROWS;
+        while (capacity < next * 2) {
+            capacity *= 2;
+        }
+        if (capacity < patientAt.length) {
+            resize(capacity, next);
+        }
+    }
+    
+    private static double[] newTemperatureColumn(int capacity) {
+        double[] column = new double[capacity];
+        Arrays.fill(column, Double.NaN);
+        return column;
+    }
+    
+    private static int[] newCodeColumn(int capacity) {
+        int[] codes = new int[capacity];
+        Arrays.fill(codes, NO_PAYMENT_METHOD);
+        return codes;
+    }
+    
+    private static int wordsFor(int rows) {
+        return (rows + 63) >>> 6;
+    }
+    
+    private static void setBit(long[] words, int row, boolean value) {
+        if (value) {
+            WORDS.getAndBitwiseOr(words, row >>> 6, 1L << row);
+        } else {
+            WORDS.getAndBitwiseAnd(words, row >>> 6, ~(1L << row));
+        }
+    }
+    
+    private static boolean getBit(long[] words, int row) {
+        return (words[row >>> 6] & (1L << row)) != 0;
+    }
+}
@@ -0,0 +1,190 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gram index over patient first and last names.
+ * Each lowercased name is broken into its overlapping three-character grams and every
+ * gram maps to the IDs of the patients whose names contain it. A substring query
+ * only has to verify the patients found under the rarest gram of the search term
+ * instead of every saved record. The one- and two-character substrings of each name
+ * are posted too, since they are exactly what a search box sends after its first
+ * keystrokes; such a term's posting set is its answer, with nothing to verify.
+ * The index reflects names as of the last save.
+ * Lookups never block; writers for the same patient ID must be serialized by the caller.
+ */
+public class PatientNameIndex {
+    
+    public static final int GRAM_LENGTH = 3;
+    
+    // Substring of one to GRAM_LENGTH characters -> IDs of patients whose first or last name contains it
+    private final Map<String, Set<String>> postings;
+    
+    // Patient ID -> lowercased {firstName, lastName} as indexed, used for removal and verification
+    private final Map<String, String[]> indexedNames;
+    
+    public PatientNameIndex() {
+        this.postings = new ConcurrentHashMap<>();
+        this.indexedNames = new ConcurrentHashMap<>();
+    }
+    
+    /**
+     * Add or re-index a patient, replacing any names previously indexed for the same ID
+     * @param patient The patient to index
+     */
+    public void add(PatientDataObject patient) {
+        String patientId = patient.getPatientId();
+        remove(patientId);
+        
+        String[] names = {
+            lowerCaseOrNull(patient.getFirstName()),
+            lowerCaseOrNull(patient.getLastName())
+        };
+        indexedNames.put(patientId, names);
+        
+        for (String gram : postedTermsOf(names)) {
+            // compute() is atomic per gram, so a concurrent removal cannot drop a fresh posting
+            postings.compute(gram, (key, ids) -> {
+                Set<String> updated = ids != null ? ids : ConcurrentHashMap.newKeySet();
+                updated.add(patientId);
+                return updated;
+            });
+        }
+    }
+    
+    /**
+     * Remove a patient from the index
+     * @param patientId The patient ID to remove
+     */
+    public void remove(String patientId) {
+        String[] names = indexedNames.remove(patientId);
+        if (names == null) {
+            return;
+        }
+        
+        for (String gram : postedTermsOf(names)) {
+            postings.computeIfPresent(gram, (key, ids) -> {
+                ids.remove(patientId);
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+    }
+    
+    /**
+     * Remove every patient from the index
+     */
+    public void clear() {
+        postings.clear();
+        indexedNames.clear();
+    }
+    
+    /**
+     * Find patients whose first or last name contains the search term
+     * @param lowerSearchTerm Lowercased, trimmed search term
+     * @return IDs of matching patients, in no particular order
+     */
+    public List<String> findPatientIds(String lowerSearchTerm) {
+        if (lowerSearchTerm.length() < GRAM_LENGTH) {
+            // Short terms are posted whole, so the posting set is exactly the answer
+            Set<String> ids = postings.get(lowerSearchTerm);
+            return ids != null ? new ArrayList<>(ids) : Collections.emptyList();
+        }
+        
+        // Every match must appear under each of the term's grams, so the smallest
+        // posting set is a complete candidate list
+        Set<String> candidates = null;
+        for (int i = 0; i + GRAM_LENGTH <= lowerSearchTerm.length(); i++) {
+            Set<String> ids = postings.get(lowerSearchTerm.substring(i, i + GRAM_LENGTH));
+            if (ids == null) {
+                return Collections.emptyList();
+            }
+            if (candidates == null || ids.size() < candidates.size()) {
+                candidates = ids;
+            }
+        }
+        
+        return verify(candidates, lowerSearchTerm);
+    }
+    
+    /**
+     * Upper bound on the matches for a search term: the size of its rarest trigram's
+     * posting set, or of its own posting set for terms shorter than a trigram
+     * @param lowerSearchTerm Lowercased, trimmed search term
+     * @return Most patients findPatientIds could return
+     */
+    public int estimateMatches(String lowerSearchTerm) {
+        if (lowerSearchTerm.length() < GRAM_LENGTH) {
+            Set<String> ids = postings.get(lowerSearchTerm);
+            return ids != null ? ids.size() : 0;
+        }
+        int smallest = Integer.MAX_VALUE;
+        for (int i = 0; i + GRAM_LENGTH <= lowerSearchTerm.length(); i++) {
+            Set<String> ids = postings.get(lowerSearchTerm.substring(i, i + GRAM_LENGTH));
+            if (ids == null) {
+                return 0;
+            }
+            smallest = Math.min(smallest, ids.size());
+        }
+        return smallest;
+    }
+    
+    /**
+     * Keep only the candidates whose first or last name actually contains the term
+     */
+    private List<String> verify(Set<String> candidates, String lowerSearchTerm) {
+        List<String> matches = new ArrayList<>();
+        for (String patientId : candidates) {
+            String[] names = indexedNames.get(patientId);
+            if (names != null && (contains(names[0], lowerSearchTerm) || contains(names[1], lowerSearchTerm))) {
+                matches.add(patientId);
+            }
+        }
+        return matches;
+    }
+    
+    private static boolean contains(String name, String lowerSearchTerm) {
+        return name != null && name.contains(lowerSearchTerm);
+    }
+    
+    private static String lowerCaseOrNull(String name) {
+        return name != null ? name.toLowerCase() : null;
+    }
+    
+    /**
+     * Distinct substrings of one to GRAM_LENGTH characters of the given lowercased names
+     */
+    private static Set<String> postedTermsOf(String... names) {
+        Set<String> terms = new HashSet<>();
+        for (String name : names) {
+            if (name == null) {
+                continue;
+            }
+            for (int length = 1; length <= GRAM_LENGTH; length++) {
+                for (int i = 0; i + length <= name.length(); i++) {
+                    terms.add(name.substring(i, i + length));
+                }
+            }
+        }
+        return terms;
+    }
+    
+    /**
+     * Distinct trigrams of the given lowercased names; null names are skipped
+     */
+    public static Set<String> gramsOf(String... names) {
+        Set<String> grams = new HashSet<>();
+        for (String name : names) {
+            if (name == null) {
+                continue;
+            }
+            for (int i = 0; i + GRAM_LENGTH <= name.length(); i++) {
+                grams.add(name.substring(i, i + GRAM_LENGTH));
+            }
+        }
+        return grams;
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * A patient returned by PatientDataStorage's fuzzy name search, with how closely its
+ * name matched the query.
+ */
+public class PatientNameMatch {
+    
+    private final PatientDataObject patient;
+    private final int distance;
+    private final int phoneticMatches;
+    
+    public PatientNameMatch(PatientDataObject patient, int distance, int phoneticMatches) {
+        this.patient = patient;
+        this.distance = distance;
+        this.phoneticMatches = phoneticMatches;
+    }
+    
+    public PatientDataObject getPatient() { return patient; }
+    
+    /**
+     * @return Total letter edits between the query and the patient's name; 0 for an exact match
+     */
+    public int getDistance() { return distance; }
+    
+    /**
+     * @return Number of query words matched by a name word that sounds alike
+     */
+    public int getPhoneticMatches() { return phoneticMatches; }
+    
+    @Override
+    public String toString() {
+        return patient.getFirstName() + " " + patient.getLastName() + " (distance " + distance + ")";
+    }
+}
@@ -0,0 +1,63 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One page of patients returned by PatientDataStorage's paged listing.
+ * Holds only the patients on this page plus an opaque continuation token for the
+ * next one, so walking the whole store never copies it in one go.
+ */
+public class PatientPage {
+    
+    /**
+     * Order in which pages walk the store
+     */
+    public enum SortOrder {
+        /** Oldest first, in the order patients were first saved */
+        SAVE_ORDER,
+        /** Most recently saved first */
+        SAVE_ORDER_DESCENDING,
+        /** By last name, then first name */
+        NAME,
+        /** By last name, then first name, reversed */
+        NAME_DESCENDING
+    }
+    
+    private final List<PatientDataObject> patients;
+    private final String nextPageToken;
+    private final SortOrder sortOrder;
+    private final int totalPatients;
+    
+    public PatientPage(List<PatientDataObject> patients, String nextPageToken, SortOrder sortOrder, int totalPatients) {
+        this.patients = patients;
+        this.nextPageToken = nextPageToken;
+        this.sortOrder = sortOrder;
+        this.totalPatients = totalPatients;
+    }
+    
+    /**
+     * @return An empty last page
+     */
+    public static PatientPage empty(SortOrder sortOrder) {
+        return new PatientPage(new ArrayList<>(), null, sortOrder, 0);
+    }
+    
+    public List<PatientDataObject> getPatients() { return new ArrayList<>(patients); }
+    
+    /**
+     * @return Token to pass back for the following page, or null if this is the last page
+     */
+    public String getNextPageToken() { return nextPageToken; }
+    
+    public SortOrder getSortOrder() { return sortOrder; }
+    
+    /**
+     * @return Number of patients in the store when the page was read
+     */
+    public int getTotalPatients() { return totalPatients; }
+    
+    public int size() { return patients.size(); }
+    
+    public boolean isEmpty() { return patients.isEmpty(); }
+    
+    public boolean hasNextPage() { return nextPageToken != null; }
+}
@@ -0,0 +1,60 @@
+import java.nio.file.Path;
+
+/**
+ * Configuration for durable PatientDataStorage persistence.
+ * Holds the data directory, the write-ahead log sync policy and how often a snapshot
+ * is taken; defaults favour group commit so a burst of saves shares one fsync.
+ * The ASYNC policy hands writes to a background writer instead, for callers of
+ * PatientDataStorage.savePatientDataAsync that want to know when a save is durable.
+ */
+public class PatientPersistenceSettings {
+    
+    private static final String LOG_FILE_NAME = "patients.wal";
+    private static final String SNAPSHOT_FILE_NAME = "patients.snapshot";
+    
+    private Path dataDirectory;
+    private PatientWriteAheadLog.SyncPolicy syncPolicy;
+    private long groupCommitMillis;
+    private int snapshotEveryChanges;
+    private boolean compressSnapshots;
+    
+    /**
+     * Create settings with default sync behaviour
+     * @param dataDirectory Directory that holds the persisted files
+     */
+    public PatientPersistenceSettings(Path dataDirectory) {
+        this.dataDirectory = dataDirectory;
+        this.syncPolicy = PatientWriteAheadLog.SyncPolicy.GROUP_COMMIT;
+        this.groupCommitMillis = 50;
+        this.snapshotEveryChanges = 10_000;
+    }
+    
+    public Path getDataDirectory() { return dataDirectory; }
+    public void setDataDirectory(Path dataDirectory) { this.dataDirectory = dataDirectory; }
+    
+    public PatientWriteAheadLog.SyncPolicy getSyncPolicy() { return syncPolicy; }
+    public void setSyncPolicy(PatientWriteAheadLog.SyncPolicy syncPolicy) { this.syncPolicy = syncPolicy; }
+    
+    public long getGroupCommitMillis() { return groupCommitMillis; }
+    public void setGroupCommitMillis(long groupCommitMillis) { this.groupCommitMillis = groupCommitMillis; }
+    
+    public int getSnapshotEveryChanges() { return snapshotEveryChanges; }
+    public void setSnapshotEveryChanges(int snapshotEveryChanges) { this.snapshotEveryChanges = snapshotEveryChanges; }
+    
+    /**
+     * @return true to write snapshots block-compressed with a trained dictionary; either format loads
+     */
+    public boolean isCompressSnapshots() { return compressSnapshots; }
+    public void setCompressSnapshots(boolean compressSnapshots) { this.compressSnapshots = compressSnapshots; }
+    
+    /**
+     * @return First segment of the write-ahead log; later segments add ".1", ".2", ... to its name
+     */
+    public Path getLogFile() {
+        return dataDirectory.resolve(LOG_FILE_NAME);
+    }
+    
+    public Path getSnapshotFile() {
+        return dataDirectory.resolve(SNAPSHOT_FILE_NAME);
+    }
+}
@@ -0,0 +1,363 @@
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fuzzy index over the words of patient first and last names, for lookups that must
+ * survive misspellings such as "Jon Smyth" for "John Smith".
+ * Every distinct name word is filed under its Soundex code and under each variant with
+ * up to MAX_EDIT_DISTANCE letters deleted. A query word looks up its own variants with
+ * up to maxDistance letters deleted, and finds its candidates in those buckets only:
+ * words that sound alike, and every word within maxDistance insertions, deletions or
+ * substitutions of it. Only the candidates are compared by edit distance, so the cost
+ * of a lookup depends on the size of the buckets, never on the number of patients.
+ * The index holds distinct words rather than patients, so the extra variants of a
+ * second deletion stay small.
+ * Lookups never block; writers for the same patient ID must be serialized by the caller.
+ */
+public class PatientPhoneticIndex {
+    
+    /** Largest edit distance accepted by findSimilarPatients */
+    public static final int MAX_EDIT_DISTANCE = 2;
+    
+    private static final int SOUNDEX_LENGTH = 4;
+    
+    // Soundex digit for 'a'..'z'; '0' letters separate codes, '-' letters (h, w) do not
+    private static final String SOUNDEX_DIGITS = "0123012-02245501262301-202";
+    
+    /**
+     * A patient whose name resembles the query
+     */
+    public static final class Candidate {
+        private final String patientId;
+        private final int distance;
+        private final int phoneticMatches;
+        
+        Candidate(String patientId, int distance, int phoneticMatches) {
+            this.patientId = patientId;
+            this.distance = distance;
+            this.phoneticMatches = phoneticMatches;
+        }
+        
+        public String getPatientId() { return patientId; }
+        
+        /**
+         * @return Total edits between the query words and the closest words of the patient's name
+         */
+        public int getDistance() { return distance; }
+        
+        /**
+         * @return Number of query words matched by a name word with the same Soundex code
+         */
+        public int getPhoneticMatches() { return phoneticMatches; }
+    }
+    
+    // Name word -> IDs of patients with that word in their first or last name
+    private final Map<String, Set<String>> patientsByWord;
+    
+    // Soundex code -> name words with that code
+    private final Map<String, Set<String>> wordsByCode;
+    
+    // Name word, and each variant of it with up to MAX_EDIT_DISTANCE letters deleted -> name words
+    private final Map<String, Set<String>> wordsByDeletion;
+    
+    // Patient ID -> name words as indexed, used for removal
+    private final Map<String, List<String>> indexedWords;
+    
+    public PatientPhoneticIndex() {
+        this.patientsByWord = new ConcurrentHashMap<>();
+        this.wordsByCode = new ConcurrentHashMap<>();
+        this.wordsByDeletion = new ConcurrentHashMap<>();
+        this.indexedWords = new ConcurrentHashMap<>();
+    }
+    
+    /**
+     * Add or re-index a patient, replacing any name words previously indexed for the same ID
+     * @param patient The patient to index
+     */
+    public void add(PatientDataObject patient) {
+        String patientId = patient.getPatientId();
+        remove(patientId);
+        
+        List<String> words = wordsOf(patient.getFirstName());
+        words.addAll(wordsOf(patient.getLastName()));
+        indexedWords.put(patientId, words);
+        for (String word : words) {
+            // compute() is atomic per word, so a word is filed exactly once while patients use it
+            patientsByWord.compute(word, (key, ids) -> {
+                Set<String> updated = ids;
+                if (updated == null) {
+                    updated = ConcurrentHashMap.newKeySet();
+                    fileWord(word);
+                }
+                updated.add(patientId);
+                return updated;
+            });
+        }
+    }
+    
+    /**
+     * Remove a patient from the index
+     * @param patientId The patient ID to remove
+     */
+    public void remove(String patientId) {
+        List<String> words = indexedWords.remove(patientId);
+        if (words == null) {
+            return;
+        }
+        
+        for (String word : words) {
+            patientsByWord.computeIfPresent(word, (key, ids) -> {
+                ids.remove(patientId);
+                if (!ids.isEmpty()) {
+                    return ids;
+                }
+                unfileWord(word);
+                return null;
+            });
+        }
+    }
+    
+    /**
+     * Remove every patient from the index
+     */
+    public void clear() {
+        patientsByWord.clear();
+        wordsByCode.clear();
+        wordsByDeletion.clear();
+        indexedWords.clear();
+    }
+    
+    /**
+     * @return Number of distinct name words indexed
+     */
+    public int getWordCount() {
+        return patientsByWord.size();
+    }
+    
+    /**
+     * Find patients whose name has, for every word of the query, a word that sounds
+     * alike or is within the edit distance of it
+     * @param name Query name, e.g. "Jon Smyth"; word order does not matter
+     * @param maxDistance Most edits accepted per query word, up to MAX_EDIT_DISTANCE
+     * @return Candidates ranked by total distance, then by phonetic matches, then by ID
+     */
+    public List<Candidate> findSimilarPatients(String name, int maxDistance) {
+        List<String> queryWords = wordsOf(name);
+        if (queryWords.isEmpty()) {
+            return new ArrayList<>();
+        }
+        int bound = Math.max(0, Math.min(MAX_EDIT_DISTANCE, maxDistance));
+        
+        // Patient ID -> {total distance, phonetic matches} over the query words so far
+        Map<String, int[]> scores = null;
+        for (String queryWord : queryWords) {
+            Map<String, int[]> wordScores = scoreWord(queryWord, bound);
+            if (scores == null) {
+                scores = wordScores;
+            } else {
+                Map<String, int[]> combined = new HashMap<>();
+                for (Map.Entry<String, int[]> entry : scores.entrySet()) {
+                    int[] next = wordScores.get(entry.getKey());
+                    if (next != null) {
+                        int[] score = entry.getValue();
+                        combined.put(entry.getKey(), new int[] { score[0] + next[0], score[1] + next[1] });
+                    }
+                }
+                scores = combined;
+            }
+            if (scores.isEmpty()) {
+                return new ArrayList<>();
+            }
+        }
+        
+        List<Candidate> candidates = new ArrayList<>(scores.size());
+        for (Map.Entry<String, int[]> entry : scores.entrySet()) {
+            candidates.add(new Candidate(entry.getKey(), entry.getValue()[0], entry.getValue()[1]));
+        }
+        candidates.sort((a, b) -> a.distance != b.distance ? Integer.compare(a.distance, b.distance)
+            : a.phoneticMatches != b.phoneticMatches ? Integer.compare(b.phoneticMatches, a.phoneticMatches)
+            : a.patientId.compareTo(b.patientId));
+        return candidates;
+    }
+    
+    /**
+     * American Soundex code of a name word, e.g. "R163" for both "robert" and "rupert"
+     * @param word Lowercase letters a-z
+     * @return The four-character code, or an empty string for an empty word
+     */
+    public static String soundex(String word) {
+        if (word.isEmpty()) {
+            return "";
+        }
+        StringBuilder code = new StringBuilder(SOUNDEX_LENGTH);
+        code.append(Character.toUpperCase(word.charAt(0)));
+        char previous = soundexDigit(word.charAt(0));
+        for (int i = 1; i < word.length() && code.length() < SOUNDEX_LENGTH; i++) {
+            char digit = soundexDigit(word.charAt(i));
+            if (digit == '-') {
+                continue;
+            }
+            if (digit != '0' && digit != previous) {
+                code.append(digit);
+            }
+            previous = digit;
+        }
+        while (code.length() < SOUNDEX_LENGTH) {
+            code.append('0');
+        }
+        return code.toString();
+    }
+    
+    /**
+     * Levenshtein distance between two words, giving up once it exceeds a bound
+     * @param a First word
+     * @param b Second word
+     * @param bound Largest distance of interest
+     * @return The distance, or bound + 1 if it is larger than bound
+     */
+    public static int editDistance(String a, String b, int bound) {
+        if (Math.abs(a.length() - b.length()) > bound) {
+            return bound + 1;
+        }
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMinimum = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+                rowMinimum = Math.min(rowMinimum, current[j]);
+            }
+            if (rowMinimum > bound) {
+                return bound + 1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return Math.min(previous[b.length()], bound + 1);
+    }
+    
+    /**
+     * Split a name into lowercase words of plain letters, dropping accents and punctuation
+     * @param name A first or last name, possibly null
+     * @return The words, e.g. ["mary", "jane"] for "Mary-Jane"
+     */
+    public static List<String> wordsOf(String name) {
+        List<String> words = new ArrayList<>();
+        if (name == null) {
+            return words;
+        }
+        String plain = Normalizer.normalize(name, Normalizer.Form.NFD).toLowerCase();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= plain.length(); i++) {
+            char c = i < plain.length() ? plain.charAt(i) : ' ';
+            if (c >= 'a' && c <= 'z') {
+                word.append(c);
+            } else if (Character.getType(c) != Character.NON_SPACING_MARK && word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        return words;
+    }
+    
+    /**
+     * Score every patient with a name word similar to one query word
+     * @return Patient ID -> {distance of its closest word, 1 if that word sounds alike}
+     */
+    private Map<String, int[]> scoreWord(String queryWord, int bound) {
+        String code = soundex(queryWord);
+        Map<String, int[]> similarWords = new HashMap<>();
+        for (String word : wordsByCode.getOrDefault(code, Collections.emptySet())) {
+            similarWords.put(word, new int[] { editDistance(queryWord, word, Integer.MAX_VALUE - 1), 1 });
+        }
+        // Two words within the bound of each other always share a variant with at most bound deletions each
+        for (String key : deletionKeys(queryWord, bound)) {
+            for (String word : wordsByDeletion.getOrDefault(key, Collections.emptySet())) {
+                if (!similarWords.containsKey(word)) {
+                    int distance = editDistance(queryWord, word, bound);
+                    if (distance <= bound) {
+                        similarWords.put(word, new int[] { distance, 0 });
+                    }
+                }
+            }
+        }
+        
+        Map<String, int[]> scores = new HashMap<>();
+        for (Map.Entry<String, int[]> similar : similarWords.entrySet()) {
+            int[] score = similar.getValue();
+            for (String patientId : patientsByWord.getOrDefault(similar.getKey(), Collections.emptySet())) {
+                int[] best = scores.get(patientId);
+                if (best == null || score[0] < best[0] || (score[0] == best[0] && score[1] > best[1])) {
+                    scores.put(patientId, score);
+                }
+            }
+        }
+        return scores;
+    }
+    
+    /**
+     * File a newly used word under its code and deletion variants. Runs inside the
+     * patientsByWord compute for the word, so filing and unfiling never interleave.
+     */
+    private void fileWord(String word) {
+        wordsByCode.computeIfAbsent(soundex(word), key -> ConcurrentHashMap.newKeySet()).add(word);
+        for (String key : deletionKeys(word, MAX_EDIT_DISTANCE)) {
+            wordsByDeletion.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(word);
+        }
+    }
+    
+    private void unfileWord(String word) {
+        unfile(wordsByCode, soundex(word), word);
+        for (String key : deletionKeys(word, MAX_EDIT_DISTANCE)) {
+            unfile(wordsByDeletion, key, word);
+        }
+    }
+    
+    private static void unfile(Map<String, Set<String>> buckets, String key, String word) {
+        buckets.computeIfPresent(key, (k, words) -> {
+            words.remove(word);
+            return words.isEmpty() ? null : words;
+        });
+    }
+    
+    /**
+     * The word itself and every distinct variant with up to the given number of letters
+     * deleted. Words within d edits of each other share a key when both have up to d
+     * deletions; words sharing a key may be further apart, so candidates are still checked.
+     */
+    private static Set<String> deletionKeys(String word, int deletions) {
+        Set<String> keys = new LinkedHashSet<>();
+        keys.add(word);
+        List<String> previous = List.of(word);
+        for (int round = 0; round < deletions; round++) {
+            List<String> next = new ArrayList<>();
+            for (String variant : previous) {
+                for (int i = 0; i < variant.length(); i++) {
+                    String deleted = variant.substring(0, i) + variant.substring(i + 1);
+                    if (keys.add(deleted)) {
+                        next.add(deleted);
+                    }
+                }
+            }
+            previous = next;
+        }
+        return keys;
+    }
+    
+    private static char soundexDigit(char letter) {
+        return letter >= 'a' && letter <= 'z' ? SOUNDEX_DIGITS.charAt(letter - 'a') : '0';
+    }
+}
@@ -0,0 +1,142 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A patient query for PatientDataStorage.query and explain: conditions that must all
+ * hold, an optional sort and an optional limit, e.g.
+ * <pre>
+ * new PatientQuery()
+ *     .where(PatientCondition.nameContains("smi"))
+ *     .where(PatientCondition.dateOfBirthBetween(LocalDate.of(1980, 1, 1), LocalDate.of(1989, 12, 31)))
+ *     .where(PatientCondition.checkInComplete(false))
+ *     .orderBy(PatientQuery.SortKey.NAME, false)
+ *     .limit(50);
+ * </pre>
+ * Without a sort, results come in the order of the index the planner chose, or save
+ * order for a full scan, and a limit stops the query as soon as enough patients match.
+ */
+public class PatientQuery {
+    
+    /**
+     * Fields a query can be sorted by
+     */
+    public enum SortKey {
+        /** By last name, then first name, ignoring case */
+        NAME,
+        /** By date of birth, unknown dates last */
+        DATE_OF_BIRTH,
+        /** By saved timestamp, unknown timestamps last */
+        SAVED_TIMESTAMP
+    }
+    
+    /** Limit meaning "return every match" */
+    public static final int NO_LIMIT = Integer.MAX_VALUE;
+    
+    private final List<PatientCondition> conditions = new ArrayList<>();
+    private SortKey sortKey;
+    private boolean descending;
+    private int limit = NO_LIMIT;
+    
+    /**
+     * Require a condition in addition to those already given
+     * @param condition The condition
+     * @return This query
+     */
+    public PatientQuery where(PatientCondition condition) {
+        conditions.addAll(condition.flatten());
+        return this;
+    }
+    
+    /**
+     * @param sortKey Field to sort the results by
+     * @param descending true to sort from largest to smallest
+     * @return This query
+     */
+    public PatientQuery orderBy(SortKey sortKey, boolean descending) {
+        this.sortKey = sortKey;
+        this.descending = descending;
+        return this;
+    }
+    
+    /**
+     * @param limit Most patients to return
+     * @return This query
+     */
+    public PatientQuery limit(int limit) {
+        this.limit = Math.max(0, limit);
+        return this;
+    }
+    
+    /**
+     * @return The conditions, split so that each can be planned on its own
+     */
+    public List<PatientCondition> getConditions() {
+        return Collections.unmodifiableList(conditions);
+    }
+    
+    /**
+     * @return Sort field, or null for index order
+     */
+    public SortKey getSortKey() { return sortKey; }
+    
+    public boolean isDescending() { return descending; }
+    
+    public int getLimit() { return limit; }
+    
+    /**
+     * @param patient The patient to test
+     * @return true if the patient meets every condition
+     */
+    public boolean matches(PatientDataObject patient) {
+        for (PatientCondition condition : conditions) {
+            if (!condition.test(patient)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * @return Comparator for the sort, or null if the query is unsorted
+     */
+    Comparator<PatientDataObject> comparator() {
+        if (sortKey == null) {
+            return null;
+        }
+        Comparator<PatientDataObject> comparator;
+        switch (sortKey) {
+            case DATE_OF_BIRTH:
+                comparator = Comparator.comparing(PatientDataObject::getDateOfBirth,
+                    Comparator.nullsLast(Comparator.naturalOrder()));
+                break;
+            case SAVED_TIMESTAMP:
+                comparator = Comparator.comparing(PatientDataObject::getSavedTimestamp,
+                    Comparator.nullsLast(Comparator.naturalOrder()));
+                break;
+            default:
+                Comparator<String> byText = Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER);
+                comparator = Comparator.comparing(PatientDataObject::getLastName, byText)
+                    .thenComparing(PatientDataObject::getFirstName, byText);
+                break;
+        }
+        return descending ? comparator.reversed() : comparator;
+    }
+    
+    @Override
+    public String toString() {
+        List<String> descriptions = new ArrayList<>();
+        for (PatientCondition condition : conditions) {
+            descriptions.add(condition.toString());
+        }
+        StringBuilder text = new StringBuilder(descriptions.isEmpty() ? "all patients" : String.join(" AND ", descriptions));
+        if (sortKey != null) {
+            text.append(" ORDER BY ").append(sortKey).append(descending ? " DESC" : "");
+        }
+        if (limit != NO_LIMIT) {
+            text.append(" LIMIT ").append(limit);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,84 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * How PatientDataStorage ran a PatientQuery, as returned by explain().
+ * Records the access path the planner chose, the estimates it compared, the conditions
+ * left to check on each candidate, and how many patients were actually examined,
+ * matched and returned.
+ */
+public class PatientQueryPlan {
+    
+    private final String query;
+    private final String accessPath;
+    private final int estimatedRows;
+    private final List<String> consideredPaths;
+    private final List<String> filters;
+    private final int rowsExamined;
+    private final int rowsMatched;
+    private final int rowsReturned;
+    private final long elapsedNanos;
+    
+    public PatientQueryPlan(String query, String accessPath, int estimatedRows, List<String> consideredPaths,
+                            List<String> filters, int rowsExamined, int rowsMatched, int rowsReturned,
+                            long elapsedNanos) {
+        this.query = query;
+        this.accessPath = accessPath;
+        this.estimatedRows = estimatedRows;
+        this.consideredPaths = new ArrayList<>(consideredPaths);
+        this.filters = new ArrayList<>(filters);
+        this.rowsExamined = rowsExamined;
+        this.rowsMatched = rowsMatched;
+        this.rowsReturned = rowsReturned;
+        this.elapsedNanos = elapsedNanos;
+    }
+    
+    public String getQuery() { return query; }
+    
+    /**
+     * @return Where candidates came from, e.g. "date-of-birth index" or "full scan"
+     */
+    public String getAccessPath() { return accessPath; }
+    
+    /**
+     * @return Candidates the chosen access path was expected to produce
+     */
+    public int getEstimatedRows() { return estimatedRows; }
+    
+    /**
+     * @return Every access path the planner compared, with its estimate
+     */
+    public List<String> getConsideredPaths() { return Collections.unmodifiableList(consideredPaths); }
+    
+    /**
+     * @return Conditions checked against each candidate
+     */
+    public List<String> getFilters() { return Collections.unmodifiableList(filters); }
+    
+    /**
+     * @return Patients loaded and tested against the conditions
+     */
+    public int getRowsExamined() { return rowsExamined; }
+    
+    /**
+     * @return Patients that met every condition, before the limit
+     */
+    public int getRowsMatched() { return rowsMatched; }
+    
+    public int getRowsReturned() { return rowsReturned; }
+    
+    public long getElapsedNanos() { return elapsedNanos; }
+    
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append("Query: ").append(query).append('\n');
+        text.append("Access: ").append(accessPath).append(" (estimated ").append(estimatedRows).append(" rows)\n");
+        text.append("Considered: ").append(String.join("; ", consideredPaths)).append('\n');
+        text.append("Filter: ").append(filters.isEmpty() ? "none" : String.join(" AND ", filters)).append('\n');
+        text.append(String.format("Rows: %d examined, %d matched, %d returned in %.3f ms",
+            rowsExamined, rowsMatched, rowsReturned, elapsedNanos / 1_000_000.0));
+        return text.toString();
+    }
+}
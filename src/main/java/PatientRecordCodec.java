@@ -0,0 +1,263 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of PatientDataObject used by the persistence layer.
+ * Fields are written in a fixed order as big-endian primitives and length-prefixed
+ * UTF-8 strings, so a record can be decoded straight out of a heap, direct or
+ * memory-mapped ByteBuffer without any intermediate text parsing.
+ */
+public final class PatientRecordCodec {
+    
+    private static final int NULL_LENGTH = -1;
+    private static final long NULL_DATE = Long.MIN_VALUE;
+    
+    private PatientRecordCodec() {
+    }
+    
+    /**
+     * Encode a patient into a new byte array
+     * @param patient The patient to encode
+     * @return Encoded record bytes
+     */
+    public static byte[] encode(PatientDataObject patient) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try {
+            encode(patient, new DataOutputStream(bytes));
+        } catch (IOException e) {
+            // ByteArrayOutputStream never throws
+            throw new IllegalStateException("Unable to encode patient " + patient.getPatientId(), e);
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * Encode a patient onto a data output
+     * @param patient The patient to encode
+     * @param out Destination for the encoded fields
+     */
+    public static void encode(PatientDataObject patient, DataOutputStream out) throws IOException {
+        writeString(out, patient.getPatientId());
+        writeDateTime(out, patient.getSavedTimestamp());
+        
+        writeString(out, patient.getFirstName());
+        writeString(out, patient.getLastName());
+        writeDate(out, patient.getDateOfBirth());
+        writeString(out, patient.getGender());
+        out.writeInt(patient.getAge());
+        
+        writeString(out, patient.getPhoneNumber());
+        writeString(out, patient.getEmail());
+        writeString(out, patient.getAddress());
+        writeString(out, patient.getEmergencyContact());
+        writeString(out, patient.getEmergencyPhone());
+        
+        writeString(out, patient.getInsuranceProvider());
+        writeString(out, patient.getInsurancePolicyNumber());
+        writeString(out, patient.getInsuranceGroupNumber());
+        out.writeBoolean(patient.isInsuranceVerified());
+        
+        writeDateTime(out, patient.getAppointmentDateTime());
+        writeString(out, patient.getDoctorName());
+        writeString(out, patient.getAppointmentType());
+        out.writeBoolean(patient.isAppointmentConfirmed());
+        
+        writeStringList(out, patient.getMedications());
+        writeStringList(out, patient.getDiagnoses());
+        writeStringList(out, patient.getAllergies());
+        writeString(out, patient.getPatientPicturePath());
+        
+        out.writeDouble(patient.getCopayAmount());
+        writeString(out, patient.getPaymentMethod());
+        writeString(out, patient.getPaymentReferenceNumber());
+        out.writeBoolean(patient.isPaymentProcessed());
+        
+        out.writeDouble(patient.getTemperature());
+        writeString(out, patient.getCurrentSymptoms());
+        out.writeBoolean(patient.isRecentTravel());
+        out.writeBoolean(patient.isCovidExposure());
+        out.writeBoolean(patient.isHealthScreeningPassed());
+        
+        writeDateTime(out, patient.getCheckInStartTime());
+        writeDateTime(out, patient.getCheckInCompleteTime());
+        writeString(out, patient.getWaitingAreaAssignment());
+        writeString(out, patient.getSpecialInstructions());
+        out.writeBoolean(patient.isCheckInComplete());
+        
+        writeStringList(out, patient.getSessionNotes());
+        Map<String, Boolean> steps = patient.getStepCompletionStatus();
+        out.writeInt(steps.size());
+        for (Map.Entry<String, Boolean> step : steps.entrySet()) {
+            writeString(out, step.getKey());
+            out.writeBoolean(Boolean.TRUE.equals(step.getValue()));
+        }
+    }
+    
+    /**
+     * Decode a patient from the buffer's current position, advancing past the record
+     * @param buffer Buffer positioned at the start of an encoded record
+     * @return The decoded patient
+     */
+    public static PatientDataObject decode(ByteBuffer buffer) {
+        PatientDataObject patient = new PatientDataObject();
+        
+        patient.setPatientId(readString(buffer));
+        patient.setSavedTimestamp(readDateTime(buffer));
+        
+        patient.setFirstName(readString(buffer));
+        patient.setLastName(readString(buffer));
+        patient.setDateOfBirth(readDate(buffer));
+        patient.setGender(readString(buffer));
+        patient.setAge(buffer.getInt());
+        
+        patient.setPhoneNumber(readString(buffer));
+        patient.setEmail(readString(buffer));
+        patient.setAddress(readString(buffer));
+        patient.setEmergencyContact(readString(buffer));
+        patient.setEmergencyPhone(readString(buffer));
+        
+        patient.setInsuranceProvider(readString(buffer));
+        patient.setInsurancePolicyNumber(readString(buffer));
+        patient.setInsuranceGroupNumber(readString(buffer));
+        patient.setInsuranceVerified(readBoolean(buffer));
+        
+        patient.setAppointmentDateTime(readDateTime(buffer));
+        patient.setDoctorName(readString(buffer));
+        patient.setAppointmentType(readString(buffer));
+        patient.setAppointmentConfirmed(readBoolean(buffer));
+        
+        patient.setMedications(readStringList(buffer));
+        patient.setDiagnoses(readStringList(buffer));
+        patient.setAllergies(readStringList(buffer));
+        patient.setPatientPicturePath(readString(buffer));
+        
+        patient.setCopayAmount(buffer.getDouble());
+        patient.setPaymentMethod(readString(buffer));
+        patient.setPaymentReferenceNumber(readString(buffer));
+        patient.setPaymentProcessed(readBoolean(buffer));
+        
+        patient.setTemperature(buffer.getDouble());
+        patient.setCurrentSymptoms(readString(buffer));
+        patient.setRecentTravel(readBoolean(buffer));
+        patient.setCovidExposure(readBoolean(buffer));
+        patient.setHealthScreeningPassed(readBoolean(buffer));
+        
+        patient.setCheckInStartTime(readDateTime(buffer));
+        patient.setCheckInCompleteTime(readDateTime(buffer));
+        patient.setWaitingAreaAssignment(readString(buffer));
+        patient.setSpecialInstructions(readString(buffer));
+        patient.setCheckInComplete(readBoolean(buffer));
+        
+        patient.setSessionNotes(readStringList(buffer));
+        int stepCount = buffer.getInt();
+        Map<String, Boolean> steps = new HashMap<>();
+        for (int i = 0; i < stepCount; i++) {
+            steps.put(readString(buffer), readBoolean(buffer));
+        }
+        patient.setStepCompletionStatus(steps);
+        
+        return patient;
+    }
+    
+    /**
+     * Decode only the first and last name of a record, for scans that should not build
+     * whole patients
+     * @param buffer Buffer positioned at the start of an encoded record; its position is advanced
+     * @return The first and last name, either of which may be null
+     */
+    public static String[] decodeNames(ByteBuffer buffer) {
+        int idLength = buffer.getInt();
+        if (idLength != NULL_LENGTH) {
+            buffer.position(buffer.position() + idLength);
+        }
+        readDateTime(buffer);
+        return new String[] { readString(buffer), readString(buffer) };
+    }
+    
+    /**
+     * Write a length-prefixed UTF-8 string, or a null marker
+     */
+    public static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL_LENGTH);
+            return;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+    
+    /**
+     * Read a string written by {@link #writeString}
+     */
+    public static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        if (buffer.hasArray()) {
+            int start = buffer.arrayOffset() + buffer.position();
+            buffer.position(buffer.position() + length);
+            return new String(buffer.array(), start, length, StandardCharsets.UTF_8);
+        }
+        byte[] utf8 = new byte[length];
+        buffer.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+    
+    private static void writeStringList(DataOutputStream out, List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+    
+    private static List<String> readStringList(ByteBuffer buffer) {
+        int size = buffer.getInt();
+        List<String> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(readString(buffer));
+        }
+        return values;
+    }
+    
+    private static void writeDate(DataOutputStream out, LocalDate date) throws IOException {
+        out.writeLong(date != null ? date.toEpochDay() : NULL_DATE);
+    }
+    
+    private static LocalDate readDate(ByteBuffer buffer) {
+        long epochDay = buffer.getLong();
+        return epochDay != NULL_DATE ? LocalDate.ofEpochDay(epochDay) : null;
+    }
+    
+    private static void writeDateTime(DataOutputStream out, LocalDateTime dateTime) throws IOException {
+        if (dateTime == null) {
+            out.writeLong(NULL_DATE);
+            return;
+        }
+        out.writeLong(dateTime.toLocalDate().toEpochDay());
+        out.writeLong(dateTime.toLocalTime().toNanoOfDay());
+    }
+    
+    private static LocalDateTime readDateTime(ByteBuffer buffer) {
+        long epochDay = buffer.getLong();
+        if (epochDay == NULL_DATE) {
+            return null;
+        }
+        return LocalDateTime.of(LocalDate.ofEpochDay(epochDay), LocalTime.ofNanoOfDay(buffer.getLong()));
+    }
+    
+    private static boolean readBoolean(ByteBuffer buffer) {
+        return buffer.get() != 0;
+    }
+}
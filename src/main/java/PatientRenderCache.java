@@ -0,0 +1,164 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of rendered patient text: compact and pretty JSON, and summary blocks.
+ * Entries are keyed by patient ID and render kind and stamped with the record version
+ * they were rendered from, so a lookup for a newer version is a miss even if an
+ * invalidation raced with it. The cache is bounded by the total number of cached
+ * characters and evicts the least recently used entries first.
+ * All methods are thread-safe; rendering itself happens outside the cache lock.
+ */
+public class PatientRenderCache {
+    
+    /**
+     * Rendered forms kept per patient
+     */
+    public enum Kind {
+        /** Single-line JSON, as written by the streaming export */
+        JSON_COMPACT,
+        /** Indented JSON, as returned by PatientDataObject.toJsonString() */
+        JSON_PRETTY,
+        /** Summary block for the saved patients listing, without its position number */
+        SUMMARY
+    }
+    
+    /** Default budget of cached characters, about 64 MB of heap for Latin-1 text */
+    public static final long DEFAULT_MAX_CHARS = 64L * 1024 * 1024;
+    
+    private static final class Key {
+        private final Kind kind;
+        private final String patientId;
+        
+        Key(Kind kind, String patientId) {
+            this.kind = kind;
+            this.patientId = patientId;
+        }
+        
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return kind == key.kind && patientId.equals(key.patientId);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(kind, patientId);
+        }
+    }
+    
+    private static final class Entry {
+        private final long version;
+        private final String text;
+        
+        Entry(long version, String text) {
+            this.version = version;
+            this.text = text;
+        }
+    }
+    
+    private final long maxChars;
+    
+    // Access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(1024, 0.75f, true);
+    private long cachedChars;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    
+    public PatientRenderCache() {
+        this(DEFAULT_MAX_CHARS);
+    }
+    
+    /**
+     * @param maxChars Most characters to keep cached across all entries
+     */
+    public PatientRenderCache(long maxChars) {
+        this.maxChars = Math.max(0, maxChars);
+    }
+    
+    /**
+     * Get the cached rendering of a patient record, rendering and caching it on a miss
+     * @param kind Which rendering
+     * @param patientId The patient's ID
+     * @param version Version of the record being rendered
+     * @param renderer Produces the text when it is not cached for this version
+     * @return The rendered text
+     */
+    public String get(Kind kind, String patientId, long version, Supplier<String> renderer) {
+        Key key = new Key(kind, patientId);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.version == version) {
+                hitCount++;
+                return entry.text;
+            }
+            missCount++;
+        }
+        
+        String text = renderer.get();
+        synchronized (this) {
+            Entry current = entries.get(key);
+            if (current != null && current.version > version) {
+                return text;
+            }
+            if (current != null) {
+                entries.remove(key);
+                cachedChars -= current.text.length();
+            }
+            if (text.length() <= maxChars) {
+                entries.put(key, new Entry(version, text));
+                cachedChars += text.length();
+                evictOverBudget();
+            }
+        }
+        return text;
+    }
+    
+    /**
+     * Drop every rendering of a patient
+     * @param patientId The patient's ID
+     */
+    public synchronized void invalidate(String patientId) {
+        for (Kind kind : Kind.values()) {
+            Entry removed = entries.remove(new Key(kind, patientId));
+            if (removed != null) {
+                cachedChars -= removed.text.length();
+            }
+        }
+    }
+    
+    /**
+     * Drop every cached rendering. Hit, miss and eviction counts are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        cachedChars = 0;
+    }
+    
+    /**
+     * @return Current size and hit, miss and eviction counts
+     */
+    public synchronized PatientRenderCacheStatistics getStatistics() {
+        return new PatientRenderCacheStatistics(entries.size(), cachedChars, maxChars,
+            hitCount, missCount, evictionCount);
+    }
+    
+    /**
+     * Evict least recently used entries until the cache fits its budget. Callers hold the lock.
+     */
+    private void evictOverBudget() {
+        Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+        while (cachedChars > maxChars && eldest.hasNext()) {
+            cachedChars -= eldest.next().getValue().text.length();
+            eldest.remove();
+            evictionCount++;
+        }
+    }
+}
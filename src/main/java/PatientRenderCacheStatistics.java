@@ -0,0 +1,45 @@
+/**
+ * Point-in-time size and effectiveness of the patient render cache.
+ */
+public class PatientRenderCacheStatistics {
+    
+    private final int entryCount;
+    private final long cachedChars;
+    private final long maxChars;
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    
+    public PatientRenderCacheStatistics(int entryCount, long cachedChars, long maxChars,
+                                        long hitCount, long missCount, long evictionCount) {
+        this.entryCount = entryCount;
+        this.cachedChars = cachedChars;
+        this.maxChars = maxChars;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+    }
+    
+    public int getEntryCount() { return entryCount; }
+    
+    public long getCachedChars() { return cachedChars; }
+    
+    public long getMaxChars() { return maxChars; }
+    
+    public long getHitCount() { return hitCount; }
+    
+    public long getMissCount() { return missCount; }
+    
+    public long getEvictionCount() { return evictionCount; }
+    
+    public double getHitRate() {
+        long lookups = hitCount + missCount;
+        return lookups > 0 ? (double) hitCount / lookups : 0;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%d entries, %d of %d chars, %d hits, %d misses (%.1f%% hit rate), %d evictions",
+            entryCount, cachedChars, maxChars, hitCount, missCount, getHitRate() * 100, evictionCount);
+    }
+}
@@ -0,0 +1,91 @@
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Storage backend contract for saved patients.
+ * PatientDataStorage is the in-memory implementation used by the application;
+ * FilePatientRepository and JdbcPatientRepository keep patients on disk or in an
+ * embedded database, and OffHeapPatientRepository keeps them encoded outside the heap.
+ * Implementations report failures by returning false or empty results and logging,
+ * rather than throwing, so GUI callers never need to catch.
+ */
+public interface PatientRepository extends AutoCloseable {
+    
+    /**
+     * Save a new patient or replace the stored patient with the same ID
+     * @param patientData The patient data to save
+     * @return true if saved successfully, false otherwise
+     */
+    boolean savePatientData(PatientDataObject patientData);
+    
+    /**
+     * Find a patient by ID
+     * @param patientId The patient ID to search for
+     * @return Optional containing the patient if found, empty otherwise
+     */
+    Optional<PatientDataObject> findPatientById(String patientId);
+    
+    /**
+     * Find patients whose first or last name contains the search term, ignoring case
+     * @param searchTerm The search term
+     * @return List of matching patients
+     */
+    List<PatientDataObject> findPatientsByName(String searchTerm);
+    
+    /**
+     * Find patients by date of birth
+     * @param dateOfBirth The date of birth to search for
+     * @return List of matching patients
+     */
+    List<PatientDataObject> findPatientsByDateOfBirth(LocalDate dateOfBirth);
+    
+    /**
+     * Find patients born within a date range (both ends inclusive)
+     * @param from The earliest date of birth to include
+     * @param to The latest date of birth to include
+     * @return List of matching patients, ordered by date of birth
+     */
+    List<PatientDataObject> findPatientsByDateOfBirthRange(LocalDate from, LocalDate to);
+    
+    /**
+     * Get all saved patients
+     * @return List of all saved patients
+     */
+    List<PatientDataObject> getAllPatients();
+    
+    /**
+     * @return Number of saved patients whose check-in is complete
+     */
+    int getCompletedCheckInCount();
+    
+    /**
+     * @param date The day to count
+     * @return Number of patients whose saved timestamp falls on that day
+     */
+    int getPatientCountForDate(LocalDate date);
+    
+    /**
+     * Delete a patient
+     * @param patientId The patient ID to delete
+     * @return true if a patient was deleted
+     */
+    boolean deletePatient(String patientId);
+    
+    /**
+     * Delete every saved patient
+     */
+    void clearAllData();
+    
+    /**
+     * @return Number of saved patients
+     */
+    int getPatientCount();
+    
+    /**
+     * Release any files or connections held by the backend. The in-memory backend holds none.
+     */
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,88 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a versioned save to PatientDataStorage.
+ * A conflict carries the version and patient currently stored, so the caller can merge
+ * its changes into them and try again with that version. A successful save also carries
+ * any stored patients that look like the same person under another ID.
+ */
+public class PatientSaveResult {
+    
+    /**
+     * What happened to the save
+     */
+    public enum Status {
+        /** The patient was stored */
+        SAVED,
+        /** The stored version differed from the expected one; nothing was written */
+        CONFLICT,
+        /** The patient was invalid or could not be logged; nothing was written */
+        FAILED,
+        /**
+         * The patient was stored and is visible, but its log record never became durable,
+         * so the save is lost on restart. Only savePatientDataAsync reports this.
+         */
+        NOT_DURABLE
+    }
+    
+    private final Status status;
+    private final long version;
+    private final PatientDataObject currentPatient;
+    private final List<PatientDuplicateMatch> suspectedDuplicates;
+    
+    public PatientSaveResult(Status status, long version, PatientDataObject currentPatient) {
+        this(status, version, currentPatient, Collections.emptyList());
+    }
+    
+    public PatientSaveResult(Status status, long version, PatientDataObject currentPatient,
+                             List<PatientDuplicateMatch> suspectedDuplicates) {
+        this.status = status;
+        this.version = version;
+        this.currentPatient = currentPatient;
+        this.suspectedDuplicates = Collections.unmodifiableList(suspectedDuplicates);
+    }
+    
+    /**
+     * @return A failed result
+     */
+    public static PatientSaveResult failed() {
+        return new PatientSaveResult(Status.FAILED, PatientDataStorage.NO_VERSION, null);
+    }
+    
+    /**
+     * @return This save's result, for a save whose log record could not be made durable
+     */
+    public PatientSaveResult notDurable() {
+        return new PatientSaveResult(Status.NOT_DURABLE, version, currentPatient, suspectedDuplicates);
+    }
+    
+    public Status getStatus() { return status; }
+    
+    public boolean isSaved() { return status == Status.SAVED; }
+    
+    public boolean isConflict() { return status == Status.CONFLICT; }
+    
+    /**
+     * @return The version now stored: the new version after SAVED or NOT_DURABLE, the conflicting
+     *         version after CONFLICT (NO_VERSION if the patient was deleted), NO_VERSION after FAILED
+     */
+    public long getVersion() { return version; }
+    
+    /**
+     * @return The patient now stored: the saved patient after SAVED or NOT_DURABLE, the conflicting one
+     *         after CONFLICT (null if deleted), null after FAILED
+     */
+    public PatientDataObject getCurrentPatient() { return currentPatient; }
+    
+    /**
+     * @return Stored patients that probably are the saved one under another ID, best first;
+     *         empty unless SAVED or NOT_DURABLE
+     */
+    public List<PatientDuplicateMatch> getSuspectedDuplicates() { return suspectedDuplicates; }
+    
+    @Override
+    public String toString() {
+        return status + " at version " + version;
+    }
+}
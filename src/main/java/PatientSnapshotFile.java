@@ -0,0 +1,194 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary snapshot of the full PatientDataStorage contents.
+ * A snapshot records the write-ahead log position it covers, so startup only has to
+ * replay the log tail written after it. Snapshots are written to a temporary file and
+ * atomically renamed into place, and are read back through memory-mapped windows so
+ * loading is bounded by decoding speed rather than read system calls.
+ *
+ * Layout: [int magic][int version][long logPosition][int recordCount][int crc32c]
+ * followed by recordCount x ([int length][encoded patient]). The checksum covers
+ * everything after the header. Snapshots may instead be written block-compressed by
+ * PatientCompressedSnapshotFile; load() reads either format.
+ */
+public final class PatientSnapshotFile {
+    
+    private static final Logger LOGGER = Logger.getLogger(PatientSnapshotFile.class.getName());
+    
+    private static final int MAGIC = 0x50534E50; // "PSNP"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int CHECKSUM_OFFSET = 20;
+    private static final long MAP_WINDOW_SIZE = 256L * 1024 * 1024;
+    
+    private PatientSnapshotFile() {
+    }
+    
+    /**
+     * Write a snapshot in either format, replacing any existing one only once it is complete on disk
+     * @param file Snapshot path
+     * @param patients Patients to include
+     * @param logPosition Write-ahead log position the snapshot covers
+     * @param compressed true to write a PatientCompressedSnapshotFile
+     */
+    public static void write(Path file, Collection<PatientDataObject> patients, long logPosition, boolean compressed)
+            throws IOException {
+        if (compressed) {
+            PatientCompressedSnapshotFile.write(file, patients, logPosition);
+        } else {
+            write(file, patients, logPosition);
+        }
+    }
+    
+    /**
+     * Write a snapshot, replacing any existing one only once it is complete on disk
+     * @param file Snapshot path
+     * @param patients Patients to include
+     * @param logPosition Write-ahead log position the snapshot covers
+     */
+    public static void write(Path file, Collection<PatientDataObject> patients, long logPosition) throws IOException {
+        long startNanos = System.nanoTime();
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        CRC32C checksum = new CRC32C();
+        
+        try (FileChannel channel = FileChannel.open(tempFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            BufferedOutputStream buffered = new BufferedOutputStream(Channels.newOutputStream(channel), 1024 * 1024);
+            
+            DataOutputStream header = new DataOutputStream(buffered);
+            header.writeInt(MAGIC);
+            header.writeInt(FORMAT_VERSION);
+            header.writeLong(logPosition);
+            header.writeInt(patients.size());
+            header.writeInt(0); // checksum, patched once the records are written
+            
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(buffered, checksum));
+            ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(1024);
+            DataOutputStream recordOut = new DataOutputStream(recordBytes);
+            for (PatientDataObject patient : patients) {
+                recordBytes.reset();
+                PatientRecordCodec.encode(patient, recordOut);
+                out.writeInt(recordBytes.size());
+                recordBytes.writeTo(out);
+            }
+            out.flush();
+            
+            ByteBuffer checksumBytes = ByteBuffer.allocate(4).putInt((int) checksum.getValue());
+            checksumBytes.flip();
+            channel.write(checksumBytes, CHECKSUM_OFFSET);
+            channel.force(true);
+        }
+        
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory(file.toAbsolutePath().getParent());
+        LOGGER.info(String.format("Wrote snapshot of %d patients to %s in %d ms",
+            patients.size(), file, (System.nanoTime() - startNanos) / 1_000_000));
+    }
+    
+    /**
+     * Make renames and new files in a directory durable, where the platform allows
+     * opening a directory; elsewhere the rename is left to the file system's own ordering
+     * @param directory Directory whose entries changed
+     */
+    static void forceDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (UnsupportedOperationException | AccessDeniedException e) {
+            LOGGER.fine("Cannot sync directory " + directory + ": " + e);
+        }
+    }
+    
+    /**
+     * Load a snapshot, handing each patient to the consumer in stored order.
+     * If this throws, records already passed to the consumer must be discarded.
+     * @param file Snapshot path
+     * @param consumer Receives each decoded patient
+     * @return Write-ahead log position covered by the snapshot
+     */
+    public static long load(Path file, Consumer<PatientDataObject> consumer) throws IOException {
+        long startNanos = System.nanoTime();
+        
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("Snapshot is truncated: " + file);
+            }
+            
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt(0) == PatientCompressedSnapshotFile.MAGIC) {
+                return PatientCompressedSnapshotFile.load(file, consumer);
+            }
+            if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+                throw new IOException("Not a supported patient snapshot: " + file);
+            }
+            long logPosition = header.getLong();
+            int recordCount = header.getInt();
+            int expectedChecksum = header.getInt();
+            
+            CRC32C checksum = new CRC32C();
+            long offset = HEADER_SIZE;
+            long windowStart = offset;
+            MappedByteBuffer window = mapWindow(channel, windowStart, size, 0);
+            
+            for (int i = 0; i < recordCount; i++) {
+                if (offset + 4 > size) {
+                    throw new IOException("Snapshot is truncated: " + file);
+                }
+                if (offset + 4 > windowStart + window.limit()) {
+                    windowStart = offset;
+                    window = mapWindow(channel, windowStart, size, 4);
+                }
+                
+                int length = window.getInt((int) (offset - windowStart));
+                long recordEnd = offset + 4 + length;
+                if (length < 0 || recordEnd > size) {
+                    throw new IOException("Snapshot is truncated: " + file);
+                }
+                if (recordEnd > windowStart + window.limit()) {
+                    windowStart = offset;
+                    window = mapWindow(channel, windowStart, size, 4 + length);
+                }
+                
+                int recordStart = (int) (offset - windowStart);
+                checksum.update(window.slice(recordStart, 4 + length));
+                consumer.accept(PatientRecordCodec.decode(window.slice(recordStart + 4, length)));
+                offset = recordEnd;
+            }
+            
+            if ((int) checksum.getValue() != expectedChecksum) {
+                throw new IOException("Snapshot checksum mismatch: " + file);
+            }
+            
+            LOGGER.info(String.format("Loaded snapshot of %d patients from %s in %d ms",
+                recordCount, file, (System.nanoTime() - startNanos) / 1_000_000));
+            return logPosition;
+        }
+    }
+    
+    /**
+     * Map the next read window, large enough for at least {@code minimumLength} bytes
+     */
+    private static MappedByteBuffer mapWindow(FileChannel channel, long start, long fileSize, int minimumLength)
+            throws IOException {
+        long length = Math.min(Math.max(MAP_WINDOW_SIZE, minimumLength), fileSize - start);
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+    }
+}
@@ -0,0 +1,371 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Bitmap index over check-in step completion.
+ * Every indexed patient gets a row number, assigned in the order patients are first
+ * indexed, and every step ("identification", "insurance", ..., "completion") has a
+ * bitmap with a bit set for each row whose step is done. The overall check-in flag is
+ * indexed the same way under {@link #CHECK_IN_COMPLETE}. A compound query such as
+ * "insurance done AND payment not done" is a handful of word-wise AND / AND-NOT
+ * operations over bitmaps of n/64 longs, instead of a scan over every patient's map.
+ * Deletes only clear a row's bits; freed rows are reclaimed later by {@link #compact()},
+ * which PatientDataStorage runs in the background once they outnumber live rows.
+ *
+ * Saves and deletes do not exclude each other: they share the structure lock and flip
+ * their row's bits with atomic per-word OR / AND-NOT, so writers to different patients
+ * never wait on one another even when their rows share a word. A lock stripe per
+ * patient ID keeps two updates of the same patient from interleaving. Only growing the
+ * bitmaps, compaction and clear take the structure lock exclusively. An update writes
+ * each of its row's bits straight to the new value, so a condition on one step sees the
+ * row either before or after a concurrent update. A compound query reads its bitmaps
+ * one after another, and may pair one step as it was before the update with another
+ * as it is after.
+ */
+public class PatientStepIndex {
+    
+    /** Pseudo-step name for PatientDataObject.isCheckInComplete() */
+    public static final String CHECK_IN_COMPLETE = "checkInComplete";
+    
+    private static final int INITIAL_ROWS = 1024;
+    private static final int MIN_ROWS_BEFORE_COMPACTION = 1024;
+    private static final int PATIENT_STRIPES = 64;
+    
+    // Atomic read-modify-write on single words of a long[] bitmap
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+    
+    // Shared by saves, deletes and queries; exclusive to grow, compact and clear
+    private final ReadWriteLock structureLock = new ReentrantReadWriteLock();
+    
+    private final Object[] patientStripes = new Object[PATIENT_STRIPES];
+    
+    // Patient ID -> row, and row -> patient ID (null for freed rows)
+    private final Map<String, Integer> rowOf = new ConcurrentHashMap<>();
+    private volatile String[] patientAt = new String[INITIAL_ROWS];
+    private final AtomicInteger rowCount = new AtomicInteger();
+    
+    // Rows currently holding a patient; step name -> rows whose step is done.
+    // Every bitmap is sized for patientAt's capacity.
+    private volatile long[] liveRows = new long[INITIAL_ROWS / 64];
+    private final Map<String, long[]> doneRows = new ConcurrentHashMap<>();
+    
+    public PatientStepIndex() {
+        for (int i = 0; i < PATIENT_STRIPES; i++) {
+            patientStripes[i] = new Object();
+        }
+    }
+    
+    /**
+     * Index a patient's step flags, replacing any earlier flags for the same ID
+     * @param patient The patient to index
+     */
+    public void add(PatientDataObject patient) {
+        String patientId = patient.getPatientId();
+        synchronized (stripeFor(patientId)) {
+            while (true) {
+                structureLock.readLock().lock();
+                try {
+                    Integer existing = rowOf.get(patientId);
+                    int row = existing != null ? existing : allocateRow(patientId);
+                    if (row >= 0) {
+                        setFlags(patient, row);
+                        return;
+                    }
+                } finally {
+                    structureLock.readLock().unlock();
+                }
+                // Every row is taken; grow, then allocate again
+                structureLock.writeLock().lock();
+                try {
+                    grow(rowCount.get() + 1);
+                } finally {
+                    structureLock.writeLock().unlock();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Remove a patient from the index
+     * @param patientId The patient ID to remove
+     */
+    public void remove(String patientId) {
+        synchronized (stripeFor(patientId)) {
+            structureLock.readLock().lock();
+            try {
+                Integer row = rowOf.remove(patientId);
+                if (row == null) {
+                    return;
+                }
+                setBit(liveRows, row, false);
+                patientAt[row] = null;
+                for (long[] bits : doneRows.values()) {
+                    setBit(bits, row, false);
+                }
+            } finally {
+                structureLock.readLock().unlock();
+            }
+        }
+    }
+    
+    /**
+     * Remove every patient from the index
+     */
+    public void clear() {
+        structureLock.writeLock().lock();
+        try {
+            rowOf.clear();
+            patientAt = new String[INITIAL_ROWS];
+            rowCount.set(0);
+            liveRows = new long[INITIAL_ROWS / 64];
+            doneRows.clear();
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * @return true once freed rows outnumber live rows, so compact() would reclaim space
+     */
+    public boolean needsCompaction() {
+        return hasMostlyFreedRows();
+    }
+    
+    /**
+     * Renumber live rows densely if freed rows outnumber them
+     * @return true if rows were reclaimed
+     */
+    public boolean compact() {
+        structureLock.writeLock().lock();
+        try {
+            if (!hasMostlyFreedRows()) {
+                return false;
+            }
+            compactRows();
+            return true;
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Find patients whose steps match every condition
+     * @param conditions Step name -> true for "done", false for "not done"; empty matches everyone
+     * @return IDs of matching patients, in the order they were first indexed
+     */
+    public List<String> findPatientIds(Map<String, Boolean> conditions) {
+        structureLock.readLock().lock();
+        try {
+            long[] matches = match(conditions);
+            String[] patients = patientAt;
+            List<String> ids = new ArrayList<>();
+            for (int word = 0; word < matches.length; word++) {
+                long bits = matches[word];
+                while (bits != 0) {
+                    int row = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    // Null if the patient was removed after the bitmaps were read
+                    String patientId = patients[row];
+                    if (patientId != null) {
+                        ids.add(patientId);
+                    }
+                }
+            }
+            return ids;
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Count patients whose steps match every condition, without resolving their IDs
+     * @param conditions Step name -> true for "done", false for "not done"; empty matches everyone
+     * @return Number of matching patients
+     */
+    public int count(Map<String, Boolean> conditions) {
+        structureLock.readLock().lock();
+        try {
+            int total = 0;
+            for (long word : match(conditions)) {
+                total += Long.bitCount(word);
+            }
+            return total;
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * AND together the bitmaps for each condition. Callers hold the structure lock.
+     */
+    private long[] match(Map<String, Boolean> conditions) {
+        long[] result = Arrays.copyOf(liveRows, wordsFor(rowCount.get()));
+        for (Map.Entry<String, Boolean> condition : conditions.entrySet()) {
+            long[] bits = doneRows.get(condition.getKey());
+            if (Boolean.TRUE.equals(condition.getValue())) {
+                if (bits == null) {
+                    return new long[0];
+                }
+                for (int i = 0; i < result.length; i++) {
+                    result[i] &= bits[i];
+                }
+            } else if (bits != null) {
+                for (int i = 0; i < result.length; i++) {
+                    result[i] &= ~bits[i];
+                }
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Read one step flag straight from a patient, as the index would record it
+     * @param patient The patient
+     * @param step Step name or CHECK_IN_COMPLETE
+     * @return true if the step is done
+     */
+    public static boolean isStepDone(PatientDataObject patient, String step) {
+        if (CHECK_IN_COMPLETE.equals(step)) {
+            return patient.isCheckInComplete();
+        }
+        return Boolean.TRUE.equals(patient.getStepCompletionStatus().get(step));
+    }
+    
+    private Object stripeFor(String patientId) {
+        int hash = patientId.hashCode();
+        return patientStripes[(hash ^ (hash >>> 16)) & (PATIENT_STRIPES - 1)];
+    }
+    
+    private boolean hasMostlyFreedRows() {
+        int rows = rowCount.get();
+        int live = rowOf.size();
+        return rows >= MIN_ROWS_BEFORE_COMPACTION && rows - live > live;
+    }
+    
+    /**
+     * Bitmap for a step, created on first use. Callers hold the structure lock.
+     */
+    private long[] stepRows(String step) {
+        return doneRows.computeIfAbsent(step, key -> new long[liveRows.length]);
+    }
+    
+    /**
+     * Callers hold the patient's stripe and the structure lock
+     */
+    private void setFlags(PatientDataObject patient, int row) {
+        for (Map.Entry<String, Boolean> step : patient.getStepCompletionStatus().entrySet()) {
+            if (Boolean.TRUE.equals(step.getValue())) {
+                stepRows(step.getKey());
+            }
+        }
+        if (patient.isCheckInComplete()) {
+            stepRows(CHECK_IN_COMPLETE);
+        }
+        // Each bit goes straight to its new value: clearing them all first would let a query
+        // catch the row with a step undone that was done both before and after the update
+        for (Map.Entry<String, long[]> step : doneRows.entrySet()) {
+            setBit(step.getValue(), row, isStepDone(patient, step.getKey()));
+        }
+        // Flags first, so a query never sees a new row as live before its flags
+        setBit(liveRows, row, true);
+    }
+    
+    /**
+     * Give a new patient the next row. Callers hold the patient's stripe and the
+     * structure lock, so the row cannot be renumbered before its bits are set.
+     * @return The row, or -1 if every row up to the current capacity is taken
+     */
+    private int allocateRow(String patientId) {
+        String[] patients = patientAt;
+        int row;
+        do {
+            row = rowCount.get();
+            if (row >= patients.length) {
+                return -1;
+            }
+        } while (!rowCount.compareAndSet(row, row + 1));
+        patients[row] = patientId;
+        rowOf.put(patientId, row);
+        return row;
+    }
+    
+    /**
+     * Double capacity until it covers the given row count. Callers hold the structure lock exclusively.
+     */
+    private void grow(int rows) {
+        int capacity = patientAt.length;
+        while (capacity < rows) {
+            capacity *= 2;
+        }
+        if (capacity == patientAt.length) {
+            return;
+        }
+        int words = capacity / 64;
+        patientAt = Arrays.copyOf(patientAt, capacity);
+        liveRows = Arrays.copyOf(liveRows, words);
+        doneRows.replaceAll((step, bits) -> Arrays.copyOf(bits, words));
+    }
+    
+    /**
+     * Renumber live rows densely, keeping their order. Callers hold the structure lock exclusively.
+     */
+    private void compactRows() {
+        int live = rowOf.size();
+        int capacity = INITIAL_ROWS;
+        while (capacity < live * 2) {
+            capacity *= 2;
+        }
+        String[] compactPatients = new String[capacity];
+        long[] compactLive = new long[capacity / 64];
+        Map<String, long[]> compactDone = new ConcurrentHashMap<>();
+        for (String step : doneRows.keySet()) {
+            compactDone.put(step, new long[capacity / 64]);
+        }
+        
+        int next = 0;
+        long[] oldLive = liveRows;
+        for (int word = 0; word < oldLive.length; word++) {
+            long bits = oldLive[word];
+            while (bits != 0) {
+                int row = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                String patientId = patientAt[row];
+                compactPatients[next] = patientId;
+                compactLive[next >>> 6] |= 1L << next;
+                rowOf.put(patientId, next);
+                for (Map.Entry<String, long[]> step : doneRows.entrySet()) {
+                    if ((step.getValue()[row >>> 6] & (1L << row)) != 0) {
+                        compactDone.get(step.getKey())[next >>> 6] |= 1L << next;
+                    }
+                }
+                next++;
+            }
+        }
+        
+        patientAt = compactPatients;
+        liveRows = compactLive;
+        doneRows.clear();
+        doneRows.putAll(compactDone);
+        rowCount.set(next);
+    }
+    
+    private static int wordsFor(int rows) {
+        return (rows + 63) >>> 6;
+    }
+    
+    private static void setBit(long[] words, int row, boolean value) {
+        if (value) {
+            WORDS.getAndBitwiseOr(words, row >>> 6, 1L << row);
+        } else {
+            WORDS.getAndBitwiseAnd(words, row >>> 6, ~(1L << row));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Live counters over the patients held in PatientDataStorage.
+ * Counts are adjusted on every save and delete so statistics can be read in O(1)
+ * without scanning or materializing lists. Each patient's contribution is remembered
+ * so an update can be backed out even if the stored object was modified in place.
+ * Counters are safe to read from any thread; writers for the same patient ID must be
+ * serialized by the caller.
+ */
+public class PatientStorageCounters {
+    
+    /**
+     * What a single patient currently contributes to the counters
+     */
+    private static class CountedState {
+        private final boolean checkInComplete;
+        private final LocalDate savedDate;
+        
+        CountedState(boolean checkInComplete, LocalDate savedDate) {
+            this.checkInComplete = checkInComplete;
+            this.savedDate = savedDate;
+        }
+    }
+    
+    private final Map<String, CountedState> countedPatients;
+    private final Map<LocalDate, Integer> patientsPerDay;
+    private final AtomicInteger completedCheckIns;
+    
+    public PatientStorageCounters() {
+        this.countedPatients = new ConcurrentHashMap<>();
+        this.patientsPerDay = new ConcurrentHashMap<>();
+        this.completedCheckIns = new AtomicInteger();
+    }
+    
+    /**
+     * Count a saved patient, replacing any earlier contribution for the same ID
+     * @param patient The saved patient
+     */
+    public void add(PatientDataObject patient) {
+        remove(patient.getPatientId());
+        
+        LocalDate savedDate = patient.getSavedTimestamp() != null
+            ? patient.getSavedTimestamp().toLocalDate() : null;
+        CountedState state = new CountedState(patient.isCheckInComplete(), savedDate);
+        countedPatients.put(patient.getPatientId(), state);
+        
+        if (state.checkInComplete) {
+            completedCheckIns.incrementAndGet();
+        }
+        if (savedDate != null) {
+            patientsPerDay.merge(savedDate, 1, Integer::sum);
+        }
+    }
+    
+    /**
+     * Stop counting a patient
+     * @param patientId The patient ID to remove
+     */
+    public void remove(String patientId) {
+        CountedState state = countedPatients.remove(patientId);
+        if (state == null) {
+            return;
+        }
+        
+        if (state.checkInComplete) {
+            completedCheckIns.decrementAndGet();
+        }
+        if (state.savedDate != null) {
+            patientsPerDay.computeIfPresent(state.savedDate, (date, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+    
+    /**
+     * Reset every counter to zero
+     */
+    public void clear() {
+        countedPatients.clear();
+        patientsPerDay.clear();
+        completedCheckIns.set(0);
+    }
+    
+    public int getTotalCount() {
+        return countedPatients.size();
+    }
+    
+    public int getCompletedCount() {
+        return completedCheckIns.get();
+    }
+    
+    public int getIncompleteCount() {
+        return Math.max(0, countedPatients.size() - completedCheckIns.get());
+    }
+    
+    /**
+     * @param date The day to count
+     * @return Number of patients whose saved timestamp falls on that day
+     */
+    public int getCountForDate(LocalDate date) {
+        return patientsPerDay.getOrDefault(date, 0);
+    }
+}
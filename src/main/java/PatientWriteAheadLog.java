@@ -0,0 +1,877 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+/**
+ * Durable append-only log of PatientDataStorage changes.
+ * Every save, delete and clear is appended as a checksummed record before it is
+ * applied in memory. On open the log is replayed to rebuild the store, starting
+ * after the position covered by the latest snapshot if there is one; a torn or
+ * corrupt record at the tail (for example from a crash mid-write) ends recovery and
+ * is truncated away so new records append after the last good one. Only a bad length,
+ * a short read or a checksum mismatch counts as a torn tail: a record that passes its
+ * checksum but cannot be applied fails the open and leaves the file as it is.
+ * Every append returns a future that completes once the record is on stable storage,
+ * which with {@link SyncPolicy#ASYNC} is after a single writer thread has written and
+ * fsynced the batch it was queued in.
+ *
+ * The log is a chain of segment files: the given path is segment 0 and segment n is the
+ * same path with ".n" appended. A position holds the segment number in its high bits and
+ * the offset within that segment below, so a position from a single-file log is a
+ * position in segment 0. At each snapshot checkpoint {@link #startNewSegment()} moves
+ * appends to a fresh segment, and once the snapshot is durable
+ * {@link #deleteSegmentsBefore(long)} deletes the segments it covers, so the log holds
+ * only what was written since the last snapshot. A torn tail is only tolerated in the
+ * last segment; damage in an earlier one fails the open.
+ *
+ * Segment layout: [int magic][int version] followed by records
+ * Record layout: [int payloadLength][int crc32c(type + payload)][byte type][payload]
+ */
+public class PatientWriteAheadLog implements Closeable {
+    
+    private static final Logger LOGGER = Logger.getLogger(PatientWriteAheadLog.class.getName());
+    
+    /**
+     * When appended records are forced to stable storage
+     */
+    public enum SyncPolicy {
+        /** fsync after every record; slowest, nothing acknowledged is ever lost */
+        EVERY_WRITE,
+        /** fsync at most once per group-commit interval; a crash loses at most one interval */
+        GROUP_COMMIT,
+        /**
+         * Queue records for a single writer thread that writes and fsyncs whatever has queued
+         * up since its last batch; a crash loses only writes whose futures have not completed.
+         * An append fails with an IOException if the queue stays full for two seconds.
+         */
+        ASYNC
+    }
+    
+    /**
+     * Receives records in log order during replay
+     */
+    public interface ReplayHandler {
+        void onSave(PatientDataObject patient);
+        void onDelete(String patientId);
+        void onClear();
+    }
+    
+    private static final int MAGIC = 0x5057414C; // "PWAL"
+    private static final int FORMAT_VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 9;
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+    
+    // Positions keep the segment number above this bit and the offset in the segment below it
+    private static final int SEGMENT_SHIFT = 40;
+    private static final long OFFSET_MASK = (1L << SEGMENT_SHIFT) - 1;
+    
+    private static final byte RECORD_SAVE = 1;
+    private static final byte RECORD_DELETE = 2;
+    private static final byte RECORD_CLEAR = 3;
+    
+    // Queued writes beyond this wait for room, and fail once the writer has not made
+    // room for this long, so a stalled disk fails saves instead of hanging their callers
+    private static final int MAX_QUEUED_WRITES = 16_384;
+    private static final long QUEUE_FULL_TIMEOUT_MILLIS = 2000;
+    private static final int MAX_BATCH_WRITES = 1024;
+    private static final long WRITER_POLL_MILLIS = 100;
+    
+    // Commit latencies kept for the writer's percentiles
+    private static final int LATENCY_SAMPLES = 8192;
+    
+    /**
+     * Records waiting for the asynchronous writer
+     */
+    private static final class PendingWrite {
+        final ByteBuffer records;
+        final int recordCount;
+        final long queuedNanos;
+        final CompletableFuture<Void> durable;
+        
+        PendingWrite(ByteBuffer records, int recordCount) {
+            this.records = records;
+            this.recordCount = recordCount;
+            this.queuedNanos = System.nanoTime();
+            this.durable = new CompletableFuture<>();
+        }
+    }
+    
+    private final Path logFile;
+    private final SyncPolicy syncPolicy;
+    
+    // Segment being appended to; replaced by startNewSegment (guarded by this)
+    private FileChannel channel;
+    private long segment;
+    
+    private final AtomicBoolean unsynced;
+    private ScheduledExecutorService syncScheduler;
+    
+    // Completed by the next group-commit sync; replaced by each sync (guarded by this)
+    private CompletableFuture<Void> nextSync;
+    
+    private final BlockingQueue<PendingWrite> writeQueue;
+    private Thread writerThread;
+    private volatile boolean writerStopping;
+    private volatile IOException writerFailure;
+    
+    // Set by recover when the log ended before the replay position and was started over
+    private boolean reset;
+    
+    // Writer statistics (guarded by latencySamples)
+    private final long[] latencySamples;
+    private long latencySampleCount;
+    private long batchCount;
+    private long writeCount;
+    private long recordCount;
+    private int maxBatchSize;
+    private long failedWriteCount;
+    
+    private PatientWriteAheadLog(Path logFile, SyncPolicy syncPolicy) {
+        this.logFile = logFile;
+        this.syncPolicy = syncPolicy;
+        this.unsynced = new AtomicBoolean(false);
+        this.nextSync = new CompletableFuture<>();
+        this.writeQueue = new LinkedBlockingQueue<>(MAX_QUEUED_WRITES);
+        this.latencySamples = new long[LATENCY_SAMPLES];
+    }
+    
+    /**
+     * Open (or create) a log, replaying every intact record into the handler.
+     * Segments wholly before the replay position are already covered by a snapshot and are deleted.
+     * @param logFile Path of the log's first segment
+     * @param syncPolicy When to fsync appended records
+     * @param groupCommitMillis Sync interval for {@link SyncPolicy#GROUP_COMMIT}; unused by the other policies
+     * @param replayFrom Position to replay from, as returned by {@link #position()}; 0 replays everything
+     * @param handler Receives the replayed records
+     * @return The opened log, positioned for appending
+     */
+    public static PatientWriteAheadLog open(Path logFile, SyncPolicy syncPolicy, long groupCommitMillis,
+                                            long replayFrom, ReplayHandler handler) throws IOException {
+        PatientWriteAheadLog log = new PatientWriteAheadLog(logFile, syncPolicy);
+        try {
+            log.recover(replayFrom, handler);
+        } catch (IOException | RuntimeException e) {
+            if (log.channel != null) {
+                log.channel.close();
+            }
+            throw e;
+        }
+        
+        if (syncPolicy == SyncPolicy.GROUP_COMMIT) {
+            log.startGroupCommit(groupCommitMillis);
+        } else if (syncPolicy == SyncPolicy.ASYNC) {
+            log.startWriter();
+        }
+        return log;
+    }
+    
+    /**
+     * Append a save record for a new or updated patient
+     * @return Completes when the record is on stable storage
+     */
+    public CompletableFuture<Void> appendSave(PatientDataObject patient) throws IOException {
+        return append(RECORD_SAVE, PatientRecordCodec.encode(patient));
+    }
+    
+    /**
+     * Append one save record per patient with a single write and at most one sync.
+     * Each record is still checksummed on its own, so a crash mid-batch keeps the
+     * records that reached the disk intact.
+     * @return Completes when every record is on stable storage
+     */
+    public CompletableFuture<Void> appendSaves(Collection<PatientDataObject> patients) throws IOException {
+        List<byte[]> payloads = new ArrayList<>(patients.size());
+        int batchSize = 0;
+        for (PatientDataObject patient : patients) {
+            byte[] payload = PatientRecordCodec.encode(patient);
+            payloads.add(payload);
+            batchSize += RECORD_HEADER_SIZE + payload.length;
+        }
+        
+        ByteBuffer records = ByteBuffer.allocate(batchSize);
+        for (byte[] payload : payloads) {
+            putRecord(records, RECORD_SAVE, payload);
+        }
+        records.flip();
+        return write(records, payloads.size());
+    }
+    
+    /**
+     * Append a delete record
+     * @return Completes when the record is on stable storage
+     */
+    public CompletableFuture<Void> appendDelete(String patientId) throws IOException {
+        return append(RECORD_DELETE, patientId.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Append a record that clears the whole store
+     * @return Completes when the record is on stable storage
+     */
+    public CompletableFuture<Void> appendClear() throws IOException {
+        return append(RECORD_CLEAR, new byte[0]);
+    }
+    
+    /**
+     * Force every appended record to stable storage, waiting for queued writes first
+     */
+    public void sync() throws IOException {
+        if (writerThread != null && !writerStopping) {
+            // The writer fsyncs each batch, so once everything queued so far is written it is also durable
+            awaitQueuedWrites();
+            return;
+        }
+        
+        CompletableFuture<Void> synced;
+        FileChannel target;
+        synchronized (this) {
+            unsynced.set(false);
+            synced = nextSync;
+            nextSync = new CompletableFuture<>();
+            target = channel;
+        }
+        try {
+            force(target);
+        } catch (IOException e) {
+            synced.completeExceptionally(e);
+            throw e;
+        }
+        synced.complete(null);
+    }
+    
+    /**
+     * @return Position just past the last appended record, after any queued writes
+     */
+    public long position() throws IOException {
+        if (writerThread != null && !writerStopping) {
+            awaitQueuedWrites();
+        }
+        synchronized (this) {
+            return position(segment, channel.position());
+        }
+    }
+    
+    /**
+     * Make every record appended so far durable and continue in a new segment. A snapshot
+     * taken at the returned position covers every earlier segment, so once it is durable
+     * they can be removed with {@link #deleteSegmentsBefore(long)}.
+     * Callers keep appends from racing the snapshot they take, as for {@link #position()}.
+     * @return Position of the new segment's first record
+     */
+    public long startNewSegment() throws IOException {
+        if (writerThread != null && !writerStopping) {
+            awaitQueuedWrites();
+        }
+        synchronized (this) {
+            FileChannel previous = channel;
+            previous.force(false);
+            long next = segment + 1;
+            channel = createSegment(segmentFile(next));
+            segment = next;
+            
+            // Everything waiting on a group commit went into the segment just forced
+            unsynced.set(false);
+            CompletableFuture<Void> synced = nextSync;
+            nextSync = new CompletableFuture<>();
+            synced.complete(null);
+            previous.close();
+            return position(next, FILE_HEADER_SIZE);
+        }
+    }
+    
+    /**
+     * Delete the segments wholly before a position. Call only once a snapshot covering
+     * that position is durable; the current segment is never deleted.
+     * @param logPosition Position recorded by the snapshot, as returned by {@link #startNewSegment()}
+     * @return Number of segment files deleted
+     */
+    public int deleteSegmentsBefore(long logPosition) throws IOException {
+        long firstKept;
+        synchronized (this) {
+            firstKept = Math.min(logPosition >>> SEGMENT_SHIFT, segment);
+        }
+        int deleted = 0;
+        for (Path covered : listSegments().headMap(firstKept).values()) {
+            if (Files.deleteIfExists(covered)) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+    
+    /**
+     * @return The segment file currently appended to
+     */
+    public synchronized Path getLogFile() {
+        return segmentFile(segment);
+    }
+    
+    /**
+     * @return true if open found the log ending before the replay position and continued in a
+     *         new segment; write a snapshot at the new {@link #position()} so the segment that
+     *         fell short can be deleted
+     */
+    public boolean wasReset() {
+        return reset;
+    }
+    
+    /**
+     * @return Queue depth, batch sizes and commit latencies of the asynchronous writer;
+     *         all zero unless the log uses {@link SyncPolicy#ASYNC}
+     */
+    public PatientWriterStatistics getWriterStatistics() {
+        synchronized (latencySamples) {
+            long[] samples = Arrays.copyOf(latencySamples, (int) Math.min(latencySampleCount, LATENCY_SAMPLES));
+            Arrays.sort(samples);
+            return new PatientWriterStatistics(writeQueue.size(), batchCount, writeCount, recordCount,
+                maxBatchSize, failedWriteCount, new long[] {
+                    percentile(samples, 0.50), percentile(samples, 0.95), percentile(samples, 0.99),
+                    samples.length > 0 ? samples[samples.length - 1] : 0 });
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (syncScheduler != null) {
+            syncScheduler.shutdown();
+        }
+        try {
+            if (writerThread != null) {
+                stopWriter();
+            }
+            sync();
+        } finally {
+            synchronized (this) {
+                channel.close();
+            }
+        }
+    }
+    
+    private CompletableFuture<Void> append(byte type, byte[] payload) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+        putRecord(record, type, payload);
+        record.flip();
+        return write(record, 1);
+    }
+    
+    private static void putRecord(ByteBuffer buffer, byte type, byte[] payload) {
+        CRC32C checksum = new CRC32C();
+        checksum.update(type);
+        checksum.update(payload);
+        buffer.putInt(payload.length).putInt((int) checksum.getValue()).put(type).put(payload);
+    }
+    
+    private CompletableFuture<Void> write(ByteBuffer records, int count) throws IOException {
+        if (syncPolicy == SyncPolicy.ASYNC) {
+            return enqueue(records, count, QUEUE_FULL_TIMEOUT_MILLIS);
+        }
+        
+        synchronized (this) {
+            while (records.hasRemaining()) {
+                channel.write(records);
+            }
+            
+            if (syncPolicy == SyncPolicy.EVERY_WRITE) {
+                channel.force(false);
+                return CompletableFuture.completedFuture(null);
+            }
+            unsynced.set(true);
+            return nextSync;
+        }
+    }
+    
+    private void startGroupCommit(long groupCommitMillis) {
+        syncScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "patient-wal-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncScheduler.scheduleWithFixedDelay(() -> {
+            CompletableFuture<Void> synced;
+            FileChannel target;
+            synchronized (this) {
+                if (!unsynced.getAndSet(false)) {
+                    return;
+                }
+                synced = nextSync;
+                nextSync = new CompletableFuture<>();
+                target = channel;
+            }
+            try {
+                force(target);
+                synced.complete(null);
+            } catch (IOException e) {
+                unsynced.set(true);
+                synced.completeExceptionally(e);
+                LOGGER.severe("Group commit sync failed for " + logFile + ": " + e.getMessage());
+            }
+        }, groupCommitMillis, groupCommitMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    private void startWriter() {
+        writerThread = new Thread(this::runWriter, "patient-wal-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+    
+    /**
+     * Hand records to the writer thread, waiting while its queue is full
+     * @param timeoutMillis How long to wait for room before failing; 0 to wait as long as it takes
+     */
+    private CompletableFuture<Void> enqueue(ByteBuffer records, int count, long timeoutMillis) throws IOException {
+        IOException failure = writerFailure;
+        if (failure != null) {
+            throw new IOException("Log writer for " + logFile + " failed earlier: " + failure.getMessage(), failure);
+        }
+        if (writerStopping) {
+            throw new IOException("Log " + logFile + " is closing");
+        }
+        
+        PendingWrite write = new PendingWrite(records, count);
+        try {
+            if (timeoutMillis == 0) {
+                writeQueue.put(write);
+            } else if (!writeQueue.offer(write, timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Log writer queue for " + logFile + " stayed full for "
+                    + timeoutMillis + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted queueing a write to " + logFile);
+        }
+        return write.durable;
+    }
+    
+    /**
+     * Wait until every write queued so far is durable. The queue is first in, first out,
+     * so an empty write queued now completes only after all of them.
+     */
+    private void awaitQueuedWrites() throws IOException {
+        // Snapshots and close must see every queued write out, however long that takes
+        CompletableFuture<Void> marker = enqueue(ByteBuffer.allocate(0), 0, 0);
+        try {
+            marker.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for queued writes to " + logFile);
+        } catch (ExecutionException e) {
+            throw new IOException("Queued writes to " + logFile + " failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+    
+    /**
+     * Let the writer drain its queue and stop; writes still queued after that are failed
+     */
+    private void stopWriter() {
+        writerStopping = true;
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.warning("Interrupted waiting for log writer of " + logFile);
+        }
+        
+        List<PendingWrite> abandoned = new ArrayList<>();
+        writeQueue.drainTo(abandoned);
+        for (PendingWrite write : abandoned) {
+            write.durable.completeExceptionally(new IOException("Log " + logFile + " closed before the write"));
+        }
+    }
+    
+    /**
+     * Writer thread: take whatever has queued up, write it in one go, fsync once and
+     * complete the batch's futures
+     */
+    private void runWriter() {
+        List<PendingWrite> batch = new ArrayList<>(MAX_BATCH_WRITES);
+        while (true) {
+            PendingWrite first;
+            try {
+                first = writeQueue.poll(WRITER_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                first = null;
+            }
+            if (first == null) {
+                if (writerStopping && writeQueue.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+            
+            batch.add(first);
+            writeQueue.drainTo(batch, MAX_BATCH_WRITES - 1);
+            commitBatch(batch);
+            batch.clear();
+        }
+    }
+    
+    private void commitBatch(List<PendingWrite> batch) {
+        try {
+            IOException failure = writerFailure;
+            if (failure != null) {
+                // Writing past a failed batch could leave a gap that ends replay early
+                throw failure;
+            }
+            
+            ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+            long remaining = 0;
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = batch.get(i).records;
+                remaining += buffers[i].remaining();
+            }
+            FileChannel target;
+            synchronized (this) {
+                target = channel;
+                while (remaining > 0) {
+                    remaining -= target.write(buffers);
+                }
+            }
+            force(target);
+        } catch (IOException e) {
+            if (writerFailure == null) {
+                writerFailure = e;
+                LOGGER.severe("Log writer failed for " + logFile + ": " + e.getMessage());
+            }
+            for (PendingWrite write : batch) {
+                write.durable.completeExceptionally(e);
+            }
+            synchronized (latencySamples) {
+                failedWriteCount += batch.size();
+            }
+            return;
+        }
+        
+        long now = System.nanoTime();
+        synchronized (latencySamples) {
+            int writes = 0;
+            for (PendingWrite write : batch) {
+                if (write.recordCount == 0) {
+                    continue;
+                }
+                writes++;
+                recordCount += write.recordCount;
+                latencySamples[(int) (latencySampleCount++ % LATENCY_SAMPLES)] = now - write.queuedNanos;
+            }
+            if (writes > 0) {
+                batchCount++;
+                writeCount += writes;
+                maxBatchSize = Math.max(maxBatchSize, writes);
+            }
+        }
+        for (PendingWrite write : batch) {
+            write.durable.complete(null);
+        }
+    }
+    
+    private static long percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+    
+    /**
+     * Force a channel captured under the lock. A segment retired since then was forced by
+     * startNewSegment before it was closed, so finding it closed means it is already durable.
+     */
+    private void force(FileChannel target) throws IOException {
+        try {
+            target.force(false);
+        } catch (ClosedChannelException e) {
+            synchronized (this) {
+                if (target == channel) {
+                    throw e;
+                }
+            }
+        }
+    }
+    
+    private static long position(long segment, long offset) {
+        return (segment << SEGMENT_SHIFT) | offset;
+    }
+    
+    private Path segmentFile(long number) {
+        return number == 0 ? logFile : logFile.resolveSibling(logFile.getFileName() + "." + number);
+    }
+    
+    /**
+     * @return Segment number -> file, for every segment of this log on disk
+     */
+    private NavigableMap<Long, Path> listSegments() throws IOException {
+        NavigableMap<Long, Path> segments = new TreeMap<>();
+        Path directory = logFile.toAbsolutePath().getParent();
+        String baseName = logFile.getFileName().toString();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, baseName + "*")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.equals(baseName)) {
+                    segments.put(0L, logFile);
+                } else if (name.matches(Pattern.quote(baseName) + "\\.[0-9]{1,18}")) {
+                    long number = Long.parseLong(name.substring(baseName.length() + 1));
+                    segments.put(number, segmentFile(number));
+                }
+            }
+        }
+        return segments;
+    }
+    
+    /**
+     * Create an empty segment with its header on stable storage, positioned for appending
+     */
+    private FileChannel createSegment(Path file) throws IOException {
+        FileChannel created = FileChannel.open(file,
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            writeHeader(created);
+            PatientSnapshotFile.forceDirectory(file.toAbsolutePath().getParent());
+        } catch (IOException | RuntimeException e) {
+            created.close();
+            throw e;
+        }
+        return created;
+    }
+    
+    private static void writeHeader(FileChannel target) throws IOException {
+        target.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+        while (header.hasRemaining()) {
+            target.write(header, header.position());
+        }
+        target.force(true);
+        target.position(FILE_HEADER_SIZE);
+    }
+    
+    /**
+     * Delete segments the snapshot covers, replay intact records from the rest in order
+     * and cut off any torn tail of the last one, leaving it open for appending
+     */
+    private void recover(long replayFrom, ReplayHandler handler) throws IOException {
+        long fromSegment = replayFrom >>> SEGMENT_SHIFT;
+        long fromOffset = Math.max(replayFrom & OFFSET_MASK, FILE_HEADER_SIZE);
+        NavigableMap<Long, Path> segments = listSegments();
+        
+        // Left behind by a crash between a durable snapshot and deleting what it covers
+        for (Path covered : segments.headMap(fromSegment).values()) {
+            Files.deleteIfExists(covered);
+        }
+        NavigableMap<Long, Path> remaining = segments.tailMap(fromSegment, true);
+        if (remaining.isEmpty()) {
+            segment = fromSegment;
+            channel = createSegment(segmentFile(fromSegment));
+        } else {
+            long expected = fromSegment;
+            for (Map.Entry<Long, Path> entry : remaining.entrySet()) {
+                if (entry.getKey() != expected) {
+                    throw new IOException("Log segment " + segmentFile(expected) + " is missing");
+                }
+                boolean last = entry.getKey().equals(remaining.lastKey());
+                long start = entry.getKey() == fromSegment ? fromOffset : FILE_HEADER_SIZE;
+                recoverSegment(entry.getKey(), entry.getValue(), start, last, handler);
+                expected++;
+            }
+        }
+        
+        if (position(segment, channel.position()) < replayFrom) {
+            // The log ends before the snapshot's position, so nothing in it is newer than the snapshot.
+            // Appending here would put new records before that position, where the next open would
+            // skip them; continue in a new segment past it and let the caller re-anchor the snapshot.
+            LOGGER.warning("Log " + segmentFile(segment) + " ends before snapshot position "
+                + (replayFrom & OFFSET_MASK) + "; continuing in a new segment");
+            channel.close();
+            channel = null;
+            segment++;
+            channel = createSegment(segmentFile(segment));
+            reset = true;
+        }
+    }
+    
+    /**
+     * Validate one segment's header and replay it from the given offset. The last segment
+     * is left open as the current one, with any torn tail truncated; any other is closed
+     * and must be intact to its end.
+     */
+    private void recoverSegment(long number, Path file, long startOffset, boolean last, ReplayHandler handler)
+            throws IOException {
+        FileChannel segmentChannel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long fileSize = segmentChannel.size();
+            if (fileSize < FILE_HEADER_SIZE) {
+                if (!last) {
+                    throw new IOException("Log segment " + file + " is missing its header");
+                }
+                // Crash before the header reached the disk
+                writeHeader(segmentChannel);
+                segment = number;
+                channel = segmentChannel;
+                return;
+            }
+            
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+            while (header.hasRemaining() && segmentChannel.read(header, header.position()) >= 0) {
+                // keep reading until the header is complete
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+                throw new IOException("Not a supported patient write-ahead log: " + file);
+            }
+            
+            if (startOffset > fileSize) {
+                if (!last) {
+                    throw new IOException("Log segment " + file + " ends before snapshot position "
+                        + startOffset + " but later segments exist");
+                }
+                segment = number;
+                channel = segmentChannel;
+                segmentChannel.position(fileSize);
+                return;
+            }
+            
+            long validEnd = replay(segmentChannel, file, startOffset, handler);
+            if (validEnd < fileSize) {
+                if (!last) {
+                    throw new IOException("Log segment " + file + " is damaged at offset " + validEnd
+                        + " but later segments exist");
+                }
+                LOGGER.warning("Discarding " + (fileSize - validEnd) + " bytes of torn or corrupt log tail in " + file);
+                segmentChannel.truncate(validEnd);
+                segmentChannel.force(true);
+            }
+            segmentChannel.position(validEnd);
+        } catch (IOException | RuntimeException e) {
+            segmentChannel.close();
+            throw e;
+        }
+        
+        if (last) {
+            segment = number;
+            channel = segmentChannel;
+        } else {
+            segmentChannel.close();
+        }
+    }
+    
+    /**
+     * Replay records from the given offset, stopping at a torn or corrupt record
+     * @return File offset just past the last intact record
+     * @throws IOException If an intact record cannot be applied
+     */
+    private static long replay(FileChannel source, Path file, long fromPosition, ReplayHandler handler)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        buffer.limit(0);
+        source.position(fromPosition);
+        
+        long recordStart = fromPosition;
+        long replayed = 0;
+        long startNanos = System.nanoTime();
+        CRC32C checksum = new CRC32C();
+        
+        while (fill(source, buffer, RECORD_HEADER_SIZE)) {
+            int start = buffer.position();
+            int length = buffer.getInt(start);
+            if (length < 0 || length > MAX_RECORD_SIZE) {
+                break;
+            }
+            
+            int recordSize = RECORD_HEADER_SIZE + length;
+            if (buffer.capacity() < recordSize) {
+                buffer = grow(buffer, recordSize);
+            }
+            if (!fill(source, buffer, recordSize)) {
+                break;
+            }
+            start = buffer.position();
+            
+            checksum.reset();
+            checksum.update(buffer.slice(start + 8, length + 1));
+            if ((int) checksum.getValue() != buffer.getInt(start + 4)) {
+                break;
+            }
+            
+            try {
+                apply(buffer.get(start + 8), buffer.slice(start + RECORD_HEADER_SIZE, length), handler);
+            } catch (RuntimeException e) {
+                // The checksum matched, so this record was written completely; truncating here
+                // would throw away it and everything after it
+                throw new IOException("Log record at offset " + recordStart + " in " + file
+                    + " is intact but cannot be applied: " + e, e);
+            }
+            
+            buffer.position(start + recordSize);
+            recordStart += recordSize;
+            replayed++;
+        }
+        
+        LOGGER.info(String.format("Replayed %d log records from %s in %d ms",
+            replayed, file, (System.nanoTime() - startNanos) / 1_000_000));
+        return recordStart;
+    }
+    
+    private static void apply(byte type, ByteBuffer payload, ReplayHandler handler) {
+        switch (type) {
+            case RECORD_SAVE:
+                handler.onSave(PatientRecordCodec.decode(payload));
+                break;
+            case RECORD_DELETE:
+                handler.onDelete(StandardCharsets.UTF_8.decode(payload).toString());
+                break;
+            case RECORD_CLEAR:
+                handler.onClear();
+                break;
+            default:
+                throw new IllegalStateException("Unknown record type " + type);
+        }
+    }
+    
+    /**
+     * Read from the channel until at least {@code needed} bytes are buffered
+     * @return false if the end of the file was reached first
+     */
+    private static boolean fill(FileChannel source, ByteBuffer buffer, int needed) throws IOException {
+        while (buffer.remaining() < needed) {
+            buffer.compact();
+            int read = source.read(buffer);
+            buffer.flip();
+            if (read < 0) {
+                return buffer.remaining() >= needed;
+            }
+        }
+        return true;
+    }
+    
+    private static ByteBuffer grow(ByteBuffer buffer, int needed) {
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(needed, buffer.capacity() * 2));
+        larger.put(buffer).flip();
+        return larger;
+    }
+}
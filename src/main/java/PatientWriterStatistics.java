@@ -0,0 +1,80 @@
+/**
+ * Point-in-time state of the asynchronous write-ahead log writer: how many writes are
+ * waiting, how large its batches are, and how long a write takes from being queued
+ * until it is durable. Latency percentiles cover the most recent commits only.
+ */
+public class PatientWriterStatistics {
+    
+    private final int queueDepth;
+    private final long batchCount;
+    private final long writeCount;
+    private final long recordCount;
+    private final int maxBatchSize;
+    private final long failedWriteCount;
+    private final long[] commitLatencyNanos;
+    
+    /**
+     * @param commitLatencyNanos {p50, p95, p99, max} queue-to-durable latency of recent writes
+     */
+    public PatientWriterStatistics(int queueDepth, long batchCount, long writeCount, long recordCount,
+                                   int maxBatchSize, long failedWriteCount, long[] commitLatencyNanos) {
+        this.queueDepth = queueDepth;
+        this.batchCount = batchCount;
+        this.writeCount = writeCount;
+        this.recordCount = recordCount;
+        this.maxBatchSize = maxBatchSize;
+        this.failedWriteCount = failedWriteCount;
+        this.commitLatencyNanos = commitLatencyNanos.clone();
+    }
+    
+    /**
+     * @return Writes queued but not yet written
+     */
+    public int getQueueDepth() { return queueDepth; }
+    
+    /**
+     * @return Batches written, each with a single fsync
+     */
+    public long getBatchCount() { return batchCount; }
+    
+    /**
+     * @return Writes made durable; a batch save counts once
+     */
+    public long getWriteCount() { return writeCount; }
+    
+    /**
+     * @return Log records made durable
+     */
+    public long getRecordCount() { return recordCount; }
+    
+    /**
+     * @return Average writes per batch
+     */
+    public double getAverageBatchSize() {
+        return batchCount > 0 ? (double) writeCount / batchCount : 0;
+    }
+    
+    public int getMaxBatchSize() { return maxBatchSize; }
+    
+    /**
+     * @return Writes whose futures completed exceptionally
+     */
+    public long getFailedWriteCount() { return failedWriteCount; }
+    
+    public long getCommitLatencyP50Nanos() { return commitLatencyNanos[0]; }
+    
+    public long getCommitLatencyP95Nanos() { return commitLatencyNanos[1]; }
+    
+    public long getCommitLatencyP99Nanos() { return commitLatencyNanos[2]; }
+    
+    public long getCommitLatencyMaxNanos() { return commitLatencyNanos[3]; }
+    
+    @Override
+    public String toString() {
+        return String.format("queue %d, %d writes in %d batches (avg %.1f, max %d), %d failed, "
+                + "commit latency p50 %.2f ms, p95 %.2f ms, p99 %.2f ms, max %.2f ms",
+            queueDepth, writeCount, batchCount, getAverageBatchSize(), maxBatchSize, failedWriteCount,
+            commitLatencyNanos[0] / 1_000_000.0, commitLatencyNanos[1] / 1_000_000.0,
+            commitLatencyNanos[2] / 1_000_000.0, commitLatencyNanos[3] / 1_000_000.0);
+    }
+}
@@ -0,0 +1,144 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Compaction of the append-only file while saves, deletes and reads carry on.
+ */
+class FilePatientRepositoryTest {
+    
+    private static final int PATIENTS = 1000;
+    
+    @TempDir
+    Path directory;
+    
+    @BeforeAll
+    static void quietLogging() {
+        TestPatients.quietLogging();
+    }
+    
+    @Test
+    void compactionDuringSavesAndDeletesLosesNothing() throws Exception {
+        Path dataFile = directory.resolve("patients.dat");
+        // Patients 0..999 are updated, 1000..1999 deleted, 2000..2999 saved during the run
+        Map<String, PatientDataObject> expected = new LinkedHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (FilePatientRepository repository = FilePatientRepository.open(dataFile, false)) {
+            for (PatientDataObject patient : TestPatients.patients(2 * PATIENTS, 17)) {
+                assertTrue(repository.savePatientData(patient));
+            }
+            
+            CountDownLatch start = new CountDownLatch(1);
+            AtomicBoolean writing = new AtomicBoolean(true);
+            Future<Map<String, PatientDataObject>> updater = executor.submit(() -> {
+                start.await();
+                Random random = new Random(1);
+                Map<String, PatientDataObject> latest = new LinkedHashMap<>();
+                for (int round = 0; round < 3; round++) {
+                    for (int n = 0; n < PATIENTS; n++) {
+                        PatientDataObject patient = TestPatients.patient(n, random);
+                        assertTrue(repository.savePatientData(patient));
+                        latest.put(patient.getPatientId(), patient);
+                    }
+                }
+                return latest;
+            });
+            Future<Map<String, PatientDataObject>> replacer = executor.submit(() -> {
+                start.await();
+                Random random = new Random(2);
+                Map<String, PatientDataObject> added = new LinkedHashMap<>();
+                for (int n = 0; n < PATIENTS; n++) {
+                    assertTrue(repository.deletePatient(TestPatients.id(PATIENTS + n)));
+                    PatientDataObject patient = TestPatients.patient(2 * PATIENTS + n, random);
+                    assertTrue(repository.savePatientData(patient));
+                    added.put(patient.getPatientId(), patient);
+                }
+                return added;
+            });
+            Future<Integer> compactor = executor.submit(() -> {
+                start.await();
+                int compactions = 0;
+                while (writing.get()) {
+                    if (repository.compact()) {
+                        compactions++;
+                    }
+                }
+                return compactions;
+            });
+            Future<Integer> reader = executor.submit(() -> {
+                start.await();
+                Random random = new Random(3);
+                int found = 0;
+                while (writing.get()) {
+                    String patientId = TestPatients.id(random.nextInt(3 * PATIENTS));
+                    Optional<PatientDataObject> patient = repository.findPatientById(patientId);
+                    if (patient.isPresent()) {
+                        assertEquals(patientId, patient.get().getPatientId());
+                        found++;
+                    }
+                }
+                return found;
+            });
+            
+            start.countDown();
+            try {
+                expected.putAll(updater.get(2, TimeUnit.MINUTES));
+                expected.putAll(replacer.get(2, TimeUnit.MINUTES));
+            } finally {
+                writing.set(false);
+            }
+            assertTrue(compactor.get(1, TimeUnit.MINUTES) > 0);
+            assertTrue(reader.get(1, TimeUnit.MINUTES) > 0);
+            
+            assertStores(expected, repository);
+            assertTrue(repository.compact());
+            assertEquals(0, repository.getDeadBytes());
+            assertEquals(Files.size(dataFile), repository.getFileSize());
+            assertStores(expected, repository);
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        try (FilePatientRepository reopened = FilePatientRepository.open(dataFile, false)) {
+            assertStores(expected, reopened);
+        }
+    }
+    
+    /**
+     * Check the repository holds exactly the expected patients, field for field and in save order
+     */
+    private static void assertStores(Map<String, PatientDataObject> expected, FilePatientRepository repository) {
+        assertEquals(expected.size(), repository.getPatientCount());
+        List<String> listed = repository.getAllPatients().stream()
+            .map(PatientDataObject::getPatientId)
+            .collect(Collectors.toList());
+        assertEquals(new ArrayList<>(expected.keySet()), listed);
+        for (PatientDataObject patient : expected.values()) {
+            assertArrayEquals(PatientRecordCodec.encode(patient),
+                PatientRecordCodec.encode(repository.findPatientById(patient.getPatientId()).get()));
+        }
+        for (int n = PATIENTS; n < 2 * PATIENTS; n++) {
+            assertTrue(repository.findPatientById(TestPatients.id(n)).isEmpty());
+        }
+    }
+}
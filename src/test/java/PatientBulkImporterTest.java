@@ -0,0 +1,153 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * NDJSON bulk import: skipped blank and malformed lines, their line numbers, files
+ * spanning several batches, progress reports, and the cap on reported errors.
+ */
+class PatientBulkImporterTest {
+    
+    // The importer reads 10,000 lines per batch and reports at most 1,000 errors
+    private static final int LINES_PER_BATCH = 10_000;
+    private static final int MAX_REPORTED_ERRORS = 1000;
+    
+    @TempDir
+    Path directory;
+    
+    @BeforeAll
+    static void quietLogging() {
+        TestPatients.quietLogging();
+    }
+    
+    @Test
+    void skipsBlankLinesAndReportsMalformedOnesByLineNumber() throws IOException {
+        List<PatientDataObject> patients = TestPatients.patients(4, 10);
+        List<String> lines = new ArrayList<>();
+        lines.add(json(patients.get(0)));
+        lines.add("");
+        lines.add("not json");
+        lines.add(json(patients.get(1)));
+        lines.add("   \t");
+        lines.add("{\"lastName\": \"Nobody\"}");
+        lines.add(json(patients.get(2)).substring(0, 40));
+        lines.add(json(patients.get(3)));
+        Path file = write(lines);
+        PatientDataStorage storage = new PatientDataStorage();
+        
+        PatientImportReport report = storage.importPatientsFromNdjson(file, null);
+        
+        assertTrue(report.isComplete());
+        assertEquals(1.0, report.getProgress());
+        assertEquals(8, report.getLinesRead());
+        assertEquals(3, report.getImportedCount());
+        assertEquals(3, report.getFailedCount());
+        assertEquals(List.of(3L, 6L, 7L), lineNumbers(report.getErrors()));
+        assertEquals("Missing patientId", report.getErrors().get(1).getMessage());
+        
+        assertEquals(3, storage.getPatientCount());
+        for (int i : new int[] {0, 1, 3}) {
+            PatientDataObject stored = storage.findPatientById(patients.get(i).getPatientId()).get();
+            assertEquals(patients.get(i).getLastName(), stored.getLastName());
+        }
+        assertTrue(storage.findPatientById(patients.get(2).getPatientId()).isEmpty());
+    }
+    
+    @Test
+    void importsAFileOfSeveralBatchesAndReportsProgressAfterEach() throws IOException {
+        int patientCount = 2 * LINES_PER_BATCH + 5000;
+        List<PatientDataObject> patients = TestPatients.patients(patientCount, 11);
+        List<String> lines = patients.stream().map(PatientBulkImporterTest::json).collect(Collectors.toList());
+        // One bad line in each of the second and third batches
+        lines.set(LINES_PER_BATCH, "{");
+        lines.set(2 * LINES_PER_BATCH + 99, "[]");
+        Path file = write(lines);
+        PatientDataStorage storage = new PatientDataStorage();
+        List<PatientImportReport> progress = new ArrayList<>();
+        
+        PatientImportReport report = storage.importPatientsFromNdjson(file, progress::add);
+        
+        assertEquals(patientCount, report.getLinesRead());
+        assertEquals(patientCount - 2, report.getImportedCount());
+        assertEquals(2, report.getFailedCount());
+        assertEquals(List.of(LINES_PER_BATCH + 1L, 2L * LINES_PER_BATCH + 100), lineNumbers(report.getErrors()));
+        assertEquals(patientCount - 2, storage.getPatientCount());
+        assertEquals(patients.get(patientCount - 1).getLastName(),
+            storage.findPatientById(patients.get(patientCount - 1).getPatientId()).get().getLastName());
+        
+        // A report after saving each of the first two batches, while the next is parsed, then the final one
+        assertEquals(3, progress.size());
+        assertEquals(LINES_PER_BATCH, progress.get(0).getImportedCount());
+        assertEquals(2 * LINES_PER_BATCH - 1, progress.get(1).getImportedCount());
+        assertEquals(1, progress.get(1).getFailedCount());
+        for (int i = 0; i < 2; i++) {
+            PatientImportReport partial = progress.get(i);
+            assertFalse(partial.isComplete());
+            assertEquals(Files.size(file), partial.getTotalBytes());
+            assertTrue(partial.getBytesRead() <= partial.getTotalBytes());
+        }
+        assertTrue(progress.get(0).getProgress() <= progress.get(1).getProgress());
+        PatientImportReport last = progress.get(2);
+        assertTrue(last.isComplete());
+        assertEquals(report.getImportedCount(), last.getImportedCount());
+        assertEquals(report.getFailedCount(), last.getFailedCount());
+    }
+    
+    @Test
+    void reportsOnlyTheFirstErrorsButCountsThemAll() throws IOException {
+        int malformed = MAX_REPORTED_ERRORS + 500;
+        List<String> lines = new ArrayList<>();
+        for (int n = 0; n < malformed; n++) {
+            lines.add("garbage " + n);
+        }
+        PatientDataObject patient = TestPatients.patients(1, 12).get(0);
+        lines.add(json(patient));
+        PatientDataStorage storage = new PatientDataStorage();
+        PatientBulkImporter importer = new PatientBulkImporter(storage, null);
+        
+        PatientImportReport report = importer.importNdjson(write(lines));
+        
+        assertEquals(malformed, report.getFailedCount());
+        assertEquals(1, report.getImportedCount());
+        assertEquals(MAX_REPORTED_ERRORS, report.getErrors().size());
+        assertEquals(1, report.getErrors().get(0).getLineNumber());
+        assertEquals(MAX_REPORTED_ERRORS, report.getErrors().get(MAX_REPORTED_ERRORS - 1).getLineNumber());
+        
+        // The same importer starts the next import with nothing carried over
+        Path clean = directory.resolve("clean.ndjson");
+        Files.write(clean, List.of(json(patient)), StandardCharsets.UTF_8);
+        PatientImportReport again = importer.importNdjson(clean);
+        assertEquals(1, again.getLinesRead());
+        assertEquals(1, again.getImportedCount());
+        assertEquals(0, again.getFailedCount());
+        assertTrue(again.getErrors().isEmpty());
+    }
+    
+    private Path write(List<String> lines) throws IOException {
+        Path file = directory.resolve("patients.ndjson");
+        Files.write(file, lines, StandardCharsets.UTF_8);
+        return file;
+    }
+    
+    private static String json(PatientDataObject patient) {
+        StringBuilder json = new StringBuilder();
+        PatientJsonWriter.append(patient, json, false);
+        return json.toString();
+    }
+    
+    private static List<Long> lineNumbers(List<PatientImportReport.LineError> errors) {
+        return errors.stream().map(PatientImportReport.LineError::getLineNumber).collect(Collectors.toList());
+    }
+}
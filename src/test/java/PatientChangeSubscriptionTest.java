@@ -0,0 +1,166 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Change subscriptions: how pending changes to one patient coalesce, how CLEARED and
+ * RESYNC order against them, and what each overflow policy gives up.
+ */
+class PatientChangeSubscriptionTest {
+    
+    private final List<Runnable> scheduled = new ArrayList<>();
+    private final List<List<PatientChangeEvent>> delivered = new ArrayList<>();
+    
+    @BeforeAll
+    static void quietLogging() {
+        TestPatients.quietLogging();
+    }
+    
+    @Test
+    void savedThenDeletedCancelsOut() {
+        PatientChangeSubscription subscription = subscribe(10, PatientChangeSubscription.OverflowPolicy.DROP_NEWEST);
+        subscription.offer(List.of(event(PatientChangeEvent.Type.SAVED, 1), event(PatientChangeEvent.Type.DELETED, 1)));
+        
+        runScheduled();
+        
+        assertTrue(delivered.isEmpty());
+        assertEquals(0, subscription.getPendingCount());
+    }
+    
+    @Test
+    void deletedThenSavedBecomesUpdatedAndKeepsTheLatestPatient() {
+        PatientChangeSubscription subscription = subscribe(10, PatientChangeSubscription.OverflowPolicy.DROP_NEWEST);
+        PatientChangeEvent saved = event(PatientChangeEvent.Type.SAVED, 1);
+        subscription.offer(List.of(event(PatientChangeEvent.Type.DELETED, 1), saved));
+        subscription.offer(List.of(event(PatientChangeEvent.Type.SAVED, 2), event(PatientChangeEvent.Type.UPDATED, 2)));
+        
+        runScheduled();
+        
+        assertEquals(List.of("UPDATED " + TestPatients.id(1), "SAVED " + TestPatients.id(2)), describe(delivered.get(0)));
+        assertEquals(saved.getPatient(), delivered.get(0).get(0).getPatient());
+        assertEquals(2, subscription.getDeliveredCount());
+    }
+    
+    @Test
+    void clearedSupersedesEarlierChangesAndPrecedesLaterOnes() {
+        PatientChangeSubscription subscription = subscribe(10, PatientChangeSubscription.OverflowPolicy.DROP_NEWEST);
+        subscription.offer(List.of(event(PatientChangeEvent.Type.SAVED, 1),
+            new PatientChangeEvent(PatientChangeEvent.Type.CLEARED, null, null),
+            event(PatientChangeEvent.Type.SAVED, 2)));
+        
+        runScheduled();
+        
+        assertEquals(List.of("CLEARED", "SAVED " + TestPatients.id(2)), describe(delivered.get(0)));
+    }
+    
+    @Test
+    void changesOfferedBeforeDeliveryRunsShareOneBatch() {
+        PatientChangeSubscription subscription = subscribe(10, PatientChangeSubscription.OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < 5; i++) {
+            subscription.offer(List.of(event(PatientChangeEvent.Type.SAVED, i)));
+        }
+        
+        assertEquals(1, scheduled.size());
+        runScheduled();
+        assertEquals(1, delivered.size());
+        assertEquals(5, delivered.get(0).size());
+    }
+    
+    @Test
+    void dropOldestMakesRoomForTheNewPatient() {
+        PatientChangeSubscription subscription = subscribe(2, PatientChangeSubscription.OverflowPolicy.DROP_OLDEST);
+        offerSaves(subscription, 3);
+        // Already pending, so it coalesces instead of overflowing
+        subscription.offer(List.of(event(PatientChangeEvent.Type.UPDATED, 2)));
+        
+        runScheduled();
+        
+        assertEquals(List.of("SAVED " + TestPatients.id(1), "SAVED " + TestPatients.id(2)), describe(delivered.get(0)));
+        assertEquals(1, subscription.getDroppedCount());
+    }
+    
+    @Test
+    void dropNewestKeepsWhatIsPending() {
+        PatientChangeSubscription subscription = subscribe(2, PatientChangeSubscription.OverflowPolicy.DROP_NEWEST);
+        offerSaves(subscription, 3);
+        
+        runScheduled();
+        
+        assertEquals(List.of("SAVED " + TestPatients.id(0), "SAVED " + TestPatients.id(1)), describe(delivered.get(0)));
+        assertEquals(1, subscription.getDroppedCount());
+    }
+    
+    @Test
+    void resyncReplacesEverythingPendingAndPrecedesLaterChanges() {
+        PatientChangeSubscription subscription = subscribe(2, PatientChangeSubscription.OverflowPolicy.RESYNC);
+        offerSaves(subscription, 3);
+        subscription.offer(List.of(event(PatientChangeEvent.Type.SAVED, 7)));
+        
+        runScheduled();
+        
+        assertEquals(List.of("RESYNC", "SAVED " + TestPatients.id(7)), describe(delivered.get(0)));
+        assertEquals(3, subscription.getDroppedCount());
+    }
+    
+    @Test
+    void cancelledSubscriptionsReceiveNothing() {
+        PatientChangeSubscription subscription = subscribe(10, PatientChangeSubscription.OverflowPolicy.DROP_NEWEST);
+        subscription.offer(List.of(event(PatientChangeEvent.Type.SAVED, 1)));
+        subscription.cancel();
+        subscription.offer(List.of(event(PatientChangeEvent.Type.SAVED, 2)));
+        
+        runScheduled();
+        
+        assertTrue(delivered.isEmpty());
+        assertTrue(subscription.isCancelled());
+    }
+    
+    @Test
+    void storePublishesItsOwnCopyOfTheSavedPatient() {
+        PatientDataStorage storage = new PatientDataStorage();
+        storage.subscribe(delivered::add, scheduled::add);
+        PatientDataObject patient = TestPatients.patient(0, new Random(1));
+        String lastName = patient.getLastName();
+        storage.savePatientData(patient);
+        patient.setLastName("Edited after saving");
+        
+        runScheduled();
+        
+        PatientDataObject published = delivered.get(0).get(0).getPatient();
+        assertNotSame(patient, published);
+        assertEquals(lastName, published.getLastName());
+    }
+    
+    private PatientChangeSubscription subscribe(int capacity, PatientChangeSubscription.OverflowPolicy overflowPolicy) {
+        return new PatientChangeSubscription(delivered::add, scheduled::add, capacity, overflowPolicy, cancelled -> { });
+    }
+    
+    private void runScheduled() {
+        while (!scheduled.isEmpty()) {
+            scheduled.remove(0).run();
+        }
+    }
+    
+    private static void offerSaves(PatientChangeSubscription subscription, int count) {
+        for (int i = 0; i < count; i++) {
+            subscription.offer(List.of(event(PatientChangeEvent.Type.SAVED, i)));
+        }
+    }
+    
+    private static PatientChangeEvent event(PatientChangeEvent.Type type, int number) {
+        PatientDataObject patient = type == PatientChangeEvent.Type.DELETED ? null : TestPatients.patient(number, new Random(number));
+        return new PatientChangeEvent(type, TestPatients.id(number), patient);
+    }
+    
+    private static List<String> describe(List<PatientChangeEvent> events) {
+        return events.stream().map(PatientChangeEvent::toString).collect(Collectors.toList());
+    }
+}
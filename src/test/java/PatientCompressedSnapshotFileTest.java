@@ -0,0 +1,176 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Compressed snapshots: loading through PatientSnapshotFile, random access by record
+ * number, and rejection of damaged blocks and indexes.
+ */
+class PatientCompressedSnapshotFileTest {
+    
+    // Offsets within the header and within one index entry, as in the layout Javadoc
+    private static final int INDEX_OFFSET_POSITION = 28;
+    private static final int INDEX_CHECKSUM_POSITION = 36;
+    private static final int INDEX_ENTRY_SIZE = 24;
+    private static final int ENTRY_CHECKSUM_POSITION = 20;
+    
+    @TempDir
+    Path directory;
+    
+    @BeforeAll
+    static void quietLogging() {
+        TestPatients.quietLogging();
+    }
+    
+    @Test
+    void loadsThroughTheSnapshotFileInStoredOrder() throws IOException {
+        Path file = directory.resolve("patients.snapshot");
+        List<PatientDataObject> patients = TestPatients.patients(3000, 25);
+        PatientSnapshotFile.write(file, patients, 77, true);
+        
+        List<PatientDataObject> loaded = new ArrayList<>();
+        assertEquals(77, PatientSnapshotFile.load(file, loaded::add));
+        
+        assertEquals(patients.size(), loaded.size());
+        for (int i = 0; i < patients.size(); i++) {
+            assertArrayEquals(PatientRecordCodec.encode(patients.get(i)), PatientRecordCodec.encode(loaded.get(i)));
+        }
+    }
+    
+    @Test
+    void readsAnyRecordInAnyOrder() throws IOException {
+        Path file = directory.resolve("patients.snapshot");
+        List<PatientDataObject> patients = TestPatients.patients(3000, 26);
+        PatientCompressedSnapshotFile.write(file, patients, 5);
+        
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < patients.size(); i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, new Random(26));
+        
+        try (PatientCompressedSnapshotFile snapshot = PatientCompressedSnapshotFile.open(file)) {
+            assertEquals(patients.size(), snapshot.getRecordCount());
+            assertTrue(snapshot.getBlockCount() > 10);
+            assertTrue(snapshot.getDictionaryLength() > 0);
+            // Reading in order crosses every block boundary; the shuffle jumps between blocks
+            for (int i = 0; i < patients.size(); i++) {
+                assertArrayEquals(PatientRecordCodec.encode(patients.get(i)), PatientRecordCodec.encode(snapshot.read(i)));
+            }
+            for (int i : order) {
+                assertEquals(patients.get(i).getPatientId(), snapshot.read(i).getPatientId());
+            }
+            assertThrows(IndexOutOfBoundsException.class, () -> snapshot.read(-1));
+            assertThrows(IndexOutOfBoundsException.class, () -> snapshot.read(patients.size()));
+        }
+    }
+    
+    @Test
+    void writesAndLoadsAnEmptyStore() throws IOException {
+        Path file = directory.resolve("patients.snapshot");
+        PatientCompressedSnapshotFile.write(file, List.of(), 9);
+        
+        try (PatientCompressedSnapshotFile snapshot = PatientCompressedSnapshotFile.open(file)) {
+            assertEquals(0, snapshot.getRecordCount());
+            assertEquals(0, snapshot.getBlockCount());
+            assertEquals(9, snapshot.getLogPosition());
+            assertThrows(IndexOutOfBoundsException.class, () -> snapshot.read(0));
+        }
+        List<PatientDataObject> loaded = new ArrayList<>();
+        assertEquals(9, PatientSnapshotFile.load(file, loaded::add));
+        assertTrue(loaded.isEmpty());
+    }
+    
+    @Test
+    void rejectsABlockThatDoesNotMatchItsChecksum() throws IOException {
+        Path file = directory.resolve("patients.snapshot");
+        PatientCompressedSnapshotFile.write(file, TestPatients.patients(500, 27), 1);
+        
+        // Change the first block's recorded checksum and reseal the index, so only the block check can fail
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long indexOffset = readLong(channel, INDEX_OFFSET_POSITION);
+            int blockChecksum = readInt(channel, indexOffset + ENTRY_CHECKSUM_POSITION);
+            writeInt(channel, indexOffset + ENTRY_CHECKSUM_POSITION, blockChecksum ^ 1);
+            writeInt(channel, INDEX_CHECKSUM_POSITION, indexChecksum(channel, indexOffset));
+        }
+        
+        try (PatientCompressedSnapshotFile snapshot = PatientCompressedSnapshotFile.open(file)) {
+            IOException failure = assertThrows(IOException.class, () -> snapshot.read(0));
+            assertTrue(failure.getMessage().contains("checksum mismatch"), failure.getMessage());
+            // Other blocks still read
+            snapshot.read(snapshot.getRecordCount() - 1);
+        }
+        assertThrows(IOException.class, () -> PatientSnapshotFile.load(file, patient -> { }));
+    }
+    
+    @Test
+    void rejectsADamagedBlockOrIndex() throws IOException {
+        Path file = directory.resolve("patients.snapshot");
+        PatientCompressedSnapshotFile.write(file, TestPatients.patients(500, 28), 1);
+        long indexOffset;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            indexOffset = readLong(channel, INDEX_OFFSET_POSITION);
+            long firstBlock = readLong(channel, indexOffset);
+            int compressedLength = readInt(channel, indexOffset + 8);
+            long middle = firstBlock + compressedLength / 2;
+            ByteBuffer damaged = ByteBuffer.allocate(8);
+            channel.read(damaged, middle);
+            for (int i = 0; i < damaged.capacity(); i++) {
+                damaged.put(i, (byte) ~damaged.get(i));
+            }
+            channel.write(damaged.flip(), middle);
+        }
+        try (PatientCompressedSnapshotFile snapshot = PatientCompressedSnapshotFile.open(file)) {
+            assertThrows(IOException.class, () -> snapshot.read(0));
+        }
+        
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            int secondFirstRecord = readInt(channel, indexOffset + INDEX_ENTRY_SIZE + 16);
+            writeInt(channel, indexOffset + INDEX_ENTRY_SIZE + 16, secondFirstRecord + 1);
+        }
+        IOException failure = assertThrows(IOException.class, () -> PatientCompressedSnapshotFile.open(file));
+        assertTrue(failure.getMessage().contains("index checksum mismatch"), failure.getMessage());
+    }
+    
+    private static int indexChecksum(FileChannel channel, long indexOffset) throws IOException {
+        ByteBuffer index = ByteBuffer.allocate((int) (channel.size() - indexOffset));
+        while (index.hasRemaining()) {
+            channel.read(index, indexOffset + index.position());
+        }
+        CRC32C checksum = new CRC32C();
+        checksum.update(index.flip());
+        return (int) checksum.getValue();
+    }
+    
+    private static long readLong(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        channel.read(buffer, position);
+        return buffer.getLong(0);
+    }
+    
+    private static int readInt(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        channel.read(buffer, position);
+        return buffer.getInt(0);
+    }
+    
+    private static void writeInt(FileChannel channel, long position, int value) throws IOException {
+        channel.write(ByteBuffer.allocate(4).putInt(0, value), position);
+    }
+}
@@ -0,0 +1,49 @@
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+import benchmarks.Workload;
+
+/**
+ * Mixed reads and saves of random patients in a preloaded PatientDataStorage, shared
+ * by every benchmark thread. writePercent of the operations are saves, the rest are
+ * lookups by ID with an occasional name search.
+ */
+public class PatientConcurrencyWorkload implements Workload {
+    
+    private PatientDataStorage storage;
+    private List<PatientDataObject> updates;
+    private int patientCount;
+    private int writePercent;
+    
+    @Override
+    public void setUp(Map<String, String> parameters) {
+        TestPatients.quietLogging();
+        patientCount = Integer.parseInt(parameters.get("patientCount"));
+        writePercent = Integer.parseInt(parameters.get("writePercent"));
+        storage = new PatientDataStorage();
+        for (PatientDataObject patient : TestPatients.patients(patientCount, 1)) {
+            storage.savePatientData(patient);
+        }
+        updates = TestPatients.patients(Math.min(patientCount, 10_000), 2);
+    }
+    
+    @Override
+    public Supplier<Object> operation(String name) {
+        if (!name.equals("mixed")) {
+            throw new IllegalArgumentException("Unknown operation " + name);
+        }
+        return () -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int roll = random.nextInt(100);
+            if (roll < writePercent) {
+                return storage.savePatientData(updates.get(random.nextInt(updates.size())));
+            }
+            if (roll == 99) {
+                return storage.findPatientsByName("Smith");
+            }
+            return storage.findPatientById(TestPatients.id(random.nextInt(patientCount)));
+        };
+    }
+}
@@ -0,0 +1,183 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Stress tests for concurrent use of one store: writers on their own patients, writers
+ * fighting over one patient, and readers iterating while all of that goes on.
+ */
+class PatientDataStorageConcurrencyTest {
+    
+    private static final int WRITERS = 8;
+    private static final int PATIENTS_PER_WRITER = 400;
+    
+    @BeforeAll
+    static void quietLogging() {
+        TestPatients.quietLogging();
+    }
+    
+    @Test
+    void writersOnTheirOwnPatientsLoseNothingWhileReadersIterate() throws Exception {
+        PatientDataStorage storage = new PatientDataStorage();
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS + 2);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        List<Future<Map<String, PatientDataObject>>> writers = new ArrayList<>();
+        List<Future<Integer>> readers = new ArrayList<>();
+        Map<String, PatientDataObject> expected = new HashMap<>();
+        
+        try {
+            for (int w = 0; w < WRITERS; w++) {
+                int firstNumber = w * PATIENTS_PER_WRITER;
+                long seed = w;
+                writers.add(executor.submit(() -> {
+                    start.await();
+                    return writeOwnPatients(storage, firstNumber, new Random(seed));
+                }));
+            }
+            for (int r = 0; r < 2; r++) {
+                readers.add(executor.submit(reader(storage, start, writing)));
+            }
+            
+            start.countDown();
+            for (Future<Map<String, PatientDataObject>> writer : writers) {
+                expected.putAll(writer.get(2, TimeUnit.MINUTES));
+            }
+            writing.set(false);
+            for (Future<Integer> reader : readers) {
+                assertTrue(reader.get(1, TimeUnit.MINUTES) > 0);
+            }
+        } finally {
+            writing.set(false);
+            executor.shutdownNow();
+        }
+        
+        assertEquals(expected.size(), storage.getPatientCount());
+        int completed = 0;
+        for (PatientDataObject patient : expected.values()) {
+            PatientDataObject stored = storage.findPatientById(patient.getPatientId()).get();
+            assertEquals(patient.getLastName(), stored.getLastName());
+            assertEquals(patient.getAge(), stored.getAge());
+            if (patient.isCheckInComplete()) {
+                completed++;
+            }
+        }
+        assertEquals(completed, storage.getCompletedCheckInCount());
+        assertEquals(expected.size() - completed, storage.getIncompleteCheckInCount());
+        for (String lastName : List.of("Smith", "Garcia", "Martin")) {
+            long matching = expected.values().stream().filter(p -> p.getLastName().equals(lastName)).count();
+            assertEquals(matching, storage.findPatientsByName(lastName).stream()
+                .filter(p -> p.getLastName().equals(lastName)).count());
+        }
+    }
+    
+    @Test
+    void contendedReadModifyWritesLoseNoUpdates() throws Exception {
+        PatientDataStorage storage = new PatientDataStorage();
+        PatientDataObject patient = TestPatients.patient(0, new Random(1));
+        patient.setAge(0);
+        patient.setSessionNotes(new ArrayList<>());
+        storage.savePatientData(patient);
+        int updatesPerThread = 100;
+        
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> writers = new ArrayList<>();
+        try {
+            for (int w = 0; w < WRITERS; w++) {
+                writers.add(executor.submit(() -> {
+                    start.await();
+                    int saved = 0;
+                    for (int i = 0; i < updatesPerThread; i++) {
+                        PatientSaveResult result = storage.updatePatientData(patient.getPatientId(), current -> {
+                            current.setAge(current.getAge() + 1);
+                            return current;
+                        }, 10_000);
+                        if (result.isSaved()) {
+                            saved++;
+                        }
+                    }
+                    return saved;
+                }));
+            }
+            start.countDown();
+            for (Future<Integer> writer : writers) {
+                assertEquals(updatesPerThread, writer.get(2, TimeUnit.MINUTES));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        assertEquals(WRITERS * updatesPerThread, storage.findPatientById(patient.getPatientId()).get().getAge());
+    }
+    
+    /**
+     * Save, update and delete this writer's own range of patients
+     * @return The patients that should be stored afterwards, by ID
+     */
+    private static Map<String, PatientDataObject> writeOwnPatients(PatientDataStorage storage, int firstNumber,
+                                                                   Random random) {
+        Map<String, PatientDataObject> stored = new HashMap<>();
+        for (int i = 0; i < PATIENTS_PER_WRITER; i++) {
+            PatientDataObject patient = TestPatients.patient(firstNumber + i, random);
+            assertTrue(storage.savePatientData(patient));
+            stored.put(patient.getPatientId(), patient);
+        }
+        
+        List<Integer> numbers = new ArrayList<>();
+        for (int i = 0; i < PATIENTS_PER_WRITER; i++) {
+            numbers.add(firstNumber + i);
+        }
+        Collections.shuffle(numbers, random);
+        for (int i = 0; i < numbers.size(); i++) {
+            int number = numbers.get(i);
+            if (i % 3 == 0) {
+                assertTrue(storage.deletePatient(TestPatients.id(number)));
+                stored.remove(TestPatients.id(number));
+            } else {
+                // A fresh object with the same ID, as the check-in form saves it
+                PatientDataObject update = TestPatients.patient(number, random);
+                assertTrue(storage.savePatientData(update));
+                stored.put(update.getPatientId(), update);
+            }
+        }
+        return stored;
+    }
+    
+    /**
+     * Iterate, search and summarise the store until the writers are done
+     * @return Rounds completed, to show the reader actually ran alongside the writers
+     */
+    private static Callable<Integer> reader(PatientDataStorage storage, CountDownLatch start, AtomicBoolean writing) {
+        return () -> {
+            start.await();
+            int rounds = 0;
+            while (writing.get() || rounds == 0) {
+                for (PatientDataObject patient : storage.getAllPatients()) {
+                    assertTrue(patient.getPatientId().startsWith("PAT-"));
+                }
+                assertTrue(storage.getAllPatientsSummary().length() > 0);
+                storage.findPatientsByName("Smith");
+                storage.getCompletedCheckInCount();
+                rounds++;
+            }
+            return rounds;
+        };
+    }
+}
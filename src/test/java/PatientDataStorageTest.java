@@ -0,0 +1,99 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Primary-key behaviour of the in-memory store: lookups, upserts and deletes by patient ID.
+ */
+class PatientDataStorageTest {
+    
+    @BeforeAll
+    static void quietLogging() {
+        TestPatients.quietLogging();
+    }
+    
+    @Test
+    void findsSavedPatientsById() {
+        PatientDataStorage storage = new PatientDataStorage();
+        List<PatientDataObject> patients = TestPatients.patients(1000, 1);
+        for (PatientDataObject patient : patients) {
+            assertTrue(storage.savePatientData(patient));
+        }
+        
+        assertEquals(1000, storage.getPatientCount());
+        for (PatientDataObject patient : patients) {
+            assertEquals(patient.getLastName(), storage.findPatientById(patient.getPatientId()).get().getLastName());
+        }
+        assertFalse(storage.findPatientById("PAT-missing").isPresent());
+    }
+    
+    @Test
+    void updateReplacesInPlaceAndKeepsSaveOrder() {
+        PatientDataStorage storage = new PatientDataStorage();
+        List<PatientDataObject> patients = TestPatients.patients(100, 2);
+        patients.forEach(storage::savePatientData);
+        
+        PatientDataObject changed = TestPatients.patient(50, new Random(99));
+        changed.setLastName("Updated");
+        assertTrue(storage.savePatientData(changed));
+        
+        assertEquals(100, storage.getPatientCount());
+        assertEquals("Updated", storage.findPatientById(TestPatients.id(50)).get().getLastName());
+        List<String> ids = storage.getAllPatients().stream().map(PatientDataObject::getPatientId).collect(Collectors.toList());
+        assertEquals(patients.stream().map(PatientDataObject::getPatientId).collect(Collectors.toList()), ids);
+    }
+    
+    @Test
+    void deleteRemovesOnlyThatPatient() {
+        PatientDataStorage storage = new PatientDataStorage();
+        TestPatients.patients(100, 3).forEach(storage::savePatientData);
+        
+        assertTrue(storage.deletePatient(TestPatients.id(10)));
+        assertFalse(storage.deletePatient(TestPatients.id(10)));
+        assertFalse(storage.findPatientById(TestPatients.id(10)).isPresent());
+        assertTrue(storage.findPatientById(TestPatients.id(11)).isPresent());
+        assertEquals(99, storage.getPatientCount());
+    }
+    
+    @Test
+    void nameSearchAnswersShortTermsAndListsInSaveOrder() {
+        PatientDataStorage storage = new PatientDataStorage();
+        List<PatientDataObject> patients = TestPatients.patients(2000, 5);
+        patients.forEach(storage::savePatientData);
+        // Renamed and deleted patients must leave the short-term postings too
+        PatientDataObject renamed = TestPatients.patient(7, new Random(6));
+        renamed.setFirstName("Qx");
+        storage.savePatientData(renamed);
+        patients.set(7, renamed);
+        storage.deletePatient(TestPatients.id(8));
+        patients.remove(8);
+        
+        for (String term : List.of("a", "J", "mi", "qx", "ith", "smith", "zz")) {
+            String lower = term.toLowerCase();
+            List<String> expected = patients.stream()
+                .filter(p -> p.getFirstName().toLowerCase().contains(lower) || p.getLastName().toLowerCase().contains(lower))
+                .map(PatientDataObject::getPatientId)
+                .collect(Collectors.toList());
+            List<String> found = storage.findPatientsByName(term).stream()
+                .map(PatientDataObject::getPatientId)
+                .collect(Collectors.toList());
+            assertEquals(expected, found, term);
+        }
+    }
+    
+    @Test
+    void rejectsPatientsWithoutId() {
+        PatientDataStorage storage = new PatientDataStorage();
+        PatientDataObject patient = TestPatients.patient(1, new Random(4));
+        patient.setPatientId(" ");
+        assertFalse(storage.savePatientData(patient));
+        assertEquals(0, storage.getPatientCount());
+    }
+}
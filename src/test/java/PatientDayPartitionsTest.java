@@ -0,0 +1,124 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Saved-day partitions: listing by day and range, freezing past days, thawing them on
+ * write, and dropping the ones left empty.
+ */
+class PatientDayPartitionsTest {
+    
+    private static final LocalDate MONDAY = LocalDate.of(2026, 3, 2);
+    private static final LocalDate TUESDAY = MONDAY.plusDays(1);
+    private static final LocalDate WEDNESDAY = MONDAY.plusDays(2);
+    
+    @BeforeAll
+    static void quietLogging() {
+        TestPatients.quietLogging();
+    }
+    
+    @Test
+    void listsEachDayInSaveOrderAndRangesDayByDay() {
+        PatientDayPartitions partitions = new PatientDayPartitions();
+        // Filed out of order; the save sequence decides the order within a day
+        partitions.add(patient(3, TUESDAY), 3);
+        partitions.add(patient(1, TUESDAY), 1);
+        partitions.add(patient(2, MONDAY), 2);
+        partitions.add(patient(4, WEDNESDAY), 4);
+        partitions.add(patient(0, MONDAY), 0);
+        partitions.add(patient(5, null), 5);
+        
+        assertEquals(ids(0, 2), partitions.findPatientIds(MONDAY));
+        assertEquals(ids(1, 3), partitions.findPatientIds(TUESDAY));
+        assertEquals(ids(0, 2, 1, 3), partitions.findPatientIdsBetween(MONDAY, TUESDAY));
+        assertEquals(ids(0, 2, 1, 3, 4), partitions.findPatientIdsBetween(MONDAY.minusDays(7), WEDNESDAY.plusDays(7)));
+        assertEquals(4, partitions.countBetween(MONDAY, TUESDAY));
+        assertEquals(1, partitions.countBetween(WEDNESDAY, WEDNESDAY));
+        assertEquals(0, partitions.countBetween(WEDNESDAY, MONDAY));
+        assertTrue(partitions.findPatientIdsBetween(WEDNESDAY, MONDAY).isEmpty());
+        assertTrue(partitions.findPatientIds(MONDAY.minusDays(1)).isEmpty());
+        assertEquals(3, partitions.getPartitionCount());
+        
+        // Moving to another day leaves the old one; losing the timestamp unfiles the patient
+        partitions.add(patient(2, WEDNESDAY), 2);
+        partitions.add(patient(4, null), 4);
+        assertEquals(ids(0), partitions.findPatientIds(MONDAY));
+        assertEquals(ids(2), partitions.findPatientIds(WEDNESDAY));
+    }
+    
+    @Test
+    void frozenDaysReadTheSameAndThawOnWrite() {
+        PatientDayPartitions partitions = new PatientDayPartitions();
+        for (int n = 0; n < 30; n++) {
+            partitions.add(patient(n, MONDAY.plusDays(n % 3)), 10L * n);
+        }
+        List<String> before = partitions.findPatientIdsBetween(MONDAY, WEDNESDAY);
+        
+        assertEquals(2, partitions.freezeBefore(WEDNESDAY));
+        assertEquals(2, partitions.getFrozenPartitionCount());
+        assertEquals(before, partitions.findPatientIdsBetween(MONDAY, WEDNESDAY));
+        assertEquals(30, partitions.countBetween(MONDAY, WEDNESDAY));
+        // Already frozen, so nothing new
+        assertEquals(0, partitions.freezeBefore(WEDNESDAY));
+        
+        // A late save into Monday thaws it and lands in sequence order
+        partitions.add(patient(30, MONDAY), 5);
+        assertEquals(1, partitions.getFrozenPartitionCount());
+        assertEquals(ids(0, 30, 3, 6, 9, 12, 15, 18, 21, 24, 27), partitions.findPatientIds(MONDAY));
+        
+        // So does removing from Tuesday
+        partitions.remove(TestPatients.id(1));
+        assertEquals(0, partitions.getFrozenPartitionCount());
+        assertEquals(ids(4, 7, 10, 13, 16, 19, 22, 25, 28), partitions.findPatientIds(TUESDAY));
+        
+        assertEquals(2, partitions.freezeBefore(WEDNESDAY));
+        assertEquals(ids(0, 30, 3, 6, 9, 12, 15, 18, 21, 24, 27), partitions.findPatientIds(MONDAY));
+    }
+    
+    @Test
+    void freezingDropsEmptyPastDaysOnly() {
+        PatientDayPartitions partitions = new PatientDayPartitions();
+        partitions.add(patient(0, MONDAY), 0);
+        partitions.add(patient(1, TUESDAY), 1);
+        partitions.add(patient(2, WEDNESDAY), 2);
+        partitions.remove(TestPatients.id(0));
+        partitions.remove(TestPatients.id(2));
+        assertEquals(3, partitions.getPartitionCount());
+        
+        // Monday is empty and dropped, Tuesday frozen, Wednesday left alone though empty
+        assertEquals(1, partitions.freezeBefore(WEDNESDAY));
+        assertEquals(2, partitions.getPartitionCount());
+        assertEquals(1, partitions.getFrozenPartitionCount());
+        assertTrue(partitions.findPatientIds(MONDAY).isEmpty());
+        assertEquals(ids(1), partitions.findPatientIds(TUESDAY));
+        
+        // A dropped day is recreated by the next save into it
+        partitions.add(patient(3, MONDAY), 3);
+        assertEquals(ids(3, 1), partitions.findPatientIdsBetween(MONDAY, WEDNESDAY));
+        
+        partitions.clear();
+        assertEquals(0, partitions.getPartitionCount());
+        assertEquals(0, partitions.countBetween(MONDAY, WEDNESDAY));
+    }
+    
+    private static PatientDataObject patient(int number, LocalDate savedDay) {
+        PatientDataObject patient = new PatientDataObject();
+        patient.setPatientId(TestPatients.id(number));
+        patient.setSavedTimestamp(savedDay != null ? savedDay.atTime(9, number % 60) : null);
+        return patient;
+    }
+    
+    private static List<String> ids(int... numbers) {
+        List<String> ids = new ArrayList<>();
+        for (int number : numbers) {
+            ids.add(TestPatients.id(number));
+        }
+        return ids;
+    }
+}
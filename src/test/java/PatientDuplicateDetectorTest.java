@@ -0,0 +1,157 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Duplicate detection: how records are scored, which blocks are searched, and how
+ * findAllDuplicates reports each pair.
+ */
+class PatientDuplicateDetectorTest {
+    
+    private static final LocalDate BORN = LocalDate.of(1971, 3, 14);
+    private static final String PHONE = "(555) 201-3344";
+    
+    private final Map<String, PatientDataObject> filed = new HashMap<>();
+    
+    @BeforeAll
+    static void quietLogging() {
+        TestPatients.quietLogging();
+    }
+    
+    @Test
+    void scoresAgreementOverTheFieldsBothRecordsHave() {
+        PatientDataObject patient = person("PAT-1", "John", "Smith", BORN, PHONE, "POL-1234", "john@example.com");
+        
+        PatientDataObject sameRecord = person("PAT-2", "John", "Smith", BORN, "555.201.3344", "pol1234", "JOHN@example.com ");
+        assertEquals(1.0, PatientDuplicateDetector.compare(patient, sameRecord).getScore(), 1e-9);
+        
+        // First name half agrees; phone, policy and email are missing so are not compared
+        PatientDataObject misspelled = person("PAT-3", "Jon", "Smith", BORN, null, null, null);
+        PatientDuplicateMatch match = PatientDuplicateDetector.compare(patient, misspelled);
+        assertEquals((0.20 + 0.125 + 0.30) / 0.75, match.getScore(), 1e-9);
+        assertEquals(List.of("lastName", "firstName (similar)", "dateOfBirth"), match.getMatchedFields());
+        
+        PatientDataObject sharesPhoneOnly = person("PAT-4", "Maria", "Lopez", LocalDate.of(1990, 1, 1), PHONE, null, null);
+        assertEquals(0.20 / 0.95, PatientDuplicateDetector.compare(patient, sharesPhoneOnly).getScore(), 1e-9);
+    }
+    
+    @Test
+    void recordsSharingTooLittleAreNeverScored() {
+        PatientDataObject patient = person("PAT-1", null, "Smith", null, null, null, "smith@example.com");
+        PatientDataObject other = person("PAT-2", null, "Smith", null, null, null, "smith@example.com");
+        
+        // Last name and email agree, but weigh only 0.35 together
+        assertEquals(0.0, PatientDuplicateDetector.compare(patient, other).getScore());
+        
+        patient.setDateOfBirth(BORN);
+        other.setDateOfBirth(BORN);
+        assertEquals(1.0, PatientDuplicateDetector.compare(patient, other).getScore(), 1e-9);
+    }
+    
+    @Test
+    void reportsMatchesAtTheThresholdOnly() {
+        PatientDuplicateDetector detector = new PatientDuplicateDetector();
+        file(detector, person("PAT-1", "John", "Smith", BORN, PHONE, "POL-1234", null));
+        file(detector, person("PAT-2", "Maria", "Lopez", LocalDate.of(1990, 1, 1), PHONE, null, null));
+        
+        PatientDataObject returning = person("PAT-9", "John", "Smith", BORN, PHONE, null, null);
+        assertEquals(List.of("PAT-1"), duplicateIds(detector, returning));
+        
+        PatientDuplicateDetector strict = new PatientDuplicateDetector(1.01);
+        file(strict, filed.get("PAT-1"));
+        assertTrue(duplicateIds(strict, returning).isEmpty());
+    }
+    
+    @Test
+    void skipsBlocksTooCommonToSuggestADuplicate() {
+        PatientDuplicateDetector detector = new PatientDuplicateDetector();
+        file(detector, person("PAT-1", "John", "Smith", BORN, PHONE, null, "john@example.com"));
+        // Shares only the phone block with PAT-1, since the last name is spelled differently
+        PatientDataObject returning = person("PAT-9", "John", "Smyth", BORN, PHONE, null, "john@example.com");
+        
+        for (int i = 0; i < 63; i++) {
+            file(detector, person("PAT-F" + i, "Front", "Desk" + i, BORN.plusDays(i + 1), PHONE, null, null));
+        }
+        assertEquals(List.of("PAT-1"), duplicateIds(detector, returning));
+        
+        file(detector, person("PAT-F63", "Front", "Desk", BORN.plusDays(64), PHONE, null, null));
+        assertTrue(duplicateIds(detector, returning).isEmpty());
+    }
+    
+    @Test
+    void blocksKeepWorkingAsTheyGrowAndShrink() {
+        PatientDuplicateDetector detector = new PatientDuplicateDetector();
+        PatientDataObject returning = person("PAT-9", "John", "Smith", BORN, PHONE, "POL-1234", null);
+        
+        file(detector, person("PAT-1", "John", "Smith", BORN, PHONE, "POL-1234", null));
+        file(detector, person("PAT-2", "John", "Smith", BORN, PHONE, "POL-1234", null));
+        assertEquals(Set.of("PAT-1", "PAT-2"), Set.copyOf(duplicateIds(detector, returning)));
+        
+        detector.remove("PAT-1");
+        assertEquals(List.of("PAT-2"), duplicateIds(detector, returning));
+        
+        // Filing again under other keys moves the patient out of its old blocks
+        file(detector, person("PAT-2", "Maria", "Lopez", LocalDate.of(1990, 1, 1), "555-999-0000", null, null));
+        assertTrue(duplicateIds(detector, returning).isEmpty());
+        
+        file(detector, person("PAT-3", "John", "Smith", BORN, PHONE, "POL-1234", null));
+        assertEquals(List.of("PAT-3"), duplicateIds(detector, returning));
+        
+        detector.clear();
+        assertTrue(duplicateIds(detector, returning).isEmpty());
+    }
+    
+    @Test
+    void findAllDuplicatesReportsEachPairOnce() {
+        PatientDataStorage storage = new PatientDataStorage();
+        TestPatients.patients(200, 23).forEach(storage::savePatientData);
+        storage.savePatientData(person("PAT-A", "John", "Smith", BORN, PHONE, "POL-1234", null));
+        storage.savePatientData(person("PAT-B", "John", "Smith", BORN, PHONE, "POL-1234", null));
+        storage.savePatientData(person("PAT-C", "Jon", "Smith", BORN, PHONE, "POL-1234", null));
+        
+        List<PatientDuplicateMatch> duplicates = storage.findAllDuplicates();
+        
+        Set<String> pairs = new HashSet<>();
+        for (PatientDuplicateMatch match : duplicates) {
+            assertTrue(match.getPatientId().compareTo(match.getDuplicatePatientId()) < 0);
+            assertTrue(pairs.add(match.getPatientId() + "~" + match.getDuplicatePatientId()));
+        }
+        assertEquals(Set.of("PAT-A~PAT-B", "PAT-A~PAT-C", "PAT-B~PAT-C"), pairs);
+        // The exact copies come first
+        assertEquals("PAT-A~PAT-B", duplicates.get(0).getPatientId() + "~" + duplicates.get(0).getDuplicatePatientId());
+    }
+    
+    private void file(PatientDuplicateDetector detector, PatientDataObject patient) {
+        filed.put(patient.getPatientId(), patient);
+        detector.add(patient);
+    }
+    
+    private List<String> duplicateIds(PatientDuplicateDetector detector, PatientDataObject patient) {
+        return detector.findMatches(patient, filed::get).stream()
+            .map(PatientDuplicateMatch::getDuplicatePatientId)
+            .collect(Collectors.toList());
+    }
+    
+    private static PatientDataObject person(String patientId, String firstName, String lastName, LocalDate dateOfBirth,
+                                            String phone, String policy, String email) {
+        PatientDataObject patient = new PatientDataObject();
+        patient.setPatientId(patientId);
+        patient.setFirstName(firstName);
+        patient.setLastName(lastName);
+        patient.setDateOfBirth(dateOfBirth);
+        patient.setPhoneNumber(phone);
+        patient.setInsurancePolicyNumber(policy);
+        patient.setEmail(email);
+        return patient;
+    }
+}
@@ -0,0 +1,79 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import benchmarks.Workload;
+
+/**
+ * Streaming JSON export of patientCount patients in one format ("ndjson" or "array") to
+ * a channel that counts the bytes and discards them, so only rendering and encoding are
+ * timed. setUp runs one export and prints its size.
+ */
+public class PatientExportWorkload implements Workload {
+    
+    private PatientDataStorage storage;
+    private PatientJsonExporter.Format format;
+    
+    @Override
+    public void setUp(Map<String, String> parameters) throws Exception {
+        TestPatients.quietLogging();
+        int patientCount = Integer.parseInt(parameters.get("patientCount"));
+        format = parameters.get("format").equals("array")
+            ? PatientJsonExporter.Format.JSON_ARRAY
+            : PatientJsonExporter.Format.NDJSON;
+        storage = new PatientDataStorage();
+        for (PatientDataObject patient : TestPatients.patients(patientCount, 1)) {
+            storage.savePatientData(patient);
+        }
+        
+        long bytes = storage.exportAllPatientsAsJson(new DiscardingChannel(), format).getByteCount();
+        System.out.printf("%nExport of %,d patients: %,d bytes (%d per patient)%n",
+            patientCount, bytes, bytes / patientCount);
+    }
+    
+    @Override
+    public Supplier<Object> operation(String name) {
+        switch (name) {
+            case "export":
+                return () -> {
+                    DiscardingChannel channel = new DiscardingChannel();
+                    try {
+                        storage.exportAllPatientsAsJson(channel, format);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return channel.bytes;
+                };
+            default:
+                throw new IllegalArgumentException("Unknown operation " + name);
+        }
+    }
+    
+    /**
+     * Accepts every byte written and keeps only the count
+     */
+    private static final class DiscardingChannel implements WritableByteChannel {
+        
+        private long bytes;
+        
+        @Override
+        public int write(ByteBuffer source) {
+            int written = source.remaining();
+            source.position(source.limit());
+            bytes += written;
+            return written;
+        }
+        
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+        
+        @Override
+        public void close() {
+        }
+    }
+}
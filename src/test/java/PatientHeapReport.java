@@ -0,0 +1,178 @@
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Heap size and GC pause comparison between the on-heap PatientDataStorage and the
+ * OffHeapPatientRepository at a large population. Each backend runs in its own JVM
+ * with the same heap and direct memory limits: it loads the patients, reports live
+ * heap and direct memory after a full collection, then runs lookups and updates for a
+ * while and reports every stop-the-world pause seen meanwhile. A backend that runs out
+ * of memory reports how many patients it held. The heap and direct limits together must
+ * fit in physical memory, or the system may kill the child JVM outright.
+ * Run with: mvn -P benchmarks test-compile exec:exec -Dbenchmark.main=PatientHeapReport -Dbenchmark="5000000 3g 4g 30"
+ * (patient count, maximum heap, maximum direct memory, seconds of lookups and updates).
+ */
+public final class PatientHeapReport {
+    
+    private static final String[] BACKENDS = {"memory", "offheap"};
+    private static final int LOAD_BATCH = 10_000;
+    
+    private PatientHeapReport() {
+    }
+    
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--backend")) {
+            measure(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+            return;
+        }
+        
+        String patientCount = args.length > 0 ? args[0] : "5000000";
+        String maxHeap = args.length > 1 ? args[1] : "3g";
+        String maxDirect = args.length > 2 ? args[2] : "4g";
+        String seconds = args.length > 3 ? args[3] : "30";
+        Path java = Paths.get(System.getProperty("java.home"), "bin", "java");
+        for (String backend : BACKENDS) {
+            Process child = new ProcessBuilder(java.toString(), "-Xmx" + maxHeap,
+                    "-XX:MaxDirectMemorySize=" + maxDirect, "-XX:+UseG1GC", "-cp", System.getProperty("java.class.path"), PatientHeapReport.class.getName(),
+                    "--backend", backend, patientCount, seconds)
+                .inheritIO()
+                .start();
+            if (child.waitFor() != 0) {
+                System.out.println(backend + ": exited with status " + child.exitValue());
+            }
+        }
+    }
+    
+    /**
+     * Load, measure and report one backend in this JVM
+     */
+    private static void measure(String backend, int patientCount, int seconds) throws Exception {
+        TestPatients.quietLogging();
+        List<Long> pauses = new ArrayList<>();
+        watchPauses(pauses);
+        
+        PatientRepository repository = PatientRepositoryTest.open(backend, null);
+        int loaded = 0;
+        long loadStarted = System.nanoTime();
+        try {
+            Random random = new Random(1);
+            while (loaded < patientCount) {
+                List<PatientDataObject> batch = new ArrayList<>(LOAD_BATCH);
+                for (int i = loaded; i < Math.min(patientCount, loaded + LOAD_BATCH); i++) {
+                    batch.add(TestPatients.patient(i, random));
+                }
+                int saved = saveBatch(repository, batch);
+                loaded += saved;
+                if (saved < batch.size()) {
+                    System.out.printf("%s: storage full after %,d patients%n", backend, loaded);
+                    return;
+                }
+            }
+        } catch (OutOfMemoryError e) {
+            repository = null;
+            System.gc();
+            System.out.printf("%s: out of heap (-Xmx%d MB) after %,d patients%n",
+                backend, Runtime.getRuntime().maxMemory() >> 20, loaded);
+            return;
+        }
+        double loadSeconds = (System.nanoTime() - loadStarted) / 1e9;
+        
+        System.gc();
+        System.gc();
+        long heapBytes = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        long directBytes = 0;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                directBytes = pool.getMemoryUsed();
+            }
+        }
+        
+        // Lookups and updates of random patients; updates replace records and make garbage
+        synchronized (pauses) {
+            pauses.clear();
+        }
+        List<PatientDataObject> updates = TestPatients.patients(10_000, 2);
+        long operations = 0;
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < deadline) {
+            for (int i = 0; i < 1000; i++) {
+                if (random.nextInt(5) == 0) {
+                    repository.savePatientData(updates.get(random.nextInt(updates.size())));
+                } else {
+                    repository.findPatientById(TestPatients.id(random.nextInt(patientCount)));
+                }
+            }
+            operations += 1000;
+        }
+        
+        long[] sorted;
+        synchronized (pauses) {
+            sorted = pauses.stream().mapToLong(Long::longValue).sorted().toArray();
+        }
+        System.out.printf("%s: %,d patients loaded in %.0f s; live heap %,d MB (%,d bytes per patient), "
+                + "direct %,d MB; %,.0f ops/s over %d s with %d pauses: p50 %d ms, p99 %d ms, max %d ms, "
+                + "total %d ms%n",
+            backend, loaded, loadSeconds, heapBytes >> 20, heapBytes / loaded, directBytes >> 20,
+            operations / (double) seconds, seconds, sorted.length, percentile(sorted, 0.50),
+            percentile(sorted, 0.99), sorted.length > 0 ? sorted[sorted.length - 1] : 0,
+            Arrays.stream(sorted).sum());
+        repository.close();
+    }
+    
+    /**
+     * @return Number of patients saved before the first failure
+     */
+    private static int saveBatch(PatientRepository repository, List<PatientDataObject> batch) {
+        if (repository instanceof PatientDataStorage) {
+            return ((PatientDataStorage) repository).savePatients(batch);
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            if (!repository.savePatientData(batch.get(i))) {
+                return i;
+            }
+        }
+        return batch.size();
+    }
+    
+    /**
+     * Record the duration of every collection that stops the application
+     */
+    private static void watchPauses(List<Long> pauses) {
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector.getName().contains("Concurrent")) {
+                continue;
+            }
+            ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+                if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                    return;
+                }
+                GarbageCollectionNotificationInfo info =
+                    GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                synchronized (pauses) {
+                    pauses.add(info.getGcInfo().getDuration());
+                }
+            }, null, null);
+        }
+    }
+    
+    private static long percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (fraction * sorted.length))];
+    }
+}
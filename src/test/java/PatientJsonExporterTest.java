@@ -0,0 +1,151 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Streaming JSON export: both layouts parse back to the stored patients, including
+ * escaped text, records that straddle the exporter's byte buffer, and an empty store.
+ */
+class PatientJsonExporterTest {
+    
+    // Characters that need escaping or take two to four bytes in UTF-8
+    private static final String AWKWARD = "Quote \" backslash \\ newline \n tab \t bell \u0007 "
+        + "café 日本 😀 end";
+    
+    @BeforeAll
+    static void quietLogging() {
+        TestPatients.quietLogging();
+    }
+    
+    @Test
+    void ndjsonParsesBackOneRecordPerLine() throws IOException {
+        PatientDataStorage storage = new PatientDataStorage();
+        List<PatientDataObject> patients = TestPatients.patients(2000, 9);
+        patients.forEach(storage::savePatientData);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        
+        PatientExportStatistics statistics = storage.exportAllPatientsAsJson(out, PatientJsonExporter.Format.NDJSON);
+        
+        // Well over the 256 KB buffer, so records are split across drains
+        assertTrue(out.size() > 1024 * 1024);
+        assertEquals(out.size(), statistics.getByteCount());
+        assertEquals(patients.size(), statistics.getRecordCount());
+        String text = out.toString(StandardCharsets.UTF_8);
+        assertTrue(text.endsWith("\n"));
+        assertParsesBackTo(patients, Arrays.asList(text.split("\n")));
+    }
+    
+    @Test
+    void jsonArrayParsesBackElementByElement() throws IOException {
+        PatientDataStorage storage = new PatientDataStorage();
+        List<PatientDataObject> patients = TestPatients.patients(2000, 10);
+        patients.forEach(storage::savePatientData);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        
+        PatientExportStatistics statistics = storage.exportAllPatientsAsJson(out, PatientJsonExporter.Format.JSON_ARRAY);
+        
+        assertEquals(out.size(), statistics.getByteCount());
+        String text = out.toString(StandardCharsets.UTF_8);
+        assertTrue(text.startsWith("[{") && text.endsWith("}]\n"));
+        assertParsesBackTo(patients, arrayElements(text));
+    }
+    
+    @Test
+    void escapesTextAndKeepsMultiByteCharactersWholeAcrossBuffers() throws IOException {
+        PatientDataStorage storage = new PatientDataStorage();
+        PatientDataObject awkward = TestPatients.patient(0, new Random(11));
+        awkward.setLastName(AWKWARD);
+        awkward.setAddress(AWKWARD);
+        // About 700 KB of UTF-8, so several buffer boundaries fall inside multi-byte characters
+        awkward.setSpecialInstructions("é日😀".repeat(80_000));
+        List<PatientDataObject> patients = List.of(TestPatients.patient(1, new Random(12)), awkward,
+            TestPatients.patient(2, new Random(13)));
+        patients.forEach(storage::savePatientData);
+        
+        for (PatientJsonExporter.Format format : PatientJsonExporter.Format.values()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            PatientExportStatistics statistics = storage.exportAllPatientsAsJson(out, format);
+            assertEquals(out.size(), statistics.getByteCount());
+            String text = out.toString(StandardCharsets.UTF_8);
+            assertFalse(text.contains("�"));
+            
+            List<String> records = format == PatientJsonExporter.Format.NDJSON
+                ? Arrays.asList(text.split("\n"))
+                : arrayElements(text);
+            assertParsesBackTo(patients, records);
+            PatientDataObject parsed = PatientJsonReader.parse(records.get(1));
+            assertEquals(AWKWARD, parsed.getLastName());
+            assertEquals(AWKWARD, parsed.getAddress());
+            assertEquals(awkward.getSpecialInstructions(), parsed.getSpecialInstructions());
+        }
+    }
+    
+    @Test
+    void emptyStoreExportsNothingOrAnEmptyArray() throws IOException {
+        PatientDataStorage storage = new PatientDataStorage();
+        
+        ByteArrayOutputStream ndjson = new ByteArrayOutputStream();
+        PatientExportStatistics statistics = storage.exportAllPatientsAsJson(ndjson, PatientJsonExporter.Format.NDJSON);
+        assertEquals(0, ndjson.size());
+        assertEquals(0, statistics.getRecordCount());
+        
+        ByteArrayOutputStream array = new ByteArrayOutputStream();
+        storage.exportAllPatientsAsJson(array, PatientJsonExporter.Format.JSON_ARRAY);
+        assertEquals("[]\n", array.toString(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Check each record parses, and renders back to exactly the record written for the
+     * stored patient at the same position
+     */
+    private static void assertParsesBackTo(List<PatientDataObject> patients, List<String> records) {
+        assertEquals(patients.size(), records.size());
+        for (int i = 0; i < patients.size(); i++) {
+            StringBuilder expected = new StringBuilder();
+            PatientJsonWriter.append(patients.get(i), expected, false);
+            assertEquals(expected.toString(), records.get(i));
+            
+            StringBuilder reparsed = new StringBuilder();
+            PatientJsonWriter.append(PatientJsonReader.parse(records.get(i)), reparsed, false);
+            assertEquals(expected.toString(), reparsed.toString());
+        }
+    }
+    
+    /**
+     * Split a JSON array of objects into the objects' text, skipping brackets inside strings
+     */
+    private static List<String> arrayElements(String array) {
+        List<String> elements = new ArrayList<>();
+        int depth = 0;
+        int start = -1;
+        boolean inString = false;
+        for (int i = 0; i < array.length(); i++) {
+            char c = array.charAt(i);
+            if (inString) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{' && depth++ == 0) {
+                start = i;
+            } else if (c == '}' && --depth == 0) {
+                elements.add(array.substring(start, i + 1));
+            }
+        }
+        return elements;
+    }
+}
@@ -0,0 +1,79 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Parsing exported patients back, and rejecting input the recursive parser cannot take.
+ */
+class PatientJsonReaderTest {
+    
+    @TempDir
+    Path directory;
+    
+    @BeforeAll
+    static void quietLogging() {
+        TestPatients.quietLogging();
+    }
+    
+    @Test
+    void readsWhatTheWriterWrites() {
+        PatientDataObject patient = TestPatients.patient(7, new Random(1));
+        StringBuilder json = new StringBuilder();
+        PatientJsonWriter.append(patient, json, false);
+        
+        PatientDataObject parsed = PatientJsonReader.parse(json.toString());
+        
+        assertEquals(patient.getPatientId(), parsed.getPatientId());
+        assertEquals(patient.getLastName(), parsed.getLastName());
+        assertEquals(patient.getMedications(), parsed.getMedications());
+        assertEquals(patient.getAppointmentDateTime(), parsed.getAppointmentDateTime());
+    }
+    
+    @Test
+    void rejectsDeepNestingWithParseError() {
+        String deep = "{\"a\":".repeat(100_000) + "1" + "}".repeat(100_000);
+        String deepArrays = "{\"patientId\":" + "[".repeat(100_000) + "]".repeat(100_000) + "}";
+        
+        IllegalArgumentException error = assertThrows(IllegalArgumentException.class,
+            () -> PatientJsonReader.parse(deep));
+        assertTrue(error.getMessage().contains("Nested deeper"));
+        assertThrows(IllegalArgumentException.class, () -> PatientJsonReader.parse(deepArrays));
+    }
+    
+    @Test
+    void acceptsNestingUpToTheLimit() {
+        // The enclosing object is the first level
+        int levels = PatientJsonReader.MAX_NESTING_DEPTH - 1;
+        String nested = "[".repeat(levels) + "]".repeat(levels);
+        PatientDataObject parsed = PatientJsonReader.parse("{\"patientId\":\"PAT-1\",\"extra\":" + nested + "}");
+        assertEquals("PAT-1", parsed.getPatientId());
+    }
+    
+    @Test
+    void bulkImportReportsDeeplyNestedLineAndKeepsGoing() throws IOException {
+        StringBuilder ndjson = new StringBuilder();
+        PatientJsonWriter.append(TestPatients.patient(1, new Random(1)), ndjson, false);
+        ndjson.append('\n').append("{\"a\":".repeat(200_000)).append('\n');
+        PatientJsonWriter.append(TestPatients.patient(2, new Random(2)), ndjson, false);
+        ndjson.append('\n');
+        Path file = directory.resolve("patients.ndjson");
+        Files.write(file, List.of(ndjson.toString()), StandardCharsets.UTF_8);
+        
+        PatientImportReport report = new PatientDataStorage().importPatientsFromNdjson(file, progress -> { });
+        
+        assertEquals(2, report.getImportedCount());
+        assertEquals(1, report.getFailedCount());
+        assertEquals(2, report.getErrors().get(0).getLineNumber());
+    }
+}
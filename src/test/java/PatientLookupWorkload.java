@@ -0,0 +1,40 @@
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+import benchmarks.Workload;
+
+/**
+ * Primary-key saves and lookups against a PatientDataStorage preloaded with
+ * patientCount patients. Saves replace randomly chosen stored patients.
+ */
+public class PatientLookupWorkload implements Workload {
+    
+    private PatientDataStorage storage;
+    private List<PatientDataObject> updates;
+    private int patientCount;
+    
+    @Override
+    public void setUp(Map<String, String> parameters) {
+        TestPatients.quietLogging();
+        patientCount = Integer.parseInt(parameters.get("patientCount"));
+        storage = new PatientDataStorage();
+        for (PatientDataObject patient : TestPatients.patients(patientCount, 1)) {
+            storage.savePatientData(patient);
+        }
+        updates = TestPatients.patients(Math.min(patientCount, 10_000), 2);
+    }
+    
+    @Override
+    public Supplier<Object> operation(String name) {
+        switch (name) {
+            case "upsertExistingPatient":
+                return () -> storage.savePatientData(updates.get(ThreadLocalRandom.current().nextInt(updates.size())));
+            case "findPatientById":
+                return () -> storage.findPatientById(TestPatients.id(ThreadLocalRandom.current().nextInt(patientCount)));
+            default:
+                throw new IllegalArgumentException("Unknown operation " + name);
+        }
+    }
+}
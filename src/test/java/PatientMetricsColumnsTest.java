@@ -0,0 +1,146 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Column aggregates against the same aggregates computed by streaming over patients,
+ * with and without concurrent writers and compaction.
+ */
+class PatientMetricsColumnsTest {
+    
+    @Test
+    void aggregatesMatchStreams() {
+        PatientMetricsColumns columns = new PatientMetricsColumns();
+        List<PatientDataObject> patients = TestPatients.patients(3000, 1);
+        patients.forEach(columns::add);
+        
+        assertMatchesStreams(columns, patients);
+    }
+    
+    @Test
+    void missingTemperatureIsLeftOutOfTemperatureAggregates() {
+        PatientMetricsColumns columns = new PatientMetricsColumns();
+        List<PatientDataObject> patients = TestPatients.patients(4, 2);
+        patients.get(0).setTemperature(37.0);
+        patients.get(1).setTemperature(38.0);
+        patients.get(2).setTemperature(0);
+        patients.get(3).setTemperature(0);
+        patients.forEach(columns::add);
+        
+        assertEquals(37.5, columns.average(PatientMetricsColumns.Metric.TEMPERATURE), 1e-9);
+        assertEquals(75.0, columns.sum(PatientMetricsColumns.Metric.TEMPERATURE), 1e-9);
+        long[] histogram = columns.histogram(PatientMetricsColumns.Metric.TEMPERATURE, 30, 45, 15);
+        assertEquals(2, Arrays.stream(histogram).sum());
+        long grouped = columns.groupByPaymentMethod(PatientMetricsColumns.Metric.TEMPERATURE).values().stream()
+            .mapToLong(PatientMetricsColumns.GroupStats::getCount).sum();
+        assertEquals(2, grouped);
+        
+        // Recording a temperature later brings the patient into the average
+        patients.get(2).setTemperature(39.0);
+        columns.add(patients.get(2));
+        assertEquals(38.0, columns.average(PatientMetricsColumns.Metric.TEMPERATURE), 1e-9);
+    }
+    
+    @Test
+    void concurrentWritersAndCompactionKeepEveryRow() throws Exception {
+        PatientMetricsColumns columns = new PatientMetricsColumns();
+        int threads = 8;
+        int perThread = 2000;
+        Map<String, PatientDataObject> expected = new ConcurrentHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> writers = new ArrayList<>();
+        
+        try {
+            for (int t = 0; t < threads; t++) {
+                int first = t * perThread;
+                Random random = new Random(t);
+                writers.add(executor.submit(() -> {
+                    start.await();
+                    List<Integer> numbers = new ArrayList<>();
+                    for (int i = 0; i < perThread; i++) {
+                        columns.add(TestPatients.patient(first + i, random));
+                        numbers.add(first + i);
+                    }
+                    Collections.shuffle(numbers, random);
+                    for (int i = 0; i < numbers.size(); i++) {
+                        if (i % 4 != 0) {
+                            columns.remove(TestPatients.id(numbers.get(i)));
+                        } else {
+                            PatientDataObject update = TestPatients.patient(numbers.get(i), random);
+                            if (i % 8 == 0) {
+                                update.setTemperature(0);
+                            }
+                            columns.add(update);
+                            expected.put(update.getPatientId(), update);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            Future<?> compactor = executor.submit(() -> {
+                start.await();
+                while (!writers.stream().allMatch(Future::isDone)) {
+                    columns.compact();
+                    Thread.yield();
+                }
+                return null;
+            });
+            
+            start.countDown();
+            for (Future<?> writer : writers) {
+                writer.get(2, TimeUnit.MINUTES);
+            }
+            compactor.get(1, TimeUnit.MINUTES);
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        List<PatientDataObject> patients = new ArrayList<>(expected.values());
+        assertMatchesStreams(columns, patients);
+        columns.compact();
+        assertMatchesStreams(columns, patients);
+    }
+    
+    private static void assertMatchesStreams(PatientMetricsColumns columns, List<PatientDataObject> patients) {
+        assertEquals(patients.size(), columns.getRowCount());
+        assertEquals(patients.stream().mapToDouble(PatientDataObject::getCopayAmount).sum(),
+            columns.sum(PatientMetricsColumns.Metric.COPAY_AMOUNT), 1e-6);
+        assertEquals(patients.stream().mapToInt(PatientDataObject::getAge).average().orElse(0),
+            columns.average(PatientMetricsColumns.Metric.AGE), 1e-9);
+        assertEquals(patients.stream().mapToDouble(PatientDataObject::getTemperature).filter(t -> t != 0)
+                .average().orElse(0),
+            columns.average(PatientMetricsColumns.Metric.TEMPERATURE), 1e-9);
+        assertEquals(patients.stream().filter(PatientDataObject::isHealthScreeningPassed).count(),
+            columns.count(PatientMetricsColumns.Flag.HEALTH_SCREENING_PASSED));
+        assertEquals(patients.stream().filter(PatientDataObject::isInsuranceVerified).count(),
+            columns.count(PatientMetricsColumns.Flag.INSURANCE_VERIFIED));
+        
+        long[] ages = new long[10];
+        patients.forEach(p -> ages[Math.min(9, p.getAge() / 10)]++);
+        assertArrayEquals(ages, columns.histogram(PatientMetricsColumns.Metric.AGE, 0, 100, 10));
+        
+        Map<String, Double> copayByMethod = patients.stream().filter(p -> p.getPaymentMethod() != null)
+            .collect(Collectors.groupingBy(PatientDataObject::getPaymentMethod,
+                Collectors.summingDouble(PatientDataObject::getCopayAmount)));
+        Map<String, PatientMetricsColumns.GroupStats> grouped =
+            columns.groupByPaymentMethod(PatientMetricsColumns.Metric.COPAY_AMOUNT);
+        assertEquals(copayByMethod.keySet(), grouped.keySet());
+        copayByMethod.forEach((method, sum) -> assertEquals(sum, grouped.get(method).getSum(), 1e-6));
+    }
+}
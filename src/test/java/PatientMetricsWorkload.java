@@ -0,0 +1,57 @@
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import benchmarks.Workload;
+
+/**
+ * The same analytics answered two ways over patientCount stored patients: from
+ * PatientDataStorage's metric columns ("columns...") and by streaming over the patient
+ * objects ("stream..."), as the code did before the columns existed. The stream side
+ * gets the patient list up front, so only the aggregation itself is compared.
+ */
+public class PatientMetricsWorkload implements Workload {
+    
+    private PatientDataStorage storage;
+    private List<PatientDataObject> patients;
+    
+    @Override
+    public void setUp(Map<String, String> parameters) {
+        TestPatients.quietLogging();
+        int patientCount = Integer.parseInt(parameters.get("patientCount"));
+        storage = new PatientDataStorage();
+        for (PatientDataObject patient : TestPatients.patients(patientCount, 1)) {
+            storage.savePatientData(patient);
+        }
+        patients = storage.getAllPatients();
+    }
+    
+    @Override
+    public Supplier<Object> operation(String name) {
+        switch (name) {
+            case "columnsAverageTemperature":
+                return () -> storage.averageMetric(PatientMetricsColumns.Metric.TEMPERATURE);
+            case "streamAverageTemperature":
+                return () -> patients.stream().mapToDouble(PatientDataObject::getTemperature)
+                    .filter(temperature -> temperature != 0).average().orElse(0);
+            case "columnsCountFlag":
+                return () -> storage.countPatientsWithFlag(PatientMetricsColumns.Flag.COVID_EXPOSURE);
+            case "streamCountFlag":
+                return () -> patients.stream().filter(PatientDataObject::isCovidExposure).count();
+            case "columnsHistogram":
+                return () -> storage.getMetricHistogram(PatientMetricsColumns.Metric.AGE, 0, 100, 10);
+            case "streamHistogram":
+                return () -> patients.stream().collect(Collectors.groupingBy(
+                    patient -> Math.min(9, Math.max(0, patient.getAge() / 10)), Collectors.counting()));
+            case "columnsGroupByPaymentMethod":
+                return () -> storage.getMetricByPaymentMethod(PatientMetricsColumns.Metric.COPAY_AMOUNT);
+            case "streamGroupByPaymentMethod":
+                return () -> patients.stream().filter(patient -> patient.getPaymentMethod() != null)
+                    .collect(Collectors.groupingBy(PatientDataObject::getPaymentMethod,
+                        Collectors.summarizingDouble(PatientDataObject::getCopayAmount)));
+            default:
+                throw new IllegalArgumentException("Unknown operation " + name);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Paged listing: every order walks the store once, tokens only continue the order they
+ * came from, and renames while paging by name move the patient rather than copy it.
+ */
+class PatientPageTest {
+    
+    private static final Comparator<PatientDataObject> BY_NAME = Comparator
+        .comparing((PatientDataObject patient) -> patient.getLastName().trim().toLowerCase())
+        .thenComparing(patient -> patient.getFirstName().trim().toLowerCase())
+        .thenComparing(PatientDataObject::getPatientId);
+    
+    @BeforeAll
+    static void quietLogging() {
+        TestPatients.quietLogging();
+    }
+    
+    @Test
+    void everyOrderListsEachPatientOnce() {
+        PatientDataStorage storage = new PatientDataStorage();
+        List<PatientDataObject> patients = TestPatients.patients(250, 11);
+        patients.forEach(storage::savePatientData);
+        
+        List<String> saveOrder = ids(patients);
+        List<PatientDataObject> byName = new ArrayList<>(patients);
+        byName.sort(BY_NAME);
+        List<String> nameOrder = ids(byName);
+        
+        assertEquals(saveOrder, walk(storage, 40, PatientPage.SortOrder.SAVE_ORDER));
+        assertEquals(reversed(saveOrder), walk(storage, 40, PatientPage.SortOrder.SAVE_ORDER_DESCENDING));
+        assertEquals(nameOrder, walk(storage, 40, PatientPage.SortOrder.NAME));
+        assertEquals(reversed(nameOrder), walk(storage, 40, PatientPage.SortOrder.NAME_DESCENDING));
+        // A page size that divides the store still ends on a page without a token
+        assertEquals(saveOrder, walk(storage, 50, PatientPage.SortOrder.SAVE_ORDER));
+    }
+    
+    @Test
+    void pagesSkipPatientsDeletedAfterTheToken() {
+        PatientDataStorage storage = new PatientDataStorage();
+        List<PatientDataObject> patients = TestPatients.patients(30, 12);
+        patients.forEach(storage::savePatientData);
+        
+        PatientPage first = storage.getPatientsPage(10, null, PatientPage.SortOrder.SAVE_ORDER);
+        storage.deletePatient(patients.get(15).getPatientId());
+        PatientPage second = storage.getPatientsPage(10, first.getNextPageToken(), PatientPage.SortOrder.SAVE_ORDER);
+        
+        List<String> expected = ids(patients.subList(10, 21));
+        expected.remove(patients.get(15).getPatientId());
+        assertEquals(expected, ids(second.getPatients()));
+    }
+    
+    @Test
+    void invalidRequestsReturnAnEmptyLastPage() {
+        PatientDataStorage storage = new PatientDataStorage();
+        TestPatients.patients(30, 13).forEach(storage::savePatientData);
+        String saveOrderToken = storage.getPatientsPage(10, null, PatientPage.SortOrder.SAVE_ORDER).getNextPageToken();
+        assertNotNull(saveOrderToken);
+        
+        assertInvalid(storage.getPatientsPage(0, null, PatientPage.SortOrder.SAVE_ORDER));
+        assertInvalid(storage.getPatientsPage(10, null, null));
+        assertInvalid(storage.getPatientsPage(10, "not a token!", PatientPage.SortOrder.SAVE_ORDER));
+        assertInvalid(storage.getPatientsPage(10, saveOrderToken, PatientPage.SortOrder.NAME));
+        assertInvalid(storage.getPatientsPage(10, saveOrderToken, PatientPage.SortOrder.SAVE_ORDER_DESCENDING));
+        assertInvalid(storage.getPatientsPage(10, token("SAVE_ORDER:ten"), PatientPage.SortOrder.SAVE_ORDER));
+    }
+    
+    @Test
+    void renamesWhilePagingByNameMoveThePatient() {
+        PatientDataStorage storage = new PatientDataStorage();
+        List<PatientDataObject> patients = TestPatients.patients(40, 14);
+        patients.forEach(storage::savePatientData);
+        
+        PatientPage first = storage.getPatientsPage(10, null, PatientPage.SortOrder.NAME);
+        PatientDataObject listed = storage.findPatientById(first.getPatients().get(0).getPatientId()).get();
+        listed.setLastName("Zzyzx");
+        storage.savePatientData(listed);
+        List<String> rest = walk(storage, 10, first.getNextPageToken(), PatientPage.SortOrder.NAME);
+        
+        // Filed under its new name after the token, so this walk lists it again, exactly once
+        assertEquals(listed.getPatientId(), rest.get(rest.size() - 1));
+        assertEquals(1, Collections.frequency(rest, listed.getPatientId()));
+        
+        PatientPage again = storage.getPatientsPage(10, null, PatientPage.SortOrder.NAME);
+        String unlistedId = storage.getPatientsPage(10, again.getNextPageToken(), PatientPage.SortOrder.NAME)
+            .getPatients().get(0).getPatientId();
+        PatientDataObject unlisted = storage.findPatientById(unlistedId).get();
+        unlisted.setLastName("Aaberg");
+        storage.savePatientData(unlisted);
+        rest = walk(storage, 10, again.getNextPageToken(), PatientPage.SortOrder.NAME);
+        
+        // Filed under its new name before the token, so this walk leaves it out
+        assertFalse(rest.contains(unlistedId));
+        assertEquals(40 - 10 - 1, rest.size());
+    }
+    
+    private static List<String> walk(PatientDataStorage storage, int pageSize, PatientPage.SortOrder sortOrder) {
+        return walk(storage, pageSize, null, sortOrder);
+    }
+    
+    private static List<String> walk(PatientDataStorage storage, int pageSize, String token, PatientPage.SortOrder sortOrder) {
+        List<String> ids = new ArrayList<>();
+        do {
+            PatientPage page = storage.getPatientsPage(pageSize, token, sortOrder);
+            assertTrue(page.size() <= pageSize);
+            assertEquals(sortOrder, page.getSortOrder());
+            ids.addAll(ids(page.getPatients()));
+            token = page.getNextPageToken();
+        } while (token != null);
+        return ids;
+    }
+    
+    private static void assertInvalid(PatientPage page) {
+        assertTrue(page.isEmpty());
+        assertNull(page.getNextPageToken());
+    }
+    
+    private static String token(String raw) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private static List<String> ids(List<PatientDataObject> patients) {
+        return patients.stream().map(PatientDataObject::getPatientId).collect(Collectors.toList());
+    }
+    
+    private static List<String> reversed(List<String> ids) {
+        List<String> copy = new ArrayList<>(ids);
+        Collections.reverse(copy);
+        return copy;
+    }
+}
@@ -0,0 +1,66 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Misspelling-tolerant name lookups: every word within the requested edit distance is found.
+ */
+class PatientPhoneticIndexTest {
+    
+    @Test
+    void findsWordsTwoEditsAwayThatDoNotSoundAlike() {
+        PatientPhoneticIndex index = new PatientPhoneticIndex();
+        index.add(patient("P1", "Katherine", "Moore"));
+        index.add(patient("P2", "Kathryn", "Moore"));
+        // Different first letters, so Soundex cannot pair them
+        assertNotEquals(PatientPhoneticIndex.soundex("catharine"), PatientPhoneticIndex.soundex("katherine"));
+        
+        List<PatientPhoneticIndex.Candidate> found = index.findSimilarPatients("Catharine", 2);
+        
+        assertEquals(List.of("P1"), ids(found));
+        assertEquals(2, found.get(0).getDistance());
+    }
+    
+    @Test
+    void findsEveryKindOfTwoEditMisspelling() {
+        PatientPhoneticIndex index = new PatientPhoneticIndex();
+        index.add(patient("P1", "Bartholomew", "Quigley"));
+        
+        // Two substitutions, two deletions, two insertions, and one of each
+        for (String misspelling : List.of("Quagliy", "Qigly", "Quiggleey", "Quiglee")) {
+            List<PatientPhoneticIndex.Candidate> found = index.findSimilarPatients(misspelling, 2);
+            assertEquals(List.of("P1"), ids(found), misspelling);
+            assertTrue(found.get(0).getDistance() <= 2, misspelling);
+        }
+    }
+    
+    @Test
+    void distanceOneDoesNotReturnWordsTwoEditsAway() {
+        PatientPhoneticIndex index = new PatientPhoneticIndex();
+        index.add(patient("P1", "Katherine", "Moore"));
+        index.add(patient("P2", "Catherine", "Moore"));
+        
+        assertEquals(List.of("P2"), ids(index.findSimilarPatients("Catharine", 1)));
+        
+        index.remove("P2");
+        assertTrue(index.findSimilarPatients("Catharine", 1).isEmpty());
+        assertEquals(List.of("P1"), ids(index.findSimilarPatients("Catharine", 2)));
+    }
+    
+    private static PatientDataObject patient(String id, String firstName, String lastName) {
+        PatientDataObject patient = new PatientDataObject();
+        patient.setPatientId(id);
+        patient.setFirstName(firstName);
+        patient.setLastName(lastName);
+        return patient;
+    }
+    
+    private static List<String> ids(List<PatientPhoneticIndex.Candidate> candidates) {
+        return candidates.stream().map(PatientPhoneticIndex.Candidate::getPatientId).collect(Collectors.toList());
+    }
+}
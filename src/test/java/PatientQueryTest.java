@@ -0,0 +1,146 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Query planning and explain(): which access path is chosen, what is only filtered,
+ * and how many rows a query examines, matches and returns.
+ */
+class PatientQueryTest {
+    
+    private static final int PATIENTS = 2000;
+    
+    private static PatientDataStorage storage;
+    private static List<PatientDataObject> patients;
+    
+    @BeforeAll
+    static void saveStore() {
+        TestPatients.quietLogging();
+        storage = new PatientDataStorage();
+        patients = TestPatients.patients(PATIENTS, 21);
+        patients.forEach(storage::savePatientData);
+    }
+    
+    @Test
+    void readsCandidatesFromTheIndexWithTheSmallestEstimate() {
+        LocalDate dateOfBirth = patients.get(5).getDateOfBirth();
+        PatientQuery query = new PatientQuery()
+            .where(PatientCondition.checkInComplete(false))
+            .where(PatientCondition.dateOfBirthOn(dateOfBirth));
+        long born = patients.stream().filter(patient -> dateOfBirth.equals(patient.getDateOfBirth())).count();
+        
+        PatientQueryPlan plan = storage.explain(query);
+        
+        assertEquals("date-of-birth index", plan.getAccessPath());
+        assertEquals(born, plan.getEstimatedRows());
+        assertEquals(born, plan.getRowsExamined());
+        assertTrue(plan.getConsideredPaths().contains("full scan ~" + PATIENTS));
+        assertTrue(plan.getConsideredPaths().stream().anyMatch(path -> path.startsWith("step bitmap index ~")));
+        assertAnswers(query);
+        assertEquals(patients.stream().filter(query::matches).count(), plan.getRowsMatched());
+        
+        PatientQuery stepsOnly = new PatientQuery()
+            .where(PatientCondition.checkInComplete(false))
+            .where(PatientCondition.stepDone("insurance", false));
+        PatientQueryPlan stepPlan = storage.explain(stepsOnly);
+        assertEquals("step bitmap index", stepPlan.getAccessPath());
+        assertEquals(stepPlan.getEstimatedRows(), stepPlan.getRowsExamined());
+        assertAnswers(stepsOnly);
+    }
+    
+    @Test
+    void idConditionLooksUpOnePatient() {
+        PatientDataObject patient = patients.get(7);
+        PatientQuery query = new PatientQuery()
+            .where(PatientCondition.nameContains(patient.getLastName()))
+            .where(PatientCondition.idEquals(patient.getPatientId()));
+        
+        PatientQueryPlan plan = storage.explain(query);
+        
+        assertEquals("patient ID lookup", plan.getAccessPath());
+        assertEquals(1, plan.getEstimatedRows());
+        assertEquals(1, plan.getRowsExamined());
+        assertEquals(List.of(patient.getPatientId()), ids(storage.query(query)));
+        
+        PatientQueryPlan missing = storage.explain(new PatientQuery()
+            .where(PatientCondition.idEquals("PAT-missing")));
+        assertEquals("patient ID lookup", missing.getAccessPath());
+        assertEquals(0, missing.getEstimatedRows());
+        assertEquals(0, missing.getRowsReturned());
+    }
+    
+    @Test
+    void unsortedLimitStopsAtTheLimitButSortedLimitSeesEveryMatch() {
+        PatientQuery unsorted = new PatientQuery()
+            .where(PatientCondition.matching("any", patient -> true))
+            .limit(5);
+        PatientQueryPlan plan = storage.explain(unsorted);
+        
+        assertEquals("full scan", plan.getAccessPath());
+        assertEquals(5, plan.getRowsExamined());
+        assertEquals(5, plan.getRowsMatched());
+        assertEquals(ids(patients.subList(0, 5)), ids(storage.query(unsorted)));
+        
+        PatientQuery sorted = new PatientQuery()
+            .orderBy(PatientQuery.SortKey.DATE_OF_BIRTH, true)
+            .limit(5);
+        PatientQueryPlan sortedPlan = storage.explain(sorted);
+        
+        assertEquals(PATIENTS, sortedPlan.getRowsExamined());
+        assertEquals(PATIENTS, sortedPlan.getRowsMatched());
+        assertEquals(5, sortedPlan.getRowsReturned());
+        assertAnswers(sorted);
+    }
+    
+    @Test
+    void orAndNegatedConditionsAreOnlyFilters() {
+        PatientDataObject patient = patients.get(11);
+        PatientCondition born = PatientCondition.dateOfBirthOn(patient.getDateOfBirth());
+        PatientCondition named = PatientCondition.nameContains(patient.getFirstName());
+        
+        PatientQuery either = new PatientQuery().where(born.or(named));
+        PatientQueryPlan eitherPlan = storage.explain(either);
+        assertEquals("full scan", eitherPlan.getAccessPath());
+        assertEquals(List.of("full scan ~" + PATIENTS), eitherPlan.getConsideredPaths());
+        assertEquals(PATIENTS, eitherPlan.getRowsExamined());
+        assertEquals(List.of("(" + born + " OR " + named + ")"), eitherPlan.getFilters());
+        assertAnswers(either);
+        
+        PatientQuery notBorn = new PatientQuery().where(born.negate());
+        assertEquals("full scan", storage.explain(notBorn).getAccessPath());
+        assertAnswers(notBorn);
+        
+        // The negated part only filters what the index produced
+        PatientQuery bornButNotNamed = new PatientQuery().where(born.and(named.negate()));
+        PatientQueryPlan plan = storage.explain(bornButNotNamed);
+        assertEquals("date-of-birth index", plan.getAccessPath());
+        assertEquals(List.of(born.toString(), "NOT (" + named + ")"), plan.getFilters());
+        assertAnswers(bornButNotNamed);
+    }
+    
+    /**
+     * Check a query against every patient tested in save order. Unsorted results come
+     * in index order, so only sorted queries are compared in order.
+     */
+    private static void assertAnswers(PatientQuery query) {
+        List<PatientDataObject> matches = patients.stream().filter(query::matches).collect(Collectors.toList());
+        List<String> answered = ids(storage.query(query));
+        if (query.comparator() == null) {
+            assertEquals(ids(matches).stream().sorted().collect(Collectors.toList()),
+                answered.stream().sorted().collect(Collectors.toList()));
+            return;
+        }
+        matches.sort(query.comparator());
+        assertEquals(ids(matches.subList(0, Math.min(matches.size(), query.getLimit()))), answered);
+    }
+    
+    private static List<String> ids(List<PatientDataObject> patients) {
+        return patients.stream().map(PatientDataObject::getPatientId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,173 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Read snapshots: point-in-time views through updates, deletes and clears, and report
+ * throughput measured next to save latency while both run.
+ */
+class PatientReadSnapshotTest {
+    
+    @BeforeAll
+    static void quietLogging() {
+        TestPatients.quietLogging();
+    }
+    
+    @Test
+    void snapshotKeepsItsViewThroughUpdatesDeletesAndClear() {
+        PatientDataStorage storage = new PatientDataStorage();
+        List<PatientDataObject> patients = TestPatients.patients(100, 1);
+        patients.forEach(storage::savePatientData);
+        
+        try (PatientDataStorage.ReadSnapshot snapshot = storage.openSnapshot()) {
+            PatientDataObject renamed = TestPatients.patient(0, new Random(2));
+            renamed.setLastName("Renamed");
+            storage.savePatientData(renamed);
+            for (int i = 1; i < 50; i++) {
+                storage.deletePatient(TestPatients.id(i));
+            }
+            // Deleted and saved again: a new save-order slot with its own version chain
+            storage.savePatientData(TestPatients.patient(1, new Random(3)));
+            
+            assertEquals(100, snapshot.getPatientCount());
+            assertEquals(patients.get(0).getLastName(), snapshot.findPatientById(TestPatients.id(0)).get().getLastName());
+            assertEquals(patients.get(1).getEmail(), snapshot.findPatientById(TestPatients.id(1)).get().getEmail());
+            assertTrue(snapshot.findPatientById(TestPatients.id(2)).isPresent());
+            
+            storage.clearAllData();
+            assertEquals(0, storage.getPatientCount());
+            List<PatientDataObject> listed = snapshot.getAllPatients();
+            assertEquals(100, listed.size());
+            for (int i = 0; i < listed.size(); i++) {
+                assertEquals(TestPatients.id(i), listed.get(i).getPatientId());
+            }
+        }
+        
+        assertEquals(0, storage.getOpenSnapshotCount());
+        try (PatientDataStorage.ReadSnapshot snapshot = storage.openSnapshot()) {
+            assertEquals(0, snapshot.getPatientCount());
+            assertFalse(snapshot.findPatientById(TestPatients.id(0)).isPresent());
+        }
+    }
+    
+    @Test
+    void editingTheSavedObjectDoesNotChangeStoredVersions() {
+        PatientDataStorage storage = new PatientDataStorage();
+        PatientDataObject patient = TestPatients.patient(0, new Random(1));
+        String lastName = patient.getLastName();
+        storage.savePatientData(patient);
+        
+        try (PatientDataStorage.ReadSnapshot snapshot = storage.openSnapshot()) {
+            patient.setLastName("Edited after saving");
+            assertEquals(lastName, snapshot.findPatientById(patient.getPatientId()).get().getLastName());
+            assertEquals(lastName, storage.findPatientById(patient.getPatientId()).get().getLastName());
+        }
+    }
+    
+    @Test
+    void editingLookedUpOrConflictingPatientsDoesNotChangeStoredVersions() {
+        PatientDataStorage storage = new PatientDataStorage();
+        PatientDataObject patient = TestPatients.patient(0, new Random(1));
+        String lastName = patient.getLastName();
+        storage.savePatientData(patient);
+        
+        try (PatientDataStorage.ReadSnapshot snapshot = storage.openSnapshot()) {
+            storage.findPatientById(patient.getPatientId()).get().setLastName("Edited lookup");
+            snapshot.findPatientById(patient.getPatientId()).get().setLastName("Edited snapshot lookup");
+            PatientSaveResult conflict = storage.savePatientData(patient, PatientDataStorage.NO_VERSION);
+            assertTrue(conflict.isConflict());
+            conflict.getCurrentPatient().setLastName("Edited merge");
+            
+            assertEquals(lastName, snapshot.findPatientById(patient.getPatientId()).get().getLastName());
+            assertEquals(lastName, storage.findPatientById(patient.getPatientId()).get().getLastName());
+            assertEquals(1, storage.findPatientsByName(lastName).size());
+        }
+    }
+    
+    @Test
+    void reportThroughputAlongsideSaveLatency() throws Exception {
+        int patientCount = 20_000;
+        PatientDataStorage storage = new PatientDataStorage();
+        storage.savePatients(TestPatients.patients(patientCount, 1));
+        
+        // One pass to warm up, then one without reports to compare against
+        timeSaves(storage, patientCount, patientCount, 1);
+        long[] quietLatencies = timeSaves(storage, patientCount, patientCount, 2);
+        
+        // The writer sets every patient's age to the pass number in save order, so a
+        // consistent snapshot sees ages that never rise along the list and differ by at most one
+        AtomicBoolean stop = new AtomicBoolean(false);
+        ExecutorService reporter = Executors.newSingleThreadExecutor();
+        Future<long[]> reports = reporter.submit(() -> {
+            long count = 0;
+            long started = System.nanoTime();
+            while (!stop.get()) {
+                try (PatientDataStorage.ReadSnapshot snapshot = storage.openSnapshot()) {
+                    List<PatientDataObject> listed = snapshot.getAllPatients();
+                    assertEquals(patientCount, listed.size());
+                    int first = listed.get(0).getAge();
+                    int previous = first;
+                    for (PatientDataObject patient : listed) {
+                        assertTrue(patient.getAge() <= previous && first - patient.getAge() <= 1,
+                            "inconsistent snapshot at " + patient.getPatientId());
+                        previous = patient.getAge();
+                    }
+                }
+                count++;
+            }
+            return new long[] {count, System.nanoTime() - started};
+        });
+        long[] reportedLatencies;
+        try {
+            reportedLatencies = timeSaves(storage, patientCount, 3 * patientCount, 3);
+        } finally {
+            stop.set(true);
+            reporter.shutdown();
+        }
+        long[] reportResult = reports.get(1, TimeUnit.MINUTES);
+        
+        System.out.printf("Reports over %d patients: %.1f/s while saving; save latency p50 %.1f us, "
+                + "p99 %.1f us with reports running, p50 %.1f us, p99 %.1f us without%n",
+            patientCount, reportResult[0] / (reportResult[1] / 1e9),
+            percentile(reportedLatencies, 0.50) / 1e3, percentile(reportedLatencies, 0.99) / 1e3,
+            percentile(quietLatencies, 0.50) / 1e3, percentile(quietLatencies, 0.99) / 1e3);
+        assertTrue(reportResult[0] > 0);
+        assertEquals(0, storage.getOpenSnapshotCount());
+    }
+    
+    /**
+     * Save whole passes over the patients in save order, each pass setting every age to its pass number
+     * @return Latency of each save in nanoseconds
+     */
+    private static long[] timeSaves(PatientDataStorage storage, int patientCount, int saves, int firstPass) {
+        // Separate objects from the stored ones, generated in the same order they were saved
+        List<PatientDataObject> patients = TestPatients.patients(patientCount, 1);
+        long[] latencies = new long[saves];
+        for (int i = 0; i < saves; i++) {
+            PatientDataObject patient = patients.get(i % patientCount);
+            patient.setAge(firstPass + i / patientCount);
+            long started = System.nanoTime();
+            assertTrue(storage.savePatientData(patient));
+            latencies[i] = System.nanoTime() - started;
+        }
+        return latencies;
+    }
+    
+    private static long percentile(long[] samples, double fraction) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, (int) (fraction * sorted.length))];
+    }
+}
@@ -0,0 +1,123 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The render cache: version-stamped hits, invalidation, least-recently-used eviction
+ * by character budget, and the statistics it reports.
+ */
+class PatientRenderCacheTest {
+    
+    private final AtomicInteger renders = new AtomicInteger();
+    
+    @BeforeAll
+    static void quietLogging() {
+        TestPatients.quietLogging();
+    }
+    
+    @Test
+    void hitsOnlyForTheVersionThatWasRendered() {
+        PatientRenderCache cache = new PatientRenderCache();
+        
+        assertEquals("A v1", cache.get(PatientRenderCache.Kind.SUMMARY, "A", 1, render("A v1")));
+        assertEquals("A v1", cache.get(PatientRenderCache.Kind.SUMMARY, "A", 1, render("A v1")));
+        assertEquals(1, renders.get());
+        
+        assertEquals("A v2", cache.get(PatientRenderCache.Kind.SUMMARY, "A", 2, render("A v2")));
+        assertEquals(2, renders.get());
+        // A late reader of the older version gets its own rendering but does not displace the newer one
+        assertEquals("A v1", cache.get(PatientRenderCache.Kind.SUMMARY, "A", 1, render("A v1")));
+        assertEquals("A v2", cache.get(PatientRenderCache.Kind.SUMMARY, "A", 2, render("A v2")));
+        assertEquals(3, renders.get());
+        
+        PatientRenderCacheStatistics statistics = cache.getStatistics();
+        assertEquals(2, statistics.getHitCount());
+        assertEquals(3, statistics.getMissCount());
+        assertEquals(1, statistics.getEntryCount());
+        assertEquals("A v2".length(), statistics.getCachedChars());
+    }
+    
+    @Test
+    void invalidationDropsEveryRenderingOfOnePatient() {
+        PatientRenderCache cache = new PatientRenderCache();
+        cache.get(PatientRenderCache.Kind.JSON_COMPACT, "A", 1, render("{\"A\"}"));
+        cache.get(PatientRenderCache.Kind.SUMMARY, "A", 1, render("A"));
+        cache.get(PatientRenderCache.Kind.SUMMARY, "B", 1, render("B"));
+        
+        cache.invalidate("A");
+        
+        assertEquals(1, cache.getStatistics().getEntryCount());
+        assertEquals(1, cache.getStatistics().getCachedChars());
+        cache.get(PatientRenderCache.Kind.JSON_COMPACT, "A", 1, render("{\"A\"}"));
+        cache.get(PatientRenderCache.Kind.SUMMARY, "B", 1, render("B"));
+        assertEquals(4, renders.get());
+        
+        cache.clear();
+        PatientRenderCacheStatistics cleared = cache.getStatistics();
+        assertEquals(0, cleared.getEntryCount());
+        assertEquals(0, cleared.getCachedChars());
+        // Counts survive a clear
+        assertEquals(1, cleared.getHitCount());
+        assertEquals(4, cleared.getMissCount());
+    }
+    
+    @Test
+    void evictsTheLeastRecentlyUsedOnceOverItsBudget() {
+        PatientRenderCache cache = new PatientRenderCache(30);
+        cache.get(PatientRenderCache.Kind.SUMMARY, "A", 1, render("a".repeat(10)));
+        cache.get(PatientRenderCache.Kind.SUMMARY, "B", 1, render("b".repeat(10)));
+        cache.get(PatientRenderCache.Kind.SUMMARY, "C", 1, render("c".repeat(10)));
+        // Touching A leaves B as the least recently used
+        cache.get(PatientRenderCache.Kind.SUMMARY, "A", 1, render("a".repeat(10)));
+        cache.get(PatientRenderCache.Kind.SUMMARY, "D", 1, render("d".repeat(10)));
+        
+        PatientRenderCacheStatistics statistics = cache.getStatistics();
+        assertEquals(3, statistics.getEntryCount());
+        assertEquals(30, statistics.getCachedChars());
+        assertEquals(1, statistics.getEvictionCount());
+        int rendered = renders.get();
+        cache.get(PatientRenderCache.Kind.SUMMARY, "A", 1, render("a".repeat(10)));
+        cache.get(PatientRenderCache.Kind.SUMMARY, "C", 1, render("c".repeat(10)));
+        cache.get(PatientRenderCache.Kind.SUMMARY, "D", 1, render("d".repeat(10)));
+        assertEquals(rendered, renders.get());
+        
+        // Text larger than the whole budget is returned but never cached
+        assertEquals(40, cache.get(PatientRenderCache.Kind.SUMMARY, "E", 1, render("e".repeat(40))).length());
+        assertEquals(3, cache.getStatistics().getEntryCount());
+        assertEquals(1, cache.getStatistics().getEvictionCount());
+        assertEquals(4.0 / 9, cache.getStatistics().getHitRate(), 1e-9);
+    }
+    
+    @Test
+    void storeRendersEachSavedVersionOnce() {
+        PatientDataStorage storage = new PatientDataStorage();
+        List<PatientDataObject> patients = TestPatients.patients(20, 15);
+        patients.forEach(storage::savePatientData);
+        
+        String first = storage.getAllPatientsSummary();
+        assertEquals(first, storage.getAllPatientsSummary());
+        assertEquals(20, storage.getRenderCacheStatistics().getHitCount());
+        
+        PatientDataObject renamed = storage.findPatientById(patients.get(3).getPatientId()).get();
+        renamed.setLastName("Renamedsson");
+        storage.savePatientData(renamed);
+        String second = storage.getAllPatientsSummary();
+        
+        assertTrue(second.contains("Renamedsson"));
+        assertEquals(39, storage.getRenderCacheStatistics().getHitCount());
+        assertEquals(21, storage.getRenderCacheStatistics().getMissCount());
+    }
+    
+    private Supplier<String> render(String text) {
+        return () -> {
+            renders.incrementAndGet();
+            return text;
+        };
+    }
+}
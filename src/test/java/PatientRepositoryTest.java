@@ -0,0 +1,227 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * The same scenarios against every PatientRepository backend: in-memory, off-heap,
+ * append-only file and embedded H2 over JDBC.
+ */
+class PatientRepositoryTest {
+    
+    private static final int SMALL_SEGMENT_SIZE = 64 * 1024;
+    
+    @TempDir
+    Path directory;
+    
+    @BeforeAll
+    static void quietLogging() {
+        TestPatients.quietLogging();
+    }
+    
+    /**
+     * @param backend "memory", "offheap", "offheap-small" (segments of a few dozen
+     *        patients, so segment compaction runs), "file" or "jdbc"
+     * @param directory Where the file and JDBC backends keep their data
+     * @return A new repository, or the one already persisted in the directory
+     */
+    static PatientRepository open(String backend, Path directory) throws Exception {
+        switch (backend) {
+            case "memory":
+                return new PatientDataStorage();
+            case "offheap":
+                return new OffHeapPatientRepository();
+            case "offheap-small":
+                return new OffHeapPatientRepository(SMALL_SEGMENT_SIZE);
+            case "file":
+                return FilePatientRepository.open(directory.resolve("patients.dat"), false);
+            case "jdbc":
+                return JdbcPatientRepository.open("jdbc:h2:" + directory.resolve("patients").toAbsolutePath());
+            default:
+                throw new IllegalArgumentException("Unknown backend " + backend);
+        }
+    }
+    
+    @ParameterizedTest
+    @ValueSource(strings = {"memory", "offheap", "offheap-small", "file", "jdbc"})
+    void savesFindsAndListsInSaveOrder(String backend) throws Exception {
+        List<PatientDataObject> patients = TestPatients.patients(300, 1);
+        try (PatientRepository repository = open(backend, directory)) {
+            for (PatientDataObject patient : patients) {
+                assertTrue(repository.savePatientData(patient));
+            }
+            
+            assertEquals(300, repository.getPatientCount());
+            assertEquals(ids(patients), ids(repository.getAllPatients()));
+            PatientDataObject found = repository.findPatientById(TestPatients.id(42)).get();
+            assertEquals(patients.get(42).getEmail(), found.getEmail());
+            assertEquals(patients.get(42).getMedications(), found.getMedications());
+            assertFalse(repository.findPatientById("PAT-missing").isPresent());
+            PatientDataObject withoutId = new PatientDataObject();
+            withoutId.setPatientId(null);
+            assertFalse(repository.savePatientData(withoutId));
+        }
+    }
+    
+    @ParameterizedTest
+    @ValueSource(strings = {"memory", "offheap", "offheap-small", "file", "jdbc"})
+    void answersQueriesLikeAScan(String backend) throws Exception {
+        List<PatientDataObject> patients = TestPatients.patients(300, 2);
+        try (PatientRepository repository = open(backend, directory)) {
+            patients.forEach(repository::savePatientData);
+            
+            for (String term : List.of("smith", "MAR", "jo", "zzz")) {
+                String lower = term.toLowerCase();
+                Set<String> expected = new HashSet<>(ids(patients.stream()
+                    .filter(p -> p.getFirstName().toLowerCase().contains(lower)
+                        || p.getLastName().toLowerCase().contains(lower))
+                    .collect(Collectors.toList())));
+                // Result order is up to the backend
+                List<String> found = ids(repository.findPatientsByName(term));
+                assertEquals(expected.size(), found.size(), term);
+                assertEquals(expected, new HashSet<>(found), term);
+            }
+            
+            LocalDate dateOfBirth = patients.get(10).getDateOfBirth();
+            assertTrue(ids(repository.findPatientsByDateOfBirth(dateOfBirth)).contains(TestPatients.id(10)));
+            LocalDate from = LocalDate.of(1970, 1, 1);
+            LocalDate to = LocalDate.of(1979, 12, 31);
+            long inRange = patients.stream()
+                .filter(p -> !p.getDateOfBirth().isBefore(from) && !p.getDateOfBirth().isAfter(to)).count();
+            assertEquals(inRange, repository.findPatientsByDateOfBirthRange(from, to).size());
+            
+            assertEquals(patients.stream().filter(PatientDataObject::isCheckInComplete).count(),
+                repository.getCompletedCheckInCount());
+            LocalDate savedDate = patients.get(0).getSavedTimestamp().toLocalDate();
+            assertEquals(patients.stream().filter(p -> p.getSavedTimestamp().toLocalDate().equals(savedDate)).count(),
+                repository.getPatientCountForDate(savedDate));
+        }
+    }
+    
+    @ParameterizedTest
+    @ValueSource(strings = {"memory", "offheap", "offheap-small", "file", "jdbc"})
+    void updatesInPlaceDeletesAndClears(String backend) throws Exception {
+        List<PatientDataObject> patients = TestPatients.patients(50, 3);
+        try (PatientRepository repository = open(backend, directory)) {
+            patients.forEach(repository::savePatientData);
+            
+            PatientDataObject update = TestPatients.patient(0, new Random(99));
+            update.setLastName("Okonkwo-Featherstonehaugh");
+            assertTrue(repository.savePatientData(update));
+            assertEquals(ids(patients), ids(repository.getAllPatients()));
+            assertEquals(List.of(TestPatients.id(0)), ids(repository.findPatientsByName("featherstone")));
+            
+            assertTrue(repository.deletePatient(TestPatients.id(1)));
+            assertFalse(repository.deletePatient(TestPatients.id(1)));
+            assertEquals(49, repository.getPatientCount());
+            
+            repository.clearAllData();
+            assertEquals(0, repository.getPatientCount());
+            assertTrue(repository.getAllPatients().isEmpty());
+        }
+    }
+    
+    @ParameterizedTest
+    @ValueSource(strings = {"memory", "offheap", "offheap-small", "file", "jdbc"})
+    void storesNamesOfAnyLength(String backend) throws Exception {
+        PatientDataObject patient = TestPatients.patient(0, new Random(4));
+        String longName = "Wolfeschlegelsteinhausenbergerdorff".repeat(20);
+        patient.setLastName(longName);
+        try (PatientRepository repository = open(backend, directory)) {
+            assertTrue(repository.savePatientData(patient));
+            assertEquals(longName, repository.findPatientById(patient.getPatientId()).get().getLastName());
+            assertEquals(1, repository.findPatientsByName("steinhausen").size());
+        }
+    }
+    
+    @ParameterizedTest
+    @ValueSource(strings = {"memory", "offheap", "offheap-small"})
+    void churnKeepsTheLatestVersionOfEachPatientInSaveOrder(String backend) throws Exception {
+        Random random = new Random(7);
+        Map<String, PatientDataObject> expected = new LinkedHashMap<>();
+        int nextNumber = 0;
+        try (PatientRepository repository = open(backend, directory)) {
+            // Well over 1024 patients pass through, but no more than 450 are stored at once
+            for (int round = 0; round < 25; round++) {
+                for (int i = 0; i < 150; i++) {
+                    PatientDataObject patient = TestPatients.patient(nextNumber++, random);
+                    assertTrue(repository.savePatientData(patient));
+                    expected.put(patient.getPatientId(), patient);
+                }
+                List<String> stored = new ArrayList<>(expected.keySet());
+                Collections.shuffle(stored, random);
+                for (String patientId : stored.subList(0, 50)) {
+                    PatientDataObject updated = TestPatients.patient(nextNumber, random);
+                    updated.setPatientId(patientId);
+                    assertTrue(repository.savePatientData(updated));
+                    expected.put(patientId, updated);
+                }
+                for (String patientId : stored.subList(50, Math.max(50, stored.size() - 250))) {
+                    assertTrue(repository.deletePatient(patientId));
+                    expected.remove(patientId);
+                }
+            }
+            
+            assertEquals(expected.size(), repository.getPatientCount());
+            assertEquals(new ArrayList<>(expected.keySet()), ids(repository.getAllPatients()));
+            for (PatientDataObject patient : expected.values()) {
+                assertArrayEquals(PatientRecordCodec.encode(patient),
+                    PatientRecordCodec.encode(repository.findPatientById(patient.getPatientId()).get()));
+            }
+            
+            if (repository instanceof OffHeapPatientRepository) {
+                OffHeapPatientRepository offHeap = (OffHeapPatientRepository) repository;
+                // Deleted sequences were renumbered rather than growing the location index
+                // past its initial 1024 entries
+                assertTrue(offHeap.getIndexBytes() <= 16L * 1024);
+                if (backend.equals("offheap-small")) {
+                    // Segments that fell below a quarter live were copied out and dropped
+                    assertTrue(offHeap.getOffHeapBytes() <= 4 * offHeap.getLiveBytes() + 2L * SMALL_SEGMENT_SIZE);
+                }
+            }
+        }
+    }
+    
+    @ParameterizedTest
+    @ValueSource(strings = {"file", "jdbc"})
+    void keepsPatientsAcrossReopen(String backend) throws Exception {
+        List<PatientDataObject> patients = TestPatients.patients(100, 5);
+        try (PatientRepository repository = open(backend, directory)) {
+            patients.forEach(repository::savePatientData);
+            repository.deletePatient(TestPatients.id(5));
+        }
+        
+        try (PatientRepository repository = open(backend, directory)) {
+            assertEquals(99, repository.getPatientCount());
+            assertFalse(repository.findPatientById(TestPatients.id(5)).isPresent());
+            assertEquals(patients.get(6).getLastName(), repository.findPatientById(TestPatients.id(6)).get().getLastName());
+            
+            // New patients still list after the ones saved before reopening
+            PatientDataObject added = TestPatients.patient(100, new Random(6));
+            repository.savePatientData(added);
+            List<String> listed = ids(repository.getAllPatients());
+            assertEquals(added.getPatientId(), listed.get(listed.size() - 1));
+        }
+    }
+    
+    private static List<String> ids(List<PatientDataObject> patients) {
+        return patients.stream().map(PatientDataObject::getPatientId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,67 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import benchmarks.Workload;
+
+/**
+ * Saves and lookups against one PatientRepository backend ("memory", "offheap", "file"
+ * or "jdbc") preloaded with patientCount patients, in a temporary directory.
+ */
+public class PatientRepositoryWorkload implements Workload {
+    
+    private Path directory;
+    private PatientRepository repository;
+    private List<PatientDataObject> updates;
+    private List<LocalDate> datesOfBirth;
+    private int patientCount;
+    
+    @Override
+    public void setUp(Map<String, String> parameters) throws Exception {
+        TestPatients.quietLogging();
+        patientCount = Integer.parseInt(parameters.get("patientCount"));
+        directory = Files.createTempDirectory("patient-repository-benchmark");
+        repository = PatientRepositoryTest.open(parameters.get("backend"), directory);
+        datesOfBirth = new ArrayList<>(patientCount);
+        for (PatientDataObject patient : TestPatients.patients(patientCount, 1)) {
+            repository.savePatientData(patient);
+            datesOfBirth.add(patient.getDateOfBirth());
+        }
+        updates = TestPatients.patients(Math.min(patientCount, 10_000), 2);
+    }
+    
+    @Override
+    public Supplier<Object> operation(String name) {
+        switch (name) {
+            case "save":
+                return () -> repository.savePatientData(updates.get(ThreadLocalRandom.current().nextInt(updates.size())));
+            case "findById":
+                return () -> repository.findPatientById(TestPatients.id(ThreadLocalRandom.current().nextInt(patientCount)));
+            case "findByName":
+                return () -> repository.findPatientsByName("Hernandez");
+            case "findByDateOfBirth":
+                return () -> repository.findPatientsByDateOfBirth(
+                    datesOfBirth.get(ThreadLocalRandom.current().nextInt(patientCount)));
+            default:
+                throw new IllegalArgumentException("Unknown operation " + name);
+        }
+    }
+    
+    @Override
+    public void tearDown() throws IOException {
+        repository.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
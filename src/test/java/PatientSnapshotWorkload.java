@@ -0,0 +1,83 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import benchmarks.Workload;
+
+/**
+ * Writing and loading a snapshot of patientCount patients in one format ("plain" for
+ * PatientSnapshotFile, "compressed" for PatientCompressedSnapshotFile), in a temporary
+ * directory. setUp writes the same patients in both formats once and prints both sizes,
+ * so the compression ratio shows next to the timings.
+ */
+public class PatientSnapshotWorkload implements Workload {
+    
+    private Path directory;
+    private Path snapshot;
+    private List<PatientDataObject> patients;
+    private boolean compressed;
+    
+    @Override
+    public void setUp(Map<String, String> parameters) throws Exception {
+        TestPatients.quietLogging();
+        int patientCount = Integer.parseInt(parameters.get("patientCount"));
+        compressed = parameters.get("format").equals("compressed");
+        directory = Files.createTempDirectory("patient-snapshot-benchmark");
+        patients = TestPatients.patients(patientCount, 1);
+        
+        Path plain = directory.resolve("plain.snapshot");
+        Path packed = directory.resolve("compressed.snapshot");
+        PatientSnapshotFile.write(plain, patients, 0, false);
+        PatientSnapshotFile.write(packed, patients, 0, true);
+        long plainBytes = Files.size(plain);
+        long packedBytes = Files.size(packed);
+        System.out.printf("%nSnapshot of %,d patients: plain %,d bytes (%d per patient), compressed %,d bytes "
+                + "(%d per patient), ratio %.2f%n",
+            patientCount, plainBytes, plainBytes / patientCount, packedBytes, packedBytes / patientCount,
+            plainBytes / (double) packedBytes);
+        snapshot = compressed ? packed : plain;
+    }
+    
+    @Override
+    public Supplier<Object> operation(String name) {
+        switch (name) {
+            case "write":
+                return () -> {
+                    try {
+                        PatientSnapshotFile.write(snapshot, patients, 0, compressed);
+                        return Files.size(snapshot);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                };
+            case "load":
+                return () -> {
+                    AtomicInteger loaded = new AtomicInteger();
+                    try {
+                        PatientSnapshotFile.load(snapshot, patient -> loaded.incrementAndGet());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return loaded.get();
+                };
+            default:
+                throw new IllegalArgumentException("Unknown operation " + name);
+        }
+    }
+    
+    @Override
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
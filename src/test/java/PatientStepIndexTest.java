@@ -0,0 +1,166 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Step bitmap queries against a scan, including after many threads have saved and
+ * deleted patients at once and compactions have renumbered rows under them.
+ */
+class PatientStepIndexTest {
+    
+    @Test
+    void compoundQueriesMatchAScan() {
+        PatientStepIndex index = new PatientStepIndex();
+        List<PatientDataObject> patients = TestPatients.patients(3000, 1);
+        patients.forEach(index::add);
+        
+        assertMatchesScan(index, patients);
+    }
+    
+    @Test
+    void generatedPatientsCarryOnlyTheApplicationsStepKeys() {
+        Set<String> applicationSteps = new PatientDataObject().getStepCompletionStatus().keySet();
+        for (PatientDataObject patient : TestPatients.patients(100, 1)) {
+            assertEquals(applicationSteps, patient.getStepCompletionStatus().keySet());
+        }
+    }
+    
+    @Test
+    void concurrentWritersAndCompactionKeepEveryFlag() throws Exception {
+        PatientStepIndex index = new PatientStepIndex();
+        int threads = 8;
+        int perThread = 2000;
+        Map<String, PatientDataObject> expected = new ConcurrentHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> writers = new ArrayList<>();
+        
+        try {
+            for (int t = 0; t < threads; t++) {
+                int first = t * perThread;
+                Random random = new Random(t);
+                writers.add(executor.submit(() -> {
+                    start.await();
+                    List<Integer> numbers = new ArrayList<>();
+                    for (int i = 0; i < perThread; i++) {
+                        PatientDataObject patient = TestPatients.patient(first + i, random);
+                        index.add(patient);
+                        numbers.add(first + i);
+                    }
+                    Collections.shuffle(numbers, random);
+                    // Delete three quarters, so compaction has rows to reclaim, and re-save the rest
+                    for (int i = 0; i < numbers.size(); i++) {
+                        if (i % 4 != 0) {
+                            index.remove(TestPatients.id(numbers.get(i)));
+                        } else {
+                            PatientDataObject update = TestPatients.patient(numbers.get(i), random);
+                            index.add(update);
+                            expected.put(update.getPatientId(), update);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            Future<?> compactor = executor.submit(() -> {
+                start.await();
+                while (!writers.stream().allMatch(Future::isDone)) {
+                    index.compact();
+                    Thread.yield();
+                }
+                return null;
+            });
+            
+            start.countDown();
+            for (Future<?> writer : writers) {
+                writer.get(2, TimeUnit.MINUTES);
+            }
+            compactor.get(1, TimeUnit.MINUTES);
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        assertMatchesScan(index, new ArrayList<>(expected.values()));
+        index.compact();
+        assertMatchesScan(index, new ArrayList<>(expected.values()));
+    }
+    
+    @Test
+    void queriesNeverSeeAStepUndoneThatStaysDoneThroughAnUpdate() throws Exception {
+        PatientStepIndex index = new PatientStepIndex();
+        int patients = 64;
+        for (int i = 0; i < patients; i++) {
+            index.add(withSteps(i, 0));
+        }
+        
+        // Every version of every patient has insurance done; only payment and appointment change
+        AtomicBoolean stop = new AtomicBoolean(false);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Integer> queries = executor.submit(() -> {
+            int failures = 0;
+            while (!stop.get()) {
+                failures += index.count(Map.of("insurance", false));
+                failures += index.findPatientIds(Map.of("insurance", false)).size();
+            }
+            return failures;
+        });
+        try {
+            for (int round = 1; round <= 2000; round++) {
+                for (int i = 0; i < patients; i++) {
+                    index.add(withSteps(i, round));
+                }
+            }
+        } finally {
+            stop.set(true);
+            executor.shutdown();
+        }
+        
+        assertEquals(0, queries.get(1, TimeUnit.MINUTES));
+        assertEquals(patients, index.count(Map.of("insurance", true)));
+    }
+    
+    private static PatientDataObject withSteps(int number, int round) {
+        PatientDataObject patient = new PatientDataObject();
+        patient.setPatientId(TestPatients.id(number));
+        patient.setStepCompleted("insurance", true);
+        patient.setStepCompleted("payment", round % 2 == 1);
+        patient.setStepCompleted("appointment", round % 3 == 1);
+        return patient;
+    }
+    
+    private static void assertMatchesScan(PatientStepIndex index, List<PatientDataObject> patients) {
+        List<Map<String, Boolean>> queries = List.of(
+            Map.of(),
+            Map.of(PatientStepIndex.CHECK_IN_COMPLETE, true),
+            Map.of("insurance", true, "payment", false),
+            Map.of("completion", false, PatientStepIndex.CHECK_IN_COMPLETE, false),
+            Map.of("No such step", true));
+        for (Map<String, Boolean> query : queries) {
+            Set<String> scanned = patients.stream()
+                .filter(patient -> query.entrySet().stream()
+                    .allMatch(c -> PatientStepIndex.isStepDone(patient, c.getKey()) == c.getValue()))
+                .map(PatientDataObject::getPatientId)
+                .collect(Collectors.toSet());
+            List<String> found = index.findPatientIds(new HashMap<>(query));
+            assertEquals(scanned.size(), found.size(), query.toString());
+            assertEquals(scanned, new HashSet<>(found), query.toString());
+            assertEquals(scanned.size(), index.count(query), query.toString());
+        }
+    }
+}
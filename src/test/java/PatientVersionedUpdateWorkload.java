@@ -0,0 +1,56 @@
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+import benchmarks.Workload;
+
+/**
+ * Writers contending for a small set of hot patients. "update" is a read-modify-write
+ * through updatePatientData, retried until it lands; "compareAndSet" is a single
+ * versioned save attempt that may be rejected; "blindSave" is the last-write-wins save
+ * for comparison. Each returns true if its save landed.
+ */
+public class PatientVersionedUpdateWorkload implements Workload {
+    
+    private static final int MAX_ATTEMPTS = 1000;
+    
+    private PatientDataStorage storage;
+    private List<PatientDataObject> updates;
+    private int hotPatients;
+    
+    @Override
+    public void setUp(Map<String, String> parameters) {
+        TestPatients.quietLogging();
+        hotPatients = Integer.parseInt(parameters.get("hotPatients"));
+        storage = new PatientDataStorage();
+        storage.savePatients(TestPatients.patients(hotPatients, 1));
+        // Never edited, so threads can save the same object; the store keeps its own copy
+        updates = TestPatients.patients(hotPatients, 2);
+    }
+    
+    @Override
+    public Supplier<Object> operation(String name) {
+        switch (name) {
+            case "update":
+                return () -> storage.updatePatientData(randomId(), patient -> {
+                    patient.setAge(patient.getAge() + 1);
+                    return patient;
+                }, MAX_ATTEMPTS).isSaved();
+            case "compareAndSet":
+                return () -> {
+                    PatientDataObject update = updates.get(ThreadLocalRandom.current().nextInt(hotPatients));
+                    long version = storage.getPatientVersion(update.getPatientId());
+                    return storage.savePatientData(update, version).isSaved();
+                };
+            case "blindSave":
+                return () -> storage.savePatientData(updates.get(ThreadLocalRandom.current().nextInt(hotPatients)));
+            default:
+                throw new IllegalArgumentException("Unknown operation " + name);
+        }
+    }
+    
+    private String randomId() {
+        return TestPatients.id(ThreadLocalRandom.current().nextInt(hotPatients));
+    }
+}
@@ -0,0 +1,300 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Recovery of the write-ahead log: what counts as a torn tail and what fails the open,
+ * and how snapshot checkpoints keep the segment chain short.
+ */
+class PatientWriteAheadLogTest {
+    
+    @TempDir
+    Path directory;
+    
+    @BeforeAll
+    static void quietLogging() {
+        TestPatients.quietLogging();
+    }
+    
+    @Test
+    void truncatesTornTail() throws IOException {
+        Path logFile = directory.resolve("patients.wal");
+        writeLog(logFile, TestPatients.patients(3, 1));
+        long intactSize = Files.size(logFile);
+        Files.write(logFile, new byte[] {0, 0, 1, 0, 7, 7}, StandardOpenOption.APPEND);
+        
+        List<PatientDataObject> replayed = new ArrayList<>();
+        PatientWriteAheadLog.open(logFile, PatientWriteAheadLog.SyncPolicy.EVERY_WRITE, 0, 0, collector(replayed)).close();
+        
+        assertEquals(3, replayed.size());
+        assertEquals(intactSize, Files.size(logFile));
+    }
+    
+    @Test
+    void intactRecordThatCannotBeAppliedFailsOpenWithoutTruncating() throws IOException {
+        Path logFile = directory.resolve("patients.wal");
+        writeLog(logFile, TestPatients.patients(3, 1));
+        Files.write(logFile, intactRecord((byte) 42, new byte[] {1, 2, 3}), StandardOpenOption.APPEND);
+        // A delete record after it, which truncating at the bad record would lose
+        Files.write(logFile, intactRecord((byte) 2, TestPatients.id(0).getBytes(StandardCharsets.UTF_8)),
+            StandardOpenOption.APPEND);
+        byte[] before = Files.readAllBytes(logFile);
+        
+        assertThrows(IOException.class, () -> PatientWriteAheadLog.open(logFile,
+            PatientWriteAheadLog.SyncPolicy.EVERY_WRITE, 0, 0, collector(new ArrayList<>())));
+        
+        assertEquals(ByteBuffer.wrap(before), ByteBuffer.wrap(Files.readAllBytes(logFile)));
+    }
+    
+    @Test
+    void enablePersistenceFailsAndLeavesLogAlone() throws IOException {
+        PatientPersistenceSettings settings = new PatientPersistenceSettings(directory);
+        writeLog(settings.getLogFile(), TestPatients.patients(5, 1));
+        Files.write(settings.getLogFile(), intactRecord((byte) 42, new byte[0]), StandardOpenOption.APPEND);
+        byte[] before = Files.readAllBytes(settings.getLogFile());
+        
+        PatientDataStorage storage = new PatientDataStorage();
+        assertFalse(storage.enablePersistence(settings));
+        
+        assertEquals(0, storage.getPatientCount());
+        assertFalse(storage.getWriterStatistics().isPresent());
+        assertFalse(Files.exists(settings.getSnapshotFile()));
+        assertEquals(ByteBuffer.wrap(before), ByteBuffer.wrap(Files.readAllBytes(settings.getLogFile())));
+    }
+    
+    @Test
+    void logShorterThanSnapshotContinuesInNewSegmentAndIsReanchored() throws IOException {
+        PatientPersistenceSettings settings = new PatientPersistenceSettings(directory);
+        settings.setSyncPolicy(PatientWriteAheadLog.SyncPolicy.EVERY_WRITE);
+        List<PatientDataObject> patients = TestPatients.patients(10, 1);
+        writeLog(settings.getLogFile(), patients);
+        PatientSnapshotFile.write(settings.getSnapshotFile(), patients, Files.size(settings.getLogFile()));
+        
+        // Lose the end of the log, so the snapshot's position is past its end
+        try (FileChannel channel = FileChannel.open(settings.getLogFile(), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() / 2);
+        }
+        
+        PatientDataStorage second = new PatientDataStorage();
+        assertTrue(second.enablePersistence(settings));
+        assertEquals(10, second.getPatientCount());
+        assertFalse(Files.exists(settings.getLogFile()));
+        assertTrue(second.savePatientData(TestPatients.patient(10, new Random(2))));
+        
+        // Reopen without closing, as after a crash: the save after the reset must be replayed
+        PatientDataStorage third = new PatientDataStorage();
+        assertTrue(third.enablePersistence(settings));
+        assertEquals(11, third.getPatientCount());
+        assertTrue(third.findPatientById(TestPatients.id(10)).isPresent());
+        third.closePersistence();
+    }
+    
+    @Test
+    void asyncSavesApplyInCallOrderAndReachTheLogBeforeClose() throws Exception {
+        PatientPersistenceSettings settings = new PatientPersistenceSettings(directory);
+        settings.setSyncPolicy(PatientWriteAheadLog.SyncPolicy.ASYNC);
+        PatientDataStorage storage = new PatientDataStorage();
+        assertTrue(storage.enablePersistence(settings));
+        
+        // The same object edited between calls: each save must keep the age it was called with
+        PatientDataObject patient = TestPatients.patient(0, new Random(1));
+        List<CompletableFuture<PatientSaveResult>> saves = new ArrayList<>();
+        for (int age = 1; age <= 200; age++) {
+            patient.setAge(age);
+            saves.add(storage.savePatientDataAsync(patient));
+        }
+        CompletableFuture<PatientSaveResult> last = saves.get(saves.size() - 1);
+        storage.closePersistence();
+        
+        assertTrue(last.get(1, TimeUnit.MINUTES).isSaved());
+        assertEquals(200, storage.findPatientById(patient.getPatientId()).get().getAge());
+        PatientDataStorage reopened = new PatientDataStorage();
+        assertTrue(reopened.enablePersistence(settings));
+        assertEquals(200, reopened.findPatientById(patient.getPatientId()).get().getAge());
+        reopened.closePersistence();
+    }
+    
+    @Test
+    void snapshotsDeleteTheSegmentsTheyCover() throws IOException {
+        PatientPersistenceSettings settings = new PatientPersistenceSettings(directory);
+        settings.setSyncPolicy(PatientWriteAheadLog.SyncPolicy.EVERY_WRITE);
+        settings.setSnapshotEveryChanges(50);
+        PatientDataStorage storage = new PatientDataStorage();
+        assertTrue(storage.enablePersistence(settings));
+        
+        Random random = new Random(1);
+        long largestLog = 0;
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 100; i++) {
+                storage.savePatientData(TestPatients.patient(i, random));
+            }
+            largestLog = Math.max(largestLog, logBytes());
+        }
+        storage.closePersistence();
+        
+        // One round rewrites the same 100 patients: without checkpoints the log would hold all 2000 saves
+        long oneRound = 100 * (Files.size(settings.getSnapshotFile()) / 100 + 9);
+        assertTrue(largestLog < 3 * oneRound, "log grew to " + largestLog + " bytes");
+        assertEquals(1, segmentCount());
+        
+        PatientDataStorage reopened = new PatientDataStorage();
+        assertTrue(reopened.enablePersistence(settings));
+        assertEquals(100, reopened.getPatientCount());
+        reopened.closePersistence();
+    }
+    
+    @Test
+    void replaysAcrossSegmentsAfterCrash() throws IOException {
+        Path logFile = directory.resolve("patients.wal");
+        List<PatientDataObject> patients = TestPatients.patients(6, 1);
+        PatientWriteAheadLog log = PatientWriteAheadLog.open(logFile, PatientWriteAheadLog.SyncPolicy.EVERY_WRITE,
+            0, 0, collector(new ArrayList<>()));
+        log.appendSaves(patients.subList(0, 2));
+        long snapshotPosition = log.startNewSegment();
+        log.appendSaves(patients.subList(2, 4));
+        log.startNewSegment();
+        log.appendSaves(patients.subList(4, 6));
+        log.close();
+        
+        List<PatientDataObject> replayed = new ArrayList<>();
+        PatientWriteAheadLog.open(logFile, PatientWriteAheadLog.SyncPolicy.EVERY_WRITE, 0, snapshotPosition,
+            collector(replayed)).close();
+        
+        assertEquals(4, replayed.size());
+        assertEquals(TestPatients.id(2), replayed.get(0).getPatientId());
+        // The first segment is covered by the snapshot position and was deleted
+        assertFalse(Files.exists(logFile));
+        assertEquals(2, segmentCount());
+    }
+    
+    @Test
+    void damageBeforeTheLastSegmentFailsOpenWithoutTruncating() throws IOException {
+        Path logFile = directory.resolve("patients.wal");
+        PatientWriteAheadLog log = PatientWriteAheadLog.open(logFile, PatientWriteAheadLog.SyncPolicy.EVERY_WRITE,
+            0, 0, collector(new ArrayList<>()));
+        log.appendSaves(TestPatients.patients(3, 1));
+        log.startNewSegment();
+        log.appendSaves(TestPatients.patients(3, 2));
+        log.close();
+        Files.write(logFile, new byte[] {0, 0, 1, 0, 7, 7}, StandardOpenOption.APPEND);
+        byte[] before = Files.readAllBytes(logFile);
+        
+        assertThrows(IOException.class, () -> PatientWriteAheadLog.open(logFile,
+            PatientWriteAheadLog.SyncPolicy.EVERY_WRITE, 0, 0, collector(new ArrayList<>())));
+        
+        assertEquals(ByteBuffer.wrap(before), ByteBuffer.wrap(Files.readAllBytes(logFile)));
+    }
+    
+    @Test
+    void appendsFailInsteadOfHangingWhileTheWriterIsStalled() throws Exception {
+        Path logFile = directory.resolve("patients.wal");
+        PatientWriteAheadLog log = PatientWriteAheadLog.open(logFile, PatientWriteAheadLog.SyncPolicy.ASYNC,
+            0, 0, collector(new ArrayList<>()));
+        PatientDataObject patient = TestPatients.patient(0, new Random(1));
+        CompletableFuture<Void> first = log.appendSave(patient);
+        
+        // The writer takes the log's monitor to write a batch, so holding it stalls the writer
+        int appended = 0;
+        IOException failure = null;
+        synchronized (log) {
+            while (failure == null && appended < 40_000) {
+                try {
+                    log.appendSave(patient);
+                    appended++;
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+        
+        assertTrue(failure != null, "appends kept succeeding while the writer was stalled");
+        assertTrue(failure.getMessage().contains("full"), failure.getMessage());
+        log.close();
+        first.get(1, TimeUnit.MINUTES);
+        List<PatientDataObject> replayed = new ArrayList<>();
+        PatientWriteAheadLog.open(logFile, PatientWriteAheadLog.SyncPolicy.EVERY_WRITE, 0, 0,
+            collector(replayed)).close();
+        assertEquals(appended + 1, replayed.size());
+    }
+    
+    private long logBytes() throws IOException {
+        long total = 0;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().startsWith("patients.wal")) {
+                    try {
+                        total += Files.size(file);
+                    } catch (NoSuchFileException e) {
+                        // Deleted by the background snapshot since the listing
+                    }
+                }
+            }
+        }
+        return total;
+    }
+    
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith("patients.wal")).count();
+        }
+    }
+    
+    private static void writeLog(Path logFile, List<PatientDataObject> patients) throws IOException {
+        try (PatientWriteAheadLog log = PatientWriteAheadLog.open(logFile, PatientWriteAheadLog.SyncPolicy.EVERY_WRITE,
+                0, 0, collector(new ArrayList<>()))) {
+            for (PatientDataObject patient : patients) {
+                log.appendSave(patient);
+            }
+        }
+    }
+    
+    /**
+     * A record in the log's own layout with a correct checksum
+     */
+    private static byte[] intactRecord(byte type, byte[] payload) {
+        CRC32C checksum = new CRC32C();
+        checksum.update(type);
+        checksum.update(payload);
+        return ByteBuffer.allocate(9 + payload.length)
+            .putInt(payload.length).putInt((int) checksum.getValue()).put(type).put(payload).array();
+    }
+    
+    private static PatientWriteAheadLog.ReplayHandler collector(List<PatientDataObject> replayed) {
+        return new PatientWriteAheadLog.ReplayHandler() {
+            @Override
+            public void onSave(PatientDataObject patient) {
+                replayed.add(patient);
+            }
+            
+            @Override
+            public void onDelete(String patientId) {
+            }
+            
+            @Override
+            public void onClear() {
+                replayed.clear();
+            }
+        };
+    }
+}
@@ -0,0 +1,142 @@
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Realistic generated patients for tests and benchmarks.
+ * Names, providers, doctors, appointment types and notes come from small fixed lists,
+ * as they do in a real clinic, while IDs, phone numbers and policy numbers are unique.
+ */
+public final class TestPatients {
+    
+    private static final String[] FIRST_NAMES = {"James", "Mary", "John", "Patricia", "Robert", "Jennifer",
+        "Michael", "Linda", "William", "Elizabeth", "David", "Barbara", "Richard", "Susan", "Joseph", "Jessica",
+        "Thomas", "Sarah", "Charles", "Karen"};
+    private static final String[] LAST_NAMES = {"Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia",
+        "Miller", "Davis", "Rodriguez", "Martinez", "Hernandez", "Lopez", "Gonzalez", "Wilson", "Anderson",
+        "Thomas", "Taylor", "Moore", "Jackson", "Martin"};
+    private static final String[] PROVIDERS = {"Blue Cross Blue Shield", "Aetna", "UnitedHealthcare", "Cigna",
+        "Humana", "Kaiser Permanente", "Medicare", "Medicaid"};
+    private static final String[] DOCTORS = {"Dr. Sarah Johnson", "Dr. Michael Chen", "Dr. Emily Rodriguez",
+        "Dr. David Kim", "Dr. Lisa Thompson", "Dr. Robert Patel"};
+    private static final String[] APPOINTMENT_TYPES = {"Annual Physical", "Follow-up Visit", "Sick Visit",
+        "Vaccination", "Consultation", "Lab Results Review"};
+    private static final String[] SYMPTOMS = {"None", "Cough and mild fever", "Headache", "Sore throat",
+        "Back pain", "Fatigue and shortness of breath"};
+    private static final String[] MEDICATIONS = {"Lisinopril 10mg", "Metformin 500mg", "Atorvastatin 20mg",
+        "Levothyroxine 50mcg", "Amlodipine 5mg", "Omeprazole 20mg"};
+    private static final String[] ALLERGIES = {"Penicillin", "Peanuts", "Latex", "Sulfa drugs", "Shellfish"};
+    private static final String[] DIAGNOSES = {"Hypertension", "Type 2 diabetes", "Hyperlipidemia", "Asthma",
+        "Seasonal allergies"};
+    private static final String[] STREETS = {"Main Street", "Oak Avenue", "Maple Drive", "Cedar Lane",
+        "Elm Street", "Washington Boulevard"};
+    private static final String[] CITIES = {"Springfield, IL 62701", "Riverside, CA 92501", "Franklin, TN 37064",
+        "Greenville, SC 29601"};
+    private static final String[] NOTES = {"Patient arrived on time and completed check-in forms.",
+        "Insurance card scanned and verified with provider.", "Copay collected at front desk.",
+        "Patient requested a callback regarding lab results.", "Vitals recorded by nursing staff."};
+    // The check-in step keys PatientDataObject starts every patient with
+    private static final String[] STEPS = {"identification", "insurance", "appointment", "contact", "payment",
+        "healthScreening", "completion"};
+    private static final double[] COPAYS = {20, 25, 30, 40, 50};
+    
+    private TestPatients() {
+    }
+    
+    /**
+     * @param number Patient number; the same number always gives the same ID
+     * @return The patient ID used for that number
+     */
+    public static String id(int number) {
+        return "PAT-" + (100_000_000 + number);
+    }
+    
+    /**
+     * Generate one patient; the same number and seed always give the same patient
+     * @param number Patient number, which determines the ID
+     * @param random Source of the varying fields
+     * @return A fully filled-in patient
+     */
+    public static PatientDataObject patient(int number, Random random) {
+        PatientDataObject patient = new PatientDataObject();
+        patient.setPatientId(id(number));
+        patient.setSavedTimestamp(LocalDateTime.of(2026, 1, 1, 8, 0).plusMinutes(random.nextInt(500_000)));
+        String firstName = pick(FIRST_NAMES, random);
+        String lastName = pick(LAST_NAMES, random);
+        patient.setFirstName(firstName);
+        patient.setLastName(lastName);
+        patient.setDateOfBirth(LocalDate.of(1940, 1, 1).plusDays(random.nextInt(30_000)));
+        patient.setGender(random.nextBoolean() ? "Male" : "Female");
+        patient.setAge(random.nextInt(85));
+        patient.setPhoneNumber(phoneNumber(random));
+        patient.setEmail(firstName.toLowerCase() + "." + lastName.toLowerCase() + number + "@example.com");
+        patient.setAddress((1 + random.nextInt(9999)) + " " + pick(STREETS, random) + ", " + pick(CITIES, random));
+        patient.setEmergencyContact(pick(FIRST_NAMES, random) + " " + lastName);
+        patient.setEmergencyPhone(phoneNumber(random));
+        patient.setInsuranceProvider(pick(PROVIDERS, random));
+        patient.setInsurancePolicyNumber("POL" + (10_000_000 + number));
+        patient.setInsuranceGroupNumber("GRP-" + (1000 + random.nextInt(200)));
+        patient.setInsuranceVerified(random.nextBoolean());
+        patient.setAppointmentDateTime(LocalDateTime.of(2026, 2, 1, 8, 0).plusMinutes(15L * random.nextInt(20_000)));
+        patient.setDoctorName(pick(DOCTORS, random));
+        patient.setAppointmentType(pick(APPOINTMENT_TYPES, random));
+        patient.setAppointmentConfirmed(true);
+        patient.setMedications(new ArrayList<>(List.of(pick(MEDICATIONS, random))));
+        patient.setDiagnoses(new ArrayList<>(List.of(pick(DIAGNOSES, random))));
+        patient.setAllergies(new ArrayList<>(List.of(pick(ALLERGIES, random))));
+        patient.setCopayAmount(COPAYS[random.nextInt(COPAYS.length)]);
+        patient.setPaymentMethod(random.nextBoolean() ? "Credit Card" : "Insurance Only");
+        patient.setPaymentReferenceNumber("REF" + random.nextInt(100_000_000));
+        patient.setPaymentProcessed(true);
+        patient.setTemperature(36 + random.nextInt(30) / 10.0);
+        patient.setCurrentSymptoms(pick(SYMPTOMS, random));
+        patient.setHealthScreeningPassed(random.nextInt(10) != 0);
+        patient.setCheckInStartTime(patient.getSavedTimestamp().minusMinutes(10));
+        patient.setCheckInCompleteTime(patient.getSavedTimestamp());
+        patient.setWaitingAreaAssignment("Waiting Area " + (char) ('A' + random.nextInt(4)));
+        patient.setSpecialInstructions(random.nextInt(4) == 0 ? "Wheelchair access required" : "None");
+        List<String> notes = new ArrayList<>();
+        notes.add(pick(NOTES, random));
+        notes.add(pick(NOTES, random));
+        patient.setSessionNotes(notes);
+        boolean complete = random.nextInt(3) != 0;
+        for (String step : STEPS) {
+            patient.setStepCompleted(step, complete || random.nextBoolean());
+        }
+        patient.setCheckInComplete(complete);
+        return patient;
+    }
+    
+    /**
+     * @param count Number of patients, numbered from 0
+     * @param seed Seed for the varying fields
+     * @return The generated patients
+     */
+    public static List<PatientDataObject> patients(int count, long seed) {
+        Random random = new Random(seed);
+        List<PatientDataObject> patients = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            patients.add(patient(i, random));
+        }
+        return patients;
+    }
+    
+    /**
+     * Keep per-save INFO logging out of test output and benchmark timings
+     */
+    public static void quietLogging() {
+        Logger.getLogger("").setLevel(Level.WARNING);
+    }
+    
+    private static String pick(String[] values, Random random) {
+        return values[random.nextInt(values.length)];
+    }
+    
+    private static String phoneNumber(Random random) {
+        return String.format("(%03d) %03d-%04d", 200 + random.nextInt(700), random.nextInt(1000), random.nextInt(10_000));
+    }
+}
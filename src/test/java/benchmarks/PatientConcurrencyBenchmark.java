@@ -0,0 +1,67 @@
+package benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of one shared store at 1, 4 and 16 threads, for read-only, mostly-read
+ * and write-only mixes (PatientConcurrencyWorkload). Scaling past the machine's core
+ * count shows contention rather than speedup, so compare runs on the same hardware.
+ * Run with: mvn -P benchmarks test-compile exec:exec -Dbenchmark=PatientConcurrencyBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+@State(Scope.Benchmark)
+public class PatientConcurrencyBenchmark {
+    
+    @Param({"100000"})
+    String patientCount;
+    
+    @Param({"0", "20", "100"})
+    String writePercent;
+    
+    private Supplier<Object> mixed;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Workload workload = Workloads.create("PatientConcurrencyWorkload",
+            Map.of("patientCount", patientCount, "writePercent", writePercent));
+        mixed = workload.operation("mixed");
+    }
+    
+    @Benchmark
+    @Threads(1)
+    public Object oneThread() {
+        return mixed.get();
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public Object fourThreads() {
+        return mixed.get();
+    }
+    
+    @Benchmark
+    @Threads(16)
+    public Object sixteenThreads() {
+        return mixed.get();
+    }
+}
@@ -0,0 +1,60 @@
+package benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to export the whole store as NDJSON or a JSON array (PatientExportWorkload), for
+ * checking the 100 MB/s export target. Each trial first prints the export size; dividing
+ * it by the time gives the throughput. 10,000 patients fit the render cache, so that run
+ * measures warm exports; 100,000 do not, so every record is rendered again each time.
+ * Run with: mvn -P benchmarks test-compile exec:exec -Dbenchmark=PatientExportBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+@State(Scope.Benchmark)
+public class PatientExportBenchmark {
+    
+    @Param({"ndjson", "array"})
+    String format;
+    
+    @Param({"10000", "100000"})
+    String patientCount;
+    
+    private Workload workload;
+    private Supplier<Object> export;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workload = Workloads.create("PatientExportWorkload", Map.of("format", format, "patientCount", patientCount));
+        export = workload.operation("export");
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        workload.tearDown();
+    }
+    
+    @Benchmark
+    public Object export() {
+        return export.get();
+    }
+}
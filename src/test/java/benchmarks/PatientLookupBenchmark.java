@@ -0,0 +1,55 @@
+package benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Save and lookup latency by patient ID as the store grows from 1k to 1M patients
+ * (PatientLookupWorkload). With the primary-key index both stay flat.
+ * Run with: mvn -P benchmarks test-compile exec:exec -Dbenchmark=PatientLookupBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx3g"})
+@State(Scope.Benchmark)
+public class PatientLookupBenchmark {
+    
+    @Param({"1000", "10000", "100000", "1000000"})
+    String patientCount;
+    
+    private Supplier<Object> upsertExistingPatient;
+    private Supplier<Object> findPatientById;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Workload workload = Workloads.create("PatientLookupWorkload", Map.of("patientCount", patientCount));
+        upsertExistingPatient = workload.operation("upsertExistingPatient");
+        findPatientById = workload.operation("findPatientById");
+    }
+    
+    @Benchmark
+    public Object upsertExistingPatient() {
+        return upsertExistingPatient.get();
+    }
+    
+    @Benchmark
+    public Object findPatientById() {
+        return findPatientById.get();
+    }
+}
@@ -0,0 +1,97 @@
+package benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Metric columns against streams over patient objects, for the same four aggregations
+ * (PatientMetricsWorkload). Each pair of methods answers the same question.
+ * Run with: mvn -P benchmarks test-compile exec:exec -Dbenchmark=PatientMetricsBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx3g"})
+@State(Scope.Benchmark)
+public class PatientMetricsBenchmark {
+    
+    @Param({"10000", "100000", "1000000"})
+    String patientCount;
+    
+    private Supplier<Object> columnsAverageTemperature;
+    private Supplier<Object> streamAverageTemperature;
+    private Supplier<Object> columnsCountFlag;
+    private Supplier<Object> streamCountFlag;
+    private Supplier<Object> columnsHistogram;
+    private Supplier<Object> streamHistogram;
+    private Supplier<Object> columnsGroupByPaymentMethod;
+    private Supplier<Object> streamGroupByPaymentMethod;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Workload workload = Workloads.create("PatientMetricsWorkload", Map.of("patientCount", patientCount));
+        columnsAverageTemperature = workload.operation("columnsAverageTemperature");
+        streamAverageTemperature = workload.operation("streamAverageTemperature");
+        columnsCountFlag = workload.operation("columnsCountFlag");
+        streamCountFlag = workload.operation("streamCountFlag");
+        columnsHistogram = workload.operation("columnsHistogram");
+        streamHistogram = workload.operation("streamHistogram");
+        columnsGroupByPaymentMethod = workload.operation("columnsGroupByPaymentMethod");
+        streamGroupByPaymentMethod = workload.operation("streamGroupByPaymentMethod");
+    }
+    
+    @Benchmark
+    public Object columnsAverageTemperature() {
+        return columnsAverageTemperature.get();
+    }
+    
+    @Benchmark
+    public Object streamAverageTemperature() {
+        return streamAverageTemperature.get();
+    }
+    
+    @Benchmark
+    public Object columnsCountFlag() {
+        return columnsCountFlag.get();
+    }
+    
+    @Benchmark
+    public Object streamCountFlag() {
+        return streamCountFlag.get();
+    }
+    
+    @Benchmark
+    public Object columnsHistogram() {
+        return columnsHistogram.get();
+    }
+    
+    @Benchmark
+    public Object streamHistogram() {
+        return streamHistogram.get();
+    }
+    
+    @Benchmark
+    public Object columnsGroupByPaymentMethod() {
+        return columnsGroupByPaymentMethod.get();
+    }
+    
+    @Benchmark
+    public Object streamGroupByPaymentMethod() {
+        return streamGroupByPaymentMethod.get();
+    }
+}
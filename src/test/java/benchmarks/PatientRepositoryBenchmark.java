@@ -0,0 +1,80 @@
+package benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Save and lookup cost of each PatientRepository backend on the same data
+ * (PatientRepositoryWorkload). The file backend runs without fsync on write, and H2
+ * with its defaults, so the disk backends are compared on their own overheads.
+ * Run with: mvn -P benchmarks test-compile exec:exec -Dbenchmark=PatientRepositoryBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+@State(Scope.Benchmark)
+public class PatientRepositoryBenchmark {
+    
+    @Param({"memory", "offheap", "file", "jdbc"})
+    String backend;
+    
+    @Param({"10000", "100000"})
+    String patientCount;
+    
+    private Workload workload;
+    private Supplier<Object> save;
+    private Supplier<Object> findById;
+    private Supplier<Object> findByName;
+    private Supplier<Object> findByDateOfBirth;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workload = Workloads.create("PatientRepositoryWorkload", Map.of("backend", backend, "patientCount", patientCount));
+        save = workload.operation("save");
+        findById = workload.operation("findById");
+        findByName = workload.operation("findByName");
+        findByDateOfBirth = workload.operation("findByDateOfBirth");
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        workload.tearDown();
+    }
+    
+    @Benchmark
+    public Object save() {
+        return save.get();
+    }
+    
+    @Benchmark
+    public Object findById() {
+        return findById.get();
+    }
+    
+    @Benchmark
+    public Object findByName() {
+        return findByName.get();
+    }
+    
+    @Benchmark
+    public Object findByDateOfBirth() {
+        return findByDateOfBirth.get();
+    }
+}
@@ -0,0 +1,66 @@
+package benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to write and to load a whole snapshot, plain and block-compressed, for the same
+ * patients (PatientSnapshotWorkload). Each trial first prints both file sizes and their
+ * ratio; dividing the plain size by a time gives the format's throughput on the same data.
+ * Run with: mvn -P benchmarks test-compile exec:exec -Dbenchmark=PatientSnapshotBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+@State(Scope.Benchmark)
+public class PatientSnapshotBenchmark {
+    
+    @Param({"plain", "compressed"})
+    String format;
+    
+    @Param({"10000", "100000"})
+    String patientCount;
+    
+    private Workload workload;
+    private Supplier<Object> write;
+    private Supplier<Object> load;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workload = Workloads.create("PatientSnapshotWorkload", Map.of("format", format, "patientCount", patientCount));
+        write = workload.operation("write");
+        load = workload.operation("load");
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        workload.tearDown();
+    }
+    
+    @Benchmark
+    public Object write() {
+        return write.get();
+    }
+    
+    @Benchmark
+    public Object load() {
+        return load.get();
+    }
+}
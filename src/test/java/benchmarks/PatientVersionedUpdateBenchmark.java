@@ -0,0 +1,89 @@
+package benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of eight writers contending for 1, 16 or 1024 hot patients
+ * (PatientVersionedUpdateWorkload). The compare-and-set benchmark also reports saved
+ * and rejected attempts per millisecond, so the conflict rate shows next to the
+ * throughput; the retried update and the last-write-wins save give the bounds.
+ * Run with: mvn -P benchmarks test-compile exec:exec -Dbenchmark=PatientVersionedUpdateBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx1g"})
+@Threads(8)
+@State(Scope.Benchmark)
+public class PatientVersionedUpdateBenchmark {
+    
+    /**
+     * Outcomes of one thread's compare-and-set attempts
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Attempts {
+        public long saved;
+        public long rejected;
+        
+        @Setup(Level.Iteration)
+        public void reset() {
+            saved = 0;
+            rejected = 0;
+        }
+    }
+    
+    @Param({"1", "16", "1024"})
+    String hotPatients;
+    
+    private Supplier<Object> update;
+    private Supplier<Object> compareAndSet;
+    private Supplier<Object> blindSave;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Workload workload = Workloads.create("PatientVersionedUpdateWorkload", Map.of("hotPatients", hotPatients));
+        update = workload.operation("update");
+        compareAndSet = workload.operation("compareAndSet");
+        blindSave = workload.operation("blindSave");
+    }
+    
+    @Benchmark
+    public Object retriedUpdate() {
+        return update.get();
+    }
+    
+    @Benchmark
+    public Object compareAndSet(Attempts attempts) {
+        Object saved = compareAndSet.get();
+        if (Boolean.TRUE.equals(saved)) {
+            attempts.saved++;
+        } else {
+            attempts.rejected++;
+        }
+        return saved;
+    }
+    
+    @Benchmark
+    public Object lastWriteWins() {
+        return blindSave.get();
+    }
+}
@@ -0,0 +1,31 @@
+package benchmarks;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Code under benchmark, implemented by classes in the application's default package.
+ * JMH only generates harnesses for benchmark classes in a named package, and a named
+ * package cannot refer to default-package classes, so each JMH class here loads its
+ * workload by name and times the operations the workload hands back.
+ */
+public interface Workload {
+    
+    /**
+     * Build the state the operations work on
+     * @param parameters The benchmark's @Param values, by field name
+     */
+    void setUp(Map<String, String> parameters) throws Exception;
+    
+    /**
+     * @param name Operation name, as used by the benchmark method
+     * @return The operation; safe to call from several benchmark threads at once
+     */
+    Supplier<Object> operation(String name);
+    
+    /**
+     * Release anything setUp opened, such as files or connections
+     */
+    default void tearDown() throws Exception {
+    }
+}
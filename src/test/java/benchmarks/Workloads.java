@@ -0,0 +1,23 @@
+package benchmarks;
+
+import java.util.Map;
+
+/**
+ * Loads default-package Workload implementations by class name.
+ */
+final class Workloads {
+    
+    private Workloads() {
+    }
+    
+    /**
+     * @param className Simple name of a default-package class implementing Workload
+     * @param parameters Passed to the workload's setUp
+     * @return The workload, set up and ready to hand out operations
+     */
+    static Workload create(String className, Map<String, String> parameters) throws Exception {
+        Workload workload = (Workload) Class.forName(className).getDeclaredConstructor().newInstance();
+        workload.setUp(parameters);
+        return workload;
+    }
+}